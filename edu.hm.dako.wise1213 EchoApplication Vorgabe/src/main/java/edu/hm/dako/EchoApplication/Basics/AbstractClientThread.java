@@ -1,7 +1,59 @@
 package edu.hm.dako.EchoApplication.Basics;
 
 
-public abstract class AbstractClientThread extends Thread{
+/**
+ * Basisklasse fuer die Test-Clients
+ *
+ * Die Arbeit eines Clients (run) ist vom ausfuehrenden Thread getrennt, damit
+ * sie wahlweise auf einem normalen oder einem virtuellen Thread laufen kann
+ * (siehe ThreadingMode). Der Thread wird erst beim Start erzeugt.
+ */
+public abstract class AbstractClientThread implements Runnable {
+
+	/** Codec fuer die Uebertragung der EchoPDUs (nur Socket-Transporte) */
+	protected PduCodecType codecType = PduCodecType.JavaSerialization;
+
+	/** Einstellungen der Client-Sockets (nicht bei RMI) */
+	protected SocketTuning socketTuning = SocketTuning.getConfigured();
+
+	/**
+	 * Maximale Anzahl ausstehender Requests je Verbindung (Pipelining),
+	 * 1 = Senden und Warten (nur von Clients mit Pipelining ausgewertet)
+	 */
+	protected int pipelineWindow = 1;
+
+	/**
+	 * Anzahl Requests, die als EchoBatchPDU gemeinsam gesendet werden,
+	 * 1 = einzeln (nur von Clients mit Batch-Betrieb ausgewertet)
+	 */
+	protected int batchSize = 1;
+
+	/**
+	 * Eine Verbindung fuer alle Requests verwenden, statt eine je Request
+	 * (nur vom TCP-Single-Threaded-Client ausgewertet)
+	 */
+	protected boolean keepAlive = false;
+
+	/** Sendeplan im Open-Loop-Betrieb, null = Senden und Warten mit Denkzeit */
+	protected ArrivalSchedule arrivalSchedule = null;
+
+	/** Name des Clients, wird auch fuer den ausfuehrenden Thread verwendet */
+	private String name = "EchoClient";
+
+	/** Ausfuehrender Thread, null solange der Client nicht gestartet ist */
+	private Thread thread;
+
+	/** Ausfuehrungsmodell, mit dem der Client gestartet wurde */
+	private ThreadingMode threadingMode = ThreadingMode.Platform;
+
+	/**
+	 * Vom Client-Thread in run() und von seinen Hilfsthreads verbrauchte
+	 * CPU-Zeit in ns, -1 = unbekannt
+	 */
+	private volatile long cpuTime = -1;
+
+	/** CPU-Zeit der Hilfsthreads des Clients in ns (siehe addCpuTime) */
+	private long helperCpuTime = 0;
 
 	public abstract void initialize(
 			int serverPort,
@@ -9,6 +61,169 @@ public abstract class AbstractClientThread extends Thread{
 			int numberOfMessages, int clientThinkTime,
 			SharedClientStatistics sharedData);
 
+	/**
+	 * Codec festlegen, muss vor initialize aufgerufen werden
+	 * @param codecType Codec-Typ
+	 */
+	public void setCodecType(PduCodecType codecType) {
+		this.codecType = codecType;
+	}
+
+	/**
+	 * Socket-Einstellungen festlegen, muss vor initialize aufgerufen werden
+	 * @param socketTuning Socket-Einstellungen
+	 */
+	public void setSocketTuning(SocketTuning socketTuning) {
+		this.socketTuning = socketTuning;
+	}
+
+	/**
+	 * Fenstergroesse fuer Pipelining festlegen, muss vor dem Start
+	 * aufgerufen werden
+	 * @param pipelineWindow Maximale Anzahl ausstehender Requests (mind. 1)
+	 */
+	public void setPipelineWindow(int pipelineWindow) {
+		this.pipelineWindow = Math.max(1, pipelineWindow);
+	}
+
+	/**
+	 * Batchgroesse festlegen, muss vor dem Start aufgerufen werden
+	 * @param batchSize Anzahl Requests je Batch (mind. 1)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Keep-Alive festlegen, muss vor dem Start aufgerufen werden
+	 * @param keepAlive true = Verbindung fuer alle Requests beibehalten
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Sendeplan fuer den Open-Loop-Betrieb festlegen, muss vor dem Start
+	 * aufgerufen werden
+	 * @param arrivalSchedule Sendeplan, null = Betrieb mit Denkzeit
+	 */
+	public void setArrivalSchedule(ArrivalSchedule arrivalSchedule) {
+		this.arrivalSchedule = arrivalSchedule;
+	}
+
+	/**
+	 * Sendezeitpunkt des naechsten Requests abwarten. Im Open-Loop-Betrieb
+	 * wird der geplante Sendezeitpunkt geliefert, auch wenn er wegen einer
+	 * verspaeteten Antwort bereits verstrichen ist.
+	 * @return Startzeit der RTT-Messung (System.nanoTime)
+	 */
+	protected long awaitSendTime() {
+		if (arrivalSchedule == null) {
+			return System.nanoTime();
+		}
+		return arrivalSchedule.awaitNextSendTime();
+	}
+
+	/**
+	 * Denkzeit zwischen zwei Requests einhalten, entfaellt im
+	 * Open-Loop-Betrieb (dort bestimmt der Sendeplan die Abstaende)
+	 * @param clientThinkTime Denkzeit in ms
+	 * @throws InterruptedException
+	 */
+	protected void pauseBetweenRequests(int clientThinkTime) throws InterruptedException {
+		if (arrivalSchedule == null) {
+			Thread.sleep(clientThinkTime);
+		}
+	}
+
+	/**
+	 * @return Ausfuehrungsmodell des Clients, fuer weitere Threads des
+	 *         Clients (z.B. einen Empfangsthread)
+	 */
+	protected ThreadingMode getThreadingMode() {
+		return threadingMode;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+		if (thread != null) {
+			thread.setName(name);
+		}
+	}
+
+	/**
+	 * Client auf einem normalen Thread starten
+	 */
+	public void start() {
+		start(ThreadingMode.Platform);
+	}
+
+	/**
+	 * Client auf einem Thread des angegebenen Modells starten
+	 * @param mode Ausfuehrungsmodell
+	 */
+	public synchronized void start(ThreadingMode mode) {
+		if (thread != null) {
+			throw new IllegalStateException("Client " + name + " wurde bereits gestartet");
+		}
+		threadingMode = mode;
+		thread = mode.newThread(new Runnable() {
+			public void run() {
+				// CPU-Zeit des Clients messen
+				long start = ResourceSampler.currentThreadCpuTime();
+				try {
+					AbstractClientThread.this.run();
+				} finally {
+					long end = ResourceSampler.currentThreadCpuTime();
+					if (start >= 0 && end >= 0) {
+						synchronized (AbstractClientThread.this) {
+							cpuTime = end - start + helperCpuTime;
+						}
+					}
+				}
+			}
+		}, name);
+		thread.start();
+	}
+
+	/**
+	 * CPU-Zeit eines Hilfsthreads (z.B. Empfangsthread) zur CPU-Zeit des
+	 * Clients addieren. Der Hilfsthread misst sich selbst ueber
+	 * ResourceSampler.currentThreadCpuTime und muss vor dem Ende von run()
+	 * beendet sein.
+	 * @param time CPU-Zeit in ns, negative Werte werden ignoriert
+	 */
+	protected synchronized void addCpuTime(long time) {
+		if (time > 0) {
+			helperCpuTime += time;
+		}
+	}
+
+	/**
+	 * @return CPU-Zeit des Client-Threads in run() einschliesslich seiner
+	 *         Hilfsthreads in ns; -1, solange der Client laeuft oder falls
+	 *         nicht messbar
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
 
+	/**
+	 * Auf das Ende des Clients warten
+	 * @throws InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null) {
+			t.join();
+		}
+	}
 
-}
\ No newline at end of file
+}
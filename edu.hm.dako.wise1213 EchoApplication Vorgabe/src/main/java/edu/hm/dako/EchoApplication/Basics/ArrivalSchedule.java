@@ -0,0 +1,146 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Klasse ArrivalSchedule
+ *
+ * Sendeplan eines Clients im Open-Loop-Betrieb: Die Requests werden mit
+ * einer vorgegebenen Rate gesendet, unabhaengig davon, wie schnell der
+ * Server antwortet. Die Abstaende sind entweder fest oder exponentialverteilt
+ * (Poisson-Ankunftsprozess).
+ *
+ * Die RTT wird vom geplanten Sendezeitpunkt an gemessen. Kommt eine Antwort
+ * zu spaet und verzoegert dadurch den naechsten Request, wird diese
+ * Verzoegerung mitgemessen ("Coordinated Omission" wird vermieden).
+ *
+ * @version 1.0.0
+ */
+public class ArrivalSchedule {
+
+	/**
+	 * Verteilung der Abstaende zwischen zwei Requests
+	 */
+	public enum Distribution {
+		Fixed,		// Feste Abstaende
+		Poisson;	// Exponentialverteilte Abstaende
+
+		/**
+		 * Liefert die ueber eine System-Property eingestellte Verteilung,
+		 * Default ist Poisson
+		 *
+		 * @param property Name der System-Property
+		 * @return Verteilung
+		 */
+		public static Distribution getConfigured(String property) {
+			String value = System.getProperty(property);
+			if (value == null) {
+				return Poisson;
+			}
+			try {
+				return Distribution.valueOf(value.trim());
+			} catch (IllegalArgumentException e) {
+				return Poisson;
+			}
+		}
+	}
+
+	/** Unter dieser Restwartezeit wird nicht mehr mit sleep gewartet (ns) */
+	private static final long SPIN_THRESHOLD = 2000000L;
+
+	/** Mittlerer Abstand zwischen zwei Requests in ns */
+	private final double meanInterval;
+
+	private final Distribution distribution;
+
+	/** Versatz des ersten Requests bei festen Abstaenden (0.0 bis 1.0) */
+	private final double phase;
+
+	private final Random random;
+
+	/** Geplanter Sendezeitpunkt des letzten Requests (System.nanoTime), -1 = noch keiner */
+	private long lastSendTime = -1;
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param requestsPerSecond Rate dieses Clients in Requests pro Sekunde
+	 * @param distribution Verteilung der Abstaende
+	 * @param phase Versatz des ersten Requests in Bruchteilen eines Abstands,
+	 *            damit bei festen Abstaenden nicht alle Clients gleichzeitig
+	 *            senden
+	 * @param seed Startwert des Zufallszahlengenerators (reproduzierbare Laeufe)
+	 */
+	public ArrivalSchedule(double requestsPerSecond, Distribution distribution,
+			double phase, long seed) {
+		if (requestsPerSecond <= 0) {
+			throw new IllegalArgumentException("Rate muss groesser 0 sein: " + requestsPerSecond);
+		}
+		this.meanInterval = 1000000000.0 / requestsPerSecond;
+		this.distribution = distribution;
+		this.phase = phase;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Naechsten Sendezeitpunkt bestimmen und abwarten
+	 *
+	 * @return Geplanter Sendezeitpunkt (System.nanoTime), kann bereits
+	 *         verstrichen sein
+	 */
+	public long awaitNextSendTime() {
+		long sendTime = nextSendTime();
+		sleepUntil(sendTime);
+		return sendTime;
+	}
+
+	/**
+	 * Naechsten Sendezeitpunkt bestimmen, ohne zu warten. Der erste
+	 * Zeitpunkt wird vom ersten Aufruf an berechnet.
+	 *
+	 * @return Geplanter Sendezeitpunkt (System.nanoTime)
+	 */
+	public synchronized long nextSendTime() {
+		if (lastSendTime < 0) {
+			double first = (distribution == Distribution.Fixed) ? phase * meanInterval : interval();
+			lastSendTime = System.nanoTime() + (long) first;
+		} else {
+			lastSendTime = lastSendTime + (long) interval();
+		}
+		return lastSendTime;
+	}
+
+	/**
+	 * Abstand bis zum naechsten Request in ns
+	 */
+	private double interval() {
+		if (distribution == Distribution.Fixed) {
+			return meanInterval;
+		}
+		return -Math.log(1.0 - random.nextDouble()) * meanInterval;
+	}
+
+	/**
+	 * Bis zum angegebenen Zeitpunkt warten. Laengere Wartezeiten werden mit
+	 * sleep ueberbrueckt, der Rest mit parkNanos, um den Zeitpunkt moeglichst
+	 * genau zu treffen.
+	 *
+	 * @param time Zeitpunkt (System.nanoTime)
+	 */
+	public static void sleepUntil(long time) {
+		long remaining;
+		while ((remaining = time - System.nanoTime()) > 0) {
+			if (remaining > SPIN_THRESHOLD) {
+				try {
+					Thread.sleep((remaining - SPIN_THRESHOLD) / 1000000L + 1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} else {
+				LockSupport.parkNanos(remaining);
+			}
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Klasse BinaryPduCodec
+ *
+ * Kompaktes Binaerformat fuer EchoPDUs. Eine Nachricht besteht aus einem
+ * festen Header und einem variablen Teil:
+ *
+ * <pre>
+ *  Offset  Laenge  Inhalt
+ *   0       1      Formatkennung (0xEC)
+ *   1       1      Flags (siehe FLAG_*)
+ *   2       8      Serverzeit in ns
+ *  10       4      Id des Client-Namens (-1 = kein Name)
+ *  14       4      Id des Server-Thread-Namens (-1 = kein Name), bei
+ *                  FLAG_SERVER_ID eine Server-Id ohne Namen
+ *  18       8      Laufende Nummer des Requests (0 = keine)
+ *  26       ...    [Varint-Laenge + UTF-8] Client-Name, falls FLAG_CLIENT_NAME
+ *                  [Varint-Laenge + UTF-8] Server-Thread-Name, falls FLAG_SERVER_THREAD_NAME
+ *                  [Varint-Laenge + UTF-8] Nachricht, falls FLAG_MESSAGE
+ * </pre>
+ *
+ * Im Sitzungsmodus (Stream-Verbindungen) wird jeder Name nur beim ersten
+ * Auftreten zusammen mit seiner Id uebertragen, danach nur noch die Id. Im
+ * Datagramm-Modus enthaelt jede Nachricht die Namen.
+ *
+ * Ein Batch (EchoBatchPDU) wird als eigene Nachricht kodiert, die die
+ * enthaltenen Nachrichten im obigen Format umschliesst:
+ *
+ * <pre>
+ *  Offset  Laenge  Inhalt
+ *   0       1      Formatkennung Batch (0xEB)
+ *   1       ...    Varint Anzahl Nachrichten
+ *           ...    Je Nachricht: Varint-Laenge + Nachricht
+ * </pre>
+ *
+ * Im Datagramm-Modus gilt innerhalb eines Batches der Sitzungsmodus, die
+ * Namen werden also je Batch nur einmal uebertragen.
+ *
+ * Auf Streams wird jeder Nachricht ihre Laenge als Varint vorangestellt
+ * (siehe PduFraming).
+ *
+ * @version 1.0.0
+ */
+public class BinaryPduCodec implements PduCodec {
+
+	/** Formatkennung im ersten Byte jeder Nachricht */
+	public static final byte FORMAT_ID = (byte) 0xEC;
+
+	/** Formatkennung im ersten Byte eines Batches */
+	public static final byte BATCH_FORMAT_ID = (byte) 0xEB;
+
+	/** Offsets der Felder im festen Header */
+	public static final int OFFSET_FLAGS = 1;
+	public static final int OFFSET_SERVER_TIME = 2;
+	public static final int OFFSET_CLIENT_ID = 10;
+	public static final int OFFSET_SERVER_THREAD_ID = 14;
+	public static final int OFFSET_SEQUENCE_NUMBER = 18;
+
+	/** Laenge des festen Headers in Byte */
+	public static final int HEADER_LENGTH = 26;
+
+	/** Flags */
+	public static final int FLAG_LAST_REQUEST = 0x01;
+	public static final int FLAG_CLIENT_NAME = 0x02;
+	public static final int FLAG_SERVER_THREAD_NAME = 0x04;
+	public static final int FLAG_MESSAGE = 0x08;
+	public static final int FLAG_SERVER_ID = 0x10;
+
+	/** Praefix des Server-Thread-Namens bei FLAG_SERVER_ID (siehe PassthroughEcho) */
+	public static final String SERVER_ID_PREFIX = "Server-";
+
+	/** Id fuer "kein Name" */
+	public static final int NO_NAME = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Namen nur einmal je Sitzung uebertragen */
+	private final boolean sessionOriented;
+
+	/** Bereits gesendete Namen und ihre Ids */
+	private final Map<String, Integer> outgoingNames = new HashMap<String, Integer>();
+
+	/** Bereits empfangene Namen und ihre Ids */
+	private final Map<Integer, String> incomingNames = new HashMap<Integer, String>();
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param sessionOriented true: Namen werden je Codec-Instanz nur einmal
+	 *            uebertragen (nur fuer zuverlaessige Streams geeignet)
+	 */
+	public BinaryPduCodec(boolean sessionOriented) {
+		this.sessionOriented = sessionOriented;
+	}
+
+	@Override
+	public PduCodecType getType() {
+		return PduCodecType.Binary;
+	}
+
+	@Override
+	public PduWriter newWriter(OutputStream out) throws IOException {
+		return PduFraming.newWriter(this, out);
+	}
+
+	@Override
+	public PduReader newReader(InputStream in) throws IOException {
+		return PduFraming.newReader(this, in);
+	}
+
+	@Override
+	public byte[] encode(EchoPDU pdu) throws IOException {
+		if (pdu instanceof EchoBatchPDU) {
+			return encodeBatch((EchoBatchPDU) pdu);
+		}
+		return encodeMessage(pdu);
+	}
+
+	@Override
+	public EchoPDU decode(byte[] buffer, int offset, int length) throws IOException {
+		if (length > 0 && buffer[offset] == BATCH_FORMAT_ID) {
+			return decodeBatch(buffer, offset, length);
+		}
+		return decodeMessage(buffer, offset, length);
+	}
+
+	/**
+	 * Batch kodieren, die Namen gelten im Datagramm-Modus je Batch
+	 */
+	private byte[] encodeBatch(EchoBatchPDU batch) throws IOException {
+		BinaryPduCodec codec = sessionOriented ? this : new BinaryPduCodec(true);
+		EchoPDU[] pdus = batch.getPdus();
+		byte[][] messages = new byte[pdus.length][];
+		int length = 1 + varIntLength(pdus.length);
+		for (int i = 0; i < pdus.length; i++) {
+			messages[i] = codec.encodeMessage(pdus[i]);
+			length += fieldLength(messages[i]);
+		}
+		byte[] frame = new byte[length];
+		frame[0] = BATCH_FORMAT_ID;
+		int pos = writeVarInt(frame, 1, pdus.length);
+		for (int i = 0; i < messages.length; i++) {
+			pos = putField(frame, pos, messages[i]);
+		}
+		return frame;
+	}
+
+	/**
+	 * Batch dekodieren
+	 */
+	private EchoBatchPDU decodeBatch(byte[] buffer, int offset, int length)
+			throws IOException {
+		BinaryPduCodec codec = sessionOriented ? this : new BinaryPduCodec(true);
+		int end = offset + length;
+		int[] pos = new int[] { offset + 1 };
+		int count = readVarInt(buffer, pos, end);
+		if (count <= 0 || count > length / HEADER_LENGTH) {
+			throw new IOException("Ungueltige Anzahl Nachrichten im Batch: " + count);
+		}
+		EchoPDU[] pdus = new EchoPDU[count];
+		for (int i = 0; i < count; i++) {
+			int messageLength = readVarInt(buffer, pos, end);
+			if (messageLength < 0 || pos[0] + messageLength > end) {
+				throw new IOException("Nachricht ueberschreitet das Batchende");
+			}
+			pdus[i] = codec.decodeMessage(buffer, pos[0], messageLength);
+			pos[0] += messageLength;
+		}
+		return new EchoBatchPDU(pdus);
+	}
+
+	/**
+	 * Einzelne Nachricht kodieren
+	 */
+	private byte[] encodeMessage(EchoPDU pdu) throws IOException {
+		int flags = pdu.lastRequest ? FLAG_LAST_REQUEST : 0;
+
+		int clientId = NO_NAME;
+		byte[] clientName = null;
+		if (pdu.clientName != null) {
+			Integer id = lookupOutgoing(pdu.clientName);
+			if (id == null) {
+				clientId = registerOutgoing(pdu.clientName);
+				clientName = pdu.clientName.getBytes(UTF8);
+				flags |= FLAG_CLIENT_NAME;
+			} else {
+				clientId = id.intValue();
+			}
+		}
+
+		int serverThreadId = NO_NAME;
+		byte[] serverThreadName = null;
+		if (pdu.serverThreadName != null) {
+			Integer id = lookupOutgoing(pdu.serverThreadName);
+			if (id == null) {
+				serverThreadId = registerOutgoing(pdu.serverThreadName);
+				serverThreadName = pdu.serverThreadName.getBytes(UTF8);
+				flags |= FLAG_SERVER_THREAD_NAME;
+			} else {
+				serverThreadId = id.intValue();
+			}
+		}
+
+		byte[] message = null;
+		if (pdu.message != null) {
+			message = pdu.message.getBytes(UTF8);
+			flags |= FLAG_MESSAGE;
+		}
+
+		// Laenge der Nachricht bestimmen und Nachricht in einem Schritt aufbauen
+		int length = HEADER_LENGTH + fieldLength(clientName)
+				+ fieldLength(serverThreadName) + fieldLength(message);
+		byte[] frame = new byte[length];
+		frame[0] = FORMAT_ID;
+		frame[OFFSET_FLAGS] = (byte) flags;
+		putLong(frame, OFFSET_SERVER_TIME, pdu.getServerTime());
+		putInt(frame, OFFSET_CLIENT_ID, clientId);
+		putInt(frame, OFFSET_SERVER_THREAD_ID, serverThreadId);
+		putLong(frame, OFFSET_SEQUENCE_NUMBER, pdu.getSequenceNumber());
+
+		int pos = HEADER_LENGTH;
+		pos = putField(frame, pos, clientName);
+		pos = putField(frame, pos, serverThreadName);
+		putField(frame, pos, message);
+		return frame;
+	}
+
+	/**
+	 * Einzelne Nachricht dekodieren
+	 */
+	private EchoPDU decodeMessage(byte[] buffer, int offset, int length) throws IOException {
+		if (length < HEADER_LENGTH || buffer[offset] != FORMAT_ID) {
+			throw new IOException("Keine Nachricht im Binaerformat empfangen");
+		}
+		int end = offset + length;
+		int flags = buffer[offset + OFFSET_FLAGS];
+		int clientId = getInt(buffer, offset + OFFSET_CLIENT_ID);
+		int serverThreadId = getInt(buffer, offset + OFFSET_SERVER_THREAD_ID);
+
+		EchoPDU pdu = new EchoPDU();
+		pdu.setServerTime(getLong(buffer, offset + OFFSET_SERVER_TIME));
+		pdu.setLastRequest((flags & FLAG_LAST_REQUEST) != 0);
+		pdu.setSequenceNumber(getLong(buffer, offset + OFFSET_SEQUENCE_NUMBER));
+
+		int[] pos = new int[] { offset + HEADER_LENGTH };
+		if ((flags & FLAG_CLIENT_NAME) != 0) {
+			pdu.setClientName(readField(buffer, pos, end));
+			registerIncoming(clientId, pdu.getClientName());
+		} else {
+			pdu.setClientName(lookupIncoming(clientId));
+		}
+		if ((flags & FLAG_SERVER_THREAD_NAME) != 0) {
+			pdu.setServerThreadName(readField(buffer, pos, end));
+			registerIncoming(serverThreadId, pdu.getServerThreadName());
+		} else if ((flags & FLAG_SERVER_ID) != 0) {
+			pdu.setServerThreadName(SERVER_ID_PREFIX + serverThreadId);
+		} else {
+			pdu.setServerThreadName(lookupIncoming(serverThreadId));
+		}
+		if ((flags & FLAG_MESSAGE) != 0) {
+			pdu.setMessage(readField(buffer, pos, end));
+		}
+		return pdu;
+	}
+
+	/*
+	 * Verwaltung der Namens-Ids
+	 */
+
+	private Integer lookupOutgoing(String name) {
+		if (!sessionOriented) {
+			return null;
+		}
+		synchronized (outgoingNames) {
+			return outgoingNames.get(name);
+		}
+	}
+
+	private int registerOutgoing(String name) {
+		if (!sessionOriented) {
+			return 0;
+		}
+		synchronized (outgoingNames) {
+			int id = outgoingNames.size();
+			outgoingNames.put(name, Integer.valueOf(id));
+			return id;
+		}
+	}
+
+	private void registerIncoming(int id, String name) {
+		if (!sessionOriented) {
+			return;
+		}
+		synchronized (incomingNames) {
+			incomingNames.put(Integer.valueOf(id), name);
+		}
+	}
+
+	private String lookupIncoming(int id) throws IOException {
+		if (id == NO_NAME) {
+			return null;
+		}
+		String name = null;
+		if (sessionOriented) {
+			synchronized (incomingNames) {
+				name = incomingNames.get(Integer.valueOf(id));
+			}
+		}
+		if (name == null) {
+			throw new IOException("Unbekannte Namens-Id empfangen: " + id);
+		}
+		return name;
+	}
+
+	/*
+	 * Hilfsmethoden fuer das Binaerformat
+	 */
+
+	private static int fieldLength(byte[] field) {
+		return (field == null) ? 0 : varIntLength(field.length) + field.length;
+	}
+
+	private static int putField(byte[] frame, int pos, byte[] field) {
+		if (field == null) {
+			return pos;
+		}
+		pos = writeVarInt(frame, pos, field.length);
+		System.arraycopy(field, 0, frame, pos, field.length);
+		return pos + field.length;
+	}
+
+	private static String readField(byte[] buffer, int[] pos, int end) throws IOException {
+		int length = readVarInt(buffer, pos, end);
+		if (length < 0 || pos[0] + length > end) {
+			throw new IOException("Feld ueberschreitet das Nachrichtenende");
+		}
+		String s = new String(buffer, pos[0], length, UTF8);
+		pos[0] += length;
+		return s;
+	}
+
+	/**
+	 * Anzahl Bytes eines Varints (7 Bit je Byte, hoechstes Bit = Fortsetzung)
+	 */
+	public static int varIntLength(int value) {
+		int n = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Varint in einen Puffer schreiben
+	 * @return Position hinter dem Varint
+	 */
+	public static int writeVarInt(byte[] buffer, int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Varint aus einem Puffer lesen
+	 * @param pos Position im Puffer, wird hinter den Varint gesetzt
+	 */
+	private static int readVarInt(byte[] buffer, int[] pos, int end) throws IOException {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			if (pos[0] >= end || shift > 28) {
+				throw new IOException("Ungueltige Laengenangabe in Nachricht");
+			}
+			int b = buffer[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+
+	/**
+	 * Varint aus einem Stream lesen
+	 */
+	public static int readVarInt(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Verbindung beendet");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Ungueltiger Varint");
+	}
+
+	public static void putInt(byte[] b, int pos, int value) {
+		b[pos] = (byte) (value >>> 24);
+		b[pos + 1] = (byte) (value >>> 16);
+		b[pos + 2] = (byte) (value >>> 8);
+		b[pos + 3] = (byte) value;
+	}
+
+	public static int getInt(byte[] b, int pos) {
+		return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16)
+				| ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+	}
+
+	public static void putLong(byte[] b, int pos, long value) {
+		putInt(b, pos, (int) (value >>> 32));
+		putInt(b, pos + 4, (int) value);
+	}
+
+	public static long getLong(byte[] b, int pos) {
+		return ((long) getInt(b, pos) << 32) | (getInt(b, pos + 4) & 0xFFFFFFFFL);
+	}
+}
@@ -23,6 +23,8 @@ public class ConfigPDU implements Serializable
 	private boolean stopServer;
 	private boolean startServer;
 	private ImplementationType implementationType;
+	private PduCodecType codecType;
+	private ThreadingMode threadingMode;
   
 	public ConfigPDU()
 	{
@@ -32,6 +34,8 @@ public class ConfigPDU implements Serializable
 		stopServer = false;
 		startServer = false;
 		implementationType = null;
+		codecType = PduCodecType.JavaSerialization;
+		threadingMode = ThreadingMode.Platform;
 	}
 
 	public String getMessage() {
@@ -81,4 +85,20 @@ public class ConfigPDU implements Serializable
 	public void setImplementationType(ImplementationType implementationType) {
 		this.implementationType = implementationType;
 	}
+
+	public PduCodecType getCodecType() {
+		return codecType;
+	}
+
+	public void setCodecType(PduCodecType codecType) {
+		this.codecType = codecType;
+	}
+
+	public ThreadingMode getThreadingMode() {
+		return threadingMode;
+	}
+
+	public void setThreadingMode(ThreadingMode threadingMode) {
+		this.threadingMode = threadingMode;
+	}
 } 
\ No newline at end of file
@@ -0,0 +1,99 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+/**
+ * Klasse EchoBatchPDU
+ *
+ * Fasst mehrere Echo-Nachrichten (Requests oder Responses) eines Clients zu
+ * einer Nachricht zusammen, die in einem TCP-Rahmen, einem Datagramm bzw.
+ * einem RMI-Aufruf uebertragen wird. Bei kurzen Nachrichten verteilen sich
+ * damit die Kosten je Systemaufruf und der Serialisierungs-Overhead (Header,
+ * Klassenbeschreibung, Namen) auf alle enthaltenen Nachrichten.
+ *
+ * Da die Klasse von EchoPDU abgeleitet ist, wird sie von allen Codecs,
+ * Sockets und dem RMI-Interface wie eine einzelne PDU transportiert. Ein
+ * Server erkennt den Batch an seinem Typ und antwortet mit einem Batch der
+ * Responses in derselben Reihenfolge. Client-Name und Kennzeichen fuer den
+ * letzten Request werden aus den enthaltenen Nachrichten uebernommen, die
+ * uebrigen Felder des Batches selbst sind nicht belegt.
+ *
+ * Konfiguration ueber System-Properties:
+ * echo.batch.size      Anzahl Nachrichten je Batch (Default: 1 = kein Batch)
+ * echo.batch.maxbytes  Maximale Laenge eines Batches in einem Datagramm in
+ *                      Byte (Default: 1472, passend fuer eine MTU von 1500)
+ *
+ * @version 1.0.0
+ */
+public class EchoBatchPDU extends EchoPDU {
+
+	private static final long serialVersionUID = 2814750126419934271L;
+
+	/** Namen der System-Properties */
+	public static final String SIZE_PROPERTY = "echo.batch.size";
+	public static final String MAX_BYTES_PROPERTY = "echo.batch.maxbytes";
+
+	/** MTU 1500 abzueglich IPv4- und UDP-Header */
+	public static final int DEFAULT_MAX_BYTES = 1472;
+
+	/**
+	 * Obergrenze fuer echo.batch.maxbytes. Responses sind nur wenige Byte je
+	 * Nachricht laenger als die Requests und passen damit noch in ein
+	 * Datagramm.
+	 */
+	public static final int MAX_BYTES_LIMIT = 60000;
+
+	/** Enthaltene Nachrichten */
+	private final EchoPDU[] pdus;
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param pdus
+	 *            Nachrichten des Batches (mindestens eine)
+	 */
+	public EchoBatchPDU(EchoPDU[] pdus) {
+		if (pdus.length == 0) {
+			throw new IllegalArgumentException("Leerer Batch");
+		}
+		this.pdus = pdus;
+		setClientName(pdus[0].getClientName());
+		for (int i = 0; i < pdus.length; i++) {
+			if (pdus[i] instanceof EchoBatchPDU) {
+				throw new IllegalArgumentException("Geschachtelter Batch");
+			}
+			if (pdus[i].getLastRequest()) {
+				setLastRequest(true);
+			}
+		}
+	}
+
+	/**
+	 * @return Enthaltene Nachrichten
+	 */
+	public EchoPDU[] getPdus() {
+		return pdus;
+	}
+
+	/**
+	 * @return Anzahl der enthaltenen Nachrichten
+	 */
+	public int size() {
+		return pdus.length;
+	}
+
+	/**
+	 * @return Ueber echo.batch.size eingestellte Batchgroesse (mind. 1)
+	 */
+	public static int getConfiguredSize() {
+		return Math.max(1, Integer.getInteger(SIZE_PROPERTY, 1).intValue());
+	}
+
+	/**
+	 * @return Ueber echo.batch.maxbytes eingestellte maximale Laenge eines
+	 *         Batches in einem Datagramm
+	 */
+	public static int getConfiguredMaxBytes() {
+		int maxBytes = Integer.getInteger(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES)
+				.intValue();
+		return Math.min(Math.max(maxBytes, 64), MAX_BYTES_LIMIT);
+	}
+}
@@ -1,6 +1,7 @@
 package edu.hm.dako.EchoApplication.Basics;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Klasse EchoPDU
@@ -21,6 +22,8 @@ public class EchoPDU  implements Serializable
 							 // dient dem Server dazu, um festzustellen, ob sich der Client nach der Nachricht beendet
 	private long serverTime; // Zeit in Nanosekunden, die der Server benoetigt. Diese
 							 // Zeit wird vom Server vor dem Absenden der Response eingetragen
+	private long sequenceNumber; // Laufende Nummer des Requests je Client (ab 1, 0 = keine). Der Server
+							 // uebernimmt sie in die Response, damit der Client Antworten zuordnen kann
   
 	public EchoPDU()
 	{
@@ -29,6 +32,7 @@ public class EchoPDU  implements Serializable
 		message = null;
 		serverTime = 0;
 		lastRequest = false;
+		sequenceNumber = 0;
 	}
 	
 	public void setClientName(String name) 
@@ -56,6 +60,11 @@ public class EchoPDU  implements Serializable
 		this.lastRequest = last;
 	}
 	
+	public void setSequenceNumber(long sequenceNumber) 
+	{
+		this.sequenceNumber = sequenceNumber;
+	}
+	
 	public String getClientName() 
 	{
 		return(clientName);
@@ -80,11 +89,16 @@ public class EchoPDU  implements Serializable
 	{
 		return(lastRequest);
 	}
+	
+	public long getSequenceNumber() 
+	{
+		return(sequenceNumber);
+	}
 	public String getMessageText(int len){
-		String t="";
-		for(int i=0;i<len; i++)
-			t+="M";
-		
-		return t;
+		// Einmal fuellen statt wiederholt zu verketten (sonst quadratischer
+		// Aufwand bei grossen Nachrichten)
+		char[] t = new char[Math.max(len, 0)];
+		Arrays.fill(t, 'M');
+		return new String(t);
 	}
 } 
\ No newline at end of file
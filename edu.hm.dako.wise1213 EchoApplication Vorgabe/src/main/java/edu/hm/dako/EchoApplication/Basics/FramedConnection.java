@@ -0,0 +1,248 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse FramedConnection
+ *
+ * Nicht-blockierende TCP-Verbindung eines Selector-basierten Servers, ueber
+ * die EchoPDUs als laengenpraefixierte Rahmen (siehe PduFraming) uebertragen
+ * werden. Die Verbindung wird von genau einem Selector-Thread bedient.
+ *
+ * read() liest die verfuegbaren Daten, erkennt die Rahmengrenzen direkt im
+ * ByteBuffer und uebergibt jeden vollstaendigen Rahmen an frameReceived.
+ * Danach werden alle Antworten dieses Reads gemeinsam gesendet. Antworten,
+ * die der Socket-Puffer nicht sofort aufnimmt, bleiben in der
+ * Sendewarteschlange, bis der Selector OP_WRITE meldet (write()).
+ *
+ * @version 1.0.0
+ */
+public abstract class FramedConnection {
+
+	private static Log log = LogFactory.getLog(FramedConnection.class);
+
+	private final SocketChannel channel;
+	private SelectionKey key;
+
+	/** Codec der Verbindung (haelt ggf. die bereits uebertragenen Namen) */
+	private final PduCodec codec;
+
+	/** Direkter Empfangspuffer (ohne Kopie beim Senden aus dem Puffer) */
+	private final boolean directBuffer;
+
+	/** Empfangspuffer, befindet sich zwischen zwei Reads im Schreibmodus */
+	private ByteBuffer readBuffer;
+
+	/** Noch nicht vollstaendig gesendete Antworten */
+	private final Queue<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+	/** Verbindung nach dem Senden aller Antworten schliessen */
+	private boolean closeAfterWrite = false;
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param channel Nicht-blockierender Channel der Verbindung
+	 * @param codec Codec der Verbindung
+	 * @param initialReadBufferSize Anfangsgroesse des Empfangspuffers in Byte
+	 * @param directBuffer true = direkter Empfangspuffer (z.B. Passthrough),
+	 *            false = Puffer auf dem Heap fuer den Codec
+	 */
+	protected FramedConnection(SocketChannel channel, PduCodec codec,
+			int initialReadBufferSize, boolean directBuffer) {
+		this.channel = channel;
+		this.codec = codec;
+		this.directBuffer = directBuffer;
+		this.readBuffer = allocate(initialReadBufferSize);
+	}
+
+	/**
+	 * Einen vollstaendigen Rahmen bearbeiten. Der Rahmen darf nur waehrend des
+	 * Aufrufs verwendet werden, der Puffer wird danach wiederverwendet.
+	 *
+	 * @param buffer Empfangspuffer (im Lesemodus)
+	 * @param start Index der Nachricht (nach dem Laengenpraefix) in buffer
+	 * @param length Laenge der Nachricht
+	 */
+	protected abstract void frameReceived(ByteBuffer buffer, int start, int length)
+			throws IOException;
+
+	/**
+	 * Wird nach dem letzten vollstaendigen Rahmen eines Reads aufgerufen,
+	 * bevor der Empfangspuffer wiederverwendet wird
+	 *
+	 * @param buffer Empfangspuffer (im Lesemodus), die Position steht hinter
+	 *            dem letzten vollstaendigen Rahmen
+	 * @param first Index des ersten Rahmens dieses Reads
+	 */
+	protected void framesReceived(ByteBuffer buffer, int first) throws IOException {
+	}
+
+	/**
+	 * Wird genau einmal aufgerufen, nachdem die Verbindung geschlossen wurde
+	 */
+	protected void closed() {
+	}
+
+	/**
+	 * Verbindung fuer OP_READ beim Selector registrieren, die Verbindung
+	 * ist Attachment des Schluessels
+	 */
+	public void register(Selector selector) throws ClosedChannelException {
+		key = channel.register(selector, SelectionKey.OP_READ, this);
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Nachricht eines Rahmens mit dem Codec der Verbindung dekodieren
+	 */
+	public EchoPDU decode(ByteBuffer buffer, int start, int length) throws IOException {
+		return codec.decode(buffer.array(), buffer.arrayOffset() + start, length);
+	}
+
+	/**
+	 * Antwort als Rahmen in die Sendewarteschlange stellen, gesendet wird
+	 * nach dem Read
+	 */
+	public void send(EchoPDU pdu) throws IOException {
+		writeQueue.add(PduFraming.encodeFrame(codec, pdu));
+	}
+
+	/**
+	 * Fertige Rahmen direkt aus einem Puffer senden. Was nicht sofort gesendet
+	 * werden kann, wird kopiert und in die Sendewarteschlange gestellt, da der
+	 * Puffer danach wiederverwendet wird.
+	 *
+	 * @param frames Zu sendende Rahmen von position bis limit
+	 */
+	public void sendFrom(ByteBuffer frames) throws IOException {
+		if (writeQueue.isEmpty()) {
+			channel.write(frames);
+		}
+		if (frames.hasRemaining()) {
+			ByteBuffer copy = ByteBuffer.allocate(frames.remaining());
+			copy.put(frames);
+			copy.flip();
+			writeQueue.add(copy);
+		}
+	}
+
+	/**
+	 * Verbindung schliessen, sobald alle Antworten gesendet sind
+	 */
+	public void closeAfterWrite() {
+		closeAfterWrite = true;
+	}
+
+	/**
+	 * @return true, falls weder ein unvollstaendiger Rahmen empfangen wurde
+	 *         noch Antworten auf das Senden warten
+	 */
+	public boolean isIdle() {
+		return readBuffer.position() == 0 && writeQueue.isEmpty();
+	}
+
+	/**
+	 * Verfuegbare Daten lesen, alle vollstaendigen Rahmen bearbeiten und die
+	 * Antworten senden. Baut der Client die Verbindung ab, wird sie
+	 * geschlossen.
+	 */
+	public void read() throws IOException {
+		ByteBuffer buffer = readBuffer;
+		int n = channel.read(buffer);
+		if (n < 0) {
+			// Client hat die Verbindung abgebaut
+			close();
+			return;
+		}
+
+		buffer.flip();
+		int first = buffer.position();
+		int needed = 0;
+		while (true) {
+			int length = PduFraming.peekFrameLength(buffer);
+			if (length < 0) {
+				break;
+			}
+			int frameLength = BinaryPduCodec.varIntLength(length) + length;
+			if (buffer.remaining() < frameLength) {
+				needed = frameLength;
+				break;
+			}
+			int start = buffer.position() + BinaryPduCodec.varIntLength(length);
+			frameReceived(buffer, start, length);
+			buffer.position(buffer.position() + frameLength);
+		}
+		framesReceived(buffer, first);
+		buffer.compact();
+
+		// Puffer vergroessern, falls ein Rahmen nicht hineinpasst
+		if (needed > buffer.capacity()) {
+			ByteBuffer larger = allocate(Math.max(needed, buffer.capacity() * 2));
+			buffer.flip();
+			larger.put(buffer);
+			readBuffer = larger;
+		}
+
+		// Alle Antworten dieses Reads gemeinsam senden
+		write();
+	}
+
+	/**
+	 * Wartende Antworten senden, soweit der Socket-Puffer es zulaesst
+	 */
+	public void write() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		ByteBuffer head;
+		while ((head = writeQueue.peek()) != null) {
+			channel.write(head);
+			if (head.hasRemaining()) {
+				// Socket-Puffer voll: Auf OP_WRITE warten
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			writeQueue.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		if (closeAfterWrite) {
+			close();
+		}
+	}
+
+	/**
+	 * Verbindung schliessen
+	 */
+	public void close() {
+		if (!channel.isOpen()) {
+			return;
+		}
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.debug("Exception bei close: " + e);
+		}
+		closed();
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return directBuffer ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+}
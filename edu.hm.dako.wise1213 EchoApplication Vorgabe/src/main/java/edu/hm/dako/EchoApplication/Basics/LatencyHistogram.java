@@ -0,0 +1,148 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+/**
+ * Klasse LatencyHistogram
+ *
+ * Histogramm fuer Zeitmessungen (z.B. RTT in ns) mit fester Groesse,
+ * unabhaengig von der Anzahl der Messwerte. Die Einteilung ist
+ * logarithmisch-linear (wie bei HdrHistogram): Jede Zweierpotenz ist in
+ * SUB_BUCKET_HALF gleich breite Klassen unterteilt. Werte unter
+ * SUB_BUCKET_COUNT werden exakt gezaehlt, der relative Fehler eines
+ * Perzentils ist hoechstens 1 / SUB_BUCKET_HALF (ca. 1,6 %).
+ *
+ * Minimum, Maximum und Summe werden exakt gefuehrt. Werte oberhalb von
+ * MAX_TRACKABLE_VALUE werden in der hoechsten Klasse gezaehlt.
+ *
+ * Die Klasse ist nicht threadsicher, der Aufrufer muss synchronisieren.
+ *
+ * @version 1.0.0
+ */
+public class LatencyHistogram {
+
+	/** Anzahl Bits fuer die Unterteilung einer Zweierpotenz */
+	private static final int SUB_BUCKET_BITS = 7;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+	/** Hoechstes gesetztes Bit des groessten erfassten Werts (2^36 ns = ca. 68 s) */
+	private static final int MAX_MAGNITUDE = 36;
+
+	/** Groesster Wert, der ohne Kappung erfasst wird */
+	public static final long MAX_TRACKABLE_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+	/** Haeufigkeit je Klasse */
+	private final long[] counts = new long[indexOf(MAX_TRACKABLE_VALUE) + 1];
+
+	private long totalCount = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	/**
+	 * Messwert erfassen
+	 * @param value Messwert (negative Werte werden als 0 erfasst)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexOf(Math.min(value, MAX_TRACKABLE_VALUE))]++;
+		totalCount++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Alle Messwerte eines anderen Histogramms hinzufuegen
+	 * @param other Histogramm, z.B. eines anderen Clients
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		sum += other.sum;
+		if (other.min < min) {
+			min = other.min;
+		}
+		if (other.max > max) {
+			max = other.max;
+		}
+	}
+
+	/**
+	 * Wert, den der angegebene Anteil aller Messwerte nicht ueberschreitet
+	 *
+	 * @param percentile Perzentil in Prozent (z.B. 99.9)
+	 * @return Obere Grenze der Klasse des Perzentils, hoechstens das
+	 *         Maximum; 0, falls keine Messwerte vorliegen
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		double p = Math.min(Math.max(percentile, 0.0), 100.0);
+		long target = Math.max(1, (long) Math.ceil(p / 100.0 * totalCount));
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= target) {
+				return Math.min(highestValueOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return Kleinster Messwert, 0 falls keine Messwerte vorliegen
+	 */
+	public long getMin() {
+		return (totalCount == 0) ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getMean() {
+		return (totalCount == 0) ? 0 : sum / totalCount;
+	}
+
+	/**
+	 * Index der Klasse eines Werts
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// Verschiebung, nach der der Wert in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT) liegt
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+	}
+
+	/**
+	 * Groesster Wert, der in die Klasse mit dem angegebenen Index faellt
+	 */
+	private static long highestValueOf(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_HALF - 1;
+		long subBucket = index - (long) shift * SUB_BUCKET_HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
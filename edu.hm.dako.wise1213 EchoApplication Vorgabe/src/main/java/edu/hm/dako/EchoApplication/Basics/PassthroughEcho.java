@@ -0,0 +1,137 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse PassthroughEcho
+ *
+ * Echo ohne Dekodieren: Der Server sendet den empfangenen Request im
+ * Binaerformat (siehe BinaryPduCodec) unveraendert zurueck und traegt nur
+ * die Serverzeit und eine Server-Id an ihren festen Offsets im Header ein
+ * (FLAG_SERVER_ID). Die Nachricht wird also nicht um eine Server-Kennung
+ * verlaengert. Die Messung zeigt damit die reinen Kosten von Netz und
+ * Server-Architektur ohne Dekodieren und Kodieren der EchoPDUs, als
+ * Vergleichswert zum vollstaendigen Anwendungspfad.
+ *
+ * Batches (EchoBatchPDU) werden durchlaufen und jede enthaltene Nachricht
+ * wird eingetragen. Client-Namen im Sitzungsmodus bleiben gueltig, da der
+ * Client die Namensdefinitionen in seinen eigenen Requests zurueckerhaelt.
+ *
+ * Der Modus wird auf der Server-Seite ueber die System-Property
+ * "echo.passthrough" eingeschaltet (z.B. -Decho.passthrough=true) und ist
+ * nur mit dem Codec Binary moeglich.
+ *
+ * @version 1.0.0
+ */
+public class PassthroughEcho {
+
+	private static Log log = LogFactory.getLog(PassthroughEcho.class);
+
+	/** Name der System-Property zum Einschalten des Modus */
+	public static final String SYSTEM_PROPERTY = "echo.passthrough";
+
+	private PassthroughEcho() {
+	}
+
+	/**
+	 * Liefert, ob der Server im Passthrough-Modus arbeiten soll
+	 *
+	 * @param codecType Codec des Servers
+	 * @return true, falls eingeschaltet und der Codec Binary ist
+	 */
+	public static boolean isEnabled(PduCodecType codecType) {
+		if (!Boolean.getBoolean(SYSTEM_PROPERTY)) {
+			return false;
+		}
+		if (codecType != PduCodecType.Binary) {
+			log.error("Passthrough nur mit dem Codec Binary moeglich, verwende "
+					+ codecType + " mit Dekodieren");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Serverzeit und Server-Id in eine Nachricht oder einen Batch eintragen.
+	 * Es werden nur die festen Header-Felder ueberschrieben, die Laenge
+	 * bleibt gleich.
+	 *
+	 * @param buffer Puffer mit der Nachricht (Heap oder direkt)
+	 * @param offset Beginn der Nachricht im Puffer
+	 * @param length Laenge der Nachricht
+	 * @param serverTime Serverzeit in ns
+	 * @param serverId Id des bearbeitenden Server-Threads
+	 * @return true, falls die Nachricht den letzten Request enthaelt
+	 * @throws IOException Keine gueltige Nachricht im Binaerformat
+	 */
+	public static boolean patch(ByteBuffer buffer, int offset, int length,
+			long serverTime, int serverId) throws IOException {
+		if (length <= 0 || buffer.get(offset) != BinaryPduCodec.BATCH_FORMAT_ID) {
+			return patchMessage(buffer, offset, length, serverTime, serverId);
+		}
+		int end = offset + length;
+		int[] pos = new int[] { offset + 1 };
+		int count = readVarInt(buffer, pos, end);
+		if (count <= 0) {
+			throw new IOException("Ungueltige Anzahl Nachrichten im Batch: " + count);
+		}
+		boolean lastRequest = false;
+		for (int i = 0; i < count; i++) {
+			int messageLength = readVarInt(buffer, pos, end);
+			if (messageLength < 0 || pos[0] + messageLength > end) {
+				throw new IOException("Nachricht ueberschreitet das Batchende");
+			}
+			lastRequest |= patchMessage(buffer, pos[0], messageLength, serverTime,
+					serverId);
+			pos[0] += messageLength;
+		}
+		return lastRequest;
+	}
+
+	/**
+	 * Serverzeit und Server-Id in eine Nachricht in einem Byte-Array
+	 * eintragen (siehe patch(ByteBuffer, ...))
+	 */
+	public static boolean patch(byte[] buffer, int offset, int length,
+			long serverTime, int serverId) throws IOException {
+		return patch(ByteBuffer.wrap(buffer), offset, length, serverTime, serverId);
+	}
+
+	private static boolean patchMessage(ByteBuffer buffer, int offset,
+			int length, long serverTime, int serverId) throws IOException {
+		if (length < BinaryPduCodec.HEADER_LENGTH
+				|| buffer.get(offset) != BinaryPduCodec.FORMAT_ID) {
+			throw new IOException("Keine Nachricht im Binaerformat empfangen");
+		}
+		int flags = buffer.get(offset + BinaryPduCodec.OFFSET_FLAGS);
+		if ((flags & BinaryPduCodec.FLAG_SERVER_THREAD_NAME) != 0) {
+			// Der Name steht im variablen Teil und kann nicht ersetzt werden
+			throw new IOException("Request enthaelt bereits einen Server-Namen");
+		}
+		buffer.put(offset + BinaryPduCodec.OFFSET_FLAGS,
+				(byte) (flags | BinaryPduCodec.FLAG_SERVER_ID));
+		buffer.putLong(offset + BinaryPduCodec.OFFSET_SERVER_TIME, serverTime);
+		buffer.putInt(offset + BinaryPduCodec.OFFSET_SERVER_THREAD_ID, serverId);
+		return (flags & BinaryPduCodec.FLAG_LAST_REQUEST) != 0;
+	}
+
+	private static int readVarInt(ByteBuffer buffer, int[] pos, int end)
+			throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (pos[0] >= end) {
+				break;
+			}
+			int b = buffer.get(pos[0]++);
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Ungueltige Laengenangabe in Nachricht");
+	}
+}
@@ -0,0 +1,123 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Schnittstelle PduCodec
+ *
+ * Kodiert und dekodiert EchoPDUs fuer die Uebertragung ueber einen Socket.
+ * Eine Codec-Instanz gehoert immer zu genau einer Sitzung (TCP-Verbindung bzw.
+ * Kommunikationspartner), da ein Codec Zustand ueber die bereits
+ * uebertragenen Namen halten darf.
+ *
+ * Fuer Stream-orientierte Transporte (TCP) werden ueber newWriter/newReader
+ * Sende- und Empfangsobjekte fuer die Streams der Verbindung erzeugt, fuer
+ * Datagramm-orientierte Transporte (UDP) werden einzelne Nachrichten ueber
+ * encode/decode in Byte-Arrays umgewandelt.
+ *
+ * @version 1.0.0
+ */
+public interface PduCodec {
+
+	/**
+	 * Sendeseite einer Stream-Verbindung
+	 */
+	public interface PduWriter {
+
+		/**
+		 * PDU in den Stream schreiben (evtl. nur gepuffert)
+		 * @param pdu Zu sendende PDU
+		 * @throws IOException
+		 */
+		public void writePdu(EchoPDU pdu) throws IOException;
+
+		/**
+		 * Gepufferte Daten an den Kommunikationspartner senden
+		 * @throws IOException
+		 */
+		public void flush() throws IOException;
+
+		/**
+		 * Stream schliessen
+		 * @throws IOException
+		 */
+		public void close() throws IOException;
+	}
+
+	/**
+	 * Empfangsseite einer Stream-Verbindung
+	 */
+	public interface PduReader {
+
+		/**
+		 * Naechste PDU aus dem Stream lesen, blockiert bis eine PDU vollstaendig
+		 * empfangen wurde
+		 * @return Empfangene PDU
+		 * @throws IOException
+		 */
+		public EchoPDU readPdu() throws IOException;
+
+		/**
+		 * Anzahl Bytes, die ohne Blockieren gelesen werden koennen. Ein Wert
+		 * groesser 0 bedeutet, dass bereits (ein Teil) der naechsten PDU
+		 * empfangen wurde.
+		 * @return Verfuegbare Bytes
+		 * @throws IOException
+		 */
+		public int available() throws IOException;
+
+		/**
+		 * Stream schliessen
+		 * @throws IOException
+		 */
+		public void close() throws IOException;
+	}
+
+	/**
+	 * @return Typ des Codecs
+	 */
+	public PduCodecType getType();
+
+	/**
+	 * Sendeobjekt fuer einen Stream erzeugen. Muss bei beiden Partnern vor
+	 * newReader aufgerufen werden, da manche Codecs beim Anlegen einen
+	 * Stream-Header austauschen.
+	 *
+	 * @param out Ausgabestrom der Verbindung
+	 * @return PduWriter
+	 * @throws IOException
+	 */
+	public PduWriter newWriter(OutputStream out) throws IOException;
+
+	/**
+	 * Empfangsobjekt fuer einen Stream erzeugen
+	 *
+	 * @param in Eingabestrom der Verbindung
+	 * @return PduReader
+	 * @throws IOException
+	 */
+	public PduReader newReader(InputStream in) throws IOException;
+
+	/**
+	 * Eine PDU in eine abgeschlossene Nachricht (z.B. ein Datagramm) kodieren
+	 *
+	 * @param pdu Zu kodierende PDU
+	 * @return Kodierte Nachricht
+	 * @throws IOException
+	 */
+	public byte[] encode(EchoPDU pdu) throws IOException;
+
+	/**
+	 * Eine abgeschlossene Nachricht dekodieren. Es werden nur die Bytes
+	 * zwischen offset und offset + length gelesen.
+	 *
+	 * @param buffer Empfangspuffer
+	 * @param offset Beginn der Nachricht im Puffer
+	 * @param length Laenge der Nachricht
+	 * @return Dekodierte PDU
+	 * @throws IOException Nachricht ist nicht dekodierbar
+	 */
+	public EchoPDU decode(byte[] buffer, int offset, int length) throws IOException;
+}
@@ -0,0 +1,68 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+/**
+ * Verfuegbare Codecs fuer die Uebertragung von EchoPDUs
+ *
+ * Der Codec wird auf der Client-Seite ueber die UserInterfaceInputParameters
+ * gewaehlt, auf der Server-Seite ueber die System-Property "echo.codec"
+ * (z.B. -Decho.codec=Binary). Client und Server muessen denselben Codec
+ * verwenden.
+ *
+ * @version 1.0.0
+ */
+public enum PduCodecType {
+	JavaSerialization,	// Java-Objektserialisierung (ObjectOutputStream/ObjectInputStream)
+	Binary;				// Kompaktes, laengenpraefixiertes Binaerformat
+
+	/** Name der System-Property zur Auswahl des Codecs */
+	public static final String SYSTEM_PROPERTY = "echo.codec";
+
+	/**
+	 * Codec fuer eine Stream-Verbindung (TCP) erzeugen. Namen werden je
+	 * Verbindung nur einmal uebertragen.
+	 *
+	 * @return Neue Codec-Instanz fuer genau eine Verbindung
+	 */
+	public PduCodec createStreamCodec() {
+		switch (this) {
+		case Binary:
+			return new BinaryPduCodec(true);
+		default:
+			return new SerializationPduCodec();
+		}
+	}
+
+	/**
+	 * Codec fuer Datagramme erzeugen. Jedes Datagramm ist in sich
+	 * abgeschlossen, da ein verlorenes Datagramm mit einer Namensdefinition
+	 * sonst alle folgenden Nachrichten unlesbar machen wuerde.
+	 *
+	 * @return Neue Codec-Instanz
+	 */
+	public PduCodec createDatagramCodec() {
+		switch (this) {
+		case Binary:
+			return new BinaryPduCodec(false);
+		default:
+			return new SerializationPduCodec();
+		}
+	}
+
+	/**
+	 * Liefert den ueber die System-Property konfigurierten Codec,
+	 * Default ist die Java-Serialisierung.
+	 *
+	 * @return Konfigurierter Codec-Typ
+	 */
+	public static PduCodecType getConfigured() {
+		String value = System.getProperty(SYSTEM_PROPERTY);
+		if (value == null) {
+			return JavaSerialization;
+		}
+		try {
+			return PduCodecType.valueOf(value.trim());
+		} catch (IllegalArgumentException e) {
+			return JavaSerialization;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Klasse PduFraming
+ *
+ * Laengenpraefixierte Rahmen fuer Stream-Verbindungen: Jeder mit einem
+ * PduCodec kodierten Nachricht wird ihre Laenge als Varint vorangestellt.
+ * Damit kann ein Empfaenger die Nachrichtengrenzen erkennen, ohne die
+ * Nachricht selbst zu dekodieren (z.B. ein Server mit nicht-blockierenden
+ * SocketChannels und ByteBuffern).
+ *
+ * @version 1.0.0
+ */
+public class PduFraming {
+
+	/** Maximale Rahmenlaenge (Schutz vor defekten Laengenangaben) */
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	/** Maximale Laenge des Varint-Praefixes */
+	public static final int MAX_PREFIX_LENGTH = 5;
+
+	private PduFraming() {
+	}
+
+	/**
+	 * Sendeobjekt erzeugen, das jede PDU als Rahmen in den Stream schreibt
+	 *
+	 * @param codec Codec der Verbindung
+	 * @param out Ausgabestrom der Verbindung
+	 * @return PduWriter
+	 */
+	public static PduCodec.PduWriter newWriter(final PduCodec codec, OutputStream out) {
+		final OutputStream bout = new BufferedOutputStream(out);
+		final byte[] lengthPrefix = new byte[MAX_PREFIX_LENGTH];
+		return new PduCodec.PduWriter() {
+			public void writePdu(EchoPDU pdu) throws IOException {
+				byte[] frame = codec.encode(pdu);
+				int n = BinaryPduCodec.writeVarInt(lengthPrefix, 0, frame.length);
+				bout.write(lengthPrefix, 0, n);
+				bout.write(frame);
+			}
+
+			public void flush() throws IOException {
+				bout.flush();
+			}
+
+			public void close() throws IOException {
+				bout.close();
+			}
+		};
+	}
+
+	/**
+	 * Empfangsobjekt erzeugen, das Rahmen aus dem Stream liest und mit dem
+	 * Codec dekodiert. Der Empfangspuffer wird wiederverwendet.
+	 *
+	 * @param codec Codec der Verbindung
+	 * @param in Eingabestrom der Verbindung
+	 * @return PduReader
+	 */
+	public static PduCodec.PduReader newReader(final PduCodec codec, InputStream in) {
+		final DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+		return new PduCodec.PduReader() {
+			private byte[] frame = new byte[256];
+
+			public EchoPDU readPdu() throws IOException {
+				int length = BinaryPduCodec.readVarInt(din);
+				if (length <= 0 || length > MAX_FRAME_LENGTH) {
+					throw new IOException("Ungueltige Nachrichtenlaenge: " + length);
+				}
+				if (frame.length < length) {
+					frame = new byte[Math.max(length, frame.length * 2)];
+				}
+				din.readFully(frame, 0, length);
+				return codec.decode(frame, 0, length);
+			}
+
+			public int available() throws IOException {
+				return din.available();
+			}
+
+			public void close() throws IOException {
+				din.close();
+			}
+		};
+	}
+
+	/**
+	 * PDU als vollstaendigen Rahmen (Praefix und Nachricht) kodieren
+	 *
+	 * @param codec Codec der Verbindung
+	 * @param pdu Zu sendende PDU
+	 * @return Puffer, bereit zum Schreiben in einen Channel
+	 * @throws IOException
+	 */
+	public static ByteBuffer encodeFrame(PduCodec codec, EchoPDU pdu) throws IOException {
+		byte[] message = codec.encode(pdu);
+		int prefixLength = BinaryPduCodec.varIntLength(message.length);
+		byte[] frame = new byte[prefixLength + message.length];
+		BinaryPduCodec.writeVarInt(frame, 0, message.length);
+		System.arraycopy(message, 0, frame, prefixLength, message.length);
+		return ByteBuffer.wrap(frame);
+	}
+
+	/**
+	 * Laenge der Nachricht am Anfang des Puffers bestimmen, ohne die Position
+	 * des Puffers zu veraendern. Der Puffer muss sich im Lesemodus befinden.
+	 * Die Laenge des Praefixes ergibt sich aus BinaryPduCodec.varIntLength.
+	 *
+	 * @param buffer Empfangspuffer
+	 * @return Laenge der Nachricht ohne Praefix; -1, falls das Praefix noch
+	 *         nicht vollstaendig empfangen wurde
+	 * @throws IOException Ungueltige Laengenangabe
+	 */
+	public static int peekFrameLength(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		int pos = buffer.position();
+		for (int i = 0; i < MAX_PREFIX_LENGTH; i++) {
+			if (pos + i >= buffer.limit()) {
+				return -1;
+			}
+			int b = buffer.get(pos + i);
+			value |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0) {
+				if (value <= 0 || value > MAX_FRAME_LENGTH) {
+					throw new IOException("Ungueltige Nachrichtenlaenge: " + value);
+				}
+				return value;
+			}
+		}
+		throw new IOException("Ungueltiger Varint");
+	}
+}
@@ -0,0 +1,205 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse ResourceSampler
+ *
+ * Thread, der waehrend eines Testlaufs in festen Abstaenden die
+ * Ressourcenbelegung des Client-Prozesses erfasst. Die Messung erfolgt damit
+ * ausserhalb des Antwortpfads der Client-Threads.
+ *
+ * Erfasst werden die Heap-Belegung und die CPU-Auslastung des Prozesses
+ * (getProcessCpuLoad des OperatingSystemMXBean, in Prozent aller
+ * Prozessoren). Steht die Erweiterung com.sun.management nicht zur
+ * Verfuegung, wird die CPU-Auslastung als -1 geliefert.
+ *
+ * Ueber currentThreadCpuTime kann zusaetzlich die CPU-Zeit einzelner
+ * Threads (ThreadMXBean) gemessen werden.
+ *
+ * @version 1.0.0
+ */
+public class ResourceSampler extends Thread {
+
+	private static Log log = LogFactory.getLog(ResourceSampler.class);
+
+	/** Abstand zwischen zwei Messungen in ms */
+	private static final int sampleInterval = 100;
+
+	private volatile boolean running = true;
+
+	/** Maximale Heap-Belegung in Byte seit dem Start */
+	private volatile long maxHeapSize = 0;
+
+	/** CPU-Auslastung des Prozesses (0.0 bis 1.0) seit dem Start */
+	private volatile double maxCpuLoad = -1.0;
+	private volatile double sumCpuLoad = 0.0;
+	private volatile int numberOfCpuLoadSamples = 0;
+
+	/** OperatingSystemMXBean.getProcessCpuLoad(), null falls nicht vorhanden */
+	private static Method processCpuLoadMethod;
+
+	static {
+		try {
+			Class<?> extension = Class.forName("com.sun.management.OperatingSystemMXBean");
+			if (extension.isInstance(ManagementFactory.getOperatingSystemMXBean())) {
+				processCpuLoadMethod = extension.getMethod("getProcessCpuLoad");
+			}
+		} catch (Exception e) {
+			processCpuLoadMethod = null;
+		}
+	}
+
+	public ResourceSampler()
+	{
+		setName("ResourceSampler");
+		setDaemon(true);
+
+		// CPU-Zeitmessung fuer Threads einschalten, falls moeglich
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		try {
+			if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+				threadBean.setThreadCpuTimeEnabled(true);
+			}
+		} catch (UnsupportedOperationException e) {
+			log.debug("CPU-Zeitmessung fuer Threads nicht moeglich: " + e);
+		}
+	}
+
+	/**
+	 * Run-Methode fuer den Thread:
+	 * Erfasst alle sampleInterval ms die Ressourcenbelegung
+	 */
+	public void run()
+	{
+		log.debug(getName() + " gestartet");
+
+		while (running) {
+			sample();
+			try {
+				Thread.sleep(sampleInterval);
+			}
+			catch (InterruptedException e) {
+				// Beim Stoppen erwartet
+			}
+		}
+		sample();
+	}
+
+	/**
+	 * Beenden des Threads, wartet auf die letzte Messung
+	 */
+	public void stopThread()
+	{
+		running = false;
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			log.error("Warten auf " + getName() + " unterbrochen");
+		}
+		log.debug(getName() + " gestoppt");
+	}
+
+	/**
+	 * Eine Messung durchfuehren
+	 */
+	private void sample()
+	{
+		long used = usedMemory();
+		if (used > maxHeapSize) {
+			maxHeapSize = used;
+		}
+
+		double load = processCpuLoad();
+		if (load >= 0.0) {
+			if (load > maxCpuLoad) {
+				maxCpuLoad = load;
+			}
+			sumCpuLoad = sumCpuLoad + load;
+			numberOfCpuLoadSamples++;
+		}
+	}
+
+	/**
+	 * @return Maximale Heap-Belegung in Byte seit dem Start
+	 */
+	public long getMaxHeapSize()
+	{
+		return maxHeapSize;
+	}
+
+	/**
+	 * @return Maximale CPU-Auslastung des Prozesses in Prozent, -1 falls
+	 *         nicht messbar
+	 */
+	public long getMaxCpuUsage()
+	{
+		if (numberOfCpuLoadSamples == 0) {
+			return -1;
+		}
+		return Math.round(maxCpuLoad * 100.0);
+	}
+
+	/**
+	 * @return Mittlere CPU-Auslastung des Prozesses in Prozent, -1 falls
+	 *         nicht messbar
+	 */
+	public long getAverageCpuUsage()
+	{
+		int n = numberOfCpuLoadSamples;
+		if (n == 0) {
+			return -1;
+		}
+		return Math.round(sumCpuLoad / n * 100.0);
+	}
+
+	/**
+	 * Aktuelle CPU-Auslastung des Prozesses
+	 * @return Wert zwischen 0.0 und 1.0, negativ falls nicht messbar
+	 */
+	private static double processCpuLoad()
+	{
+		if (processCpuLoadMethod == null) {
+			return -1.0;
+		}
+		try {
+			OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+			return ((Double) processCpuLoadMethod.invoke(osBean)).doubleValue();
+		} catch (Exception e) {
+			return -1.0;
+		}
+	}
+
+	/**
+	 * CPU-Zeit des aufrufenden Threads
+	 * @return CPU-Zeit in ns, -1 falls nicht messbar (z.B. virtuelle Threads)
+	 */
+	public static long currentThreadCpuTime()
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+			return -1;
+		}
+		try {
+			return threadBean.getCurrentThreadCpuTime();
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Berechnet den tatsaechlich benutzten Heap-Speicher in Byte
+	 */
+	public static long usedMemory()
+	{
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+}
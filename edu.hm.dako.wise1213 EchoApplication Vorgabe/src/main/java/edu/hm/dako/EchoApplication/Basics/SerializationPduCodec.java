@@ -0,0 +1,100 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Klasse SerializationPduCodec
+ *
+ * Bisheriges Uebertragungsformat: Die EchoPDU wird mit der
+ * Java-Objektserialisierung uebertragen. Bei Stream-Verbindungen wird wie
+ * bisher je Verbindung ein ObjectOutputStream bzw. ObjectInputStream angelegt.
+ *
+ * @version 1.0.0
+ */
+public class SerializationPduCodec implements PduCodec {
+
+	@Override
+	public PduCodecType getType() {
+		return PduCodecType.JavaSerialization;
+	}
+
+	@Override
+	public PduWriter newWriter(OutputStream out) throws IOException {
+		// Gepuffert, damit eine PDU (bzw. alle PDUs bis zum flush) in einem
+		// Stueck gesendet wird und nicht in mehreren kleinen TCP-Segmenten
+		final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(out));
+		return new PduWriter() {
+			public void writePdu(EchoPDU pdu) throws IOException {
+				oos.writeObject(pdu);
+			}
+
+			public void flush() throws IOException {
+				oos.flush();
+			}
+
+			public void close() throws IOException {
+				oos.close();
+			}
+		};
+	}
+
+	@Override
+	public PduReader newReader(InputStream in) throws IOException {
+		// Gepuffert, damit available() auch bereits gelesene Daten beruecksichtigt
+		final BufferedInputStream bin = new BufferedInputStream(in);
+		final ObjectInputStream ois = new ObjectInputStream(bin);
+		return new PduReader() {
+			public EchoPDU readPdu() throws IOException {
+				return toEchoPdu(ois);
+			}
+
+			public int available() throws IOException {
+				return bin.available();
+			}
+
+			public void close() throws IOException {
+				ois.close();
+			}
+		};
+	}
+
+	@Override
+	public byte[] encode(EchoPDU pdu) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(out);
+		os.writeObject(pdu);
+		os.flush();
+		return out.toByteArray();
+	}
+
+	@Override
+	public EchoPDU decode(byte[] buffer, int offset, int length) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(buffer, offset, length));
+		return toEchoPdu(ois);
+	}
+
+	/**
+	 * Naechstes Objekt lesen und auf EchoPDU pruefen
+	 */
+	private static EchoPDU toEchoPdu(ObjectInputStream ois) throws IOException {
+		Object o;
+		try {
+			o = ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unbekannte Objektklasse empfangen: " + e);
+		}
+		if (!(o instanceof EchoPDU)) {
+			throw new IOException("Keine EchoPDU empfangen: " + o);
+		}
+		return (EchoPDU) o;
+	}
+}
@@ -14,6 +14,16 @@ import org.apache.commons.logging.LogFactory;
  * Die Daten werden in einem Array gesammelt, das einen Eintrag fuer jeden Client 
  * enthaelt. Jeder Client erhaelt eine Nummer, die als Zugriffsindex auf das Array verwendet 
  * wird.
+ * 
+ * RTT und Serverzeit werden je Client zusaetzlich in Histogrammen fester
+ * Groesse erfasst (LatencyHistogram), aus denen Perzentile je Client und
+ * ueber alle Clients ermittelt werden.
+ * 
+ * Jeder Client schreibt nur in seinen eigenen Eintrag und sperrt dabei nur
+ * diesen, die Client-Threads behindern sich beim Erfassen also nicht
+ * gegenseitig. Zusammengefasst wird erst beim Lesen. Die Heap-Belegung wird
+ * nicht beim Erfassen einer Antwort, sondern von einem eigenen Thread
+ * gemessen (siehe startResourceSampling).
  *  
  * @author Mandl
  *
@@ -35,16 +45,27 @@ public class SharedClientStatistics
 	private int numberOfAllMessages;
 	
 	// Zaehlt angemeldete Clients
-	private int numberOfLoggedInClients;
+	private volatile int numberOfLoggedInClients;
+	
+	// Misst Heap-Belegung und CPU-Auslastung waehrend des Testlaufs
+	private ResourceSampler resourceSampler;
+	
+	// Summe der CPU-Zeit aller Client-Threads in ns, -1 = nicht gemessen
+	private long clientCpuTime = -1;
 	
-	// Statistikdaten eines Clients
+	// Perzentile in Prozent, die in Statistik und Protokolldatei ausgegeben werden
+	public static final double[] REPORTED_PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+	
+	// Statistikdaten eines Clients. Geschrieben wird nur unter der Sperre des
+	// Eintrags, die Zaehler koennen ohne Sperre gelesen werden (volatile).
 	private class ClientStatistics  {
-		int sentRequests; 		// Anzahl gesendeter Nachrichten
-		int receivedResponses;  // Anzahl empfangener Antworten
-		long averageRTT; 		// Durchschnittliche Round Trip Time in ns
-		long sumRTT; 			// Summe aller RTTs in ns
-		long sumServerTime; 	// Zeit, die der Server insgesamt fuer alle Requests benoetigt in ns
-		long maxHeapSize;		// Maximale Heap-Groesse in Bytes waehrend eines Testlaufs
+		volatile int sentRequests; 		// Anzahl gesendeter Nachrichten
+		volatile int receivedResponses;  // Anzahl empfangener Antworten
+		volatile long averageRTT; 		// Durchschnittliche Round Trip Time in ns
+		volatile long sumRTT; 			// Summe aller RTTs in ns
+		volatile long sumServerTime; 	// Zeit, die der Server insgesamt fuer alle Requests benoetigt in ns
+		LatencyHistogram rttHistogram = new LatencyHistogram();			// Verteilung der RTTs in ns
+		LatencyHistogram serverTimeHistogram = new LatencyHistogram();	// Verteilung der Serverzeiten in ns
 	}
 	
 	// Statistik-Tabelle fuer die empfangenen Respoonse-Nachrichten aller Clients
@@ -57,7 +78,7 @@ public class SharedClientStatistics
 	 */
 	private boolean inRange(int i)
 	{
-		if ((i < 0) || (i > numberOfClients))
+		if ((i < 0) || (i >= numberOfClients))
 		{
 			log.error("Client-Id nicht im gueltigen Bereich");
 			return false;
@@ -87,7 +108,29 @@ public class SharedClientStatistics
 			clientStatistics[i].averageRTT = 0;
 			clientStatistics[i].sumRTT = 0;
 			clientStatistics[i].sumServerTime = 0;
-			clientStatistics[i].maxHeapSize = 0;
+		}
+	}
+	
+	/**
+	 * Messung von Heap-Belegung und CPU-Auslastung starten, vor dem Start der
+	 * Clients aufrufen
+	 */
+	public synchronized void startResourceSampling()
+	{
+		if (resourceSampler == null) {
+			resourceSampler = new ResourceSampler();
+			resourceSampler.start();
+		}
+	}
+	
+	/**
+	 * Messung von Heap-Belegung und CPU-Auslastung beenden, nach dem Ende der
+	 * Clients aufrufen
+	 */
+	public synchronized void stopResourceSampling()
+	{
+		if (resourceSampler != null) {
+			resourceSampler.stopThread();
 		}
 	}
 	
@@ -106,10 +149,13 @@ public class SharedClientStatistics
 	 * Anzahl der gesendeten Nachrichten eines Clients erhoehen
 	 * @param i Client-Id
 	 */
-	public synchronized void incrSentMsgCounter(int i)
+	public void incrSentMsgCounter(int i)
 	{
 		if (! inRange(i)) return;
-		clientStatistics[i].sentRequests++;
+		ClientStatistics stat = clientStatistics[i];
+		synchronized (stat) {
+			stat.sentRequests++;
+		}
 	}
 	
 	/**
@@ -117,15 +163,17 @@ public class SharedClientStatistics
 	 * @param i Client-Id
 	 * @param rtt RoundTrip Time
 	 */
-	public synchronized void incrReceivedMsgCounter(int i, long rtt, long serverTime)
+	public void incrReceivedMsgCounter(int i, long rtt, long serverTime)
 	{
 		if (! inRange(i)) return;
-		clientStatistics[i].receivedResponses++;
-		clientStatistics[i].sumRTT = clientStatistics[i].sumRTT + rtt;
-		clientStatistics[i].averageRTT = clientStatistics[i].sumRTT / clientStatistics[i].receivedResponses;
-		clientStatistics[i].sumServerTime = clientStatistics[i].sumServerTime + serverTime;
-		if (clientStatistics[i].maxHeapSize < usedMemory()) {
-			clientStatistics[i].maxHeapSize = usedMemory();
+		ClientStatistics stat = clientStatistics[i];
+		synchronized (stat) {
+			stat.receivedResponses++;
+			stat.sumRTT = stat.sumRTT + rtt;
+			stat.averageRTT = stat.sumRTT / stat.receivedResponses;
+			stat.sumServerTime = stat.sumServerTime + serverTime;
+			stat.rttHistogram.record(rtt);
+			stat.serverTimeHistogram.record(serverTime);
 		}
 	}
 	
@@ -134,7 +182,7 @@ public class SharedClientStatistics
 	 * @return true Alle erwarteten Nachrichten empfangen
 	 * @return false Noch nicht alle erwarteten Nachrichten empfangen
 	 */
-	public synchronized boolean allMessagesReceived()
+	public boolean allMessagesReceived()
 	{
 		int sum = 0;
 		for (int i = 0; i<numberOfClients; i++)
@@ -154,7 +202,7 @@ public class SharedClientStatistics
 	 * @return true angemeldet
 	 * @return false nicht angemeldet
 	 */
-	public synchronized boolean allClientsLoggedIn()
+	public boolean allClientsLoggedIn()
 	{
 	      if (numberOfLoggedInClients == numberOfClients) {
 	    	  return true;
@@ -169,7 +217,7 @@ public class SharedClientStatistics
 	 * @return true Alle angekommen
 	 * @return false Nicht alle angekommen
 	 */
-	public synchronized boolean allMessageReceived(int i)
+	public boolean allMessageReceived(int i)
 	{
   		 if (! inRange(i)) return(false);
 	     if (clientStatistics[i].receivedResponses == numberOfMessages) {
@@ -184,7 +232,7 @@ public class SharedClientStatistics
 	 * Anzahl aller empfangenen Nachrichten ermitteln
 	 * @return Anzahl empfangender Nachrichten
 	 */
-	public synchronized int getSumOfAllReceivedMessages()
+	public int getSumOfAllReceivedMessages()
 	{
 		int sum = 0;
 		for (int i = 0; i<numberOfClients; i++)
@@ -223,44 +271,144 @@ public class SharedClientStatistics
 	}
 	
 	/**
-	 * Minimale RTT ueber alle Clients ermitteln
+	 * Kleinste gemessene RTT ueber alle Clients ermitteln
 	 * @return Minimale RTT
 	 */
 	public synchronized long getMinimumRTT()
 	{
-		//TODO: Das  ist noch zu verbessern, nicht Bestandteil der Studienarbeit
-		long min = 999999999;
+		return getRTTHistogram().getMin();
+	}
+	
+	/**
+	 * Groesste gemessene RTT ueber alle Clients ermitteln
+	 * @return Maximale RTT
+	 */
+	public synchronized long getMaximumRTT()
+	{
+		return getRTTHistogram().getMax();
+	}
+	
+	/**
+	 * RTT-Perzentil ueber alle Clients ermitteln
+	 * @param percentile Perzentil in Prozent, z.B. 99.9
+	 * @return RTT in ns, die der angegebene Anteil aller Responses nicht ueberschreitet
+	 */
+	public synchronized long getRTTPercentile(double percentile)
+	{
+		return getRTTHistogram().getValueAtPercentile(percentile);
+	}
 	
+	/**
+	 * RTT-Perzentil eines Clients ermitteln
+	 * @param i Client-Id
+	 * @param percentile Perzentil in Prozent, z.B. 99.9
+	 * @return RTT in ns
+	 */
+	public synchronized long getRTTPercentile(int i, double percentile)
+	{
+		if (! inRange(i)) return(-1);
+		synchronized (clientStatistics[i]) {
+			return clientStatistics[i].rttHistogram.getValueAtPercentile(percentile);
+		}
+	}
+	
+	/**
+	 * Groesste gemessene RTT eines Clients ermitteln
+	 * @param i Client-Id
+	 * @return Maximale RTT in ns
+	 */
+	public synchronized long getMaximumRTT(int i)
+	{
+		if (! inRange(i)) return(-1);
+		synchronized (clientStatistics[i]) {
+			return clientStatistics[i].rttHistogram.getMax();
+		}
+	}
+	
+	/**
+	 * Serverzeit-Perzentil ueber alle Clients ermitteln
+	 * @param percentile Perzentil in Prozent, z.B. 99.9
+	 * @return Serverzeit in ns
+	 */
+	public synchronized long getServerTimePercentile(double percentile)
+	{
+		return getServerTimeHistogram().getValueAtPercentile(percentile);
+	}
+	
+	/**
+	 * Serverzeit-Perzentil eines Clients ermitteln
+	 * @param i Client-Id
+	 * @param percentile Perzentil in Prozent, z.B. 99.9
+	 * @return Serverzeit in ns
+	 */
+	public synchronized long getServerTimePercentile(int i, double percentile)
+	{
+		if (! inRange(i)) return(-1);
+		synchronized (clientStatistics[i]) {
+			return clientStatistics[i].serverTimeHistogram.getValueAtPercentile(percentile);
+		}
+	}
+	
+	/**
+	 * Groesste Serverzeit ueber alle Clients ermitteln
+	 * @return Maximale Serverzeit in ns
+	 */
+	public synchronized long getMaximumServerTime()
+	{
+		return getServerTimeHistogram().getMax();
+	}
+	
+	/**
+	 * RTT-Histogramme aller Clients zusammenfassen
+	 */
+	private LatencyHistogram getRTTHistogram()
+	{
+		LatencyHistogram all = new LatencyHistogram();
 		for (int i = 0; i < numberOfClients; i++) {
-			// Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-			if (clientStatistics[i].receivedResponses > 0) {
-				if (clientStatistics[i].averageRTT < min) {
-					min = clientStatistics[i].averageRTT;
-				}
+			synchronized (clientStatistics[i]) {
+				all.add(clientStatistics[i].rttHistogram);
 			}
 		}
-
-		return min;
+		return all;
 	}
 	
 	/**
-	 * Maximale RTT ueber alle Clients ermitteln
-	 * @return Maximale RTT
+	 * Serverzeit-Histogramme aller Clients zusammenfassen
 	 */
-	public synchronized long getMaximumRTT()
+	private LatencyHistogram getServerTimeHistogram()
 	{
-		long max = -1;
-	
+		LatencyHistogram all = new LatencyHistogram();
 		for (int i = 0; i < numberOfClients; i++) {
-			// Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-			if (clientStatistics[i].receivedResponses > 0) {
-				if (clientStatistics[i].averageRTT > max) {
-					max = clientStatistics[i].averageRTT;
-				}
+			synchronized (clientStatistics[i]) {
+				all.add(clientStatistics[i].serverTimeHistogram);
 			}
 		}
-
-		return max;
+		return all;
+	}
+	
+	/**
+	 * Perzentile eines Histogramms als Text, z.B. "p50=120 p90=180 ... max=950 us"
+	 */
+	private static String percentilesAsString(LatencyHistogram histogram)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < REPORTED_PERCENTILES.length; k++) {
+			sb.append("p").append(percentileLabel(REPORTED_PERCENTILES[k])).append("=")
+				.append(histogram.getValueAtPercentile(REPORTED_PERCENTILES[k]) / 1000).append(" ");
+		}
+		sb.append("max=").append(histogram.getMax() / 1000).append(" us");
+		return sb.toString();
+	}
+	
+	/**
+	 * Bezeichnung eines Perzentils ohne ueberfluessige Nachkommastellen (50, 99.9)
+	 */
+	private static String percentileLabel(double percentile)
+	{
+		if (percentile == Math.rint(percentile)) {
+			return String.valueOf((long) percentile);
+		}
+		return String.valueOf(percentile);
 	}
 	
 	/**
@@ -415,23 +563,59 @@ public class SharedClientStatistics
 	}
 	
 	/**
-	 * Maximale Heap-Groesse ueber alle Clients ermitteln
-	 * @return Maximale Heap-Groesse
+	 * Maximale Heap-Groesse waehrend des Testlaufs ermitteln
+	 * @return Maximale Heap-Groesse; ohne Messung die aktuelle Belegung
 	 */
 	public synchronized long getMaxHeapSize()
 	{
-		long max = -1;
+		if (resourceSampler == null) {
+			return usedMemory();
+		}
+		return resourceSampler.getMaxHeapSize();
+	}
 	
-		for (int i = 0; i < numberOfClients; i++) {
-			// Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-			if (clientStatistics[i].receivedResponses > 0) {
-				if (clientStatistics[i].maxHeapSize > max) {
-					max = clientStatistics[i].maxHeapSize;
-				}
-			}
+	/**
+	 * CPU-Zeit eines beendeten Client-Threads hinzufuegen
+	 * @param cpuTime CPU-Zeit in ns
+	 */
+	public synchronized void addClientCpuTime(long cpuTime)
+	{
+		if (cpuTime < 0) return;
+		if (clientCpuTime < 0) {
+			clientCpuTime = 0;
 		}
-
-		return max;
+		clientCpuTime = clientCpuTime + cpuTime;
+	}
+	
+	/**
+	 * Maximale CPU-Auslastung des Client-Prozesses ermitteln
+	 * @return CPU-Auslastung in Prozent, -1 falls nicht gemessen
+	 */
+	public synchronized long getMaxCpuUsage()
+	{
+		if (resourceSampler == null) return(-1);
+		return resourceSampler.getMaxCpuUsage();
+	}
+	
+	/**
+	 * Mittlere CPU-Auslastung des Client-Prozesses ermitteln
+	 * @return CPU-Auslastung in Prozent, -1 falls nicht gemessen
+	 */
+	public synchronized long getAverageCpuUsage()
+	{
+		if (resourceSampler == null) return(-1);
+		return resourceSampler.getAverageCpuUsage();
+	}
+	
+	/**
+	 * CPU-Zeit der Client-Threads je empfangener Response ermitteln
+	 * @return CPU-Zeit in ns, -1 falls nicht gemessen
+	 */
+	public synchronized long getCpuTimePerRequest()
+	{
+		int responses = getNumberOfReceivedResponses();
+		if (clientCpuTime < 0 || responses == 0) return(-1);
+		return clientCpuTime / responses;
 	}
 	
 	/**
@@ -452,6 +636,8 @@ public class SharedClientStatistics
 		+ "\n" + "Gesamte Serverzeit: " + this.getSumServerTime(i) + " ns = " + this.getSumServerTime(i)/1000000 + " ms"
 		+ "\n" + "Gesamte Kommunikationszeit: " + (this.getSumRTT(i) - this.getSumServerTime(i)) + " ns = " + 
 				(this.getSumRTT(i)- this.getSumServerTime(i)/1000000) + " ms"
+		+ "\n" + "RTT-Perzentile: " + percentilesAsString(clientStatistics[i].rttHistogram)
+		+ "\n" + "Serverzeit-Perzentile: " + percentilesAsString(clientStatistics[i].serverTimeHistogram)
 		+ "\n" + "********************** Ende Client-Statistik ************************");
 	}
 	
@@ -486,6 +672,11 @@ public class SharedClientStatistics
 		+ "\n" + "Reine Serverzeit: " + this.getAverageServerTime()/numberOfClients + " ns (" +
 				(this.getAverageServerTime()/numberOfClients)/1000000 + " ms)" 
 		+ "\n" + "Maximal erreichte Heap-Belegung: " + usedMemoryAsString + " MByte" 
+		+ "\n" + "CPU-Auslastung maximal/mittel: " + this.getMaxCpuUsage() + " % / " + this.getAverageCpuUsage() + " %"
+		+ "\n" + "CPU-Zeit der Client-Threads je Request: " + this.getCpuTimePerRequest() + " ns"
+		+ "\n\n" + "Verteilung ueber alle Responses:"
+		+ "\n" + "RTT-Perzentile: " + percentilesAsString(getRTTHistogram())
+		+ "\n" + "Serverzeit-Perzentile: " + percentilesAsString(getServerTimeHistogram())
 			   
 		+ "\n" + "************************ Ende Statistik *****************************"
 		+ "\n" + "*********************************************************************");
@@ -509,7 +700,15 @@ public class SharedClientStatistics
    	  * Maximale Heap-Size des Clients
    	  * Startzeit der Messung
    	  * Endezeit der Messung
+   	  * RTT-Perzentile p50, p90, p99, p99.9 und maximale RTT in Mikrosekunden
+   	  * Serverzeit-Perzentile p50, p90, p99, p99.9 und maximale Serverzeit in Mikrosekunden
+   	  * Maximale und mittlere CPU-Auslastung des Clients in Prozent
+   	  * CPU-Zeit der Client-Threads je Request in ns
   	  * 
+	  * Die Perzentile werden aus Histogrammen ermittelt (Genauigkeit ca. 1,6 %),
+	  * die Maxima sind exakt. Die Spalten sind am Satzende angehaengt, damit
+	  * bestehende Auswertungen ihre Spaltenpositionen behalten.
+	  * 
 	  * Die Werte fuer die "Maximale Heap-Size des Clients" werden noch nicht ermittelt.
 	  *   
 	  * Der Satz wird an das Ende einer bestehenden Datei angehaengt. 
@@ -553,7 +752,12 @@ public class SharedClientStatistics
 			    this.getNumberOfLostResponses() + ", " +
 			    this.getMaxHeapSize()/(1024*1024) + ", " +
 			    startTime + ", " +
-			    endTime + 
+			    endTime + ", " +
+			    percentileColumns(getRTTHistogram()) + ", " +
+			    percentileColumns(getServerTimeHistogram()) + ", " +
+			    this.getMaxCpuUsage() + ", " +
+			    this.getAverageCpuUsage() + ", " +
+			    this.getCpuTimePerRequest() +
 			    newLine);
 	
 //			System.out.println("Auswertungssatz in Datei " + fileName + " geschrieben");
@@ -566,14 +770,25 @@ public class SharedClientStatistics
 		}
 	}
 
+	/**
+	 * Perzentil-Spalten eines Histogramms fuer die Protokolldatei in Mikrosekunden
+	 */
+	private static String percentileColumns(LatencyHistogram histogram)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < REPORTED_PERCENTILES.length; k++) {
+			sb.append(histogram.getValueAtPercentile(REPORTED_PERCENTILES[k]) / 1000).append(", ");
+		}
+		sb.append(histogram.getMax() / 1000);
+		return sb.toString();
+	}
+
 	/**
 	 * Berechnet den tatsaechlich benutzten Heap-Speicher
 	 * Heap-Groesse in MByte
 	 */
 	private long usedMemory() 
 	{
-		Runtime r = Runtime.getRuntime();
-		long usedMemory = (r.totalMemory() - r.freeMemory());
-		return (usedMemory);	
+		return ResourceSampler.usedMemory();	
 	}
 }
\ No newline at end of file
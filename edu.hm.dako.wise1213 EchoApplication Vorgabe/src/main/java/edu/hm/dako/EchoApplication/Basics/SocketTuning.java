@@ -0,0 +1,440 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse SocketTuning
+ *
+ * Einheitliche Socket-Einstellungen fuer alle Transporte. Ein benanntes
+ * Profil legt fest, wie die Client- und Server-Sockets eingestellt werden:
+ *
+ * - Default:    Bisheriges Verhalten, jeder Transport verwendet seine
+ *               eigenen Werte (z.B. 300000 Byte Empfangspuffer bei TCP,
+ *               200000/300000 Byte bei UDP, Backlog 20 bzw. 1024)
+ * - OsDefault:  Keine Einstellungen, es gelten die Vorgaben von JVM und
+ *               Betriebssystem (Nagle an, Backlog 50)
+ * - LowLatency: TCP_NODELAY auf allen Verbindungen, IP-Diensttyp
+ *               IPTOS_LOWDELAY, Puffergroessen wie Default
+ * - Throughput: Nagle an, Puffer und Backlog gross, SO_REUSEPORT,
+ *               IP-Diensttyp IPTOS_THROUGHPUT
+ *
+ * Das Profil wird ueber die System-Property "echo.socket.profile" gewaehlt
+ * (z.B. -Decho.socket.profile=LowLatency). Einzelne Werte koennen zusaetzlich
+ * ueberschrieben werden:
+ *
+ * echo.socket.nodelay       TCP_NODELAY (true/false)
+ * echo.socket.sndbuf        Sendepuffer in Byte, 0 = Vorgabe des Systems
+ * echo.socket.rcvbuf        Empfangspuffer in Byte, 0 = Vorgabe des Systems
+ * echo.socket.backlog       Laenge der Warteschlange fuer Verbindungsaufbauten
+ * echo.socket.reuseport     SO_REUSEPORT (true/false, ab Java 9)
+ * echo.socket.linger        SO_LINGER in s, -1 = aus
+ * echo.socket.trafficclass  IP-Diensttyp (z.B. 0x10), -1 = nicht setzen
+ *
+ * Client und Server lesen die Properties jeweils in ihrer eigenen JVM. Die
+ * Bezeichnung des aktiven Profils (toString) wird im Messprotokoll beim
+ * Implementierungstyp vermerkt.
+ *
+ * Der Empfangspuffer wird auf dem ServerSocket eingestellt, damit er fuer
+ * die angenommenen Verbindungen bereits beim Verbindungsaufbau gilt
+ * (TCP-Fensterskalierung). Client-Sockets muessen deshalb vor connect
+ * eingestellt werden.
+ *
+ * @version 1.0.0
+ */
+public class SocketTuning {
+
+	private static Log log = LogFactory.getLog(SocketTuning.class);
+
+	/**
+	 * Benannte Profile
+	 */
+	public enum Profile {
+		Default, OsDefault, LowLatency, Throughput;
+	}
+
+	/** Name der System-Property zur Auswahl des Profils */
+	public static final String PROFILE_PROPERTY = "echo.socket.profile";
+
+	/** Praefix der System-Properties fuer einzelne Werte */
+	public static final String PROPERTY_PREFIX = "echo.socket.";
+
+	/** Wert des Transports verwenden (nur im Profil Default) */
+	private static final int TRANSPORT_DEFAULT = -2;
+
+	/** Wert nicht setzen, Vorgabe des Systems */
+	private static final int SYSTEM_DEFAULT = 0;
+
+	/** Backlog der JVM, wenn keiner angegeben ist */
+	private static final int JVM_BACKLOG = 50;
+
+	/** IP-Diensttypen nach RFC 1349 */
+	private static final int IPTOS_LOWDELAY = 0x10;
+	private static final int IPTOS_THROUGHPUT = 0x08;
+
+	/** StandardSocketOptions.SO_REUSEPORT, null vor Java 9 */
+	private static Object reusePortOption;
+
+	/** Hinweis auf fehlendes SO_REUSEPORT nur einmal ausgeben */
+	private static volatile boolean reusePortReported = false;
+
+	static {
+		try {
+			Field field = Class.forName("java.net.StandardSocketOptions")
+					.getField("SO_REUSEPORT");
+			reusePortOption = field.get(null);
+		} catch (Exception e) {
+			reusePortOption = null;
+		}
+	}
+
+	private final Profile profile;
+
+	/** null = Wert des Transports */
+	private final Boolean tcpNoDelay;
+	private final int sendBufferSize;
+	private final int receiveBufferSize;
+	private final int backlog;
+	private final boolean reusePort;
+	private final int linger;
+	private final int trafficClass;
+
+	/** Ueberschriebene Werte fuer die Bezeichnung, leer = keine */
+	private final String overrides;
+
+	private SocketTuning(Profile profile) {
+		this.profile = profile;
+		StringBuilder changed = new StringBuilder();
+
+		Boolean noDelay;
+		int sendBuffer;
+		int receiveBuffer;
+		int queue;
+		boolean reuse = false;
+		int traffic = -1;
+		switch (profile) {
+		case OsDefault:
+			noDelay = Boolean.FALSE;
+			sendBuffer = SYSTEM_DEFAULT;
+			receiveBuffer = SYSTEM_DEFAULT;
+			queue = JVM_BACKLOG;
+			break;
+		case LowLatency:
+			noDelay = Boolean.TRUE;
+			sendBuffer = TRANSPORT_DEFAULT;
+			receiveBuffer = TRANSPORT_DEFAULT;
+			queue = TRANSPORT_DEFAULT;
+			traffic = IPTOS_LOWDELAY;
+			break;
+		case Throughput:
+			noDelay = Boolean.FALSE;
+			sendBuffer = 4 * 1024 * 1024;
+			receiveBuffer = 4 * 1024 * 1024;
+			queue = 4096;
+			reuse = true;
+			traffic = IPTOS_THROUGHPUT;
+			break;
+		default:
+			noDelay = null;
+			sendBuffer = TRANSPORT_DEFAULT;
+			receiveBuffer = TRANSPORT_DEFAULT;
+			queue = TRANSPORT_DEFAULT;
+			break;
+		}
+
+		String value = getProperty("nodelay", changed);
+		if (value != null) {
+			noDelay = Boolean.valueOf(value);
+		}
+		tcpNoDelay = noDelay;
+		sendBufferSize = getInt("sndbuf", sendBuffer, 0, changed);
+		receiveBufferSize = getInt("rcvbuf", receiveBuffer, 0, changed);
+		backlog = getInt("backlog", queue, 1, changed);
+		value = getProperty("reuseport", changed);
+		reusePort = (value != null) ? Boolean.parseBoolean(value) : reuse;
+		linger = getInt("linger", -1, -1, changed);
+		trafficClass = getInt("trafficclass", traffic, -1, changed);
+		overrides = changed.toString();
+	}
+
+	/**
+	 * Liefert die ueber die System-Properties konfigurierten Einstellungen,
+	 * Default ist das Profil Default ohne Aenderungen.
+	 *
+	 * @return Konfigurierte Einstellungen
+	 */
+	public static SocketTuning getConfigured() {
+		Profile profile = Profile.Default;
+		String value = System.getProperty(PROFILE_PROPERTY);
+		if (value != null) {
+			try {
+				profile = Profile.valueOf(value.trim());
+			} catch (IllegalArgumentException e) {
+				log.error("Unbekanntes Socket-Profil " + value
+						+ ", verwende Default");
+			}
+		}
+		return new SocketTuning(profile);
+	}
+
+	/**
+	 * @return Gewaehltes Profil
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return true, falls das Profil Default ohne Aenderungen aktiv ist
+	 */
+	public boolean isDefault() {
+		return profile == Profile.Default && overrides.length() == 0;
+	}
+
+	/**
+	 * Laenge der Warteschlange fuer Verbindungsaufbauten
+	 *
+	 * @param transportBacklog Bisheriger Wert des Servers
+	 * @return Einzustellender Backlog
+	 */
+	public int getBacklog(int transportBacklog) {
+		return (backlog == TRANSPORT_DEFAULT) ? transportBacklog : backlog;
+	}
+
+	/**
+	 * Noch nicht gebundenen ServerSocket einstellen. Der Empfangspuffer wird
+	 * von den angenommenen Verbindungen uebernommen.
+	 *
+	 * @param socket ServerSocket vor bind
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer des Servers,
+	 *            0 = Vorgabe des Systems
+	 */
+	public void applyTo(ServerSocket socket, int transportReceiveBuffer)
+			throws SocketException {
+		int size = resolve(receiveBufferSize, transportReceiveBuffer);
+		if (size > 0) {
+			socket.setReceiveBufferSize(size);
+		}
+		if (reusePort) {
+			setReusePort(ServerSocket.class, socket);
+		}
+	}
+
+	/**
+	 * ServerSocket anlegen, einstellen und binden
+	 *
+	 * @param port Lokaler Port
+	 * @param transportBacklog Bisheriger Backlog des Servers
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer des Servers,
+	 *            0 = Vorgabe des Systems
+	 * @return Gebundener ServerSocket
+	 */
+	public ServerSocket openServerSocket(int port, int transportBacklog,
+			int transportReceiveBuffer) throws IOException {
+		ServerSocket socket = new ServerSocket();
+		try {
+			applyTo(socket, transportReceiveBuffer);
+			socket.bind(new InetSocketAddress(port), getBacklog(transportBacklog));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Client-Socket anlegen, einstellen und mit dem Server verbinden
+	 *
+	 * @param host Adresse des Servers
+	 * @param port Port des Servers
+	 * @param transportNoDelay Bisherige Einstellung von TCP_NODELAY
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer, 0 = Vorgabe
+	 *            des Systems
+	 * @return Verbundener Socket
+	 */
+	public Socket connect(String host, int port, boolean transportNoDelay,
+			int transportReceiveBuffer) throws IOException {
+		Socket socket = new Socket();
+		try {
+			applyTo(socket, transportNoDelay, transportReceiveBuffer);
+			socket.connect(new InetSocketAddress(host, port));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * TCP-Verbindung einstellen: angenommene Verbindung auf dem Server oder
+	 * Client-Socket vor connect
+	 *
+	 * @param socket TCP-Socket
+	 * @param transportNoDelay Bisherige Einstellung von TCP_NODELAY
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer, 0 = Vorgabe
+	 *            des Systems
+	 */
+	public void applyTo(Socket socket, boolean transportNoDelay,
+			int transportReceiveBuffer) throws SocketException {
+		boolean noDelay = (tcpNoDelay == null) ? transportNoDelay : tcpNoDelay
+				.booleanValue();
+		if (noDelay) {
+			socket.setTcpNoDelay(true);
+		}
+		int size = resolve(receiveBufferSize, transportReceiveBuffer);
+		if (size > 0) {
+			socket.setReceiveBufferSize(size);
+		}
+		size = resolve(sendBufferSize, 0);
+		if (size > 0) {
+			socket.setSendBufferSize(size);
+		}
+		if (linger >= 0) {
+			socket.setSoLinger(true, linger);
+		}
+		if (trafficClass >= 0) {
+			socket.setTrafficClass(trafficClass);
+		}
+	}
+
+	/**
+	 * Noch nicht gebundenes Datagramm-Socket einstellen
+	 *
+	 * @param socket Datagramm-Socket vor bind
+	 * @param transportSendBuffer Bisheriger Sendepuffer, 0 = Vorgabe des
+	 *            Systems
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer, 0 = Vorgabe
+	 *            des Systems
+	 */
+	public void applyTo(DatagramSocket socket, int transportSendBuffer,
+			int transportReceiveBuffer) throws SocketException {
+		int size = resolve(receiveBufferSize, transportReceiveBuffer);
+		if (size > 0) {
+			socket.setReceiveBufferSize(size);
+		}
+		size = resolve(sendBufferSize, transportSendBuffer);
+		if (size > 0) {
+			socket.setSendBufferSize(size);
+		}
+		if (trafficClass >= 0) {
+			socket.setTrafficClass(trafficClass);
+		}
+		if (reusePort) {
+			setReusePort(DatagramSocket.class, socket);
+		}
+	}
+
+	/**
+	 * Datagramm-Socket anlegen, einstellen und binden
+	 *
+	 * @param port Lokaler Port, 0 = beliebig
+	 * @param transportSendBuffer Bisheriger Sendepuffer, 0 = Vorgabe des
+	 *            Systems
+	 * @param transportReceiveBuffer Bisheriger Empfangspuffer, 0 = Vorgabe
+	 *            des Systems
+	 * @return Gebundenes Datagramm-Socket
+	 */
+	public DatagramSocket openDatagramSocket(int port, int transportSendBuffer,
+			int transportReceiveBuffer) throws SocketException {
+		DatagramSocket socket = new DatagramSocket(null);
+		try {
+			applyTo(socket, transportSendBuffer, transportReceiveBuffer);
+			socket.bind(new InetSocketAddress(port));
+		} catch (SocketException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Bezeichnung fuer Ausgaben und Messprotokoll, z.B. "LowLatency" oder
+	 * "Default+rcvbuf=65536" (ohne Komma, da das Messprotokoll durch Kommas
+	 * getrennt ist)
+	 */
+	@Override
+	public String toString() {
+		return profile + overrides;
+	}
+
+	private static int resolve(int value, int transportValue) {
+		return (value == TRANSPORT_DEFAULT) ? transportValue : value;
+	}
+
+	/**
+	 * SO_REUSEPORT per Reflection setzen, da die Option erst ab Java 9
+	 * existiert
+	 */
+	private static void setReusePort(Class<?> type, Object socket) {
+		if (reusePortOption != null) {
+			try {
+				Method setOption = type.getMethod("setOption",
+						Class.forName("java.net.SocketOption"), Object.class);
+				setOption.invoke(socket, reusePortOption, Boolean.TRUE);
+				return;
+			} catch (Exception e) {
+				// z.B. vom Betriebssystem nicht unterstuetzt
+				reportReusePort(e.getCause() != null ? e.getCause().toString()
+						: e.toString());
+				return;
+			}
+		}
+		reportReusePort("Java " + System.getProperty("java.version"));
+	}
+
+	private static void reportReusePort(String reason) {
+		if (!reusePortReported) {
+			reusePortReported = true;
+			log.warn("SO_REUSEPORT nicht verfuegbar (" + reason + ")");
+		}
+	}
+
+	private static String getProperty(String name, StringBuilder changed) {
+		String value = System.getProperty(PROPERTY_PREFIX + name);
+		if (value == null) {
+			return null;
+		}
+		value = value.trim();
+		changed.append('+').append(name).append('=').append(value);
+		return value;
+	}
+
+	private static int getInt(String name, int profileValue, int min,
+			StringBuilder changed) {
+		String value = getProperty(name, changed);
+		if (value == null) {
+			return profileValue;
+		}
+		try {
+			return Math.max(min, Integer.decode(value).intValue());
+		} catch (NumberFormatException e) {
+			log.error("Ungueltiger Wert fuer " + PROPERTY_PREFIX + name + ": "
+					+ value);
+			return profileValue;
+		}
+	}
+
+	/**
+	 * Einstellungen eines Sockets fuer das Log beschreiben
+	 */
+	public static String describe(Socket socket) {
+		try {
+			return "nodelay=" + socket.getTcpNoDelay() + ", sndbuf="
+					+ socket.getSendBufferSize() + ", rcvbuf="
+					+ socket.getReceiveBufferSize() + ", linger="
+					+ socket.getSoLinger() + ", trafficclass="
+					+ socket.getTrafficClass();
+		} catch (IOException e) {
+			return e.toString();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package edu.hm.dako.EchoApplication.Basics;
+
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Ausfuehrungsmodell fuer Worker- und Client-Threads
+ *
+ * Bei Virtual werden virtuelle Threads verwendet, die von der JVM auf wenige
+ * Traeger-Threads abgebildet werden. Damit koennen auch zehntausende
+ * blockierende Verbindungen mit je einem eigenen Thread bearbeitet werden.
+ *
+ * Virtuelle Threads stehen erst ab Java 21 zur Verfuegung. Sie werden daher
+ * per Reflection erzeugt; auf aelteren JVMs wird auf normale Threads
+ * ausgewichen.
+ *
+ * Auf der Server-Seite wird das Modell ueber die System-Property
+ * "echo.threads" gewaehlt (z.B. -Decho.threads=Virtual).
+ *
+ * @version 1.0.0
+ */
+public enum ThreadingMode {
+	Platform,	// Ein Betriebssystem-Thread je Thread-Objekt
+	Virtual;	// Virtuelle Threads (ab Java 21)
+
+	private static Log log = LogFactory.getLog(ThreadingMode.class);
+
+	/** Name der System-Property zur Auswahl des Ausfuehrungsmodells */
+	public static final String SYSTEM_PROPERTY = "echo.threads";
+
+	/** Thread.ofVirtual(), Thread.Builder.name(String) und unstarted(Runnable) */
+	private static Method ofVirtual;
+	private static Method builderName;
+	private static Method builderUnstarted;
+
+	/** Hinweis auf fehlende virtuelle Threads nur einmal ausgeben */
+	private static volatile boolean fallbackReported = false;
+
+	static {
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			builderName = builder.getMethod("name", String.class);
+			builderUnstarted = builder.getMethod("unstarted", Runnable.class);
+		} catch (Exception e) {
+			ofVirtual = null;
+		}
+	}
+
+	/**
+	 * @return true, wenn die JVM virtuelle Threads unterstuetzt
+	 */
+	public static boolean isVirtualSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Neuen, noch nicht gestarteten Thread erzeugen
+	 *
+	 * @param task Auszufuehrende Arbeit
+	 * @param name Name des Threads
+	 * @return Thread, muss mit start() gestartet werden
+	 */
+	public Thread newThread(Runnable task, String name) {
+		if (this == Virtual && ofVirtual != null) {
+			try {
+				Object builder = ofVirtual.invoke(null);
+				builder = builderName.invoke(builder, name);
+				return (Thread) builderUnstarted.invoke(builder, task);
+			} catch (Exception e) {
+				// z.B. Preview-Feature nicht freigeschaltet
+				reportFallback(e.toString());
+			}
+		} else if (this == Virtual) {
+			reportFallback("Java " + System.getProperty("java.version"));
+		}
+		return new Thread(task, name);
+	}
+
+	private static void reportFallback(String reason) {
+		if (!fallbackReported) {
+			fallbackReported = true;
+			log.warn("Virtuelle Threads nicht verfuegbar (" + reason
+					+ "), es werden normale Threads verwendet");
+			System.out.println("Virtuelle Threads nicht verfuegbar (" + reason
+					+ "), es werden normale Threads verwendet");
+		}
+	}
+
+	/**
+	 * Liefert das ueber die System-Property konfigurierte Modell, Default
+	 * ist Platform.
+	 *
+	 * @return Konfiguriertes Ausfuehrungsmodell
+	 */
+	public static ThreadingMode getConfigured() {
+		String value = System.getProperty(SYSTEM_PROPERTY);
+		if (value == null) {
+			return Platform;
+		}
+		try {
+			return ThreadingMode.valueOf(value.trim());
+		} catch (IllegalArgumentException e) {
+			return Platform;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package edu.hm.dako.EchoApplication.LwtrtMultiThreaded;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
+import edu.hm.dako.EchoApplication.ReliableUdpSocket.RttEstimator;
+
+/**
+ * Klasse LwtrtMultiThreadedEchoClientThread
+ *
+ * Echo-Client fuer LWTRT (siehe LwtrtSocket). Jeder Request wird so lange
+ * wiederholt, bis die Response mit seiner requestId eintrifft, hoechstens
+ * maxRetransmissions mal. Die Wartezeit bis zur Wiederholung wird wie bei
+ * ReliableUdp aus der gemessenen RTT berechnet (RttEstimator), Messungen
+ * an wiederholten Requests werden nicht verwendet. Verspaetete Responses auf
+ * fruehere Requests oder an eine fruehere Sitzung auf demselben Port werden
+ * verworfen.
+ *
+ * @version 1.0.0
+ */
+public class LwtrtMultiThreadedEchoClientThread extends AbstractClientThread {
+	private static Log log = LogFactory
+			.getLog(LwtrtMultiThreadedEchoClientThread.class);
+
+	/** Maximale Anzahl Wiederholungen eines Requests */
+	private static final int maxRetransmissions = 10;
+
+	/** Name des Threads */
+	private String threadName;
+
+	/** Nummer des Echo-Clients */
+	private int numberOfClient;
+
+	/** Laenge einer Nachricht */
+	private int messageLength;
+
+	/** Anzahl zu sendender Nachrichten je Thread */
+	private int numberOfMessages;
+
+	/** Serverport */
+	private int serverPort;
+
+	/** Inet-Address des Servers */
+	private InetAddress remoteInetAddress;
+
+	/** Denkzeit des Clients zwischen zwei Requests im ms */
+	private int clientThinkTime;
+
+	/** Gemeinsame Daten der Threads */
+	private SharedClientStatistics sharedData;
+
+	/** Lokales Datagramm-Socket */
+	private LwtrtSocket con;
+
+	/** RTT-Schaetzung und Wartezeit bis zur Wiederholung */
+	private final RttEstimator rttEstimator = new RttEstimator();
+
+	/**
+	 * Zufaellige Sitzungs-Id. Der Server setzt seinen Zustand fuer Adresse und
+	 * Port zurueck, wenn sie wechselt, damit ein neuer Client auf einem
+	 * wiederverwendeten Port nicht als Duplikat seines Vorgaengers gilt.
+	 */
+	private final int sessionId = new Random().nextInt();
+
+	/** Nummer des letzten Requests */
+	private long lastRequestId = 0;
+
+	/** Anzahl aller Wiederholungen */
+	private long numberOfRetransmissions = 0;
+
+	/**
+	 * initialize
+	 *
+	 * @param serverPort
+	 *            : Port des Servers
+	 * @param remoteServerAddress
+	 *            : Adresse des Servers
+	 * @param numberOfClient
+	 *            : Laufende Nummer des Test-Clients
+	 * @param messagelength
+	 *            : Laenge einer Nachricht
+	 * @param numberOfMessages
+	 *            : Anzahl zu sendender Nachrichten je Thread
+	 * @param clientThinkTime
+	 *            : Denkzeit des Test-Clients
+	 * @param sharedData
+	 *            : Gemeinsame Daten der Threads
+	 */
+	@Override
+	public void initialize(int serverPort, String remoteServerAddress,
+			int numberOfClient, int messageLength, int numberOfMessages,
+			int clientThinkTime, SharedClientStatistics sharedData) {
+		this.serverPort = serverPort;
+
+		try {
+			remoteInetAddress = InetAddress.getByName(remoteServerAddress);
+		} catch (UnknownHostException e) {
+			log.debug("Exception bei Adressebelegung: " + e);
+			System.out.println("Exception bei Adressebelegung: " + e);
+		}
+
+		this.numberOfClient = numberOfClient;
+		this.messageLength = messageLength;
+		this.numberOfMessages = numberOfMessages;
+		this.clientThinkTime = clientThinkTime;
+		this.sharedData = sharedData;
+		this.setName("EchoClient-".concat(String.valueOf(numberOfClient + 1)));
+		threadName = getName();
+
+		try {
+			con = new LwtrtSocket(0, 200000, 300000, socketTuning,
+					codecType.createDatagramCodec());
+			System.out.println(threadName + ": LWTRT-Port " + con.getLocalPort()
+					+ " registriert");
+		} catch (IOException e) {
+			log.debug("Exception bei der DatagramSocket-Erzeugung: " + e);
+			System.out.println("Exception bei der DatagramSocket-Erzeugung: "
+					+ e);
+			System.exit(9);
+		}
+	}
+
+	/**
+	 * Run-Methode fuer den Thread: Client-Thread sendet alle Requests und
+	 * wartet auf Antworten
+	 */
+	public void run() {
+
+		sharedData.incrNumberOfLoggedInClients();
+
+		/**
+		 * Synchronisation mit allen anderen Client-Threads: Warten, bis alle
+		 * Clients angemeldet sind und dann erst mit der Lasterzeugung beginnen
+		 */
+		while (!sharedData.allClientsLoggedIn()) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				log.error("Sleep unterbrochen");
+			}
+		}
+
+		for (int i = 0; i < numberOfMessages; i++) {
+
+			/** RTT-Startzeit ermitteln */
+			long rttStartTime = awaitSendTime();
+
+			EchoPDU echoSend = new EchoPDU();
+			echoSend.setClientName(this.getName());
+			echoSend.setMessage(echoSend.getMessageText(this.messageLength) + (i + 1));
+			if (i == numberOfMessages - 1) {
+				echoSend.setLastRequest(true);
+			}
+
+			try {
+				EchoPDU echoRec = call(echoSend);
+				long rtt = System.nanoTime() - rttStartTime;
+				sharedData.incrSentMsgCounter(numberOfClient);
+				sharedData.incrReceivedMsgCounter(numberOfClient, rtt,
+						echoRec.getServerTime());
+			} catch (IOException ioe) {
+				System.out.println(threadName + ": " + ioe);
+			}
+
+			/** Wartezeit */
+			try {
+				pauseBetweenRequests(clientThinkTime);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		log.debug(threadName + ": RTT-Schaetzung: " + rttEstimator
+				+ ", Wiederholungen: " + numberOfRetransmissions);
+
+		/** Statistik ausgeben */
+		sharedData.printClientStatistic(numberOfClient);
+
+		/** Socket schliessen */
+		con.close();
+	}
+
+	/**
+	 * Request senden und auf die zugehoerige Response warten, bei Ablauf der
+	 * Wartezeit den Request wiederholen
+	 *
+	 * @param request
+	 *            Zu sendender Request
+	 * @return Response des Servers
+	 * @throws IOException
+	 *             Keine Response nach maxRetransmissions Wiederholungen
+	 */
+	private EchoPDU call(EchoPDU request) throws IOException {
+		long requestId = ++lastRequestId;
+		byte[] datagram = con.encode(LwtrtSocket.REQUEST, sessionId, requestId,
+				request);
+		int retransmissions = 0;
+		long sendTime = System.nanoTime();
+		con.send(datagram, remoteInetAddress, serverPort);
+
+		while (true) {
+			long remaining = sendTime + rttEstimator.getRetransmissionTimeout()
+					- System.nanoTime();
+			if (remaining > 0) {
+				try {
+					EchoPDU response = con.receive((int) Math.max(1,
+							TimeUnit.NANOSECONDS.toMillis(remaining)));
+					if (response != null && con.getType() == LwtrtSocket.RESPONSE
+							&& con.getSessionId() == sessionId
+							&& con.getRequestId() == requestId) {
+						if (retransmissions == 0) {
+							rttEstimator.addSample(System.nanoTime() - sendTime);
+						}
+						return response;
+					}
+					// Verspaetete Response auf einen frueheren Request
+					continue;
+				} catch (SocketTimeoutException e) {
+					// Wartezeit abgelaufen
+				}
+			}
+
+			if (retransmissions >= maxRetransmissions) {
+				throw new SocketTimeoutException("Keine Response auf Request "
+						+ requestId + " nach " + maxRetransmissions + " Wiederholungen");
+			}
+			retransmissions++;
+			numberOfRetransmissions++;
+			rttEstimator.backoff();
+			log.debug(threadName + ": Wiederholung von Request " + requestId);
+			sendTime = System.nanoTime();
+			con.send(datagram, remoteInetAddress, serverPort);
+		}
+	}
+}
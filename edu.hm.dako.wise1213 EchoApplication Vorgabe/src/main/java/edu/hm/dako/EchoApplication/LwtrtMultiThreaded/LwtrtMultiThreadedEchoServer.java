@@ -0,0 +1,344 @@
+package edu.hm.dako.EchoApplication.LwtrtMultiThreaded;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.PropertyConfigurator;
+
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
+
+/**
+ * Klasse LwtrtMultiThreadedEchoServer
+ *
+ * Echo-Server fuer LWTRT (siehe LwtrtSocket). Der Hauptthread empfaengt alle
+ * Requests und uebergibt neue Requests an einen Pool von Worker-Threads.
+ * Je Client (Adresse und Port) wird die requestId des zuletzt angenommenen
+ * Requests und die Response darauf gehalten:
+ *
+ * - Neue Sitzung (andere sessionId, z.B. neuer Client auf einem
+ *   wiederverwendeten Port): Der Zustand wird zurueckgesetzt, der Request
+ *   wird bearbeitet.
+ * - Neuer Request (groessere requestId): Die vorherige Response gilt als
+ *   angekommen und wird verworfen, der Request wird bearbeitet.
+ * - Wiederholter Request mit vorliegender Response: Die Response wird ohne
+ *   erneute Bearbeitung noch einmal gesendet.
+ * - Wiederholter Request in Bearbeitung oder aelterer Request: verwerfen.
+ *
+ * Ist die Warteschlange des Pools voll, wird der Request verworfen und der
+ * Client wiederholt ihn. Die Daten eines Clients werden nach
+ * echo.lwtrt.statetimeout ms ohne Request entfernt.
+ *
+ * Konfiguration ueber System-Properties:
+ * echo.lwtrt.workers       Anzahl der Worker-Threads (Default: 2 * Prozessoren)
+ * echo.lwtrt.queue         Laenge der Auftragswarteschlange (Default: 1000)
+ * echo.lwtrt.statetimeout  Aufbewahrung der Client-Daten in ms (Default: 30000)
+ *
+ * @version 1.0.0
+ */
+public class LwtrtMultiThreadedEchoServer implements Runnable {
+
+	private static Log log = LogFactory.getLog(LwtrtMultiThreadedEchoServer.class);
+
+	/** ServerPort */
+	private static int serverPort = 50000;
+
+	/** Namen der System-Properties */
+	public static final String WORKERS_PROPERTY = "echo.lwtrt.workers";
+	public static final String QUEUE_PROPERTY = "echo.lwtrt.queue";
+	public static final String STATE_TIMEOUT_PROPERTY = "echo.lwtrt.statetimeout";
+
+	/** Anzahl der Worker-Threads */
+	private static int numberOfWorkerThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+	/** Maximale Anzahl wartender Auftraege */
+	private static int queueCapacity = 1000;
+
+	/** Aufbewahrungszeit der Client-Daten ohne neuen Request in ms */
+	private static long stateTimeout = 30000;
+
+	/** Wartezeit im Empfang, nach der abgelaufene Client-Daten entfernt werden */
+	private static final int housekeepingInterval = 1000;
+
+	/** Datagramm-Socket des Servers */
+	private static LwtrtSocket serverSocket;
+
+	/** Pool der Worker-Threads */
+	private static ThreadPoolExecutor workerPool;
+
+	/** Ausfuehrungsmodell der Worker-Threads */
+	private static ThreadingMode threadingMode = ThreadingMode.Platform;
+
+	/** Zustand je Client, nach Adresse und Port */
+	private static Map<InetSocketAddress, ClientState> clients = new ConcurrentHashMap<InetSocketAddress, ClientState>();
+
+	/** Statistik */
+	private static AtomicLong numberOfRequests = new AtomicLong();
+	private static AtomicLong numberOfCachedResponses = new AtomicLong();
+	private static AtomicLong numberOfDiscardedRequests = new AtomicLong();
+
+	/**
+	 * Zustand eines Clients, Zugriff nur mit Sperre auf das Objekt
+	 */
+	private static class ClientState {
+		/** Sitzung des Clients */
+		int sessionId;
+		/** requestId des zuletzt angenommenen Requests, -1 = keiner */
+		long requestId = -1;
+		/** Response auf diesen Request, null = noch in Bearbeitung */
+		byte[] response = null;
+		/** Zeitpunkt des letzten Requests (System.nanoTime) */
+		long lastActivity;
+	}
+
+	/** Auftrag: Request eines Clients */
+	private final EchoPDU request;
+	private final int sessionId;
+	private final long requestId;
+	private final InetAddress remoteAddress;
+	private final int remotePort;
+	private final ClientState state;
+
+	/**
+	 * Konstruktor
+	 */
+	private LwtrtMultiThreadedEchoServer(EchoPDU request, int sessionId,
+			long requestId, InetAddress remoteAddress, int remotePort,
+			ClientState state) {
+		this.request = request;
+		this.sessionId = sessionId;
+		this.requestId = requestId;
+		this.remoteAddress = remoteAddress;
+		this.remotePort = remotePort;
+		this.state = state;
+	}
+
+	/**
+	 * main
+	 *
+	 * @param args
+	 */
+	public static void main(String args[]) {
+		PropertyConfigurator.configureAndWatch("log4j.server.properties",
+				60 * 1000);
+		threadingMode = ThreadingMode.getConfigured();
+		stateTimeout = Math.max(1,
+				Long.getLong(STATE_TIMEOUT_PROPERTY, stateTimeout).longValue());
+		configureWorkerPool();
+		SocketTuning socketTuning = SocketTuning.getConfigured();
+
+		try {
+			serverSocket = new LwtrtSocket(serverPort, 200000, 300000, socketTuning,
+					PduCodecType.getConfigured().createDatagramCodec());
+			System.out.println("LwtrtMultiThreadedEchoServer wartet auf Clients (Worker: "
+					+ numberOfWorkerThreads + ", Warteschlange: " + queueCapacity
+					+ ", Threads: " + threadingMode + ", Socket: " + socketTuning + ")...");
+		} catch (IOException e) {
+			log.debug("Exception bei der Socket-Erzeugung: " + e);
+			System.exit(9);
+		}
+
+		long nextHousekeeping = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(housekeepingInterval);
+		boolean finished = false;
+		while (!finished) {
+			try {
+				EchoPDU request = serverSocket.receive(housekeepingInterval);
+				if (request != null && serverSocket.getType() == LwtrtSocket.REQUEST) {
+					accept(request, serverSocket.getSessionId(),
+							serverSocket.getRequestId(), serverSocket.getRemoteAddress(),
+							serverSocket.getRemotePort());
+				}
+			} catch (SocketTimeoutException e) {
+				// Nur Aufraeumen
+			} catch (IOException e) {
+				log.error("Empfangen nicht moeglich: " + e);
+				finished = true;
+			}
+
+			long now = System.nanoTime();
+			if (now - nextHousekeeping >= 0) {
+				removeExpiredClients(now);
+				nextHousekeeping = now + TimeUnit.MILLISECONDS.toNanos(housekeepingInterval);
+			}
+		}
+
+		workerPool.shutdown();
+		System.out.println("Requests: " + numberOfRequests.get()
+				+ ", aus dem Zwischenspeicher beantwortet: " + numberOfCachedResponses.get()
+				+ ", verworfen: " + numberOfDiscardedRequests.get());
+		serverSocket.close();
+	}
+
+	/**
+	 * Request anhand von sessionId und requestId einordnen: neu bearbeiten,
+	 * aus dem Zwischenspeicher beantworten oder verwerfen
+	 */
+	private static void accept(EchoPDU request, int sessionId, long requestId,
+			InetAddress remoteAddress, int remotePort) throws IOException {
+		InetSocketAddress key = new InetSocketAddress(remoteAddress, remotePort);
+		ClientState state = clients.get(key);
+		if (state == null) {
+			state = new ClientState();
+			state.sessionId = sessionId;
+			clients.put(key, state);
+		}
+
+		byte[] cachedResponse = null;
+		synchronized (state) {
+			state.lastActivity = System.nanoTime();
+			if (sessionId != state.sessionId) {
+				// Neuer Client auf demselben Port: Zustand des Vorgaengers
+				// verwerfen
+				log.debug("Neue Sitzung von " + key);
+				state.sessionId = sessionId;
+				state.requestId = requestId;
+				state.response = null;
+			} else if (requestId == state.requestId) {
+				cachedResponse = state.response;
+				if (cachedResponse == null) {
+					// Noch in Bearbeitung, die Response folgt
+					numberOfDiscardedRequests.incrementAndGet();
+					return;
+				}
+			} else if (requestId < state.requestId) {
+				// Verspaetetes Duplikat eines bereits beantworteten Requests
+				numberOfDiscardedRequests.incrementAndGet();
+				return;
+			} else {
+				state.requestId = requestId;
+				state.response = null;
+			}
+		}
+
+		if (cachedResponse != null) {
+			log.debug("Wiederholter Request " + requestId + " von " + key
+					+ ", Response aus dem Zwischenspeicher");
+			numberOfCachedResponses.incrementAndGet();
+			serverSocket.send(cachedResponse, remoteAddress, remotePort);
+			return;
+		}
+		numberOfRequests.incrementAndGet();
+		workerPool.execute(new LwtrtMultiThreadedEchoServer(request, sessionId,
+				requestId, remoteAddress, remotePort, state));
+	}
+
+	/**
+	 * Daten der Clients entfernen, die seit stateTimeout keinen Request
+	 * gesendet haben
+	 */
+	private static void removeExpiredClients(long now) {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(stateTimeout);
+		Iterator<ClientState> it = clients.values().iterator();
+		while (it.hasNext()) {
+			ClientState state = it.next();
+			synchronized (state) {
+				if (now - state.lastActivity > timeout && state.response != null) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Worker-Pool gemaess den System-Properties anlegen
+	 */
+	private static void configureWorkerPool() {
+		numberOfWorkerThreads = Math.max(1,
+				Integer.getInteger(WORKERS_PROPERTY, numberOfWorkerThreads).intValue());
+		queueCapacity = Math.max(1,
+				Integer.getInteger(QUEUE_PROPERTY, queueCapacity).intValue());
+
+		workerPool = new ThreadPoolExecutor(numberOfWorkerThreads,
+				numberOfWorkerThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new WorkerThreadFactory(), new RejectionHandler());
+		workerPool.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Erzeugt die Worker-Threads des Pools nach dem eingestellten
+	 * Ausfuehrungsmodell
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			return threadingMode.newThread(r,
+					"WorkerThread-" + threadNumber.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Verwirft Requests bei voller Warteschlange. Der Request wird wieder
+	 * als nicht angenommen markiert, damit seine Wiederholung bearbeitet
+	 * wird.
+	 */
+	private static class RejectionHandler implements RejectedExecutionHandler {
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				return;
+			}
+			LwtrtMultiThreadedEchoServer task = (LwtrtMultiThreadedEchoServer) r;
+			synchronized (task.state) {
+				if (task.state.sessionId == task.sessionId
+						&& task.state.requestId == task.requestId
+						&& task.state.response == null) {
+					task.state.requestId = task.requestId - 1;
+				}
+			}
+			numberOfRequests.decrementAndGet();
+			numberOfDiscardedRequests.incrementAndGet();
+			log.debug("Warteschlange voll, Request " + task.requestId + " verworfen");
+		}
+	}
+
+	/**
+	 * Worker-Methode: Request bearbeiten, Response zwischenspeichern und
+	 * senden
+	 */
+	public void run() {
+		String threadName = Thread.currentThread().getName();
+		long startTime = System.nanoTime();
+
+		EchoPDU echoSend = new EchoPDU();
+		echoSend.setServerThreadName(threadName);
+		echoSend.setClientName(request.getClientName());
+		echoSend.setMessage(request.getMessage() + "_S");
+		echoSend.setServerTime(System.nanoTime() - startTime);
+
+		if (request.getLastRequest()) {
+			System.out.println("Letzter Request des Clients " + request.getClientName());
+		}
+
+		try {
+			byte[] response = serverSocket.encode(LwtrtSocket.RESPONSE, sessionId,
+					requestId, echoSend);
+			synchronized (state) {
+				if (state.sessionId == sessionId && state.requestId == requestId) {
+					state.response = response;
+				}
+			}
+			serverSocket.send(response, remoteAddress, remotePort);
+		} catch (IOException e) {
+			log.error("Senden der Response nicht moeglich: " + e);
+		}
+	}
+}
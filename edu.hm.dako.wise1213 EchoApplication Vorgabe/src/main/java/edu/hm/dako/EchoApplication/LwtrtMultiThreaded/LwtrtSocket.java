@@ -0,0 +1,288 @@
+package edu.hm.dako.EchoApplication.LwtrtMultiThreaded;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.EchoApplication.Basics.BinaryPduCodec;
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+import edu.hm.dako.EchoApplication.ReliableUdpSocket.NetworkImpairment;
+
+/**
+ * Klasse LwtrtSocket
+ *
+ * Datagramm-Socket fuer LWTRT (Lightweight Reliable Transport), ein
+ * Request/Response-Protokoll ueber UDP. Im Normalfall wird je Richtung genau
+ * ein Datagramm uebertragen:
+ *
+ * - Der Client nummeriert seine Requests fortlaufend (requestId) und hat
+ *   immer hoechstens einen Request offen. Jeder Client waehlt zufaellig eine
+ *   Sitzungs-Id (sessionId), damit ein neuer Client auf einem
+ *   wiederverwendeten Port nicht mit seinem Vorgaenger verwechselt wird.
+ * - Die Response ist die Bestaetigung des Requests, eigene ACKs gibt es
+ *   nicht. Bleibt sie aus, wiederholt der Client den Request (siehe
+ *   LwtrtMultiThreadedEchoClientThread).
+ * - Ein neuer Request bestaetigt implizit die Response auf den vorherigen.
+ *   Der Server haelt deshalb je Client nur die letzte Response vor und
+ *   beantwortet einen wiederholten Request damit, ohne ihn erneut zu
+ *   bearbeiten (siehe LwtrtMultiThreadedEchoServer).
+ *
+ * Jedes Datagramm besteht aus einem festen Header und der mit dem PduCodec
+ * kodierten EchoPDU:
+ *
+ * <pre>
+ *  Offset  Laenge  Inhalt
+ *   0       1      Formatkennung (0xE7)
+ *   1       1      Typ (REQUEST, RESPONSE)
+ *   2       4      sessionId
+ *   6       8      requestId
+ *  14       ...    Kodierte EchoPDU
+ * </pre>
+ *
+ * Eine Nachricht muss in ein Datagramm passen, LWTRT fragmentiert nicht.
+ *
+ * Gesendete Datagramme durchlaufen wie beim UnreliableUdpSocket die mit
+ * echo.impair.* eingestellten Netzstoerungen (siehe NetworkImpairment).
+ *
+ * Empfangspuffer und DatagramPacket werden je Socket nur einmal angelegt,
+ * receive darf deshalb nur von einem Thread aufgerufen werden. Senden ist
+ * aus beliebigen Threads moeglich.
+ *
+ * @version 1.0.0
+ */
+public class LwtrtSocket {
+	private static Log log = LogFactory.getLog(LwtrtSocket.class);
+
+	/** Datagrammtypen */
+	public static final int REQUEST = 1;
+	public static final int RESPONSE = 2;
+
+	/** Binaerformat */
+	private static final byte FORMAT_ID = (byte) 0xE7;
+	private static final int OFFSET_TYPE = 1;
+	private static final int OFFSET_SESSION_ID = 2;
+	private static final int OFFSET_REQUEST_ID = 6;
+	private static final int HEADER_LENGTH = 14;
+
+	/** Maximale Nutzdatenlaenge eines UDP-Datagramms ueber IPv4 */
+	private static final int MAX_DATAGRAM_LENGTH = 65507;
+
+	private DatagramSocket socket;
+	private PduCodec codec;
+
+	/** Emulierte Netzstoerungen beim Senden, null = keine */
+	private final NetworkImpairment sendImpairment = NetworkImpairment
+			.getConfigured(NetworkImpairment.Direction.Send);
+
+	/** Wiederverwendeter Empfangspuffer und zugehoeriges Paket */
+	private final byte[] receiveBuffer = new byte[MAX_DATAGRAM_LENGTH];
+	private final DatagramPacket receivePacket = new DatagramPacket(
+			receiveBuffer, receiveBuffer.length);
+
+	/** Aktuell am Socket eingestellte Wartezeit, -1 = noch nicht eingestellt */
+	private int currentTimeout = -1;
+
+	/** Header des zuletzt empfangenen Datagramms */
+	private int type;
+	private int sessionId;
+	private long requestId;
+	private InetAddress remoteAddress;
+	private int remotePort;
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param port
+	 *            UDP-Port, der lokal verwendet werden soll, 0 = beliebig
+	 * @param sendBufferSize
+	 *            Groesse des Sendepuffers in Byte im Profil Default
+	 * @param receiveBufferSize
+	 *            Groesse des Empfangspuffers in Byte im Profil Default
+	 * @param socketTuning
+	 *            Socket-Einstellungen
+	 * @param codec
+	 *            Codec fuer die EchoPDUs
+	 */
+	public LwtrtSocket(int port, int sendBufferSize, int receiveBufferSize,
+			SocketTuning socketTuning, PduCodec codec) throws SocketException {
+		socket = socketTuning.openDatagramSocket(port, sendBufferSize,
+				receiveBufferSize);
+		this.codec = codec;
+		try {
+			log.debug("Groesse des Empfangspuffers des Datagram-Sockets: "
+					+ socket.getReceiveBufferSize() + " Byte");
+			log.debug("Groesse des Sendepuffers des Datagram-Sockets: "
+					+ socket.getSendBufferSize() + " Byte");
+		} catch (SocketException e) {
+			log.debug("Socketfehler: " + e);
+		}
+	}
+
+	/**
+	 * Datagramm kodieren. Das Ergebnis kann mehrfach gesendet werden
+	 * (Sendewiederholung, zwischengespeicherte Response).
+	 *
+	 * @param type
+	 *            REQUEST oder RESPONSE
+	 * @param sessionId
+	 *            Sitzung des Clients
+	 * @param requestId
+	 *            Nummer des Requests
+	 * @param pdu
+	 *            Zu sendende EchoPDU
+	 * @return Datagramm
+	 * @throws IOException
+	 *             Nachricht passt nicht in ein Datagramm
+	 */
+	public byte[] encode(int type, int sessionId, long requestId, EchoPDU pdu)
+			throws IOException {
+		byte[] payload = codec.encode(pdu);
+		if (HEADER_LENGTH + payload.length > MAX_DATAGRAM_LENGTH) {
+			throw new IOException("Nachricht zu lang fuer ein Datagramm: "
+					+ payload.length + " Byte");
+		}
+		byte[] datagram = new byte[HEADER_LENGTH + payload.length];
+		datagram[0] = FORMAT_ID;
+		datagram[OFFSET_TYPE] = (byte) type;
+		BinaryPduCodec.putInt(datagram, OFFSET_SESSION_ID, sessionId);
+		BinaryPduCodec.putLong(datagram, OFFSET_REQUEST_ID, requestId);
+		System.arraycopy(payload, 0, datagram, HEADER_LENGTH, payload.length);
+		return datagram;
+	}
+
+	/**
+	 * Kodiertes Datagramm senden
+	 *
+	 * @param datagram
+	 *            Datagramm (siehe encode)
+	 * @param remoteAddress
+	 *            Adresse des Empfaengers
+	 * @param remotePort
+	 *            Port des Empfaengers
+	 * @throws IOException
+	 */
+	public void send(byte[] datagram, InetAddress remoteAddress, int remotePort)
+			throws IOException {
+		final DatagramPacket packet = new DatagramPacket(datagram,
+				datagram.length, remoteAddress, remotePort);
+		if (sendImpairment == null) {
+			socket.send(packet);
+			return;
+		}
+		for (int copies = sendImpairment.copies(); copies > 0; copies--) {
+			long delay = sendImpairment.delay();
+			if (delay == 0) {
+				socket.send(packet);
+			} else {
+				NetworkImpairment.schedule(new Runnable() {
+					public void run() {
+						try {
+							socket.send(packet);
+						} catch (IOException e) {
+							log.debug("Verzoegertes Senden nicht moeglich: " + e);
+						}
+					}
+				}, delay);
+			}
+		}
+	}
+
+	/**
+	 * Naechstes Datagramm empfangen. Typ, sessionId, requestId und Absender
+	 * sind danach ueber die Getter abrufbar.
+	 *
+	 * @param timeout
+	 *            Wartezeit in ms, 0 = unbegrenzt
+	 * @return Empfangene EchoPDU, null falls das Datagramm fehlerhaft ist
+	 * @throws SocketTimeoutException
+	 *             Wartezeit abgelaufen
+	 * @throws IOException
+	 */
+	public EchoPDU receive(int timeout) throws IOException {
+		if (timeout != currentTimeout) {
+			socket.setSoTimeout(timeout);
+			currentTimeout = timeout;
+		}
+		receivePacket.setLength(receiveBuffer.length);
+		socket.receive(receivePacket);
+		remoteAddress = receivePacket.getAddress();
+		remotePort = receivePacket.getPort();
+
+		int length = receivePacket.getLength();
+		if (length < HEADER_LENGTH || receiveBuffer[0] != FORMAT_ID) {
+			log.debug("RECEIVE: Kein LWTRT-Datagramm von " + remoteAddress + ":"
+					+ remotePort);
+			return null;
+		}
+		type = receiveBuffer[OFFSET_TYPE];
+		sessionId = BinaryPduCodec.getInt(receiveBuffer, OFFSET_SESSION_ID);
+		requestId = BinaryPduCodec.getLong(receiveBuffer, OFFSET_REQUEST_ID);
+		try {
+			return codec.decode(receiveBuffer, HEADER_LENGTH, length
+					- HEADER_LENGTH);
+		} catch (IOException e) {
+			log.error("RECEIVE: EchoPDU nicht dekodierbar: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return Typ des zuletzt empfangenen Datagramms
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return sessionId des zuletzt empfangenen Datagramms
+	 */
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @return requestId des zuletzt empfangenen Datagramms
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @return Absenderadresse des zuletzt empfangenen Datagramms
+	 */
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * @return Absenderport des zuletzt empfangenen Datagramms
+	 */
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	/**
+	 * @return Lokaler Port
+	 */
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Socket schliessen
+	 */
+	public void close() {
+		if (sendImpairment != null) {
+			log.info("Netzstoerung " + sendImpairment);
+		}
+		socket.close();
+	}
+}
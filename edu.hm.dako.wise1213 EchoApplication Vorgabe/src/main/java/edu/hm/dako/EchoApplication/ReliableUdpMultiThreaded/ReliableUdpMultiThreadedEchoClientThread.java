@@ -1,11 +1,6 @@
 package edu.hm.dako.EchoApplication.ReliableUdpMultiThreaded;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.util.Calendar;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -14,7 +9,6 @@ import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
 import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpSocket;
-import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpObject;
 
 
 /**
@@ -61,8 +55,6 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
     
     // Socket-Verbindung
     private ReliableUdpSocket con;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
   
     // Zeitstempel fr RTT-Berechnung und Kalender
 	private long rttStartTime;
@@ -102,9 +94,7 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
 		// Verbindung zum Server aufbauen
 		try {
 			System.out.println(this.getName()+": ReliableUdpSocket erstellen ("+remoteServerAddress+", "+serverPort+")");
-			con = new ReliableUdpSocket(this.remoteServerAddress, this.serverPort);
-		    out = new ObjectOutputStream(con.getOutputStream());
-		    in = new ObjectInputStream(con.getInputStream());
+			con = new ReliableUdpSocket(this.remoteServerAddress, this.serverPort, codecType);
 		    localPort = con.getLocalPort();
 		    currentPort = con.getPort();
 		    log.debug(threadName + ": Verbindung zum Server aufgebaut mit Port " + localPort);
@@ -143,13 +133,13 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
         
         for (int i = 0; i < numberOfMessages; i++) {
 			// RTT-Startzeit ermitteln
-			rttStartTime = System.nanoTime();
+			rttStartTime = awaitSendTime();
 			
 			try {
 				
 				EchoPDU echoSend = new EchoPDU();
 				echoSend.setClientName(this.getName());
-				echoSend.setMessage("DASISTDIEMESSAGE:"+(i+1));
+				echoSend.setMessage(echoSend.getMessageText(this.messageLength)+(i+1));
 				// Letzter Request?
 				if (i == numberOfMessages - 1) {
 					echoSend.setLastRequest(true);
@@ -158,15 +148,7 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
 				
 				
 				//Message wird gesendet
-				//out.writeObject(echoSend);
-				//out.flush();
-				out.writeObject(echoSend);
-				/*
-				ReliableUdpObject obj = new ReliableUdpObject();
-				obj.setData(echoSend);
-				obj.setId(numberOfClient);
-				con.sendIt(InetAddress.getByName(remoteServerAddress), serverPort, obj);
-				*/
+				con.send(echoSend);
 			}
 			catch (IOException e1) {		
 				e1.printStackTrace();
@@ -175,7 +157,7 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
 			
 			try{
 				// Antwort entgegennehmen
-				EchoPDU echoRec = (EchoPDU) in.readObject();
+				EchoPDU echoRec = (EchoPDU) con.receive();
 				//System.out.println("Client "+this.getName()+": "+echoRec.getMessage()+" von "+echoRec.getServerThreadName());
 				// RTT berechnen
 				rtt = System.nanoTime() - rttStartTime;
@@ -185,14 +167,11 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
 			}
 			catch (IOException e1) {	
 				e1.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				System.out.println("Fehler in Typkonvertierung");
-				e.printStackTrace();
 			} 
 			
 			//Wartezeit
 			try {
-				Thread.sleep(clientThinkTime);
+				pauseBetweenRequests(clientThinkTime);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}	
@@ -201,8 +180,6 @@ public class ReliableUdpMultiThreadedEchoClientThread extends
 		  
         try {
         	// Transportverbindung abbauen
-			out.close();
-			in.close();
 			con.close();
 		} catch (IOException e) {
 			e.printStackTrace();
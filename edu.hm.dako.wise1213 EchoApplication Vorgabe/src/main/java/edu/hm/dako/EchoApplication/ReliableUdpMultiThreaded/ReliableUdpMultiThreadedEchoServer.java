@@ -1,10 +1,6 @@
 package edu.hm.dako.EchoApplication.ReliableUdpMultiThreaded;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,6 +12,8 @@ import org.apache.log4j.PropertyConfigurator;
 import sun.security.action.GetLongAction;
 
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpServerSocket;
 import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpSocket;
 
@@ -26,7 +24,7 @@ import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpSocket;
  * 
  */
 // TODO Ganze Klasse implementieren
-public class ReliableUdpMultiThreadedEchoServer extends Thread {
+public class ReliableUdpMultiThreadedEchoServer implements Runnable {
 	private static Log log = LogFactory
 			.getLog(ReliableUdpMultiThreadedEchoServer.class);
 
@@ -38,13 +36,14 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 	// verwaltet
 	private static Map<String, ReliableUdpSocket> connections = new ConcurrentHashMap<String, ReliableUdpSocket>();
 
+	// Ausfuehrungsmodell der Worker-Threads (normale oder virtuelle Threads)
+	private static ThreadingMode threadingMode = ThreadingMode.Platform;
+
 	// TCP-Socket des Servers (Listen-Socket)
 	private static ReliableUdpServerSocket serverSocket;
 
-	// Transportverbindung und Streams fuer einen Client
+	// Transportverbindung fuer einen Client
 	private ReliableUdpSocket con;
-	private ObjectOutputStream out;
-	private ObjectInputStream in;
 
 	// Groesse des Empfangspuffers einer TCP-Verbindung in Byte
 	private static final int receiveBufferSize = 300000;
@@ -54,23 +53,17 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 	 */
 	public ReliableUdpMultiThreadedEchoServer(ReliableUdpSocket incoming) {
 		this.con = incoming;
-
-		// Ein- und Ausgabe-Objektstrom erzeugen
-		try {
-			out = new ObjectOutputStream(incoming.getOutputStream());
-			in = new ObjectInputStream(incoming.getInputStream());
-			System.out.println("Server_"+this.getName()+"_Verbindung angelegt: " + incoming.getPort());
-		} catch (Exception e) {
-			// TODO
-		}
+		System.out.println("Server: Verbindung angelegt: " + incoming.getPort());
 	}
 
 	public static void main(String args[]) {
 		PropertyConfigurator.configureAndWatch("log4j.server.properties",
 				60 * 1000);
+		threadingMode = ThreadingMode.getConfigured();
 
 		try {
-			serverSocket = new ReliableUdpServerSocket(serverPort);
+			serverSocket = new ReliableUdpServerSocket(serverPort,
+					PduCodecType.getConfigured());
 			System.out.println("TCPMultiThreadedEchoServer wartet auf Clients...");
 		} catch (IOException e) {
 			log.debug("Exception bei der Socket-Erzeugung: " + e);
@@ -87,13 +80,15 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 			// neuen Serverthread erstellen
 			ReliableUdpMultiThreadedEchoServer thread = new ReliableUdpMultiThreadedEchoServer(socket1);
 			
-			// connection in Liste eintragen
-			connections.put(thread.getName(), socket1);
-
 			numberOfWorkerThread++;
+			String threadName = "WorkerThread-" + numberOfWorkerThread;
 
-			// Serverthread starten
-			thread.start();
+			// connection in Liste eintragen
+			connections.put(threadName, socket1);
+
+			// Serverthread starten, bei virtuellen Threads laeuft run() auf
+			// einem eigenen virtuellen Thread
+			threadingMode.newThread(thread, threadName).start();
 
 		}
 	}
@@ -121,8 +116,7 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 			try {
 				// Echo-Request entgegennehmen
 				//ber Streams lesen und schreiben...
-				receivedPdu = (EchoPDU) in.readObject();
-				System.out.println("Ausgabe auf Server: "+receivedPdu.getMessage());
+				receivedPdu = (EchoPDU) con.receive();
 				startTime = System.nanoTime();
 				log.debug("Request empfangen von "
 						+ receivedPdu.getClientName() + ": "
@@ -131,25 +125,19 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 				log.debug("Empfangen einer Nachricht nicht moeglich: " + e);
 				finished = true;
 				continue;
-			} catch (ClassNotFoundException e) {
-				log.debug("Unbekannte Objektklasse empfangen: " + e);
-				finished = true;
-				continue;
 			} 
-			System.out.println("Server hat gelesen und will jetzt senden");
 			try {
 				// Echo-Response senden
 				EchoPDU sendPdu = new EchoPDU();
 				log.debug("Serverzeit: " + (System.nanoTime() - startTime)
 						+ " ns");
-				sendPdu.setServerThreadName(this.getName());
+				sendPdu.setServerThreadName(Thread.currentThread().getName());
 				sendPdu.setClientName(receivedPdu.getClientName());
 				sendPdu.setMessage(receivedPdu.getMessage()
 						+ "_vomServerZurueck");
 				sendPdu.setServerTime(System.nanoTime() - startTime);
 
-				out.writeObject(sendPdu);
-				out.flush();
+				con.send(sendPdu);
 				//log.debug("Response gesendet");
 			} catch (IOException e) {
 				log.error("Senden einer Nachricht nicht moeglich: " + e);
@@ -169,22 +157,21 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 		} catch (InterruptedException e3) {
 		}
 
-		System.out.println(this.getName()
+		System.out.println(Thread.currentThread().getName()
 				+ ": Verbindung mit Client abbauen, Remote-TCP-Port "
 				+ con.getPort());
 
 		try {
-			out.flush();
 			con.close();
 		} catch (IOException e) {
 			System.out.println("Exception bei close: " + e);
 		}
 
-		log.debug(this.getName() + " beendet sich");
-		System.out.println(this.getName() + " beendet sich");
+		log.debug(Thread.currentThread().getName() + " beendet sich");
+		System.out.println(Thread.currentThread().getName() + " beendet sich");
 
 		// Verbindung wird aus der Liste gelscht
-		connections.remove(this.getName());
+		connections.remove(Thread.currentThread().getName());
 
 		// Wenn nun in Der Verbindungsliste kein Eintrag mehr vorhanden ist
 		// bedeutet das das dies der letzte Thread ist und nun keiner mehr
@@ -203,9 +190,7 @@ public class ReliableUdpMultiThreadedEchoServer extends Thread {
 			// }
 		}
 
-		// Der Thread wird beendet
-		this.stop();
-
+		// Der Thread wird mit dem Ende von run() beendet
 	} // run
 
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package edu.hm.dako.EchoApplication.ReliableUdpSocket;
+
+/**
+ * Klasse CongestionControl
+ *
+ * Staukontrolle einer Verbindung nach dem AIMD-Verfahren (additive increase,
+ * multiplicative decrease) wie bei TCP. Das Staufenster (cwnd) begrenzt die
+ * Anzahl der Pakete, die gleichzeitig unterwegs sein duerfen:
+ *
+ * <pre>
+ *  Je bestaetigtem Paket:  cwnd += 1         solange cwnd < ssthresh (Slow Start)
+ *                          cwnd += 1 / cwnd  sonst (Congestion Avoidance)
+ *  Verlust erkannt:        ssthresh = max(unterwegs / 2, 2), cwnd = ssthresh
+ *  Timer abgelaufen:       ssthresh = max(unterwegs / 2, 2), cwnd = 1
+ * </pre>
+ *
+ * Nach einem erkannten Verlust wird das Fenster erst wieder verkleinert,
+ * wenn ein Paket verloren geht, das nach der letzten Verkleinerung gesendet
+ * wurde (hoechstens eine Halbierung je Fenster).
+ *
+ * Zusaetzlich wird der Sendeabstand berechnet, mit dem die Pakete eines
+ * Fensters gleichmaessig ueber eine RTT verteilt werden (Pacing), damit
+ * Bursts die Puffer im Netz und beim Empfaenger nicht ueberlaufen lassen.
+ *
+ * Die Klasse ist nicht threadsicher, der Aufrufer muss synchronisieren.
+ *
+ * @version 1.0.0
+ */
+public class CongestionControl {
+
+	/** Anfangsgroesse des Staufensters in Paketen */
+	private static final double initialWindow = 4;
+
+	/** Kleinste Schwelle fuer Slow Start nach einem Verlust */
+	private static final double minThreshold = 2;
+
+	/** Pacing-Faktoren: Im Slow Start darf das Fenster je RTT verdoppelt werden */
+	private static final double slowStartPacingGain = 2.0;
+	private static final double congestionAvoidancePacingGain = 1.25;
+
+	/** Obergrenze des Staufensters (Sendefenster der Verbindung) */
+	private final double maxWindow;
+
+	/** Staufenster in Paketen */
+	private double window;
+
+	/** Schwelle zwischen Slow Start und Congestion Avoidance */
+	private double threshold;
+
+	/** Erste Id, deren Verlust das Fenster erneut verkleinert */
+	private long recoveryPoint = 0;
+
+	/**
+	 * Konstruktor
+	 *
+	 * @param maxWindow Obergrenze des Staufensters in Paketen
+	 */
+	public CongestionControl(int maxWindow) {
+		this.maxWindow = Math.max(1, maxWindow);
+		this.window = Math.min(initialWindow, this.maxWindow);
+		this.threshold = this.maxWindow;
+	}
+
+	/**
+	 * Pakete wurden bestaetigt: Fenster vergroessern
+	 *
+	 * @param packets Anzahl neu bestaetigter Pakete
+	 */
+	public void onAck(int packets) {
+		for (int i = 0; i < packets; i++) {
+			if (window < threshold) {
+				window += 1;
+			} else {
+				window += 1 / window;
+			}
+		}
+		window = Math.min(window, maxWindow);
+	}
+
+	/**
+	 * Verlust eines Pakets erkannt (selektive Bestaetigung spaeterer Pakete):
+	 * Fenster halbieren, falls das Paket nach der letzten Verkleinerung
+	 * gesendet wurde
+	 *
+	 * @param lostId Id des verlorenen Pakets
+	 * @param nextId Naechste zu vergebende Id
+	 * @param inFlight Anzahl der unbestaetigten Pakete
+	 * @return true, falls das Fenster verkleinert wurde
+	 */
+	public boolean onLoss(long lostId, long nextId, int inFlight) {
+		if (lostId < recoveryPoint) {
+			return false;
+		}
+		threshold = Math.max(inFlight / 2.0, minThreshold);
+		window = threshold;
+		recoveryPoint = nextId;
+		return true;
+	}
+
+	/**
+	 * Timer fuer die Sendewiederholung abgelaufen: Neubeginn mit Slow Start
+	 *
+	 * @param nextId Naechste zu vergebende Id
+	 * @param inFlight Anzahl der unbestaetigten Pakete
+	 */
+	public void onTimeout(long nextId, int inFlight) {
+		threshold = Math.max(inFlight / 2.0, minThreshold);
+		window = 1;
+		recoveryPoint = nextId;
+	}
+
+	/**
+	 * @return Anzahl der Pakete, die gleichzeitig unterwegs sein duerfen
+	 */
+	public int getWindow() {
+		return Math.max(1, (int) window);
+	}
+
+	/**
+	 * Abstand zwischen zwei Paketen, mit dem das aktuelle Fenster (mit
+	 * Pacing-Faktor) auf eine RTT verteilt wird
+	 *
+	 * @param smoothedRtt Geglaettete RTT in ns, negativ = unbekannt
+	 * @return Sendeabstand in ns, 0 = kein Pacing
+	 */
+	public long getPacingInterval(long smoothedRtt) {
+		if (smoothedRtt <= 0) {
+			return 0;
+		}
+		double gain = (window < threshold) ? slowStartPacingGain : congestionAvoidancePacingGain;
+		return (long) (smoothedRtt / (window * gain));
+	}
+
+	@Override
+	public String toString() {
+		return "cwnd=" + String.format("%.1f", window) + ", ssthresh="
+				+ String.format("%.1f", threshold);
+	}
+}
@@ -0,0 +1,205 @@
+package edu.hm.dako.EchoApplication.ReliableUdpSocket;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Klasse ConnectionMap
+ *
+ * Zuordnung von Kommunikationspartnern (Adresse, Port, Verbindungs-Id) zu
+ * den Verbindungen eines ReliableUdpServerSockets. Die Suche liegt auf dem
+ * Weg jedes empfangenen Pakets und arbeitet deshalb ohne Sperren und ohne
+ * Objekte anzulegen:
+ *
+ * - Der Schluessel ist ein long aus Adresse, Port und Verbindungs-Id (siehe
+ *   key). Er ist nicht in jedem Fall eindeutig; bei gleichem Schluessel
+ *   werden deshalb Adresse, Port und Id der Verbindung verglichen und
+ *   bei Abweichung weiter sondiert.
+ * - Die Tabelle verwendet offene Adressierung mit linearem Sondieren
+ *   (long-Array fuer die Schluessel, Werte in einem AtomicReferenceArray).
+ *   Ein Eintrag wird erst nach seinem Schluessel sichtbar gemacht, ein
+ *   Leser, der den Wert sieht, sieht also auch den Schluessel.
+ * - Entfernte Eintraege bleiben als Grabstein stehen, damit die
+ *   Sondierkette fuer parallele Leser nicht unterbrochen wird. Belegte
+ *   Plaetze einschliesslich Grabsteinen werden beim Einfuegen gezaehlt;
+ *   ist die Tabelle halb voll, wird eine neue Tabelle ohne Grabsteine
+ *   aufgebaut und als Ganzes veroeffentlicht.
+ *
+ * Aendernde Methoden sind synchronisiert (neue Verbindungen und
+ * Verbindungsabbau sind selten), get kann von beliebigen Threads
+ * aufgerufen werden.
+ *
+ * @version 1.0.0
+ */
+public class ConnectionMap {
+
+	/** Anfangsgroesse der Tabelle, Zweierpotenz */
+	private static final int initialCapacity = 64;
+
+	/** Markierung fuer einen entfernten Eintrag */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * Hash-Tabelle, wird nach der Veroeffentlichung nur noch durch
+	 * Einfuegen in freie Plaetze und durch Grabsteine veraendert
+	 */
+	private static final class Table {
+		final long[] keys;
+		final AtomicReferenceArray<Object> values;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			values = new AtomicReferenceArray<Object>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Table table = new Table(initialCapacity);
+
+	/** Belegte Plaetze einschliesslich Grabsteinen (geschuetzt durch this) */
+	private int usedSlots = 0;
+
+	/** Anzahl der Verbindungen */
+	private volatile int size = 0;
+
+	/**
+	 * Schluessel einer Verbindung. Inet4Address.hashCode liefert die Adresse
+	 * selbst; sie belegt die oberen 32 Bit, Port und Verbindungs-Id werden
+	 * in die unteren 32 Bit gemischt.
+	 *
+	 * @param address Adresse des Kommunikationspartners
+	 * @param port Port des Kommunikationspartners
+	 * @param connectionId Verbindungs-Id
+	 * @return Schluessel
+	 */
+	public static long key(InetAddress address, int port, int connectionId) {
+		return ((long) address.hashCode() << 32)
+				| ((connectionId ^ (port << 16) ^ port) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Verbindung suchen
+	 *
+	 * @param address Adresse des Kommunikationspartners
+	 * @param port Port des Kommunikationspartners
+	 * @param connectionId Verbindungs-Id
+	 * @return Verbindung oder null
+	 */
+	public ReliableUdpSocket get(InetAddress address, int port, int connectionId) {
+		long key = key(address, port, connectionId);
+		Table t = table;
+		int i = index(key, t.mask);
+		Object value;
+		while ((value = t.values.get(i)) != null) {
+			if (value != REMOVED && t.keys[i] == key) {
+				ReliableUdpSocket con = (ReliableUdpSocket) value;
+				if (con.connectionId == connectionId && con.remotePort == port
+						&& address.equals(con.remoteAddress)) {
+					return con;
+				}
+			}
+			i = (i + 1) & t.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Verbindung eintragen, falls fuer Adresse, Port und Verbindungs-Id noch
+	 * keine Verbindung eingetragen ist
+	 *
+	 * @param con Verbindung
+	 * @return Bereits eingetragene Verbindung oder null, falls con
+	 *         eingetragen wurde
+	 */
+	public synchronized ReliableUdpSocket putIfAbsent(ReliableUdpSocket con) {
+		ReliableUdpSocket existing = get(con.remoteAddress, con.remotePort,
+				con.connectionId);
+		if (existing != null) {
+			return existing;
+		}
+		long key = key(con.remoteAddress, con.remotePort, con.connectionId);
+		Table t = table;
+		int i = index(key, t.mask);
+		while (t.values.get(i) != null) {
+			i = (i + 1) & t.mask;
+		}
+		if (2 * (usedSlots + 1) > t.keys.length) {
+			t = rebuild(t);
+			i = index(key, t.mask);
+			while (t.values.get(i) != null) {
+				i = (i + 1) & t.mask;
+			}
+		}
+		t.keys[i] = key;
+		t.values.set(i, con);
+		usedSlots++;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Verbindung austragen
+	 *
+	 * @param con Verbindung
+	 * @return true, falls die Verbindung eingetragen war
+	 */
+	public synchronized boolean remove(ReliableUdpSocket con) {
+		long key = key(con.remoteAddress, con.remotePort, con.connectionId);
+		Table t = table;
+		int i = index(key, t.mask);
+		Object value;
+		while ((value = t.values.get(i)) != null) {
+			if (value == con) {
+				t.values.set(i, REMOVED);
+				size--;
+				return true;
+			}
+			i = (i + 1) & t.mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Anzahl der eingetragenen Verbindungen
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Neue Tabelle ohne Grabsteine aufbauen und veroeffentlichen. Die
+	 * Kapazitaet wird verdoppelt, wenn mehr als ein Viertel der Plaetze mit
+	 * Verbindungen belegt ist. Aufruf nur mit Sperre auf this.
+	 */
+	private Table rebuild(Table old) {
+		int capacity = old.keys.length;
+		if (4 * (size + 1) > capacity) {
+			capacity *= 2;
+		}
+		Table t = new Table(capacity);
+		for (int j = 0; j < old.keys.length; j++) {
+			Object value = old.values.get(j);
+			if (value == null || value == REMOVED) {
+				continue;
+			}
+			int i = index(old.keys[j], t.mask);
+			while (t.values.get(i) != null) {
+				i = (i + 1) & t.mask;
+			}
+			t.keys[i] = old.keys[j];
+			t.values.set(i, value);
+		}
+		usedSlots = size;
+		table = t;
+		return t;
+	}
+
+	/**
+	 * Startplatz eines Schluessels, die Bits werden durch Multiplikation
+	 * gemischt (Fibonacci-Hashing)
+	 */
+	private static int index(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+}
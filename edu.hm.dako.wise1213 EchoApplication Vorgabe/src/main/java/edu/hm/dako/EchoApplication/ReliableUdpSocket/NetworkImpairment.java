@@ -0,0 +1,255 @@
+package edu.hm.dako.EchoApplication.ReliableUdpSocket;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse NetworkImpairment
+ *
+ * Emuliert ein gestoertes Netz fuer eine Richtung (Senden oder Empfangen)
+ * eines UnreliableUdpSockets, um die zuverlaessigen Transporte auf einem
+ * einzelnen Rechner unter Verlust, Verzoegerung, Vertauschung und
+ * Duplizierung vergleichen zu koennen. Fuer jedes Datagramm wird
+ * entschieden:
+ *
+ * - Verlust: unabhaengig mit Wahrscheinlichkeit loss und/oder in Bursts
+ *   nach dem Gilbert-Elliott-Modell (zwei Zustaende Gut/Schlecht mit
+ *   Uebergangswahrscheinlichkeiten ge.p (Gut nach Schlecht) und ge.r
+ *   (Schlecht nach Gut) und Verlustwahrscheinlichkeiten ge.lossgood und
+ *   ge.lossbad je Zustand),
+ * - Duplizierung mit Wahrscheinlichkeit duplicate (eine weitere Kopie),
+ * - Verzoegerung jeder Kopie um delay ms plus eine gleichverteilte
+ *   Abweichung von hoechstens jitter ms,
+ * - Vertauschung: Mit Wahrscheinlichkeit reorder wird ein Datagramm ohne
+ *   Verzoegerung zugestellt und ueberholt dadurch die verzoegerten
+ *   Vorgaenger (wie bei netem, nur zusammen mit delay wirksam).
+ *
+ * Verzoegerte Datagramme werden vom gemeinsamen Thread des scheduler
+ * zugestellt, der Aufrufer wird nicht blockiert.
+ *
+ * Konfiguration ueber System-Properties (Wahrscheinlichkeiten von 0.0 bis
+ * 1.0, Zeiten in ms): echo.impair.send.&lt;Parameter&gt; und
+ * echo.impair.receive.&lt;Parameter&gt; fuer die jeweilige Richtung,
+ * echo.impair.&lt;Parameter&gt; fuer beide Richtungen. Die Zufallszahlen
+ * werden aus echo.impair.seed (Default 1), der Richtung und der
+ * Reihenfolge, in der die Sockets angelegt werden, abgeleitet. Laeufe mit
+ * gleicher Konfiguration sind damit reproduzierbar.
+ *
+ * Ist fuer eine Richtung nichts eingestellt, liefert getConfigured null und
+ * der Socket arbeitet ohne Umweg.
+ *
+ * @version 1.0.0
+ */
+public class NetworkImpairment {
+
+	private static Log log = LogFactory.getLog(NetworkImpairment.class);
+
+	/**
+	 * Richtung, in der die Stoerungen wirken
+	 */
+	public enum Direction {
+		Send("send"), Receive("receive");
+
+		private final String propertyName;
+
+		private Direction(String propertyName) {
+			this.propertyName = propertyName;
+		}
+	}
+
+	/** Praefix der System-Properties */
+	public static final String PROPERTY_PREFIX = "echo.impair.";
+
+	/** System-Property fuer den Startwert der Zufallszahlen */
+	public static final String SEED_PROPERTY = PROPERTY_PREFIX + "seed";
+
+	/** Laufende Nummer der angelegten Sockets fuer die Zufallszahlen */
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/** Gemeinsamer Thread fuer verzoegerte Datagramme aller Sockets */
+	private static ScheduledExecutorService scheduler;
+
+	private final Direction direction;
+	private final double loss;
+	private final double gilbertP;
+	private final double gilbertR;
+	private final double lossGood;
+	private final double lossBad;
+	private final long delay;
+	private final long jitter;
+	private final double reorder;
+	private final double duplicate;
+
+	private final Random random;
+
+	/** Zustand des Gilbert-Elliott-Modells */
+	private boolean badState = false;
+
+	/** Statistik */
+	private long packets = 0;
+	private long dropped = 0;
+	private long duplicated = 0;
+	private long reordered = 0;
+
+	private NetworkImpairment(Direction direction, long seed) {
+		this.direction = direction;
+		loss = getProbability(direction, "loss");
+		gilbertP = getProbability(direction, "ge.p");
+		gilbertR = getProbability(direction, "ge.r");
+		lossGood = getProbability(direction, "ge.lossgood");
+		lossBad = (getProperty(direction, "ge.lossbad") == null) ? 1.0
+				: getProbability(direction, "ge.lossbad");
+		delay = getMillisAsNanos(direction, "delay");
+		jitter = getMillisAsNanos(direction, "jitter");
+		reorder = getProbability(direction, "reorder");
+		duplicate = getProbability(direction, "duplicate");
+		random = new Random(seed);
+	}
+
+	/**
+	 * Stoerungen fuer eine Richtung eines neuen Sockets anlegen
+	 *
+	 * @param direction Richtung
+	 * @return Konfigurierte Stoerungen oder null, falls fuer die Richtung
+	 *         keine eingestellt sind
+	 */
+	public static NetworkImpairment getConfigured(Direction direction) {
+		long seed = Long.getLong(SEED_PROPERTY, 1L).longValue();
+		int instance = instances.getAndIncrement();
+		NetworkImpairment impairment = new NetworkImpairment(direction,
+				seed * 1000003L + 2 * instance + direction.ordinal());
+		if (!impairment.isActive()) {
+			return null;
+		}
+		log.info("Netzstoerung " + direction + ": " + impairment.describe());
+		return impairment;
+	}
+
+	private boolean isActive() {
+		return loss > 0 || gilbertP > 0 || delay > 0 || jitter > 0
+				|| reorder > 0 || duplicate > 0;
+	}
+
+	/**
+	 * Anzahl der zuzustellenden Kopien eines Datagramms bestimmen
+	 *
+	 * @return 0 = verloren, 1 = normal, 2 = dupliziert
+	 */
+	public synchronized int copies() {
+		packets++;
+		boolean lost = loss > 0 && random.nextDouble() < loss;
+		if (gilbertP > 0) {
+			if (badState) {
+				badState = !(random.nextDouble() < gilbertR);
+			} else {
+				badState = random.nextDouble() < gilbertP;
+			}
+			double stateLoss = badState ? lossBad : lossGood;
+			lost |= stateLoss > 0 && random.nextDouble() < stateLoss;
+		}
+		if (lost) {
+			dropped++;
+			return 0;
+		}
+		if (duplicate > 0 && random.nextDouble() < duplicate) {
+			duplicated++;
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Verzoegerung einer Kopie bestimmen
+	 *
+	 * @return Verzoegerung in ns, 0 = sofort zustellen
+	 */
+	public synchronized long delay() {
+		if (reorder > 0 && random.nextDouble() < reorder) {
+			reordered++;
+			return 0;
+		}
+		long d = delay;
+		if (jitter > 0) {
+			d += (long) ((2 * random.nextDouble() - 1) * jitter);
+		}
+		return Math.max(0, d);
+	}
+
+	/**
+	 * Aufgabe nach Ablauf einer Verzoegerung ausfuehren
+	 *
+	 * @param task Aufgabe
+	 * @param delay Verzoegerung in ns
+	 */
+	public static void schedule(Runnable task, long delay) {
+		getScheduler().schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "NetworkImpairment");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	private String describe() {
+		return "loss=" + loss + ", ge.p=" + gilbertP + ", ge.r=" + gilbertR
+				+ ", ge.lossgood=" + lossGood + ", ge.lossbad=" + lossBad
+				+ ", delay=" + TimeUnit.NANOSECONDS.toMicros(delay) + " us, jitter="
+				+ TimeUnit.NANOSECONDS.toMicros(jitter) + " us, reorder=" + reorder
+				+ ", duplicate=" + duplicate;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return direction + ": " + packets + " Datagramme, " + dropped
+				+ " verworfen, " + duplicated + " dupliziert, " + reordered
+				+ " vorgezogen";
+	}
+
+	/**
+	 * Wert eines Parameters, der richtungsspezifische Wert hat Vorrang
+	 */
+	private static String getProperty(Direction direction, String name) {
+		String value = System.getProperty(PROPERTY_PREFIX + direction.propertyName
+				+ "." + name);
+		if (value == null) {
+			value = System.getProperty(PROPERTY_PREFIX + name);
+		}
+		return value;
+	}
+
+	private static double getDouble(Direction direction, String name) {
+		String value = getProperty(direction, name);
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Ungueltiger Wert fuer " + name + ": " + value);
+			return 0;
+		}
+	}
+
+	private static double getProbability(Direction direction, String name) {
+		return Math.min(Math.max(getDouble(direction, name), 0.0), 1.0);
+	}
+
+	private static long getMillisAsNanos(Direction direction, String name) {
+		return (long) (Math.max(getDouble(direction, name), 0.0) * 1000000.0);
+	}
+}
@@ -0,0 +1,208 @@
+package edu.hm.dako.EchoApplication.ReliableUdpSocket;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Klasse ReliableUdpEngine
+ *
+ * Ereignisschleife eines ReliableUdpServerSockets: Ein einziger Thread
+ * bearbeitet alle Verbindungen des Ports. Er
+ *
+ * - empfaengt alle Datagramme (nicht blockierend ueber einen Selector) und
+ *   ordnet sie der zugehoerigen Verbindung zu,
+ * - fuehrt fuer jedes Paket das Protokoll der Verbindung aus (Bestaetigen,
+ *   Puffern, Weitergeben an die Anwendung),
+ * - fuehrt alle Timer der Verbindungen (Sendewiederholungen).
+ *
+ * Die Anwendungsthreads senden selbst ueber den gemeinsamen Socket und
+ * holen empfangene Daten aus der Queue ihrer Verbindung (siehe
+ * ReliableUdpSocket.send/receive). Muss ein Timer neu gestellt werden,
+ * meldet die Verbindung dies ueber requestTimer an; der Thread wird dazu
+ * ueber den Selector geweckt.
+ *
+ * Timer werden in einer Prioritaetswarteschlange nach Ablaufzeit gehalten.
+ * Je Verbindung ist hoechstens ein Eintrag gueltig (ReliableUdpSocket.
+ * scheduledDeadline), aeltere Eintraege werden beim Ablauf verworfen.
+ *
+ * @version 1.0.0
+ */
+public class ReliableUdpEngine extends Thread {
+
+	private static Log log = LogFactory.getLog(ReliableUdpEngine.class);
+
+	/** Maximale Wartezeit im Selector, wenn kein Timer laeuft, in ms */
+	private static final int idleTimeout = 1000;
+
+	/**
+	 * Timer-Eintrag einer Verbindung
+	 */
+	private static class TimerEntry implements Comparable<TimerEntry> {
+		final long deadline;
+		final ReliableUdpSocket connection;
+
+		TimerEntry(long deadline, ReliableUdpSocket connection) {
+			this.deadline = deadline;
+			this.connection = connection;
+		}
+
+		public int compareTo(TimerEntry other) {
+			return (deadline < other.deadline) ? -1
+					: ((deadline == other.deadline) ? 0 : 1);
+		}
+	}
+
+	private final ReliableUdpServerSocket basisSocket;
+	private final UnreliableUdpSocket unreliableSocket;
+	private final Selector selector;
+
+	private volatile boolean running = true;
+
+	/** Timer aller Verbindungen, nur im Engine-Thread verwendet */
+	private final PriorityQueue<TimerEntry> timers = new PriorityQueue<TimerEntry>();
+
+	/** Verbindungen, deren Timer neu gestellt werden muss */
+	private final ConcurrentLinkedQueue<ReliableUdpSocket> timerRequests = new ConcurrentLinkedQueue<ReliableUdpSocket>();
+
+	ReliableUdpEngine(ReliableUdpServerSocket basisSocket) throws IOException {
+		this.basisSocket = basisSocket;
+		this.unreliableSocket = basisSocket.unreliableSocket;
+		this.selector = Selector.open();
+		unreliableSocket.register(selector);
+		setName("ReliableUdpEngine: " + unreliableSocket.getLocalPort());
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		log.debug(getName() + " gestartet");
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				runTimers(now);
+
+				long wait = idleTimeout;
+				TimerEntry next = timers.peek();
+				if (next != null) {
+					wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - now + 999999));
+				}
+				selector.select(wait);
+				selector.selectedKeys().clear();
+
+				receiveAll();
+			}
+		} catch (IOException e) {
+			if (running) {
+				log.error("Ereignisschleife abgebrochen", e);
+			}
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.debug("Fehler beim Schliessen des Selectors: " + e);
+			}
+			unreliableSocket.close();
+			log.debug(getName() + " beendet");
+		}
+	}
+
+	/**
+	 * Alle anstehenden Datagramme lesen und an die Verbindungen verteilen.
+	 * Nicht dekodierbare Datagramme ueberspringt bereits receiveNow, Fehler
+	 * des Channels beenden die Ereignisschleife.
+	 */
+	private void receiveAll() throws IOException {
+		while (running) {
+			Object received = unreliableSocket.receiveNow();
+			if (received == null) {
+				return;
+			}
+			if (!(received instanceof ReliableUdpObject)) {
+				log.error("Unerwartete Nachricht empfangen und verworfen: "
+						+ received.getClass().getName());
+				continue;
+			}
+			ReliableUdpObject pdu = (ReliableUdpObject) received;
+
+			ReliableUdpSocket connection = basisSocket.demultiplex(
+					unreliableSocket.getRemoteAddress(),
+					unreliableSocket.getRemotePort(), pdu);
+			if (connection != null) {
+				connection.processPacket(pdu);
+				schedule(connection);
+			}
+		}
+	}
+
+	/**
+	 * Abgelaufene Timer ausfuehren und angeforderte Timer stellen
+	 */
+	private void runTimers(long now) {
+		ReliableUdpSocket requested;
+		while ((requested = timerRequests.poll()) != null) {
+			schedule(requested);
+		}
+
+		TimerEntry entry;
+		while ((entry = timers.peek()) != null && entry.deadline - now <= 0) {
+			timers.poll();
+			ReliableUdpSocket connection = entry.connection;
+			if (connection.scheduledDeadline != entry.deadline) {
+				// Veralteter Eintrag
+				continue;
+			}
+			connection.scheduledDeadline = ReliableUdpSocket.NO_DEADLINE;
+			connection.onTimer(now);
+			schedule(connection);
+		}
+	}
+
+	/**
+	 * Timer einer Verbindung stellen, falls ihre naechste Ablaufzeit vor dem
+	 * bereits gestellten Timer liegt
+	 */
+	private void schedule(ReliableUdpSocket connection) {
+		long deadline = connection.nextDeadline();
+		if (deadline == ReliableUdpSocket.NO_DEADLINE) {
+			return;
+		}
+		long scheduled = connection.scheduledDeadline;
+		if (scheduled != ReliableUdpSocket.NO_DEADLINE && scheduled - deadline <= 0) {
+			return;
+		}
+		connection.scheduledDeadline = deadline;
+		timers.add(new TimerEntry(deadline, connection));
+	}
+
+	/**
+	 * Von Anwendungsthreads aufzurufen, wenn sich die naechste Ablaufzeit
+	 * einer Verbindung nach vorne verschoben haben kann
+	 *
+	 * @param connection Verbindung
+	 */
+	void requestTimer(ReliableUdpSocket connection) {
+		timerRequests.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Ereignisschleife beenden und Socket schliessen
+	 */
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+		if (Thread.currentThread() != this) {
+			try {
+				join();
+			} catch (InterruptedException e) {
+				log.error("Warten auf " + getName() + " unterbrochen");
+			}
+		}
+	}
+}
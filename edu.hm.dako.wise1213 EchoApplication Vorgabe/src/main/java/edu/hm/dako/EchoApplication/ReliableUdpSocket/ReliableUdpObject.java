@@ -4,18 +4,54 @@ import java.io.Serializable;
 
 /**
  * Objekt fuer die zuverlaessige Kommunikation zwischen Client und Server.
+ * 
+ * Ein Objekt ist ein Datenpaket (data gesetzt), eine reine Bestaetigung
+ * (ack gesetzt, data leer) oder ein Datenpaket mit angehaengter
+ * Bestaetigung (beides gesetzt).
+ * 
+ * Eine Bestaetigung besteht aus der kumulativen Bestaetigung ackNumber (alle
+ * Pakete mit kleinerer Id sind angekommen) und optional selektiven
+ * Bestaetigungen fuer einzelne, danach angekommene Bereiche
+ * (selectiveAcks: Paare aus erster Id und erster nicht mehr enthaltener
+ * Id). Zusaetzlich meldet der Empfaenger mit window, wie viele Pakete ab
+ * ackNumber er noch aufnehmen kann (Flusskontrolle).
+ * 
+ * Grosse Nachrichten werden auf mehrere Pakete mit aufeinanderfolgenden Ids
+ * verteilt (Fragmente). Bei allen ausser dem letzten Fragment ist
+ * moreFragments gesetzt, das erste Fragment traegt in messageLength die
+ * Laenge der ganzen Nachricht (sonst 0).
+ * 
+ * Nutzdaten sind ein Ausschnitt eines byte[] (dataOffset, dataLength), damit
+ * Fragmente ohne Kopie auf die kodierte Nachricht und empfangene Pakete auf
+ * den Empfangspuffer des Sockets verweisen koennen.
+ * 
+ * Die connectionId unterscheidet mehrere Verbindungen, die ueber denselben
+ * UDP-Port eines Clients laufen (siehe ReliableUdpServerSocket.
+ * getClientEndpoint).
  *   
  * @author Weiss
  * 
- * @version 1.0.1
+ * @version 1.1.0
  */
 
 public class ReliableUdpObject implements Serializable{
 
-	private static final long serialVersionUID = 1000011111L;
+	private static final long serialVersionUID = 1000011116L;
+
+	/** Keine selektiven Bestaetigungen */
+	static final long[] NO_SELECTIVE_ACKS = new long[0];
+
 	public long id;
 	public Object data;
+	int dataOffset = 0;
+	int dataLength = 0;
+	int connectionId;
+	boolean moreFragments = false;
+	int messageLength = 0;
 	boolean ack=false;
+	long ackNumber;
+	int window;
+	long[] selectiveAcks = NO_SELECTIVE_ACKS;
 	public long getId() {
 		return id;
 	}
@@ -27,6 +63,37 @@ public class ReliableUdpObject implements Serializable{
 	}
 	public void setData(Object data) {
 		this.data = data;
+		this.dataOffset = 0;
+		this.dataLength = (data instanceof byte[]) ? ((byte[]) data).length : 0;
+	}
+	public void setPayload(byte[] buffer, int offset, int length) {
+		this.data = buffer;
+		this.dataOffset = offset;
+		this.dataLength = length;
+	}
+	public int getDataOffset() {
+		return dataOffset;
+	}
+	public int getDataLength() {
+		return dataLength;
+	}
+	public int getConnectionId() {
+		return connectionId;
+	}
+	public void setConnectionId(int connectionId) {
+		this.connectionId = connectionId;
+	}
+	public boolean isMoreFragments() {
+		return moreFragments;
+	}
+	public void setMoreFragments(boolean moreFragments) {
+		this.moreFragments = moreFragments;
+	}
+	public int getMessageLength() {
+		return messageLength;
+	}
+	public void setMessageLength(int messageLength) {
+		this.messageLength = messageLength;
 	}
 	public boolean isAck() {
 		return ack;
@@ -34,5 +101,39 @@ public class ReliableUdpObject implements Serializable{
 	public void setAck(boolean ack) {
 		this.ack = ack;
 	}
+	public long getAckNumber() {
+		return ackNumber;
+	}
+	public void setAckNumber(long ackNumber) {
+		this.ackNumber = ackNumber;
+	}
+	public int getWindow() {
+		return window;
+	}
+	public void setWindow(int window) {
+		this.window = window;
+	}
+	public long[] getSelectiveAcks() {
+		return selectiveAcks;
+	}
+	public void setSelectiveAcks(long[] selectiveAcks) {
+		this.selectiveAcks = selectiveAcks;
+	}
+
+	/**
+	 * Kopie eines Datenpakets ohne Bestaetigung, die Nutzdaten werden nicht
+	 * kopiert. Dient als Rahmen fuer eine einzelne Uebertragung.
+	 */
+	ReliableUdpObject copyWithoutAck() {
+		ReliableUdpObject copy = new ReliableUdpObject();
+		copy.id = id;
+		copy.data = data;
+		copy.dataOffset = dataOffset;
+		copy.dataLength = dataLength;
+		copy.connectionId = connectionId;
+		copy.moreFragments = moreFragments;
+		copy.messageLength = messageLength;
+		return copy;
+	}
 	
-}
\ No newline at end of file
+}
@@ -1,28 +1,44 @@
 package edu.hm.dako.EchoApplication.ReliableUdpSocket;
 
 import java.io.IOException;
+import java.net.BindException;
 import java.net.InetAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.log4j.varia.ReloadingPropertyConfigurator;
 
-import edu.hm.dako.EchoApplication.Basics.EchoPDU;
-import edu.hm.dako.EchoApplication.ReliableUdpSocket.ReliableUdpSocket.ReceivedPacketProcessorThread;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
 
 /**
  * Klasse ReliableUDPSeverSocket
  * 
  * Entspricht einer stark vereinfachten TCP Socket-Implementierung. Es werden
- * die selben Methoden bereitgestellt. Als Sicherungsmassnahme wird ein
- * Stop-And-Go Verfahren mit einer 3-maligen Sendewiederholung realisiert.
+ * die selben Methoden bereitgestellt. Das Sicherungsverfahren ist in
+ * ReliableUdpSocket beschrieben.
+ * 
+ * Alle Verbindungen eines Ports werden von einem einzigen Thread bearbeitet
+ * (ReliableUdpEngine).
+ * 
+ * Clients oeffnen keinen eigenen Port je Verbindung: Alle Client-Verbindungen
+ * eines Prozesses teilen sich einen (oder bis zu echo.rudp.client.endpoints)
+ * Client-Endpunkte auf freien Ports. Die Verbindungen werden ueber eine vom
+ * Endpunkt vergebene Verbindungs-Id unterschieden, die jedes Paket traegt.
+ * Ein Endpunkt wird geschlossen, wenn seine letzte Verbindung geschlossen
+ * wird.
+ * 
+ * Die Pakete werden unabhaengig vom Codec der Nutzdaten im Binaerformat
+ * (fester Header, Nutzdaten als Bytes) uebertragen. Zum Vergleich kann mit
+ * echo.rudp.framing=JavaSerialization das ganze ReliableUdpObject
+ * serialisiert werden; Client und Server muessen dasselbe Format verwenden.
  * 
  * @author Weiss
  * 
@@ -32,20 +48,27 @@ public class ReliableUdpServerSocket {
 	private static Log log = LogFactory.getLog(ReliableUdpServerSocket.class);
 
 	/**
-	 * Map der lokal verwendeten Ports und der zugehoerigen PortListener, die
-	 * alle ankommenden Nachrichten auf diesen Port annehmen
+	 * Map der lokal verwendeten Ports und der zugehoerigen ServerSockets,
+	 * deren Engines alle ankommenden Nachrichten auf diesen Port annehmen.
+	 * Ein Port wird mit putIfAbsent belegt, bevor er geoeffnet wird.
 	 */
-	public static Map<Integer, LocalPortListener> aktivePortsUndDerenListener = new HashMap<Integer, LocalPortListener>();
+	public static final ConcurrentMap<Integer, ReliableUdpServerSocket> aktivePortsUndDerenListener = new ConcurrentHashMap<Integer, ReliableUdpServerSocket>();
 
 	/**
 	 * Der unreliable UDP Socket fuer diesen Port
 	 */
 	UnreliableUdpSocket unreliableSocket;
+
 	/**
-	 * Eine Map aller zu diesem Socket/Port gehoerenden aktiven
-	 * ReliableUDPSockets, hinterlegt mit ihren ConnectionStrings als Schluessel
+	 * Ereignisschleife, die alle Verbindungen dieses Ports bearbeitet
 	 */
-	protected Map<String, ReliableUdpSocket> reliableSockets = new ConcurrentHashMap<String, ReliableUdpSocket>();
+	ReliableUdpEngine engine;
+
+	/**
+	 * Alle zu diesem Socket/Port gehoerenden aktiven ReliableUDPSockets,
+	 * nach Adresse und Port des Kommunikationspartners
+	 */
+	protected final ConnectionMap reliableSockets = new ConnectionMap();
 
 	/**
 	 * Eine BlockingQueue mit aller zu diesem Port gehoerenden
@@ -59,8 +82,55 @@ public class ReliableUdpServerSocket {
 	 * Der Port dieses Sockets
 	 */
 	Integer port;
+
+	/**
+	 * true, falls dies ein gemeinsamer Endpunkt fuer Client-Verbindungen ist
+	 * (siehe getClientEndpoint). Ein solcher Endpunkt nimmt keine neuen
+	 * Verbindungen an.
+	 */
 	boolean intializedFromClient;
 
+	/**
+	 * Codec fuer die Nutzdaten auf diesem Port
+	 */
+	PduCodecType codecType;
+
+	/** System-Property fuer das Paketformat (Binary oder JavaSerialization) */
+	public static final String FRAMING_PROPERTY = "echo.rudp.framing";
+
+	/** Pakete im Binaerformat statt als serialisierte ReliableUdpObjects */
+	static final boolean binaryFraming = !PduCodecType.JavaSerialization.name()
+			.equals(System.getProperty(FRAMING_PROPERTY, PduCodecType.Binary.name()).trim());
+
+	/** System-Property fuer die Anzahl gemeinsamer Client-Endpunkte je Codec */
+	public static final String CLIENT_ENDPOINTS_PROPERTY = "echo.rudp.client.endpoints";
+
+	/**
+	 * Maximale Anzahl gemeinsamer Client-Endpunkte (UDP-Ports) je Codec, auf
+	 * die alle Client-Verbindungen verteilt werden
+	 */
+	private static final int maxClientEndpoints = Math.max(1,
+			Integer.getInteger(CLIENT_ENDPOINTS_PROPERTY, 1).intValue());
+
+	/**
+	 * Offene Client-Endpunkte, Zugriff nur mit Sperre auf die Liste
+	 */
+	private static final List<ReliableUdpServerSocket> clientEndpoints = new ArrayList<ReliableUdpServerSocket>();
+
+	/**
+	 * Anzahl der Client-Verbindungen dieses Endpunkts (geschuetzt durch
+	 * clientEndpoints)
+	 */
+	private int clientConnections = 0;
+
+	/**
+	 * Naechste zu vergebende Verbindungs-Id. Beginnt zufaellig, damit eine
+	 * neue Verbindung nicht mit einer gerade geschlossenen Verbindung eines
+	 * frueheren Endpunkts auf demselben Port verwechselt wird.
+	 */
+	private final AtomicInteger nextConnectionId = new AtomicInteger(
+			new Random().nextInt());
+
 	/**
 	 * Oeffentlicher Konstruktor zu Initalisierung als Server
 	 * 
@@ -68,38 +138,121 @@ public class ReliableUdpServerSocket {
 	 * @throws SocketException
 	 */
 	public ReliableUdpServerSocket(Integer localPort) throws SocketException {
-		if (aktivePortsUndDerenListener.containsKey(localPort)) {
-			throw new SocketException("Port is already in use");
-		}
-		this.port = localPort;
-		unreliableSocket = new UnreliableUdpSocket(this.port, 200000, 500000);
-		LocalPortListener sl = new LocalPortListener(this);
-		sl.start();
-		aktivePortsUndDerenListener.put(localPort, sl);
-		intializedFromClient = false;
+		this(localPort, PduCodecType.JavaSerialization);
+	}
+
+	/**
+	 * Oeffentlicher Konstruktor zu Initalisierung als Server mit
+	 * waehlbarem Codec
+	 * 
+	 * @param localPort
+	 * @param codecType
+	 *            Codec fuer die Nutzdaten, muss beim Kommunikationspartner
+	 *            identisch sein
+	 * @throws SocketException
+	 */
+	public ReliableUdpServerSocket(Integer localPort, PduCodecType codecType)
+			throws SocketException {
+		this(localPort, codecType, false);
 	}
 
 	/**
-	 * Konstruktor zu Initalisierung eines ServerSockets, wenn ein Client eine
-	 * Verbindung ffnet. Der ServerSocket luft dann im Hintergrund und lauscht
-	 * auf dem zugerigen Port.
+	 * Gemeinsamer Konstruktor
 	 * 
 	 * @param localPort
+	 *            Lokaler Port, 0 = beliebiger freier Port
+	 * @param codecType
+	 * @param clientEndpoint
+	 *            true fuer einen gemeinsamen Client-Endpunkt
+	 * @throws BindException
+	 *             Port ist bereits belegt
+	 * @throws SocketException
+	 */
+	private ReliableUdpServerSocket(Integer localPort, PduCodecType codecType,
+			boolean clientEndpoint) throws SocketException {
+		// Feste Ports vor dem Oeffnen belegen, freie Ports vergibt das
+		// Betriebssystem eindeutig
+		if (localPort != 0
+				&& aktivePortsUndDerenListener.putIfAbsent(localPort, this) != null) {
+			throw new BindException("Port is already in use");
+		}
+		this.codecType = codecType;
+		try {
+			unreliableSocket = new UnreliableUdpSocket(localPort, 200000, 500000,
+					binaryFraming);
+			try {
+				engine = new ReliableUdpEngine(this);
+			} catch (IOException e) {
+				unreliableSocket.close();
+				throw new SocketException("Selector kann nicht angelegt werden: " + e);
+			}
+		} catch (SocketException e) {
+			aktivePortsUndDerenListener.remove(localPort, this);
+			throw e;
+		}
+		this.port = unreliableSocket.getLocalPort();
+		if (localPort == 0) {
+			aktivePortsUndDerenListener.put(port, this);
+		}
+		intializedFromClient = clientEndpoint;
+		engine.start();
+	}
+
+	/**
+	 * Liefert einen gemeinsamen Endpunkt fuer eine neue Client-Verbindung.
+	 * Alle Client-Verbindungen eines Codecs teilen sich bis zu
+	 * maxClientEndpoints UDP-Ports und deren Engines; die Verbindungen eines
+	 * Ports werden ueber ihre Verbindungs-Id unterschieden. Die Verbindung
+	 * ist beim Endpunkt noch nicht eingetragen (siehe registerClient).
+	 * 
+	 * @param codecType
+	 *            Codec fuer die Nutzdaten
+	 * @return Endpunkt mit den wenigsten Verbindungen bzw. ein neuer Endpunkt
 	 * @throws SocketException
 	 */
-	protected ReliableUdpServerSocket(Integer localPort, ReliableUdpSocket reliableUdpSocket) throws SocketException {
-		// normalen Konstruktor aufrufen
-		this(localPort);
-		// Den Server beim ReliableUdpSocket setzen
-		reliableUdpSocket.socket = unreliableSocket;
-		// Die Verbindung muss nicht mehr in den Status waiting
-		reliableSockets.put(reliableUdpSocket.getConnectionString(),
-				reliableUdpSocket);
-		intializedFromClient = true;
+	static ReliableUdpServerSocket getClientEndpoint(PduCodecType codecType)
+			throws SocketException {
+		synchronized (clientEndpoints) {
+			ReliableUdpServerSocket endpoint = null;
+			int endpointsForCodec = 0;
+			for (ReliableUdpServerSocket e : clientEndpoints) {
+				if (e.codecType != codecType) {
+					continue;
+				}
+				endpointsForCodec++;
+				if (endpoint == null || e.clientConnections < endpoint.clientConnections) {
+					endpoint = e;
+				}
+			}
+			if (endpoint == null || endpointsForCodec < maxClientEndpoints) {
+				endpoint = new ReliableUdpServerSocket(0, codecType, true);
+				clientEndpoints.add(endpoint);
+				log.info("CLIENT ENDPOINT OPENED: Port " + endpoint.port);
+			}
+			endpoint.clientConnections++;
+			return endpoint;
+		}
+	}
+
+	/**
+	 * Client-Verbindung beim Endpunkt eintragen, damit die Antworten des
+	 * Servers ihr zugeordnet werden
+	 * 
+	 * @param clientSocket
+	 *            Neue Verbindung
+	 * @return Verbindungs-Id, die die Verbindung in allen Paketen mitsendet
+	 */
+	int registerClient(ReliableUdpSocket clientSocket) {
+		int connectionId;
+		do {
+			connectionId = nextConnectionId.getAndIncrement();
+			clientSocket.connectionId = connectionId;
+		} while (reliableSockets.putIfAbsent(clientSocket) != null);
+		return connectionId;
 	}
 
 	/**
-	 * Gibt die nchste wartende Verbindung zurueck oder blockiert bis eine neue
+	 * Gibt die naechste wartende Verbindung zurueck oder blockiert bis eine neue
 	 * Verbindung aufgebaut ist.
 	 * 
 	 * @return
@@ -113,29 +266,31 @@ public class ReliableUdpServerSocket {
 			log.debug("Programm wurde waehrend des accept-Auufrufs unterbrochen");
 		}
 
-		String connectionString = poll.getConnectionString();
-		log.info("PUT CONNECTION TO SOCKETS: " + connectionString);
-		//System.out.println("PUT CONNECTION TO SOCKETS: " + connectionString);
-		reliableSockets.put(connectionString, poll);
-		poll.accept();
+		log.info("ACCEPTED CONNECTION: " + poll.getConnectionString());
 		return poll;
 	}
 
 	/**
-	 * Aufraeumen des Sockets. Wenn der Client den Socket erzeugt hat, kann der
-	 * UnreliableUDPSocket freigegeben werden.
+	 * Aufraeumen des Sockets. Beim Client-Endpunkt wird der
+	 * UnreliableUDPSocket freigegeben, sobald seine letzte Verbindung
+	 * geschlossen ist.
 	 * 
 	 * @param reliableUdpSocket
 	 */
 	public void shutdownReliableUdpSocket(ReliableUdpSocket reliableUdpSocket) {
-		reliableSockets.remove(reliableUdpSocket.getConnectionString());
-		if (intializedFromClient) {
+		if (!reliableSockets.remove(reliableUdpSocket) || !intializedFromClient) {
+			return;
+		}
+		synchronized (clientEndpoints) {
+			if (--clientConnections > 0) {
+				return;
+			}
+			clientEndpoints.remove(this);
 			log.info("SHUTTING DOWN PORT:" + port);
-			LocalPortListener remove = aktivePortsUndDerenListener.remove(port);
-			remove.interrupt();
-			unreliableSocket.close();
+			aktivePortsUndDerenListener.remove(port, this);
+			// Die Engine schliesst beim Beenden den Socket
+			engine.shutdown();
 		}
-
 	}
 
 	public static String getConnectionString(String localAdress, int localPort,
@@ -145,91 +300,41 @@ public class ReliableUdpServerSocket {
 	}
 
 	/**
-	 * Der LocalPortListener-Thread empfaengt alle eingehenden Nachrichten auf
-	 * diesem UDPSocket und verteilt diese dann an die zugehoerigen Verbindungen
-	 * (ReliableUdpSockets). Falls keine Verbindung existiert wird ein neuer
-	 * ReliableUDPSocket erstellt und zu den wartenden Verbindungen
-	 * hinzugefuegt.
+	 * Ordnet ein empfangenes Paket seiner Verbindung zu (Aufruf durch die
+	 * Engine) anhand von Adresse, Port und Verbindungs-Id des Absenders.
+	 * Falls keine Verbindung existiert und das Paket das erste Datenpaket
+	 * einer Verbindung ist, wird ein neuer ReliableUdpSocket erstellt und zu
+	 * den wartenden Verbindungen hinzugefuegt (nicht beim Client-Endpunkt).
+	 * Andere Pakete
+	 * unbekannter Absender (z.B. verspaetete Wiederholungen fuer eine bereits
+	 * geschlossene Verbindung) werden verworfen.
 	 * 
+	 * @return Verbindung oder null, falls das Paket verworfen wird
 	 */
-	public class LocalPortListener extends Thread {
-		ReliableUdpServerSocket basisSocket;
-		UnreliableUdpSocket unreliableSocket;
-
-		public LocalPortListener(ReliableUdpServerSocket basisSocket) {
-			this.basisSocket = basisSocket;
-			this.unreliableSocket = basisSocket.unreliableSocket;
-			setName("LocalPortListener: " + unreliableSocket.getLocalPort());
-			//System.out.println("bais: "+basisSocket.port+", unrSocket: "+unreliableSocket.getLocalPort());
+	ReliableUdpSocket demultiplex(InetAddress remoteAddress, int remotePort,
+			ReliableUdpObject receivedPdu) {
+		int connectionId = receivedPdu.getConnectionId();
+		ReliableUdpSocket con = reliableSockets.get(remoteAddress, remotePort,
+				connectionId);
+		if (con != null) {
+			return con;
 		}
-
-		@Override
-		public void run() {
-			while (!isInterrupted()) {
-				try {
-					
-					ReliableUdpObject receivedPDU = (ReliableUdpObject) unreliableSocket.receive(100);
-					//System.out.println("Am Port "+unreliableSocket.getLocalPort()+" empfangen");
-					// TODO
-					
-					if(reliableSockets.containsKey(generateConnectionString())){
-						reliableSockets.get(generateConnectionString()).process(receivedPDU);
-					}
-					else{
-						ReliableUdpSocket con = new ReliableUdpSocket(basisSocket, unreliableSocket.getRemoteAddress(), unreliableSocket.getRemotePort());
-						waitingSockets.add(con);
-						con.process(receivedPDU);
-					}
-					
-					/*
-					String remoteAdress = ""+unreliableSocket.getRemoteAddress();
-					int remotePort = unreliableSocket.getRemotePort();
-					remoteAdress = remoteAdress.substring(1);
-					
-					System.out.println("remoteAdress: "+remoteAdress+", port: "+remotePort);
-					
-					
-					ReliableUdpSocket s = new ReliableUdpSocket(this.basisSocket, InetAddress.getByName(remoteAdress), remotePort);
-					
-					//receivedPDU.setAck(true);
-					s.process(receivedPDU);
-					
-					s.accept();
-				//	s.inputStreamVonDerOberenSchicht
-					//s.inputStreamDerOberenSchicht.=receivedPDU.getData();
-					if(!waitingSockets.contains(s))
-						waitingSockets.add(s);
-					
-					//System.out.println("M: "+((EchoPDU)receivedPDU.getData()).getMessage());
-					//waitingSockets.add(((EchoPDU)receivedPDU).getServerThreadName());
-					//reliableSockets.
-					//waitingSockets.add(new ReliableUdpSocket(receivedPDU., serverPort))
-					*/
-					
-
-				} catch (SocketTimeoutException e) {
-					// Der Timeout ist abgelaufen, einfach nochmal versuchen
-					// Die Schleife beendet sich, wenn in der Zwischenzeit
-					// interrupt aufgerufen wurde.
-					continue;
-				} catch (SocketException e) {
-					if (!isInterrupted()) {
-						log.error("SocketException", e);
-						e.printStackTrace();
-					}
-				} catch (Exception e) {
-					log.error("SocketIOException", e);
-					e.printStackTrace();
-				} 
+		if (intializedFromClient || receivedPdu.getData() == null
+				|| receivedPdu.getId() != 0) {
+			if (log.isDebugEnabled()) {
+				log.debug("Paket fuer unbekannte Verbindung von " + remoteAddress
+						+ ":" + remotePort + "/" + connectionId + " verworfen");
 			}
+			return null;
 		}
-
-		private String generateConnectionString() {
-			return ReliableUdpServerSocket.getConnectionString(unreliableSocket
-					.getLocalAddress(), unreliableSocket.getLocalPort(),
-					unreliableSocket.getRemoteAddress().getHostAddress(),
-					unreliableSocket.getRemotePort());
-
+		con = new ReliableUdpSocket(this, remoteAddress, remotePort, connectionId);
+		reliableSockets.putIfAbsent(con);
+		if (!waitingSockets.offer(con)) {
+			log.error("Zu viele wartende Verbindungen, " + con.getConnectionString()
+					+ " abgewiesen");
+			reliableSockets.remove(con);
+			return null;
 		}
+		return con;
 	}
-}
\ No newline at end of file
+}
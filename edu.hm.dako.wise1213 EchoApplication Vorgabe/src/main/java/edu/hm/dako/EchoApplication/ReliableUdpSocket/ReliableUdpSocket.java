@@ -1,321 +1,342 @@
 package edu.hm.dako.EchoApplication.ReliableUdpSocket;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.EchoApplication.Basics.ArrivalSchedule;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
 
 /**
  * Klasse ReliableUDPSocket
- * 
- * Entspricht einer stark vereinfachten TCP Socket-Implementierung. Es werden
- * die gleichen Methoden bereitgestellt. Als Sicherungsmassnahme wird ein
- * Stop-And-Go Verfahren mit einer 3-maligen Sendewiederholung,sowie
- * Duplikaterkennung realisiert.
- * 
+ *
+ * Entspricht einer stark vereinfachten TCP Socket-Implementierung. Als
+ * Sicherungsmassnahme wird ein Schiebefensterverfahren mit selektiver
+ * Wiederholung (Selective Repeat) realisiert:
+ *
+ * - Jedes Datenpaket erhaelt eine fortlaufende Id und wird bis zu seiner
+ *   Bestaetigung im Sendepuffer gehalten. Es duerfen bis zu windowSize Pakete
+ *   unbestaetigt sein.
+ * - Bestaetigungen enthalten nur einen Header: eine kumulative Bestaetigung
+ *   und bis zu maxSelectiveAcks Bereiche danach empfangener Pakete (siehe
+ *   ReliableUdpObject). Sie werden moeglichst an ausgehende Datenpakete
+ *   angehaengt; sonst wird nach ackDelay ms eine eigene Bestaetigung
+ *   gesendet, sofort bei jedem zweiten Paket, bei Luecken und bei
+ *   Duplikaten.
+ * - Unbestaetigte Pakete werden nach Ablauf der Wartezeit (RTO) einzeln
+ *   wiederholt, nach maxRetransmissions Wiederholungen wird die Verbindung
+ *   abgebrochen. Die RTO wird je Verbindung aus der gemessenen RTT berechnet
+ *   (siehe RttEstimator). Ein Paket gilt schon vorher als verloren, wenn
+ *   mindestens dupThreshold spaetere Pakete selektiv bestaetigt sind und es
+ *   seit einer RTT unterwegs ist (schnelle Wiederholung).
+ * - Flusskontrolle: Jede Bestaetigung meldet den freien Platz im
+ *   Empfangsfenster, der Sender sendet nur Ids unterhalb des gemeldeten
+ *   rechten Fensterrands. Ist das Fenster voll, darf ein einzelnes Paket
+ *   als Probe gesendet werden, das der Empfaenger verwirft und mit dem
+ *   aktuellen Fenster beantwortet. Holt die Anwendung Daten ab, wird das
+ *   vergroesserte Fenster ggf. mit einer eigenen Bestaetigung gemeldet.
+ * - Staukontrolle: Die Anzahl unbestaetigter Pakete wird zusaetzlich durch
+ *   ein AIMD-Staufenster begrenzt, die Pakete eines Fensters werden
+ *   gleichmaessig ueber eine RTT verteilt gesendet (siehe
+ *   CongestionControl, abschaltbar mit echo.rudp.pacing=false).
+ * - Der Empfaenger puffert Pakete, die vor ihren Vorgaengern ankommen, und
+ *   gibt die Daten in der Reihenfolge der Ids an die obere Schicht weiter.
+ *   Duplikate (Id bereits weitergegeben oder gepuffert) werden erneut
+ *   bestaetigt, aber verworfen.
+ * - Fragmentierung: Jede Nachricht wird einmal mit dem Codec der
+ *   Verbindung kodiert und auf Pakete von hoechstens maxFragmentSize Byte
+ *   Nutzdaten verteilt, die wie einzelne Pakete gesichert und wiederholt
+ *   werden. Die Fragmente verweisen ohne Kopie in die kodierte Nachricht.
+ *   Der Empfaenger dekodiert eine Nachricht aus einem Paket direkt aus dem
+ *   Empfangspuffer des Sockets; kopiert wird nur, was gepuffert oder
+ *   zusammengesetzt werden muss. Das erste Fragment meldet die
+ *   Laenge der Nachricht; der Puffer dafuer wird beim Empfang des ersten
+ *   Fragments aus einem gemeinsamen Speicherkontingent aller Verbindungen
+ *   reserviert (maxReassemblyMemory) und erst freigegeben, wenn die
+ *   Anwendung die Nachricht abholt. Bis dahin belegen alle Fragmente der
+ *   Nachricht das Empfangsfenster. Ist es erschoepft, wird das Fragment
+ *   nicht angenommen und das Empfangsfenster endet vor ihm, bis eine
+ *   Wiederholung angenommen werden kann; der Sender behandelt es dann wie
+ *   eine Fensterprobe. Nachrichten ueber maxMessageSize fuehren zum Abbruch
+ *   der Verbindung.
+ *
+ * Eine Verbindung hat keine eigenen Threads. Ankommende Pakete und Timer
+ * werden von der ReliableUdpEngine des zugehoerigen ReliableUdpServerSockets
+ * bearbeitet (Methoden processPacket, onTimer), die Anwendung sendet mit
+ * send und holt empfangene Daten mit receive aus einer Queue ab.
+ *
  * @author Weiss
- * 
- * @version 1.0.1
+ *
+ * @version 1.1.0
  */
 public class ReliableUdpSocket {
 
 	private static Log log = LogFactory.getLog(ReliableUdpSocket.class);
 
 	/*
-	 * Verschiedene Threads fuer die Bearbeitung von ankommenden Nachrichten und
-	 * zum Senden von Nachrichten.
+	 * Der zugehoerige ServerSocket, der auf einen Port lauscht und alle
+	 * zugehoerigen Verbindungen verwaltet
+	 */
+	ReliableUdpServerSocket verwendeterBasisSocket;
+
+	/*
+	 * Moegliche Zustaende des Zustandsautomaten fuer zuverlaessige Verbindungen
+	 * auf Basis von ReiableUDPSocket
 	 */
+	public enum ConnectionStatus {
+		CLOSED, READY_TO_SEND, SENDING, WAITING
+	};
+
+	private volatile ConnectionStatus status = ConnectionStatus.CLOSED;
+
+	/** System-Property fuer die Groesse des Sende- und Empfangsfensters */
+	public static final String WINDOW_PROPERTY = "echo.rudp.window";
 
 	/**
-	 * Thread zum Weiterleiten der Daten aus der Data Queue an die darueber
-	 * liegende Schicht
+	 * Groesse des Sende- und Empfangsfensters in Paketen. Sender und
+	 * Empfaenger muessen dieselbe Fenstergroesse verwenden.
 	 */
-	public class ForwardDataThread extends Thread {
-		public ForwardDataThread() {
-			setName("ForwardDataThread: " + getLocalPort());
-		}
+	static final int windowSize = Math.max(1,
+			Integer.getInteger(WINDOW_PROPERTY, 32).intValue());
 
-		public void run() {
-			try {
-				outputStreamAnDieObereSchicht = new ObjectOutputStream(pipedOut);
-				outputStreamAnDieObereSchicht.flush();
-				
-				//System.out.println("erster Durchlauf..."+this.getName());
-				while (status != ConnectionStatus.CLOSED) {
-					// TODO
-					Object obj = data.poll(100, TimeUnit.MILLISECONDS);
-					//System.out.println("polling...");
-					//status = ConnectionStatus.CLOSED;
-					if(obj==null)
-						continue;
-					
-					
-					System.out.println("schiebe Nachricht in den Inputstream: "+obj.toString());
-					//status = ConnectionStatus.CLOSED;
-					
-					outputStreamAnDieObereSchicht.writeObject(obj);
-					outputStreamAnDieObereSchicht.flush();
-					
-					//outputStreamAnDieObereSchicht.flush();
-					//inputStreamVonDerOberenSchicht=inputStreamDerOberenSchicht.read();
-					//System.out.println("Connection offen");
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}  finally {
-				try {
-					log.info("CLOSING outputStreamAnDieObereSchicht");
-					outputStreamAnDieObereSchicht.close();
-					log.info("CLOSING outputStreamAnDieObereSchicht -- DONE");
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
+	/** Maximale Anzahl Wiederholungen eines Pakets */
+	private static final int maxRetransmissions = 10;
 
-	}
+	/** System-Property fuer die Verzoegerung von Bestaetigungen in ms */
+	public static final String ACK_DELAY_PROPERTY = "echo.rudp.ackdelay";
 
 	/**
-	 * Thread zum Senden der Daten aus dem inputStreamVonDerOberenSchicht der
-	 * darueber liegenden Schicht an den Kommunikationspartner
+	 * Maximale Verzoegerung einer Bestaetigung, in der auf ein ausgehendes
+	 * Datenpaket zum Anhaengen gewartet wird (0 = sofort bestaetigen)
 	 */
-	public class DataSenderThread extends Thread {
-		public DataSenderThread() {
-			setName("DataSenderThread: " + getLocalPort());
-		}
+	private static final long ackDelay = TimeUnit.MILLISECONDS.toNanos(
+			Integer.getInteger(ACK_DELAY_PROPERTY, 2).intValue());
 
-		public void run() {
-			try {
-				// Stream initialisieren
-				inputStreamVonDerOberenSchicht = new ObjectInputStream(pipedIn);
-				ReliableUdpObject rObj = new ReliableUdpObject();
-				//outputStreamDerOberenSchicht.flush();
-				status = ConnectionStatus.READY_TO_SEND;
-				while (status != ConnectionStatus.CLOSED) {
-					//System.out.println("DataSender");
-					Object o = inputStreamVonDerOberenSchicht.readObject();
-					
-			
-					//if(o==null)
-					//	continue;
-					
-					// Warte bis wieder gesendet werden darf
-					int maxWait=50;
-					while(status==ConnectionStatus.SENDING && maxWait>0){
-						this.sleep(20);
-						maxWait--;
-					}
-					// TODO
-					status = ConnectionStatus.SENDING;
-					
-					rObj.setData(o);
-					rObj.setId(currentOutgoingId++);
-					//rObj.setAck(true);
-					//System.out.println("LL: "+currentOutgoingId);
-					// versenden der Nachricht mit Sendewiederholung
-					// TODO
-					
-					//for(int i=0; i<3 && status==ConnectionStatus.SENDING; i++){
-						
-					sendIt(remoteAddress, remotePort, rObj);
-					//status = ConnectionStatus.CLOSED;
-					//warte kurz
-					//this.sleep(100);
-					//}
-					//outputStreamAnDieObereSchicht.writeObject(o);
-					
-					
-				}
+	/** Nach so vielen unbestaetigten Datenpaketen wird sofort bestaetigt */
+	private static final int maxUnacknowledgedPackets = 2;
 
-			} catch (ClassNotFoundException e1) {
-				e1.printStackTrace();
-			} catch (IOException e) {
-				if (status != ConnectionStatus.CLOSED)
-					log.error(e);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					log.info("CLOSING inputStreamVonDerOberenSchicht");
-					inputStreamVonDerOberenSchicht.close();
-					log.info("CLOSING inputStreamVonDerOberenSchicht -- DONE");
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
+	/** Maximale Anzahl selektiv bestaetigter Bereiche je Bestaetigung */
+	private static final int maxSelectiveAcks = 4;
+
+	/**
+	 * Ein Paket gilt als verloren, wenn mindestens so viele spaetere Pakete
+	 * selektiv bestaetigt wurden
+	 */
+	private static final int dupThreshold = 3;
+
+	/** System-Property zum Abschalten des Pacings */
+	public static final String PACING_PROPERTY = "echo.rudp.pacing";
+
+	/** Pakete eines Staufensters gleichmaessig ueber eine RTT verteilen */
+	private static final boolean pacing = Boolean.parseBoolean(
+			System.getProperty(PACING_PROPERTY, "true"));
+
+	/** System-Property fuer die maximale Nutzdatenlaenge eines Pakets in Byte */
+	public static final String FRAGMENT_PROPERTY = "echo.rudp.fragment";
+
+	/**
+	 * Maximale Nutzdatenlaenge eines Pakets. Der Default passt zusammen mit
+	 * dem Header im Binaerformat in ein Ethernet-Frame (MTU 1500 abzueglich
+	 * IP- und UDP-Header), so dass die IP-Schicht nicht fragmentieren muss.
+	 */
+	static final int maxFragmentSize = Math.min(Math.max(Integer.getInteger(
+			FRAGMENT_PROPERTY, 1500 - 28 - UnreliableUdpSocket.maxHeaderLength(maxSelectiveAcks))
+			.intValue(), 256), 60000);
+
+	/** System-Property fuer die maximale Laenge einer Nachricht in Byte */
+	public static final String MAX_MESSAGE_PROPERTY = "echo.rudp.maxmessage";
+
+	/** Maximale Laenge einer (kodierten) Nachricht */
+	static final int maxMessageSize = Math.max(Integer.getInteger(
+			MAX_MESSAGE_PROPERTY, 16 * 1024 * 1024).intValue(), maxFragmentSize);
+
+	/**
+	 * System-Property fuer den Speicher, den alle Verbindungen zusammen fuer
+	 * das Zusammensetzen von Nachrichten belegen duerfen, in Byte
+	 */
+	public static final String REASSEMBLY_MEMORY_PROPERTY = "echo.rudp.reassembly.memory";
+
+	/** Speicherkontingent fuer das Zusammensetzen, mindestens eine Nachricht */
+	private static final long maxReassemblyMemory = Math.max(Long.getLong(
+			REASSEMBLY_MEMORY_PROPERTY, 64L * 1024 * 1024).longValue(), maxMessageSize);
+
+	/** Von allen Verbindungen reservierter Speicher fuer das Zusammensetzen */
+	private static final AtomicLong reassemblyMemoryInUse = new AtomicLong();
+
+	/** Kennzeichnet "kein Timer gestellt" */
+	static final long NO_DEADLINE = Long.MIN_VALUE;
+
+	/**
+	 * Markierung in der Empfangsqueue: Die Verbindung ist geschlossen
+	 */
+	private static final Object CLOSED_MARKER = new Object();
 
 	/**
-	 * Thread, der die empfangenen Nachrichten, die in der ReceivedPackets Queue
-	 * abgelegt werden, bearbeitet
-	 * 
+	 * Unbestaetigtes Paket im Sendepuffer
 	 */
-	public class ReceivedPacketProcessorThread extends Thread {
-		public ReceivedPacketProcessorThread() {
-			setName("ReceivedPacketProcessorThread: " + getLocalPort());
-			//System.out.println("ReceivedPacketProcessorThread: " + getLocalPort());
-			status = ConnectionStatus.READY_TO_SEND;
+	private static class UnacknowledgedPacket {
+		final ReliableUdpObject packet;
+		long lastSendTime;
+		int retransmissions = 0;
+
+		UnacknowledgedPacket(ReliableUdpObject packet, long sendTime) {
+			this.packet = packet;
+			this.lastSendTime = sendTime;
 		}
+	}
 
-		@Override
-		public void run() {
-			try {
-				while (status != ConnectionStatus.CLOSED) {
-					//System.out.println("ReceivedPacketProcessorThread.......");
-					ReliableUdpObject reveivedPdu = receivedPackets.poll(100,
-							TimeUnit.MILLISECONDS);
-					if (reveivedPdu == null)
-						continue;
-					// TODO
-					//status = ConnectionStatus.READY_TO_SEND;
-					lastIncomingId = reveivedPdu.getId();
-					System.out.print("empfange ");//+((EchoPDU)reveivedPdu.getData()).getMessage());
-					if(reveivedPdu.isAck())
-						System.out.println("ack");
-					else
-						System.out.println(" normale pdu");
-					if(!reveivedPdu.isAck()){
-						waitTillConnectionIsAccepted(reveivedPdu);
-						ReliableUdpObject rObj = new ReliableUdpObject();
-						rObj.setAck(true);
-						rObj.setId(lastIncomingId);
-						rObj.setData(reveivedPdu);
-						//currentOutgoingId++;
-						
-						//ANTWORT zurck senden
-						
-						try{
-							sendIt(remoteAddress, remotePort, rObj);
-						}
-						catch(IOException e){
-							e.printStackTrace();
-						}
-						
-						status = ConnectionStatus.READY_TO_SEND;
-						
-						data.add(reveivedPdu.getData());
-						
-					}
-					else{
-						//data.add(reveivedPdu.getData());
-						//System.out.println("ack");
-						status = ConnectionStatus.READY_TO_SEND;
-					}
-					
-					//EchoPDU rec = (EchoPDU)reveivedPdu.getData();
-					
-				}
-			} catch (InterruptedException e) {
-				if (status != ConnectionStatus.CLOSED) {
-					log.error("Unvorhergesehene Unterbrechung der Bearbeitung ankommender Pakete",e);
-					status = ConnectionStatus.CLOSED;
-				}
-			} 
-		}
-
-		private void waitTillConnectionIsAccepted(
-				ReliableUdpObject receivedPacket) {
-			/*
-			 * Hier wird im Grunde ein Verbindungsaufbau simuliert. Die
-			 * Anwendungsschicht ruft ReliableUdpServerSocket.accept auf, um
-			 * einen gueltigen ReliableUdpSocket zu erhalten. Bevor
-			 * ReliableUdpServerSocket nun den ReliableUdpSocket uebergibt muss
-			 * hier wiederum accept aufgerufen werden. Der Vorgang muss
-			 * innerhalb von 10 sec abgeschlossen sein (100*10 ms).
-			 */
-			try {
-				int i = 0;
-				while (i < 100 && !accepted) {
-					Thread.sleep(10);
-					i++;
-					log.info("SLEEPING waiting for accepted");
-				}
-				if (!accepted)
-					log.error("ERROR ACCEPTING CONNECTION, TOOK TOO LONG ("
-							+ receivedPacket.getId() + ")"
-							+ socket.getLocalPort() + " -> " + remotePort);
+	/**
+	 * An die Anwendung weitergegebene, noch nicht abgeholte Nachricht
+	 */
+	private static class ReceivedMessage {
+		final Object pdu;
+		/** Anzahl Pakete (Ids), aus denen die Nachricht bestand */
+		final int packets;
+		/** Fuer das Zusammensetzen reservierter Speicher, 0 = keiner */
+		final int reservedMemory;
 
-			} catch (InterruptedException e) {
-				log.error(e);
-			}
+		ReceivedMessage(Object pdu, int packets, int reservedMemory) {
+			this.pdu = pdu;
+			this.packets = packets;
+			this.reservedMemory = reservedMemory;
 		}
 	}
 
-	/*
-	 * Zeigt an, ob die Verbindung vom Kommunikationspartner akzeptiert wurde.
-	 * Spielt nur beim Server eine Rolle, beim Client immer true
+	/**
+	 * Aktuelle Id der ausgehenden Daten (geschuetzt durch sendBuffer)
 	 */
-	boolean accepted = false;
+	private long currentOutgoingId = 0L;
 
-	/*
-	 * Streams zu Kommunikation mit der ueberliegenden Schicht
+	/**
+	 * Sendepuffer: Alle gesendeten, noch nicht bestaetigten Pakete, sortiert
+	 * nach Id. Dient auch als Sperre fuer den Sendezustand.
 	 */
-	ObjectOutputStream outputStreamAnDieObereSchicht;
-	InputStream inputStreamDerOberenSchicht;
-	PipedInputStream pipedIn;
-	PipedOutputStream pipedOut;
-	OutputStream outputStreamDerOberenSchicht;
-	ObjectInputStream inputStreamVonDerOberenSchicht;
+	private final TreeMap<Long, UnacknowledgedPacket> sendBuffer = new TreeMap<Long, UnacknowledgedPacket>();
 
-	
-	/*
-	 * Der zugehoerige ServerSocket, der auf einen Port lauscht und alle
-	 * zugehoerigen Verbindungen verwaltet
+	/**
+	 * Vom Empfaenger gemeldeter rechter Fensterrand: erste Id, die er nicht
+	 * mehr aufnehmen kann (geschuetzt durch sendBuffer)
 	 */
-	ReliableUdpServerSocket verwendeterBasisSocket;
+	private long peerWindowEdge = windowSize;
 
-	/*
-	 * Moegliche Zustaende des Zustandsautomaten fuer zuverlaessige Verbindungen
-	 * auf Basis von ReiableUDPSocket
+	/**
+	 * Hoechste vom Empfaenger erhaltene kumulative Bestaetigung. Nur
+	 * Bestaetigungen, die weiter reichen, oder reine Bestaetigungen duerfen
+	 * das Fenster verkleinern (geschuetzt durch sendBuffer).
 	 */
-	public enum ConnectionStatus {
-		CLOSED, READY_TO_SEND, SENDING, WAITING
-	};
+	private long peerAckNumber = 0;
+
+	/** Staufenster (geschuetzt durch sendBuffer) */
+	private final CongestionControl congestionControl = new CongestionControl(windowSize);
+
+	/** Fruehester Sendezeitpunkt des naechsten Pakets beim Pacing */
+	private long nextPacedSendTime = 0;
 
-	private ConnectionStatus status = ConnectionStatus.CLOSED;
-	private ConnectionStatus status2 = ConnectionStatus.CLOSED;
 	/**
-	 * Aktuelle Id der ausgehenden Daten
+	 * Id der naechsten an die Anwendung weiterzugebenden Daten (geschuetzt
+	 * durch receiveBuffer)
 	 */
-	private Long currentOutgoingId = 0L;
+	private long nextExpectedId = 0L;
 
 	/**
-	 * Aktuelle Id der eingehenden Daten
+	 * Empfangspuffer: Vor ihren Vorgaengern empfangene Daten nach Id
+	 * (Duplikaterkennung innerhalb des Empfangsfensters). Dient auch als
+	 * Sperre fuer den Empfangs- und Bestaetigungszustand, den die
+	 * Anwendungsthreads beim Anhaengen von Bestaetigungen lesen.
 	 */
-	private Long lastIncomingId = null;
+	private final TreeMap<Long, ReliableUdpObject> receiveBuffer = new TreeMap<Long, ReliableUdpObject>();
+
+	/** Eine verzoegerte Bestaetigung steht aus (geschuetzt durch receiveBuffer) */
+	private boolean ackPending = false;
+
+	/** Spaetester Sendezeitpunkt der ausstehenden Bestaetigung */
+	private long ackDeadline;
+
+	/** Seit der letzten Bestaetigung empfangene Datenpakete */
+	private int unacknowledgedPackets = 0;
+
+	/** Zuletzt gemeldeter rechter Rand des Empfangsfensters */
+	private long advertisedWindowEdge = windowSize;
 
 	/**
-	 * Der aktuelle Socket zum Senden von Paketen
+	 * Puffer der gerade zusammengesetzten Nachricht, null = keine
+	 * (geschuetzt durch receiveBuffer)
 	 */
-	UnreliableUdpSocket socket;
+	private byte[] reassemblyBuffer = null;
+
+	/** Bereits empfangene Laenge der zusammengesetzten Nachricht */
+	private int reassemblyLength = 0;
+
+	/** Anzahl bereits empfangener Fragmente der zusammengesetzten Nachricht */
+	private int reassemblyPackets = 0;
+
+	/**
+	 * Id des ersten Fragments, das mangels Speicher nicht angenommen wurde,
+	 * -1 = keins. Das Empfangsfenster endet vor diesem Fragment (geschuetzt
+	 * durch receiveBuffer).
+	 */
+	private long reassemblyBlockedId = -1;
+
+	/**
+	 * Fuer angenommene, noch nicht von der Anwendung abgeholte Nachrichten
+	 * reservierter Speicher (geschuetzt durch receiveBuffer)
+	 */
+	private long reservedReassemblyMemory = 0;
+
 	/**
-	 * FIFO-Queue, die alle der Connection zugehrigen empfangenen Pakete
-	 * speichert
+	 * Anzahl Pakete (Ids) der Nachrichten in data, die noch nicht abgeholt
+	 * wurden (geschuetzt durch receiveBuffer)
 	 */
-	ArrayBlockingQueue<ReliableUdpObject> receivedPackets = new ArrayBlockingQueue<ReliableUdpObject>(
-			10);
+	private long undeliveredPackets = 0;
+
+	/** Codec fuer die Nachrichten dieser Verbindung */
+	private PduCodec codec;
+
 	/**
-	 * FIFO-Queue, die alle fr die Verbindung empfangenen Datenpakete
-	 * speichert, um diese an die darueberliegende Schicht weiterzuleiten
+	 * Sperre fuer das Senden einer Nachricht, damit sich die Fragmente
+	 * paralleler Sender nicht mischen
 	 */
-	ArrayBlockingQueue<Object> data = new ArrayBlockingQueue<Object>(10);
+	private final Object messageLock = new Object();
+
+	/**
+	 * An die Anwendung weitergegebene, noch nicht abgeholte Nachrichten
+	 * (ReceivedMessage oder CLOSED_MARKER). Zusammen mit dem Empfangspuffer
+	 * belegen sie hoechstens windowSize Ids, da das Empfangsfenster erst beim
+	 * Abholen weiterrueckt.
+	 */
+	private final LinkedBlockingQueue<Object> data = new LinkedBlockingQueue<Object>();
+
+	/** RTT-Schaetzung und Wartezeit bis zur Sendewiederholung */
+	private final RttEstimator rttEstimator = new RttEstimator();
+
+	/** Anzahl aller Sendewiederholungen auf dieser Verbindung */
+	private volatile long numberOfRetransmissions = 0;
+
+	/**
+	 * Ablaufzeit des in der Engine gestellten Timers, NO_DEADLINE = keiner.
+	 * Nur im Engine-Thread verwendet.
+	 */
+	long scheduledDeadline = NO_DEADLINE;
+
+	/**
+	 * Der aktuelle Socket zum Senden von Paketen
+	 */
+	UnreliableUdpSocket socket;
 
 	/**
 	 * Der Port des Kommunikationspartners
@@ -326,124 +347,761 @@ public class ReliableUdpSocket {
 	 */
 	InetAddress remoteAddress;
 
+	/**
+	 * Verbindungs-Id, vom Client vergeben und in jedem Paket gesendet.
+	 * Unterscheidet die Verbindungen eines Client-Endpunkts.
+	 */
+	int connectionId;
+
 	/**
 	 * Konstruktor fuer den Aufruf vom Server
-	 * 
+	 *
 	 * @param basisSocket
 	 * @param remoteAddress
 	 * @param remotePort
-	 * @throws SocketException
+	 * @param connectionId
 	 */
 	protected ReliableUdpSocket(ReliableUdpServerSocket basisSocket,
-			InetAddress remoteAddress, int remotePort) throws SocketException {
+			InetAddress remoteAddress, int remotePort, int connectionId) {
 		this.remoteAddress = remoteAddress;
 		this.remotePort = remotePort;
+		this.connectionId = connectionId;
 		this.socket = basisSocket.unreliableSocket;
+		this.codec = basisSocket.codecType.createDatagramCodec();
 		verwendeterBasisSocket = basisSocket;
-		init();
 		status = ConnectionStatus.READY_TO_SEND;
 	}
 
 	/**
 	 * Konstruktor fuer Clients. Die Verbindung zum Server wird aufgebaut und in die Liste
-	 * der Verbindungen eingetragen.
-	 * 
+	 * der Verbindungen eines gemeinsamen Client-Endpunkts eingetragen.
+	 *
 	 * @param remoteServerAddress
 	 * @param ServerPort
 	 * @throws SocketException
 	 */
 	public ReliableUdpSocket(String remoteServerAddress, int serverPort)
 			throws SocketException {
+		this(remoteServerAddress, serverPort, PduCodecType.JavaSerialization);
+	}
+
+	/**
+	 * Konstruktor fuer Clients mit waehlbarem Codec fuer die Nutzdaten. Der
+	 * Server muss denselben Codec verwenden.
+	 *
+	 * @param remoteServerAddress
+	 * @param ServerPort
+	 * @param codecType
+	 * @throws SocketException
+	 */
+	public ReliableUdpSocket(String remoteServerAddress, int serverPort,
+			PduCodecType codecType) throws SocketException {
 		try {
 			this.remoteAddress = InetAddress.getByName(remoteServerAddress);
-			//System.out.println("remoteAdress gebunden: "+remoteServerAddress);
 		} catch (UnknownHostException e) {
 			throw new SocketException("Unknown Host__: " + remoteServerAddress);
 		}
 		this.remotePort = serverPort;
 
-		//TODO
-		Integer port = 5100;
-		while(ReliableUdpServerSocket.aktivePortsUndDerenListener.containsKey(port++)){
-			
-		}
-		//ReliableUdpServerSocket.aktivePortsUndDerenListener.put(key, value)
-		//verwendeterBasisSocket = socket.
-		verwendeterBasisSocket = new ReliableUdpServerSocket(port);
-	//	System.out.println("verwendeterBasisSocketport: "+verwendeterBasisSocket.port);
-		//status = ConnectionStatus.WAITING;
+		// Die Verbindung beim gemeinsamen Endpunkt eintragen, damit die
+		// Antworten des Servers ueber die Verbindungs-Id dieser Verbindung
+		// zugeordnet werden
+		verwendeterBasisSocket = ReliableUdpServerSocket.getClientEndpoint(codecType);
 		socket = verwendeterBasisSocket.unreliableSocket;
-		init();
+		codec = codecType.createDatagramCodec();
+		verwendeterBasisSocket.registerClient(this);
 		status = ConnectionStatus.READY_TO_SEND;
-		//System.out.println("init fertig");
-		accept();
-	}
-
-	private void init() {
-
-		initializeCommunicationStreams();
-		// Sende alle Nachrichten aus der Data Queue an die darueber liegende
-		// Schicht ...
-		new ForwardDataThread().start();
-		// ... und alle Nachrichten aus der darueberliegenden Schicht an
-		// die entfernten Kommunikationspartner
-		new DataSenderThread().start();
-	}
-
-	/**
-	 * Initialisiert die Streams, damit Daten an die hoehere Schicht gesendet
-	 * werden knnen
-	 */
-	private void initializeCommunicationStreams() {
-		ReceivedPacketProcessorThread rt;
-		rt = new ReceivedPacketProcessorThread();
-		rt.start();
-		/**
-		 * Durch die PipedStreams koennen Nachrichten, die in die
-		 * outputStreamAnDieObereSchicht ueber writeObject() geschrieben werden
-		 * in der oberen Schicht ueber den InputStream mit readObject() empfangen
-		 * werden. Wichtig: Initialisierungsreihenfolge nicht aendern. Beim
-		 * Anlegen der ObjectStreams wird intern eine Initialisierungsnachricht
-		 * ausgetauscht. Daher wird hier blockiert.
-		 * 
-		 * Der Befehl outputStreamAnDieObereSchicht = new
-		 * ObjectOutputStream(localout); muss in einem eigenen Thread gestartet
-		 * werden (Grund: siehe API-Beschreibung von PipedOutputStream).
-		 */
+	}
+
+	/**
+	 * Nachricht zuverlaessig an den Kommunikationspartner senden. Sie wird
+	 * einmal kodiert und, falls noetig, auf mehrere Pakete verteilt.
+	 * Blockiert, solange das Sendefenster voll ist.
+	 *
+	 * @param o
+	 *            Zu sendende EchoPDU
+	 * @throws IOException
+	 *             Verbindung geschlossen, Nachricht zu lang oder Senden nicht
+	 *             moeglich
+	 */
+	public void send(Object o) throws IOException {
+		byte[] message = codec.encode((EchoPDU) o);
+		if (message.length > maxMessageSize) {
+			throw new IOException("Nachricht zu lang: " + message.length
+					+ " Byte, maximal " + maxMessageSize + " Byte");
+		}
+		synchronized (messageLock) {
+			if (message.length <= maxFragmentSize) {
+				sendPacket(message, 0, message.length, false, 0);
+				return;
+			}
+			for (int offset = 0; offset < message.length; offset += maxFragmentSize) {
+				int end = Math.min(offset + maxFragmentSize, message.length);
+				byte[] buffer = message;
+				int fragmentOffset = offset;
+				if (!ReliableUdpServerSocket.binaryFraming) {
+					// Serialisiert wuerde sonst jedesmal die ganze Nachricht
+					buffer = new byte[end - offset];
+					System.arraycopy(message, offset, buffer, 0, buffer.length);
+					fragmentOffset = 0;
+				}
+				sendPacket(buffer, fragmentOffset, end - offset, end < message.length,
+						(offset == 0) ? message.length : 0);
+			}
+		}
+	}
+
+	/**
+	 * Ein Paket (Nachricht oder Fragment) in den Sendepuffer eintragen und
+	 * senden. Blockiert, solange das Sendefenster voll ist.
+	 *
+	 * @param buffer
+	 *            Kodierte Nachricht
+	 * @param offset
+	 *            Beginn der Nutzdaten des Pakets in buffer
+	 * @param length
+	 *            Laenge der Nutzdaten
+	 * @param moreFragments
+	 *            true, falls weitere Fragmente der Nachricht folgen
+	 * @param messageLength
+	 *            Laenge der ganzen Nachricht beim ersten von mehreren
+	 *            Fragmenten, sonst 0
+	 */
+	private void sendPacket(byte[] buffer, int offset, int length,
+			boolean moreFragments, int messageLength) throws IOException {
+		ReliableUdpObject rObj = new ReliableUdpObject();
+		rObj.setConnectionId(connectionId);
+		rObj.setPayload(buffer, offset, length);
+		rObj.setMoreFragments(moreFragments);
+		rObj.setMessageLength(messageLength);
+		boolean timerWasIdle;
+
+		// Warten, bis das Paket in Sende-, Empfangs- und Staufenster passt,
+		// dann den Sendezeitpunkt festlegen und in den Sendepuffer eintragen
+		long sendTime;
+		synchronized (sendBuffer) {
+			try {
+				while (status != ConnectionStatus.CLOSED && !mayAddToSendBuffer()) {
+					sendBuffer.wait();
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("Senden unterbrochen");
+			}
+			if (status == ConnectionStatus.CLOSED) {
+				throw new SocketException("Verbindung ist geschlossen");
+			}
+			sendTime = System.nanoTime();
+			if (pacing) {
+				if (nextPacedSendTime - sendTime > 0) {
+					sendTime = nextPacedSendTime;
+				}
+				nextPacedSendTime = sendTime
+						+ congestionControl.getPacingInterval(rttEstimator.getSmoothedRtt());
+			}
+			rObj.setId(currentOutgoingId++);
+			timerWasIdle = sendBuffer.isEmpty();
+			sendBuffer.put(rObj.getId(), new UnacknowledgedPacket(rObj, sendTime));
+		}
+
+		ArrivalSchedule.sleepUntil(sendTime);
+
+		// Ausstehende Bestaetigung erst jetzt anhaengen: Bis hierher bleibt
+		// sie fuer den Timer der verzoegerten Bestaetigung sichtbar
+		sendData(rObj);
+
+		// Bei leerem Sendepuffer laeuft fuer diese Verbindung kein Timer
+		if (timerWasIdle) {
+			verwendeterBasisSocket.engine.requestTimer(this);
+		}
+	}
+
+	/**
+	 * Naechste empfangene Daten abholen, blockiert bis Daten vorliegen
+	 *
+	 * @return Empfangene Daten
+	 * @throws IOException
+	 *             Verbindung geschlossen (EOFException) oder unterbrochen
+	 */
+	public Object receive() throws IOException {
+		Object o;
 		try {
-			pipedOut = new PipedOutputStream();
-			inputStreamDerOberenSchicht = new PipedInputStream(pipedOut);
+			o = data.take();
+		} catch (InterruptedException e) {
+			throw new IOException("Empfangen unterbrochen");
+		}
+		if (o == CLOSED_MARKER) {
+			// Fuer weitere Aufrufe stehen lassen
+			data.offer(CLOSED_MARKER);
+			throw new EOFException("Verbindung " + getConnectionString()
+					+ " ist geschlossen");
+		}
+		ReceivedMessage message = (ReceivedMessage) o;
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		/**
-		 * Durch die PipedStreams koennen Nachrichten, die in der oberen Schicht
-		 * in den OutputStream geschrieben werden, in dieser Schicht ueber den
-		 * inputStreamVonDerOberenSchicht readObject empfangen werden.
-		 * 
-		 * Wichtig: Initialisierungsreihenfolge nicht aendern. Beim Anlegen der
-		 * ObjectStreams wird intern eine Initialisierungsnachricht
-		 * ausgetauscht. Daher wird hier blockiert.
-		 * 
-		 * Der Befehl inputStreamVonDerOberenSchicht = new
-		 * ObjectInputStream(pipedIn); muss in einem eigenen Thread gestartet
-		 * werden (Grund: siehe API-Beschreibung von PipedInputStream).
-		 */
+		// Die Ids und der Speicher der Nachricht werden frei, das
+		// Empfangsfenster rueckt weiter. Ist es seit der letzten Meldung um
+		// mindestens die Haelfte gewachsen, wird es sofort gemeldet, damit
+		// ein wartender Sender weitersenden kann.
+		boolean windowUpdate;
+		synchronized (receiveBuffer) {
+			undeliveredPackets -= message.packets;
+			// Nach einem Abbruch ist der Speicher bereits zurueckgegeben
+			releaseReassemblyMemory(Math.min(message.reservedMemory, reservedReassemblyMemory));
+			windowUpdate = receiveWindowEdge() - advertisedWindowEdge >= Math.max(1, windowSize / 2);
+		}
+		if (windowUpdate && status != ConnectionStatus.CLOSED) {
+			sendAck();
+		}
+		return message.pdu;
+	}
+
+	/*
+	 * Protokollbearbeitung, nur im Engine-Thread aufzurufen
+	 */
+
+	/**
+	 * Empfangenes Paket dieser Verbindung bearbeiten. Die Nutzdaten koennen
+	 * in den Empfangspuffer des Sockets verweisen und sind nur waehrend des
+	 * Aufrufs gueltig.
+	 *
+	 * @param receivedPdu
+	 */
+	void processPacket(ReliableUdpObject receivedPdu) {
+		if (status == ConnectionStatus.CLOSED) {
+			return;
+		}
+		if (receivedPdu.isAck()) {
+			processAck(receivedPdu);
+		}
+		if (receivedPdu.getData() != null) {
+			processData(receivedPdu);
+		}
+	}
+
+	/**
+	 * Kumulativ und selektiv bestaetigte Pakete aus dem Sendepuffer
+	 * entfernen, Empfangs- und Staufenster nachfuehren und einen evtl.
+	 * wartenden Sender wecken. Die RTT wird am zuletzt gesendeten, nicht
+	 * wiederholten Paket gemessen (Karn-Algorithmus). Liegen genuegend
+	 * selektiv bestaetigte Pakete hinter einem unbestaetigten Paket, wird
+	 * es sofort wiederholt.
+	 */
+	private void processAck(ReliableUdpObject ack) {
+		long now = System.nanoTime();
+		long sampleSendTime = NO_DEADLINE;
+		List<ReliableUdpObject> lost = null;
+		synchronized (sendBuffer) {
+			int acked = 0;
+			while (!sendBuffer.isEmpty() && sendBuffer.firstKey() < ack.getAckNumber()) {
+				sampleSendTime = newestSendTime(sendBuffer.pollFirstEntry().getValue(), sampleSendTime);
+				acked++;
+			}
+			long[] ranges = ack.getSelectiveAcks();
+			long highestSelectiveAck = NO_DEADLINE;
+			for (int i = 0; i + 1 < ranges.length; i += 2) {
+				if (ranges[i] >= ranges[i + 1]) {
+					continue;
+				}
+				highestSelectiveAck = Math.max(highestSelectiveAck, ranges[i + 1] - 1);
+				SortedMap<Long, UnacknowledgedPacket> range = sendBuffer.subMap(ranges[i], ranges[i + 1]);
+				for (UnacknowledgedPacket p : range.values()) {
+					sampleSendTime = newestSendTime(p, sampleSendTime);
+					acked++;
+				}
+				range.clear();
+			}
+			congestionControl.onAck(acked);
+
+			// Das Fenster darf nur eine neuere Bestaetigung oder eine reine
+			// Bestaetigung (Fenstermeldung, Empfaenger ohne Speicher zum
+			// Zusammensetzen) verkleinern. Ein Datenpaket mit gleicher
+			// Bestaetigungsnummer kann unterwegs von einer spaeteren
+			// Fenstermeldung ueberholt worden sein und darf sie nicht
+			// rueckgaengig machen (wie SND.WL1/WL2 bei TCP).
+			boolean windowOpened = false;
+			long edge = ack.getAckNumber() + ack.getWindow();
+			if (edge > peerWindowEdge) {
+				windowOpened = true;
+			}
+			if (windowOpened || ack.getAckNumber() > peerAckNumber
+					|| (ack.getData() == null && ack.getAckNumber() == peerAckNumber)) {
+				peerWindowEdge = edge;
+			}
+			peerAckNumber = Math.max(peerAckNumber, ack.getAckNumber());
+
+			if (highestSelectiveAck != NO_DEADLINE) {
+				lost = detectLoss(highestSelectiveAck, now);
+			}
+			if (acked > 0 || windowOpened) {
+				sendBuffer.notifyAll();
+			}
+		}
+		if (sampleSendTime != NO_DEADLINE) {
+			rttEstimator.addSample(now - sampleSendTime);
+		}
+		if (lost != null) {
+			retransmit(lost);
+		}
+	}
+
+	/**
+	 * Pakete, hinter denen mindestens dupThreshold Pakete selektiv bestaetigt
+	 * wurden und die seit mindestens einer RTT unterwegs sind, als verloren
+	 * markieren und das Staufenster verkleinern. Aufruf nur mit Sperre auf
+	 * sendBuffer.
+	 *
+	 * @return Zu wiederholende Pakete oder null
+	 */
+	private List<ReliableUdpObject> detectLoss(long highestSelectiveAck, long now) {
+		long smoothedRtt = rttEstimator.getSmoothedRtt();
+		if (smoothedRtt < 0) {
+			return null;
+		}
+		List<ReliableUdpObject> lost = null;
+		for (UnacknowledgedPacket p : sendBuffer.headMap(highestSelectiveAck - dupThreshold + 1).values()) {
+			if (now - p.lastSendTime < smoothedRtt) {
+				continue;
+			}
+			if (lost == null) {
+				lost = new ArrayList<ReliableUdpObject>();
+				congestionControl.onLoss(p.packet.getId(), currentOutgoingId, sendBuffer.size());
+			}
+			p.retransmissions++;
+			p.lastSendTime = now;
+			lost.add(p.packet);
+		}
+		return lost;
+	}
+
+	/**
+	 * Pakete erneut senden
+	 */
+	private void retransmit(List<ReliableUdpObject> packets) {
+		numberOfRetransmissions += packets.size();
+		for (ReliableUdpObject packet : packets) {
+			log.debug("Sendewiederholung Paket " + packet.getId());
+			try {
+				sendData(packet);
+			} catch (IOException e) {
+				log.error("Sendewiederholung fehlgeschlagen", e);
+			}
+		}
+	}
+
+	/**
+	 * Sendezeitpunkt eines bestaetigten Pakets fuer die RTT-Messung
+	 * beruecksichtigen, falls es nicht wiederholt wurde
+	 */
+	private static long newestSendTime(UnacknowledgedPacket p, long newest) {
+		if (p.retransmissions > 0) {
+			return newest;
+		}
+		if (newest == NO_DEADLINE || p.lastSendTime - newest > 0) {
+			return p.lastSendTime;
+		}
+		return newest;
+	}
+
+	/**
+	 * Datenpaket im Empfangspuffer ablegen, lueckenlos empfangene Daten an
+	 * die Anwendung weitergeben und die Bestaetigung planen. Pakete
+	 * ausserhalb des Empfangsfensters (z.B. Fensterproben) und erste
+	 * Fragmente, fuer die kein Speicher reserviert werden kann, werden
+	 * verworfen und sofort mit dem aktuellen Fenster beantwortet.
+	 */
+	private void processData(ReliableUdpObject receivedPdu) {
+		long id = receivedPdu.getId();
+		boolean ackNow;
+		boolean violation = false;
+		synchronized (receiveBuffer) {
+			if (id == reassemblyBlockedId) {
+				// Wiederholung des abgewiesenen Fragments: erneut versuchen
+				reassemblyBlockedId = -1;
+			}
+			if (id >= receiveWindowEdge()) {
+				log.debug("Paket " + id + " ausserhalb des Empfangsfensters verworfen");
+				ackNow = true;
+			} else if (id < nextExpectedId || receiveBuffer.containsKey(id)) {
+				// Duplikat, z.B. weil die Bestaetigung verloren ging:
+				// sofort erneut bestaetigen
+				log.debug("Duplikat " + id + " verworfen");
+				ackNow = true;
+			} else if (receivedPdu.getMessageLength() > maxMessageSize) {
+				log.error("Nachricht mit " + receivedPdu.getMessageLength()
+						+ " Byte angekuendigt, maximal " + maxMessageSize + " Byte");
+				ackNow = false;
+				violation = true;
+			} else if (!reserveReassemblyMemory(receivedPdu.getMessageLength())) {
+				// Nicht annehmen und das Fenster vor dem Fragment enden
+				// lassen, der Sender wiederholt es als Fensterprobe
+				log.debug("Kein Speicher zum Zusammensetzen, Paket " + id + " verworfen");
+				reassemblyBlockedId = id;
+				ackNow = true;
+			} else if (id != nextExpectedId) {
+				// Luecke: sofort selektiv bestaetigen, damit der Sender
+				// nur das fehlende Paket wiederholt
+				receiveBuffer.put(id, ownPayload(receivedPdu));
+				ackNow = true;
+			} else {
+				boolean gapClosed = !receiveBuffer.isEmpty();
+				violation = !deliver(receivedPdu);
+				nextExpectedId++;
+				ReliableUdpObject next;
+				while (!violation && (next = receiveBuffer.remove(nextExpectedId)) != null) {
+					violation = !deliver(next);
+					nextExpectedId++;
+				}
+				unacknowledgedPackets++;
+				ackNow = gapClosed || ackDelay == 0
+						|| unacknowledgedPackets >= maxUnacknowledgedPackets;
+			}
+
+			if (!ackNow && !ackPending && !violation) {
+				ackPending = true;
+				ackDeadline = System.nanoTime() + ackDelay;
+			}
+		}
+		if (violation) {
+			log.error("Fehlerhafte Fragmentierung, Verbindung "
+					+ getConnectionString() + " wird abgebrochen");
+			abort();
+			return;
+		}
+		if (ackNow) {
+			sendAck();
+		}
+	}
+
+	/**
+	 * Naechstes Paket in der Reihenfolge der Ids weitergeben: Fragmente an
+	 * die zusammengesetzte Nachricht anhaengen, vollstaendige Nachrichten
+	 * dekodieren und in die Queue der Anwendung stellen. Der reservierte
+	 * Speicher bleibt belegt, bis die Anwendung die Nachricht abholt. Aufruf
+	 * nur mit Sperre auf receiveBuffer.
+	 *
+	 * @return false, falls die Fragmente nicht zur angekuendigten Laenge
+	 *         passen
+	 */
+	private boolean deliver(ReliableUdpObject pdu) {
+		byte[] fragment = (byte[]) pdu.getData();
+		int offset = pdu.getDataOffset();
+		int length = pdu.getDataLength();
+		if (reassemblyBuffer == null) {
+			if (pdu.getMessageLength() == 0) {
+				if (pdu.isMoreFragments()) {
+					log.error("Fragment " + pdu.getId() + " ohne Laenge der Nachricht");
+					return false;
+				}
+				deliverMessage(fragment, offset, length, 1, 0);
+				return true;
+			}
+			// Erstes Fragment, der Speicher ist bereits reserviert
+			reassemblyBuffer = new byte[pdu.getMessageLength()];
+			reassemblyLength = 0;
+			reassemblyPackets = 0;
+		} else if (pdu.getMessageLength() != 0) {
+			log.error("Fragment " + pdu.getId() + ": Neue Nachricht vor Ende der vorherigen");
+			return false;
+		}
+		if (reassemblyLength + length > reassemblyBuffer.length) {
+			log.error("Fragment " + pdu.getId() + ": Nachricht laenger als angekuendigt");
+			return false;
+		}
+		System.arraycopy(fragment, offset, reassemblyBuffer, reassemblyLength, length);
+		reassemblyLength += length;
+		reassemblyPackets++;
+		if (pdu.isMoreFragments()) {
+			return true;
+		}
+
+		byte[] message = reassemblyBuffer;
+		reassemblyBuffer = null;
+		if (reassemblyLength != message.length) {
+			log.error("Fragment " + pdu.getId() + ": Nachricht kuerzer als angekuendigt");
+			return false;
+		}
+		deliverMessage(message, 0, message.length, reassemblyPackets, message.length);
+		return true;
+	}
+
+	/**
+	 * Nutzdaten eines Pakets, die in den Empfangspuffer des Sockets
+	 * verweisen, vor dem Puffern in ein eigenes Array kopieren
+	 */
+	private static ReliableUdpObject ownPayload(ReliableUdpObject pdu) {
+		byte[] payload = (byte[]) pdu.getData();
+		if (pdu.getDataOffset() != 0 || pdu.getDataLength() != payload.length) {
+			byte[] copy = new byte[pdu.getDataLength()];
+			System.arraycopy(payload, pdu.getDataOffset(), copy, 0, copy.length);
+			pdu.setData(copy);
+		}
+		return pdu;
+	}
+
+	/**
+	 * Vollstaendige Nachricht dekodieren und in die Queue der Anwendung
+	 * stellen. Nicht dekodierbare Nachrichten werden verworfen und geben
+	 * ihre Ids und ihren Speicher sofort frei. Aufruf nur mit Sperre auf
+	 * receiveBuffer.
+	 *
+	 * @param packets
+	 *            Anzahl Pakete (Ids) der Nachricht
+	 * @param reservedMemory
+	 *            Fuer die Nachricht reservierter Speicher, 0 = keiner
+	 */
+	private void deliverMessage(byte[] message, int offset, int length,
+			int packets, int reservedMemory) {
 		try {
-			pipedIn = new PipedInputStream();
-			outputStreamDerOberenSchicht = new PipedOutputStream(pipedIn);
-			outputStreamDerOberenSchicht.flush();
+			Object pdu = codec.decode(message, offset, length);
+			undeliveredPackets += packets;
+			data.offer(new ReceivedMessage(pdu, packets, reservedMemory));
+		} catch (IOException e) {
+			log.error("Nachricht auf Verbindung " + getConnectionString()
+					+ " nicht dekodierbar, verworfen", e);
+			releaseReassemblyMemory(reservedMemory);
+		}
+	}
+
+	/**
+	 * Speicher fuer eine Nachricht aus dem gemeinsamen Kontingent
+	 * reservieren. Aufruf nur mit Sperre auf receiveBuffer.
+	 *
+	 * @param length
+	 *            Laenge der Nachricht, 0 = kein erstes Fragment
+	 * @return false, falls das Kontingent erschoepft ist
+	 */
+	private boolean reserveReassemblyMemory(int length) {
+		if (length == 0) {
+			return true;
+		}
+		long inUse;
+		do {
+			inUse = reassemblyMemoryInUse.get();
+			if (inUse + length > maxReassemblyMemory) {
+				return false;
+			}
+		} while (!reassemblyMemoryInUse.compareAndSet(inUse, inUse + length));
+		reservedReassemblyMemory += length;
+		return true;
+	}
+
+	/**
+	 * Reservierten Speicher zurueckgeben. Aufruf nur mit Sperre auf
+	 * receiveBuffer.
+	 */
+	private void releaseReassemblyMemory(long length) {
+		reservedReassemblyMemory -= length;
+		reassemblyMemoryInUse.addAndGet(-length);
+	}
 
+	/**
+	 * Aktuellen Bestaetigungszustand in ein ausgehendes Paket eintragen.
+	 * Aufruf nur mit Sperre auf receiveBuffer.
+	 */
+	private void fillAck(ReliableUdpObject rObj) {
+		rObj.setAck(true);
+		rObj.setAckNumber(nextExpectedId);
+		advertisedWindowEdge = receiveWindowEdge();
+		rObj.setWindow((int) Math.max(0, advertisedWindowEdge - nextExpectedId));
+		if (!receiveBuffer.isEmpty()) {
+			// Zusammenhaengende Ids zu Bereichen zusammenfassen
+			long[] ranges = new long[2 * maxSelectiveAcks];
+			int n = 0;
+			for (Long key : receiveBuffer.keySet()) {
+				long k = key.longValue();
+				if (n > 0 && ranges[n - 1] == k) {
+					ranges[n - 1] = k + 1;
+				} else if (n < ranges.length) {
+					ranges[n++] = k;
+					ranges[n++] = k + 1;
+				} else {
+					break;
+				}
+			}
+			long[] used = new long[n];
+			System.arraycopy(ranges, 0, used, 0, n);
+			rObj.setSelectiveAcks(used);
+		}
+		ackPending = false;
+		unacknowledgedPackets = 0;
+	}
+
+	/**
+	 * Rechter Rand des Empfangsfensters: erste Id, die nicht mehr
+	 * aufgenommen werden kann. Das Fenster beginnt bei den Ids der aeltesten
+	 * noch nicht abgeholten Nachricht (bei Fragmenten mehrere Ids je
+	 * Nachricht) und endet spaetestens vor einem mangels Speicher
+	 * abgewiesenen Fragment. Aufruf nur mit Sperre auf receiveBuffer.
+	 */
+	private long receiveWindowEdge() {
+		long edge = nextExpectedId - undeliveredPackets + windowSize;
+		if (reassemblyBlockedId >= 0) {
+			edge = Math.min(edge, reassemblyBlockedId);
+		}
+		return edge;
+	}
+
+	/**
+	 * Datenpaket aus dem Sendepuffer (erstmals oder erneut) senden. Die
+	 * aktuelle Bestaetigung wird in eine Kopie eingetragen, das Paket im
+	 * Sendepuffer bleibt unveraendert, da es gleichzeitig wiederholt werden
+	 * kann.
+	 */
+	private void sendData(ReliableUdpObject packet) throws IOException {
+		ReliableUdpObject frame = packet.copyWithoutAck();
+		synchronized (receiveBuffer) {
+			fillAck(frame);
+		}
+		sendIt(remoteAddress, remotePort, frame);
+	}
+
+	/**
+	 * Reine Bestaetigung (nur Header) senden
+	 */
+	private void sendAck() {
+		ReliableUdpObject rObj = new ReliableUdpObject();
+		rObj.setConnectionId(connectionId);
+		synchronized (receiveBuffer) {
+			fillAck(rObj);
+		}
+		try {
+			sendIt(remoteAddress, remotePort, rObj);
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.error("Senden einer Bestaetigung fehlgeschlagen", e);
 		}
 	}
 
+	/**
+	 * Ablaufzeit des naechsten Timers dieser Verbindung
+	 *
+	 * @return Zeitpunkt (System.nanoTime) oder NO_DEADLINE
+	 */
+	long nextDeadline() {
+		if (status == ConnectionStatus.CLOSED) {
+			return NO_DEADLINE;
+		}
+		long timeout = rttEstimator.getRetransmissionTimeout();
+		long deadline = NO_DEADLINE;
+		synchronized (receiveBuffer) {
+			if (ackPending) {
+				deadline = ackDeadline;
+			}
+		}
+		synchronized (sendBuffer) {
+			for (UnacknowledgedPacket p : sendBuffer.values()) {
+				long d = p.lastSendTime + timeout;
+				if (deadline == NO_DEADLINE || d - deadline < 0) {
+					deadline = d;
+				}
+			}
+		}
+		return deadline;
+	}
+
+	/**
+	 * Timer abgelaufen: Faellige Bestaetigung senden und unbestaetigte
+	 * Pakete, deren Wartezeit abgelaufen ist, erneut senden. Fensterproben
+	 * (Pakete ausserhalb des gemeldeten Empfangsfensters) fuehren nicht zum
+	 * Abbruch der Verbindung, da der Empfaenger sie absichtlich verwirft.
+	 *
+	 * @param now
+	 *            Aktuelle Zeit (System.nanoTime)
+	 */
+	void onTimer(long now) {
+		boolean ackDue;
+		synchronized (receiveBuffer) {
+			ackDue = ackPending && now - ackDeadline >= 0;
+		}
+		if (ackDue) {
+			sendAck();
+		}
+
+		long timeout = rttEstimator.getRetransmissionTimeout();
+		List<ReliableUdpObject> expired = null;
+		boolean congestion = false;
+
+		synchronized (sendBuffer) {
+			for (UnacknowledgedPacket p : sendBuffer.values()) {
+				if (now - p.lastSendTime < timeout) {
+					continue;
+				}
+				boolean probe = p.packet.getId() >= peerWindowEdge;
+				if (p.retransmissions >= maxRetransmissions && !probe) {
+					log.error("Paket " + p.packet.getId() + " nach "
+							+ maxRetransmissions + " Wiederholungen nicht bestaetigt, "
+							+ "Verbindung " + getConnectionString() + " wird abgebrochen");
+					abort();
+					return;
+				}
+				if (!probe) {
+					p.retransmissions++;
+					if (!congestion) {
+						// Timer abgelaufen: Staufenster auf ein Paket zuruecksetzen
+						congestionControl.onTimeout(currentOutgoingId, sendBuffer.size());
+						congestion = true;
+					}
+				}
+				p.lastSendTime = now;
+				if (expired == null) {
+					expired = new ArrayList<ReliableUdpObject>();
+				}
+				expired.add(p.packet);
+			}
+		}
+
+		if (expired != null) {
+			// RTO fuer alle weiteren Pakete verdoppeln
+			rttEstimator.backoff();
+			retransmit(expired);
+		}
+	}
+
+	/**
+	 * Verbindung als geschlossen markieren und wartende Anwendungsthreads
+	 * wecken
+	 */
+	private void abort() {
+		status = ConnectionStatus.CLOSED;
+		synchronized (sendBuffer) {
+			sendBuffer.notifyAll();
+		}
+		synchronized (receiveBuffer) {
+			releaseReassemblyMemory(reservedReassemblyMemory);
+			reassemblyBuffer = null;
+			receiveBuffer.clear();
+		}
+		data.offer(CLOSED_MARKER);
+	}
+
+	/**
+	 * Linker Rand des Sendefensters: kleinste unbestaetigte Id bzw. die
+	 * naechste zu vergebende Id, wenn alle Pakete bestaetigt sind. Aufruf nur
+	 * mit Sperre auf sendBuffer.
+	 */
+	private long sendWindowBase() {
+		return sendBuffer.isEmpty() ? currentOutgoingId : sendBuffer.firstKey();
+	}
+
+	/**
+	 * Darf das naechste Paket gesendet werden? Es muss in das eigene
+	 * Sendefenster, in das vom Empfaenger gemeldete Fenster und in das
+	 * Staufenster passen. Ist nichts unterwegs, wird ein Paket immer
+	 * gesendet (bei vollem Empfangsfenster als Fensterprobe). Aufruf nur mit
+	 * Sperre auf sendBuffer.
+	 */
+	private boolean mayAddToSendBuffer() {
+		if (currentOutgoingId >= sendWindowBase() + windowSize) {
+			return false;
+		}
+		if (sendBuffer.isEmpty()) {
+			return true;
+		}
+		return currentOutgoingId < peerWindowEdge
+				&& sendBuffer.size() < congestionControl.getWindow();
+	}
 
 	/**
 	 * Sende Data-PDU an den Kommunikationspartner
-	 * 
+	 *
 	 * @param remoteAddress
 	 * @param remotePort
 	 * @param pdu
@@ -451,33 +1109,38 @@ public class ReliableUdpSocket {
 	 */
 	public void sendIt(InetAddress remoteAddress, int remotePort, Object pdu)
 			throws IOException {
-		System.out.print("sende ");
-		if(((ReliableUdpObject)pdu).isAck()){
-			System.out.println("ack");
-		}
-		else
-			System.out.println(" normale pdu");
-		//System.out.println("sende an: "+remoteAddress+" : "+remotePort);
 		socket.send(remoteAddress, remotePort, pdu);
 	}
 
 	/**
 	 * Socket aufraeumen
-	 * 
+	 *
 	 * @throws IOException
 	 */
 	protected void releaseSocket() throws IOException {
-		
 		log.info("CLOSING SOCKET " + getConnectionString());
-		// TODO
-		//socket.close();
-		status = ConnectionStatus.CLOSED;
+		if (log.isDebugEnabled()) {
+			synchronized (sendBuffer) {
+				log.debug("RTT-Schaetzung: " + rttEstimator + ", " + congestionControl
+						+ ", Wiederholungen: " + numberOfRetransmissions);
+			}
+		}
+		// Ausstehende Bestaetigung noch senden, sonst wiederholt der
+		// Kommunikationspartner seine letzten Pakete
+		boolean ackDue;
+		synchronized (receiveBuffer) {
+			ackDue = ackPending;
+		}
+		if (ackDue && status != ConnectionStatus.CLOSED) {
+			sendAck();
+		}
+		abort();
 		verwendeterBasisSocket.shutdownReliableUdpSocket(this);
 	}
 
 	/**
 	 * Verbindung schliessen
-	 * 
+	 *
 	 * @throws IOException
 	 */
 	public synchronized void close() throws IOException {
@@ -485,92 +1148,96 @@ public class ReliableUdpSocket {
 	}
 
 	/**
-	 * Inputstream zum Empfang von Daten
-	 * 
-	 * @return InputStream
-	 * @throws IOException
+	 * Der Port des Kommunikationspartners
+	 *
+	 * @return remotePort
 	 */
-	public InputStream getInputStream() throws IOException {
-		return inputStreamDerOberenSchicht;
+	public int getPort() {
+		return remotePort;
 	}
 
 	/**
-	 * OutputStream zum Empfang von Daten
-	 * 
-	 * @return outputStream
-	 * @throws IOException
+	 * Geglaettete RTT der Verbindung (SRTT)
+	 *
+	 * @return SRTT in ns, -1 falls noch keine Messung vorliegt
 	 */
-	public OutputStream getOutputStream() throws IOException {
-		return outputStreamDerOberenSchicht;
+	public long getSmoothedRtt() {
+		return rttEstimator.getSmoothedRtt();
 	}
 
 	/**
-	 * Der Port des Kommunikationspartners
-	 * 
-	 * @return remotePort
+	 * Mittlere Abweichung der RTT (RTTVAR)
+	 *
+	 * @return RTTVAR in ns
 	 */
-	public int getPort() {
-		return remotePort;
+	public long getRttVariation() {
+		return rttEstimator.getRttVariation();
 	}
 
 	/**
-	 * Hat derzeit keine Bedeutung
-	 * 
-	 * @return
+	 * Aktuelle Wartezeit bis zur Sendewiederholung einschliesslich Backoff
+	 *
+	 * @return RTO in ns
 	 */
-	public synchronized int getReceiveBufferSize() throws SocketException {
-		return 0;
+	public long getRetransmissionTimeout() {
+		return rttEstimator.getRetransmissionTimeout();
 	}
 
 	/**
-	 * Hat derzeit keine Bedeutung
-	 * 
-	 * @return
+	 * Aktuelles Staufenster
+	 *
+	 * @return Anzahl der Pakete, die gleichzeitig unterwegs sein duerfen
 	 */
-	public synchronized void setReceiveBufferSize(int size)
-			throws SocketException {
+	public int getCongestionWindow() {
+		synchronized (sendBuffer) {
+			return congestionControl.getWindow();
+		}
 	}
 
 	/**
-	 * Muss aufgerufen werden, sobald die Connection initalisiert ist und das
-	 * Connection Object ReliableUdpSocket der Anwendung bergeben wird
-	 * 
+	 * Anzahl der Sendewiederholungen auf dieser Verbindung
+	 *
+	 * @return Anzahl wiederholter Pakete
+	 */
+	public long getNumberOfRetransmissions() {
+		return numberOfRetransmissions;
+	}
+
+	/**
+	 * Hat derzeit keine Bedeutung
+	 *
 	 * @return
 	 */
-	protected void accept() {
-		accepted = true;
+	public synchronized int getReceiveBufferSize() throws SocketException {
+		return 0;
 	}
 
 	/**
-	 * Wird vom Porthandle aufgerufen. Hier werden saemtliche zu dieser
-	 * Connection gehoerenden Pakete (Data + ACK) uebergeben
-	 * 
-	 * @param receivedPdu
+	 * Hat derzeit keine Bedeutung
+	 *
 	 * @return
 	 */
-	protected void process(ReliableUdpObject receivedPdu) {
-		receivedPackets.add(receivedPdu);
-		//status = ConnectionStatus.WAITING;
-		//System.out.println("receivedPdu empfangen");
+	public synchronized void setReceiveBufferSize(int size)
+			throws SocketException {
 	}
 
 	/**
 	 * Der ConnectionString
-	 * 
+	 *
 	 * @return
 	 */
 	public String getConnectionString() {
 		return ReliableUdpServerSocket.getConnectionString(
 				socket.getLocalAddress(), socket.getLocalPort(),
-				remoteAddress.getHostAddress(), remotePort);
+				remoteAddress.getHostAddress(), remotePort) + "/" + connectionId;
 	}
 
 	/**
 	 * Der lokale Port
-	 * 
+	 *
 	 * @return
 	 */
 	public int getLocalPort() {
 		return socket.getLocalPort();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package edu.hm.dako.EchoApplication.ReliableUdpSocket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Klasse RttEstimator
+ *
+ * Schaetzt die RTT einer Verbindung und berechnet daraus die Wartezeit bis
+ * zur Sendewiederholung (RTO), wie bei TCP (RFC 6298):
+ *
+ * <pre>
+ *  Erste Messung R:  SRTT = R, RTTVAR = R / 2
+ *  Weitere Messung:  RTTVAR = 3/4 * RTTVAR + 1/4 * |SRTT - R|
+ *                    SRTT   = 7/8 * SRTT   + 1/8 * R
+ *  RTO = SRTT + 4 * RTTVAR, begrenzt auf [minRto, maxRto]
+ * </pre>
+ *
+ * Bei jedem Ablauf des Timers wird die RTO verdoppelt (exponentielles
+ * Backoff, ebenfalls durch maxRto begrenzt), bis wieder eine gueltige
+ * Messung vorliegt. Messungen an wiederholten Paketen duerfen nicht
+ * uebergeben werden, da unklar ist, auf welche Uebertragung sich die
+ * Bestaetigung bezieht (Karn-Algorithmus).
+ *
+ * Die Grenzen koennen ueber System-Properties eingestellt werden (Werte in
+ * ms): echo.rudp.rto.initial, echo.rudp.rto.min, echo.rudp.rto.max.
+ *
+ * Alle Zeiten in ns. Die Klasse ist threadsicher.
+ *
+ * @version 1.0.0
+ */
+public class RttEstimator {
+
+	/** System-Properties fuer die Grenzen der RTO in ms */
+	public static final String INITIAL_RTO_PROPERTY = "echo.rudp.rto.initial";
+	public static final String MIN_RTO_PROPERTY = "echo.rudp.rto.min";
+	public static final String MAX_RTO_PROPERTY = "echo.rudp.rto.max";
+
+	/** RTO vor der ersten Messung */
+	private static final long initialRto = TimeUnit.MILLISECONDS.toNanos(
+			Integer.getInteger(INITIAL_RTO_PROPERTY, 200).intValue());
+
+	/** Untergrenze der RTO, verhindert unnoetige Wiederholungen bei kleinen RTTs */
+	private static final long minRto = TimeUnit.MILLISECONDS.toNanos(
+			Integer.getInteger(MIN_RTO_PROPERTY, 5).intValue());
+
+	/** Obergrenze der RTO, auch fuer das Backoff */
+	private static final long maxRto = TimeUnit.MILLISECONDS.toNanos(
+			Integer.getInteger(MAX_RTO_PROPERTY, 2000).intValue());
+
+	/** Geglaettete RTT, -1 = noch keine Messung */
+	private long smoothedRtt = -1;
+
+	/** Mittlere Abweichung der RTT */
+	private long rttVariation = 0;
+
+	/** Aktuelle RTO einschliesslich Backoff */
+	private long rto = clamp(initialRto);
+
+	/** Anzahl der Verdopplungen seit der letzten Messung */
+	private int backoffCount = 0;
+
+	/**
+	 * RTT-Messung an einem nicht wiederholten Paket uebernehmen
+	 *
+	 * @param rtt Zeit zwischen Senden und Bestaetigung in ns
+	 */
+	public synchronized void addSample(long rtt) {
+		if (rtt < 0) {
+			return;
+		}
+		if (smoothedRtt < 0) {
+			smoothedRtt = rtt;
+			rttVariation = rtt / 2;
+		} else {
+			rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+			smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+		}
+		backoffCount = 0;
+		rto = clamp(smoothedRtt + 4 * rttVariation);
+	}
+
+	/**
+	 * Timer ist abgelaufen: RTO verdoppeln
+	 */
+	public synchronized void backoff() {
+		backoffCount++;
+		rto = clamp(rto * 2);
+	}
+
+	/**
+	 * @return Aktuelle Wartezeit bis zur Sendewiederholung in ns
+	 */
+	public synchronized long getRetransmissionTimeout() {
+		return rto;
+	}
+
+	/**
+	 * @return Geglaettete RTT in ns, -1 falls noch keine Messung vorliegt
+	 */
+	public synchronized long getSmoothedRtt() {
+		return smoothedRtt;
+	}
+
+	/**
+	 * @return Mittlere Abweichung der RTT in ns
+	 */
+	public synchronized long getRttVariation() {
+		return rttVariation;
+	}
+
+	/**
+	 * @return Anzahl der RTO-Verdopplungen seit der letzten gueltigen Messung
+	 */
+	public synchronized int getBackoffCount() {
+		return backoffCount;
+	}
+
+	private static long clamp(long value) {
+		return Math.min(Math.max(value, minRto), maxRto);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SRTT=" + TimeUnit.NANOSECONDS.toMicros(smoothedRtt) + " us, RTTVAR="
+				+ TimeUnit.NANOSECONDS.toMicros(rttVariation) + " us, RTO="
+				+ TimeUnit.NANOSECONDS.toMicros(rto) + " us, Backoff=" + backoffCount;
+	}
+}
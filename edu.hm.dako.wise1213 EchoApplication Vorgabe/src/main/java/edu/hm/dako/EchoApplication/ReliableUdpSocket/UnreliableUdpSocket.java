@@ -8,13 +8,22 @@ import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.EchoApplication.Basics.BinaryPduCodec;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+
+
 /**
  * Klasse UnreliableUdpSocket
  * 
@@ -24,6 +33,44 @@ import org.apache.commons.logging.LogFactory;
  * Der Mehrwert dieser Klasse im Vergleich zur Standard-DatagramSocket-Klasse
  * ist die Nutzung eines Objektstroms zur Kommunikation ueber UDP.
  * 
+ * Im Binaerformat werden ReliableUdpObjects nicht serialisiert, sondern in
+ * einen kompakten Header mit den Nutzdaten (Fragment einer bereits
+ * kodierten Nachricht, siehe ReliableUdpSocket.send) umgewandelt. Header und
+ * Nutzdaten werden direkt in einen wiederverwendeten Sendepuffer
+ * geschrieben, die Nutzdaten empfangener Pakete verweisen in den
+ * Empfangspuffer (nur bis zum naechsten Empfang gueltig):
+ * 
+ * <pre>
+ *  Offset  Laenge  Inhalt
+ *   0       1      Formatkennung (0xEB)
+ *   1       1      Flags (ACK, DATA, MF = weitere Fragmente folgen, LEN)
+ *   2       4      Verbindungs-Id
+ *   6       8      Id
+ *  14       8      Kumulative Bestaetigung (ackNumber), falls ACK gesetzt
+ *  22       4      Empfangsfenster ab ackNumber in Paketen
+ *  26       1      Anzahl n selektiv bestaetigter Bereiche
+ *  27       8*n    Bereiche: Beginn und Laenge (je 4 Byte, relativ zu
+ *                  ackNumber)
+ *  27+8*n   4      Laenge der ganzen Nachricht, falls LEN gesetzt (erstes
+ *                  Fragment)
+ *  ...      ...    Nutzdaten, falls DATA gesetzt
+ * </pre>
+ * 
+ * Reine ACKs bestehen nur aus dem Header, Datenpakete koennen zusaetzlich
+ * eine Bestaetigung fuer die Gegenrichtung tragen.
+ * 
+ * Empfangspuffer und DatagramPacket werden je Socket nur einmal angelegt und
+ * fuer jedes Datagramm wiederverwendet.
+ * 
+ * Der Socket basiert auf einem DatagramChannel. Nach register(Selector)
+ * arbeitet er nicht blockierend, Datagramme werden dann mit receiveNow
+ * abgeholt (siehe ReliableUdpEngine).
+ * 
+ * Fuer Messungen in einem gestoerten Netz koennen Verlust, Verzoegerung,
+ * Vertauschung und Duplizierung je Richtung emuliert werden (siehe
+ * NetworkImpairment). In Empfangsrichtung wirkt die Emulation nur im nicht
+ * blockierenden Betrieb.
+ * 
  * Achtung: Maximale Datagramlaenge: 64 KByte
  * 
  * @author Mandl
@@ -33,9 +80,78 @@ import org.apache.commons.logging.LogFactory;
 public class UnreliableUdpSocket {
 	private static Log log = LogFactory.getLog(UnreliableUdpSocket.class);
 	private DatagramSocket socket;
+	private DatagramChannel channel;
 	private InetAddress remoteAddress;
 	private int remotePort;
-	private Random random = new Random();
+
+	/** Emuliertes Netz je Richtung, null = ungestoert */
+	private final NetworkImpairment sendImpairment = NetworkImpairment
+			.getConfigured(NetworkImpairment.Direction.Send);
+	private final NetworkImpairment receiveImpairment = NetworkImpairment
+			.getConfigured(NetworkImpairment.Direction.Receive);
+
+	/**
+	 * Empfangenes, vom emulierten Netz verzoegertes Datagramm
+	 */
+	private static class DelayedDatagram {
+		final byte[] data;
+		final InetAddress address;
+		final int port;
+
+		DelayedDatagram(byte[] data, InetAddress address, int port) {
+			this.data = data;
+			this.address = address;
+			this.port = port;
+		}
+	}
+
+	/** Zur Zustellung faellige verzoegerte Datagramme */
+	private final ConcurrentLinkedQueue<DelayedDatagram> delayedDatagrams = new ConcurrentLinkedQueue<DelayedDatagram>();
+
+	/** Selector, an dem der Socket registriert ist */
+	private volatile Selector selector;
+
+	/** Binaerformat fuer ReliableUdpObjects */
+	private static final byte FORMAT_ID = (byte) 0xEB;
+	private static final int FLAG_ACK = 0x01;
+	private static final int FLAG_DATA = 0x02;
+	private static final int FLAG_MORE_FRAGMENTS = 0x04;
+	private static final int FLAG_MESSAGE_LENGTH = 0x08;
+	private static final int OFFSET_CONNECTION_ID = 2;
+	private static final int OFFSET_ID = 6;
+	private static final int OFFSET_ACK_NUMBER = 14;
+	private static final int OFFSET_WINDOW = 22;
+	private static final int OFFSET_SACK_COUNT = 26;
+	private static final int HEADER_LENGTH = 27;
+	private static final int SACK_RANGE_LENGTH = 8;
+	private static final int MESSAGE_LENGTH_LENGTH = 4;
+
+
+	/** true = Binaerformat, false = Java-Serialisierung */
+	private boolean binaryFormat = false;
+
+	/** Maximale Datagrammlaenge */
+	private static final int MAX_DATAGRAM_LENGTH = 65527;
+
+	/** Wiederverwendeter Empfangspuffer und zugehoeriges Paket */
+	private final byte[] receiveBuffer = new byte[MAX_DATAGRAM_LENGTH];
+	private final DatagramPacket receivePacket = new DatagramPacket(
+			receiveBuffer, receiveBuffer.length);
+
+	/**
+	 * Wiederverwendeter Sendepuffer fuer das Binaerformat (direkt, damit der
+	 * Kanal nicht noch einmal kopiert), geschuetzt durch sich selbst
+	 */
+	private final ByteBuffer sendByteBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+
+	/** Sicht des Empfangspuffers fuer den nicht blockierenden Empfang */
+	private final ByteBuffer receiveByteBuffer = ByteBuffer.wrap(receiveBuffer);
+
+	/** true, wenn der Socket an einem Selector registriert ist */
+	private volatile boolean nonBlocking = false;
+
+	/** Aktuell am Socket eingestellte Wartezeit, -1 = noch nicht eingestellt */
+	private int currentTimeout = -1;
 
 	/**
 	 * Konstruktor
@@ -45,7 +161,7 @@ public class UnreliableUdpSocket {
 	 * 			soll
 	 */
 	public UnreliableUdpSocket(int port) throws SocketException {
-		socket = new DatagramSocket(port);
+		socket = openSocket(port, 0, 0);
 		try {
 			log.debug("Groesse des Empfangspuffers des Datagram-Sockets: "
 					+ socket.getReceiveBufferSize() + " Byte");
@@ -63,18 +179,15 @@ public class UnreliableUdpSocket {
 	 *            UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden
 	 *            soll
 	 * @param sendBufferSize
-	 *            Groesse des Sendepuffers in Byte
+	 *            Groesse des Sendepuffers in Byte im Profil Default
 	 * @param receiveBufferSize
-	 *            Groesse des Empfangspuffers in Byte
+	 *            Groesse des Empfangspuffers in Byte im Profil Default
 	 */
 
 	public UnreliableUdpSocket(int port, int sendBufferSize, int receiveBufferSize)
 			throws SocketException {
-		socket = new DatagramSocket(port);
+		socket = openSocket(port, sendBufferSize, receiveBufferSize);
 		try {
-			socket.setReceiveBufferSize(receiveBufferSize);
-			socket.setSendBufferSize(sendBufferSize);
-
 			log.debug("Groesse des Empfangspuffers des Datagram-Sockets: "
 					+ socket.getReceiveBufferSize() + " Byte");
 			log.debug("Groesse des Sendepuffers des Datagram-Sockets: "
@@ -85,6 +198,165 @@ public class UnreliableUdpSocket {
 		}
 	}
 
+	/**
+	 * Konstruktor
+	 * 
+	 * @param port
+	 *            UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden
+	 *            soll
+	 * @param sendBufferSize
+	 *            Groesse des Sendepuffers in Byte
+	 * @param receiveBufferSize
+	 *            Groesse des Empfangspuffers in Byte
+	 * @param binaryFormat
+	 *            true = ReliableUdpObjects im Binaerformat uebertragen,
+	 *            false = Java-Serialisierung
+	 */
+	public UnreliableUdpSocket(int port, int sendBufferSize,
+			int receiveBufferSize, boolean binaryFormat) throws SocketException {
+		this(port, sendBufferSize, receiveBufferSize);
+		this.binaryFormat = binaryFormat;
+	}
+
+	/**
+	 * Datagramm-Socket ueber einen DatagramChannel oeffnen und vor dem Binden
+	 * nach dem konfigurierten Profil einstellen (siehe SocketTuning)
+	 */
+	private DatagramSocket openSocket(int port, int sendBufferSize,
+			int receiveBufferSize) throws SocketException {
+		try {
+			channel = DatagramChannel.open();
+		} catch (IOException e) {
+			throw new SocketException("Port " + port + " kann nicht geoeffnet werden: " + e);
+		}
+		try {
+			SocketTuning.getConfigured().applyTo(channel.socket(), sendBufferSize,
+					receiveBufferSize);
+			channel.bind(new InetSocketAddress(port));
+			return channel.socket();
+		} catch (IOException e) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			if (e instanceof SocketException) {
+				throw (SocketException) e;
+			}
+			throw new SocketException("Port " + port + " kann nicht geoeffnet werden: " + e);
+		}
+	}
+
+	/**
+	 * Socket auf nicht blockierenden Betrieb umstellen und zum Lesen am
+	 * Selector registrieren. Danach nur noch receiveNow verwenden.
+	 * 
+	 * @param selector
+	 * @return Schluessel der Registrierung
+	 * @throws IOException
+	 */
+	public SelectionKey register(Selector selector) throws IOException {
+		channel.configureBlocking(false);
+		nonBlocking = true;
+		this.selector = selector;
+		return channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Naechstes bereits empfangenes Datagramm abholen, ohne zu warten (nur
+	 * nach register)
+	 * 
+	 * Datagramme, die sich nicht dekodieren lassen, werden protokolliert und
+	 * uebersprungen.
+	 * 
+	 * @return Empfangene Nachricht oder null, falls keine vorliegt
+	 * @throws IOException
+	 *             Fehler des Channels (z.B. geschlossen)
+	 */
+	public Object receiveNow() throws IOException {
+		while (true) {
+			// Zuerst die verzoegert zugestellten Datagramme
+			DelayedDatagram delayed = delayedDatagrams.poll();
+			if (delayed != null) {
+				remoteAddress = delayed.address;
+				remotePort = delayed.port;
+				Object pdu = decodeOrSkip(delayed.data, 0, delayed.data.length);
+				if (pdu != null) {
+					return pdu;
+				}
+				continue;
+			}
+
+			receiveByteBuffer.clear();
+			InetSocketAddress sender = (InetSocketAddress) channel.receive(receiveByteBuffer);
+			if (sender == null) {
+				return null;
+			}
+			remoteAddress = sender.getAddress();
+			remotePort = sender.getPort();
+			if (receiveImpairment == null || impairReceived(receiveByteBuffer.position())) {
+				Object pdu = decodeOrSkip(receiveBuffer, 0, receiveByteBuffer.position());
+				if (pdu != null) {
+					return pdu;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Datagramm dekodieren, fehlerhafte Datagramme protokollieren
+	 * 
+	 * @return Nachricht, null falls das Datagramm nicht dekodiert werden kann
+	 */
+	private Object decodeOrSkip(byte[] buffer, int offset, int length) {
+		try {
+			return decodeDatagram(buffer, offset, length);
+		} catch (IOException e) {
+			// Auch StreamCorruptedException u.ae. bei Java-Serialisierung
+			log.error("RECEIVE: Fehlerhaftes Datagramm von " + remoteAddress + ":"
+					+ remotePort + " verworfen: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Emuliertes Netz in Empfangsrichtung: Das gerade empfangene Datagramm
+	 * verwerfen, duplizieren oder verzoegert zustellen. Verzoegerte Kopien
+	 * werden nach Ablauf in delayedDatagrams eingereiht und der Selector
+	 * geweckt.
+	 * 
+	 * @param length
+	 *            Laenge des Datagramms im Empfangspuffer
+	 * @return true, falls das Datagramm sofort zugestellt wird
+	 */
+	private boolean impairReceived(int length) {
+		boolean deliverNow = false;
+		int copies = receiveImpairment.copies();
+		for (int i = 0; i < copies; i++) {
+			long delay = receiveImpairment.delay();
+			if (delay == 0 && !deliverNow) {
+				deliverNow = true;
+				continue;
+			}
+			byte[] data = new byte[length];
+			System.arraycopy(receiveBuffer, 0, data, 0, length);
+			final DelayedDatagram copy = new DelayedDatagram(data, remoteAddress, remotePort);
+			if (delay == 0) {
+				delayedDatagrams.add(copy);
+				continue;
+			}
+			NetworkImpairment.schedule(new Runnable() {
+				public void run() {
+					delayedDatagrams.add(copy);
+					Selector s = selector;
+					if (s != null) {
+						s.wakeup();
+					}
+				}
+			}, delay);
+		}
+		return deliverNow;
+	}
+
 	/**
 	 * Empfangen einer Nachricht ueber UDP
 	 * 
@@ -94,24 +366,28 @@ public class UnreliableUdpSocket {
 	 *            timout = 0 bedeutet unbegrenztes Warten, bis ein Paket ankommt.
 	 * @throws IOException
 	 */
-	public  Object receive(int timeout) throws IOException,
+	public synchronized Object receive(int timeout) throws IOException,
 			SocketTimeoutException {
-		// Maximale Wartezeit fuer Receive am Socket einstellen
-		try {
-//			log.info("RECEIVE MIT TIMEOUT: "+timeout);
-			socket.setSoTimeout(timeout);
-			//System.out.println("RECEIVE: Maximale Wartezeit: " + timeout +" ms");
-		} catch (SocketException e) {
-			log.error("RECEIVE: "
-					+ "Fehler beim Einstellen der maximalen Wartezeit");
-			throw e;
+		// Maximale Wartezeit fuer Receive am Socket nur bei Aenderung
+		// einstellen
+		if (timeout != currentTimeout) {
+			try {
+//				log.info("RECEIVE MIT TIMEOUT: "+timeout);
+				socket.setSoTimeout(timeout);
+				currentTimeout = timeout;
+				//System.out.println("RECEIVE: Maximale Wartezeit: " + timeout +" ms");
+			} catch (SocketException e) {
+				log.error("RECEIVE: "
+						+ "Fehler beim Einstellen der maximalen Wartezeit");
+				throw e;
+			}
 		}
 
-		byte[] bytes = new byte[65527];
-		DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+		DatagramPacket packet = receivePacket;
 
 		try {
 			// Blockiert nur, bis Timeout abgelaufen ist
+			packet.setLength(receiveBuffer.length);
 			socket.receive(packet);
 			log.debug("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
 			//System.out.println("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
@@ -121,29 +397,33 @@ public class UnreliableUdpSocket {
 			throw e2;
 		}
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-		ObjectInputStream ois = new ObjectInputStream(bais);
-
-		Object pdu;
-		try {
-
-			//System.out.println("RECEIVE: " + "Verfuegbare Bytes im Inputstream des UDP-Sockets:" + ois.available());
+		Object pdu = decodeDatagram(packet.getData(), packet.getOffset(),
+				packet.getLength());
+		remoteAddress = packet.getAddress();
+		remotePort = packet.getPort();
 
-			pdu = ois.readObject();
-
-			remoteAddress = packet.getAddress();
-			remotePort = packet.getPort();
-
-			log.debug("RECEIVE: " + packet.getPort() + "->"	+ socket.getLocalPort());
-		//	System.out.println("RECEIVE: " + packet.getPort() + "->"	+ socket.getLocalPort());
+		log.debug("RECEIVE: " + packet.getPort() + "->"	+ socket.getLocalPort());
+		return pdu;
+	}
 
+	/**
+	 * Inhalt eines Datagramms in eine Nachricht umwandeln
+	 * 
+	 * @return Nachricht, null falls die Klasse unbekannt ist
+	 */
+	private Object decodeDatagram(byte[] buffer, int offset, int length)
+			throws IOException {
+		if (binaryFormat) {
+			return decode(buffer, offset, length);
+		}
+		try {
+			ObjectInputStream ois = new ObjectInputStream(
+					new ByteArrayInputStream(buffer, offset, length));
+			return ois.readObject();
 		} catch (ClassNotFoundException e) {
 			log.error("RECEIVE: " + "ClassNotFoundException:", e);
 			return null;
 		}
-
-		log.info("RECEIVE MIT TIMEOUT ENDE: "+timeout);
-		return pdu;
 	}
 
 	/**
@@ -159,42 +439,237 @@ public class UnreliableUdpSocket {
 	 */
 	public void send(InetAddress remoteAddress, int remotePort, Object pdu)
 			throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		ObjectOutputStream os = new ObjectOutputStream(out);
+		if (binaryFormat && nonBlocking && sendImpairment == null
+				&& pdu instanceof ReliableUdpObject) {
+			// Header und Nutzdaten in einem Durchgang in den Sendepuffer
+			synchronized (sendByteBuffer) {
+				sendByteBuffer.clear();
+				writeFrame((ReliableUdpObject) pdu, sendByteBuffer);
+				sendByteBuffer.flip();
+				transmit(sendByteBuffer, remoteAddress, remotePort);
+			}
+			return;
+		}
+
+		byte[] bytes;
+		if (binaryFormat && pdu instanceof ReliableUdpObject) {
+			bytes = encode((ReliableUdpObject) pdu);
+		} else {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectOutputStream os = new ObjectOutputStream(out);
 		
-		//ReliableUdpObject ruo = new ReliableUdpObject();
-		//ruo.setData(pdu);
+			//ReliableUdpObject ruo = new ReliableUdpObject();
+			//ruo.setData(pdu);
 	
-		os.writeObject(pdu);
+			os.writeObject(pdu);
 		
-		byte[] bytes = out.toByteArray();
+			bytes = out.toByteArray();
+		}
 
 		log.debug("SEND: zu sendende Bytes: " + bytes.length);
 		//System.out.println("zu sendende Bytes: "+ bytes.length);
-//		if(random.nextInt()%20==0){
-//			log.warn("NACHRICHT WURDE VERWORFEN");
-//			System.out.println("NACHRICHT WURDE VERWORFEN");
-//			return;
-//		}
-		DatagramPacket packet = new DatagramPacket(bytes, bytes.length,
-				remoteAddress, remotePort);
+		log.debug("SEND: " + remoteAddress + ":" + remotePort);
 
-		log.debug("SEND: " + packet.getAddress() + ":" + packet.getPort());
+		if (sendImpairment == null) {
+			transmit(bytes, remoteAddress, remotePort);
+			return;
+		}
+		// Emuliertes Netz: Datagramm verwerfen, duplizieren oder verzoegert
+		// senden
+		int copies = sendImpairment.copies();
+		for (int i = 0; i < copies; i++) {
+			long delay = sendImpairment.delay();
+			if (delay == 0) {
+				transmit(bytes, remoteAddress, remotePort);
+			} else {
+				final byte[] delayedBytes = bytes;
+				final InetAddress delayedAddress = remoteAddress;
+				final int delayedPort = remotePort;
+				NetworkImpairment.schedule(new Runnable() {
+					public void run() {
+						try {
+							transmit(delayedBytes, delayedAddress, delayedPort);
+						} catch (IOException e) {
+							log.debug("SEND: Verzoegertes Datagramm nicht gesendet: " + e);
+						}
+					}
+				}, delay);
+			}
+		}
+	}
 
+	/**
+	 * Datagramm an den Empfaenger uebergeben
+	 */
+	private void transmit(byte[] bytes, InetAddress remoteAddress, int remotePort)
+			throws IOException {
 		try {
-			socket.send(packet);
+			if (nonBlocking) {
+				transmit(ByteBuffer.wrap(bytes), remoteAddress, remotePort);
+			} else {
+				socket.send(new DatagramPacket(bytes, bytes.length,
+						remoteAddress, remotePort));
+			}
 		} catch (IOException e) {
 			log.error("SEND: " + "Fehler beim Senden einer PDU");
 			throw e;
 		}
 	}
 
+	/**
+	 * Datagramm im nicht blockierenden Betrieb senden. Ist der Sendepuffer
+	 * des Sockets voll, wird das Datagramm wie bei Ueberlast im Netz
+	 * verworfen.
+	 */
+	private void transmit(ByteBuffer datagram, InetAddress remoteAddress,
+			int remotePort) throws IOException {
+		if (channel.send(datagram, new InetSocketAddress(remoteAddress,
+				remotePort)) == 0) {
+			log.debug("SEND: Sendepuffer voll, Datagramm verworfen");
+		}
+	}
+
 	/**
 	 * Datagram-Socket schlieen
 	 */
 	public void close() {
 		log.debug("CLOSE: " + "Socket wird geschlossen");
-		socket.close();
+		if (sendImpairment != null) {
+			log.info("CLOSE: Netzstoerung " + sendImpairment);
+		}
+		if (receiveImpairment != null) {
+			log.info("CLOSE: Netzstoerung " + receiveImpairment);
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.debug("CLOSE: " + e);
+		}
+	}
+
+	/**
+	 * Maximale Laenge des Headers im Binaerformat
+	 * 
+	 * @param selectiveAcks
+	 *            Hoechstzahl selektiv bestaetigter Bereiche je Paket
+	 * @return Headerlaenge in Byte
+	 */
+	static int maxHeaderLength(int selectiveAcks) {
+		return HEADER_LENGTH + selectiveAcks * SACK_RANGE_LENGTH
+				+ MESSAGE_LENGTH_LENGTH;
+	}
+
+	/**
+	 * ReliableUdpObject im Binaerformat in ein neues Array kodieren (fuer
+	 * verzoegerte Datagramme und den blockierenden Betrieb)
+	 */
+	private byte[] encode(ReliableUdpObject obj) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(frameLength(obj));
+		writeFrame(obj, frame);
+		return frame.array();
+	}
+
+	/**
+	 * Laenge eines ReliableUdpObjects im Binaerformat
+	 */
+	private static int frameLength(ReliableUdpObject obj) {
+		int length = HEADER_LENGTH + sackCount(obj) * SACK_RANGE_LENGTH
+				+ obj.getDataLength();
+		if (obj.getMessageLength() > 0) {
+			length += MESSAGE_LENGTH_LENGTH;
+		}
+		return length;
+	}
+
+	private static int sackCount(ReliableUdpObject obj) {
+		return obj.isAck() ? Math.min(obj.getSelectiveAcks().length / 2, 255) : 0;
+	}
+
+	/**
+	 * ReliableUdpObject im Binaerformat ab der aktuellen Position in den
+	 * Puffer schreiben. Die Nutzdaten werden dabei einmal kopiert, nicht
+	 * kodiert.
+	 */
+	private static void writeFrame(ReliableUdpObject obj, ByteBuffer frame)
+			throws IOException {
+		int flags = obj.isAck() ? FLAG_ACK : 0;
+		if (obj.getData() != null) {
+			if (!(obj.getData() instanceof byte[])) {
+				throw new IOException("Im Binaerformat koennen nur byte[] uebertragen werden");
+			}
+			flags |= FLAG_DATA;
+		}
+		if (obj.isMoreFragments()) {
+			flags |= FLAG_MORE_FRAGMENTS;
+		}
+		if (obj.getMessageLength() > 0) {
+			flags |= FLAG_MESSAGE_LENGTH;
+		}
+		long ackNumber = obj.getAckNumber();
+		long[] ranges = obj.getSelectiveAcks();
+		int sackCount = sackCount(obj);
+		frame.put(FORMAT_ID);
+		frame.put((byte) flags);
+		frame.putInt(obj.getConnectionId());
+		frame.putLong(obj.getId());
+		frame.putLong(ackNumber);
+		frame.putInt(obj.getWindow());
+		frame.put((byte) sackCount);
+		for (int i = 0; i < sackCount; i++) {
+			frame.putInt((int) (ranges[2 * i] - ackNumber));
+			frame.putInt((int) (ranges[2 * i + 1] - ranges[2 * i]));
+		}
+		if ((flags & FLAG_MESSAGE_LENGTH) != 0) {
+			frame.putInt(obj.getMessageLength());
+		}
+		if ((flags & FLAG_DATA) != 0) {
+			frame.put((byte[]) obj.getData(), obj.getDataOffset(), obj.getDataLength());
+		}
+	}
+
+	/**
+	 * ReliableUdpObject aus dem Binaerformat dekodieren
+	 */
+	private ReliableUdpObject decode(byte[] buffer, int offset, int length)
+			throws IOException {
+		if (length < HEADER_LENGTH || buffer[offset] != FORMAT_ID) {
+			throw new IOException("Kein ReliableUdpObject im Binaerformat empfangen");
+		}
+		int flags = buffer[offset + 1];
+		ReliableUdpObject obj = new ReliableUdpObject();
+		obj.setAck((flags & FLAG_ACK) != 0);
+		obj.setMoreFragments((flags & FLAG_MORE_FRAGMENTS) != 0);
+		obj.setConnectionId(BinaryPduCodec.getInt(buffer, offset + OFFSET_CONNECTION_ID));
+		obj.setId(BinaryPduCodec.getLong(buffer, offset + OFFSET_ID));
+		long ackNumber = BinaryPduCodec.getLong(buffer, offset + OFFSET_ACK_NUMBER);
+		obj.setAckNumber(ackNumber);
+		obj.setWindow(BinaryPduCodec.getInt(buffer, offset + OFFSET_WINDOW));
+		int sackCount = buffer[offset + OFFSET_SACK_COUNT] & 0xFF;
+		int payloadOffset = HEADER_LENGTH + sackCount * SACK_RANGE_LENGTH;
+		if ((flags & FLAG_MESSAGE_LENGTH) != 0) {
+			payloadOffset += MESSAGE_LENGTH_LENGTH;
+		}
+		if (length < payloadOffset) {
+			throw new IOException("Unvollstaendiger Header eines ReliableUdpObjects");
+		}
+		if (sackCount > 0) {
+			long[] ranges = new long[2 * sackCount];
+			for (int i = 0; i < sackCount; i++) {
+				int pos = offset + HEADER_LENGTH + i * SACK_RANGE_LENGTH;
+				ranges[2 * i] = ackNumber + BinaryPduCodec.getInt(buffer, pos);
+				ranges[2 * i + 1] = ranges[2 * i] + BinaryPduCodec.getInt(buffer, pos + 4);
+			}
+			obj.setSelectiveAcks(ranges);
+		}
+		if ((flags & FLAG_MESSAGE_LENGTH) != 0) {
+			obj.setMessageLength(BinaryPduCodec.getInt(buffer, offset + payloadOffset
+					- MESSAGE_LENGTH_LENGTH));
+		}
+		if ((flags & FLAG_DATA) != 0) {
+			// Keine Kopie: Die Nutzdaten verweisen in den Puffer
+			obj.setPayload(buffer, offset + payloadOffset, length - payloadOffset);
+		}
+		return obj;
 	}
 
 	/**
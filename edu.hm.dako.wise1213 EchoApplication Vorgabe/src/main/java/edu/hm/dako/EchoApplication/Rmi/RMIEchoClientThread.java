@@ -11,12 +11,17 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
 
 /**
  * Klasse RMIEchoClientThread
  *  
+ * Mit einer Batchgroesse groesser 1 (setBatchSize) werden jeweils so viele
+ * Requests als EchoBatchPDU in einem RMI-Aufruf gesendet. Die RTT wird je
+ * Request ab seinem eigenen Sendezeitpunkt gemessen.
+ *  
  * @author Benjamin Keckes
  *
  */
@@ -93,6 +98,9 @@ public class RMIEchoClientThread extends AbstractClientThread
 				threadName = getName();
 				
 				
+				/* Sockets der RMI-Laufzeit einstellen (einmal je JVM) */
+				RMITuningSocketFactory.install(socketTuning);
+				
 				try {
 					/*Registry holen */
 					Registry rmiRegistry = LocateRegistry.getRegistry(remoteServerAddress, serverPort);
@@ -132,9 +140,9 @@ public class RMIEchoClientThread extends AbstractClientThread
 	        }
 	        
 	        /*Nachrichten hintereinander senden */
-	        for(int i=0; i<numberOfMessages; i++){
+	        for(int i=0; i<numberOfMessages && batchSize<=1; i++){
 	        	/* RTT-Startzeit ermitteln */
-	        	rttStartTime = System.nanoTime();
+	        	rttStartTime = awaitSendTime();
 	        	
 	        	/*
 				 * Neues EchoPDU erzeugen
@@ -170,15 +178,67 @@ public class RMIEchoClientThread extends AbstractClientThread
 				
 				/*Wartezeit bevor die nchste Nachricht geschickt wird */
 				try {
-					Thread.sleep(clientThinkTime);
+					pauseBetweenRequests(clientThinkTime);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}	
 	        }
 	        
+	        if (batchSize > 1) {
+	        	runBatched();
+	        }
+	        
 	        /*Ausgabe bei Threadende */
 	        System.out.println(this.getName()+": ist fertig");
 	        
 						
-		}	
+		}
+		
+		/**
+		 * Senden in Batches: Jeweils bis zu batchSize Requests werden in
+		 * einem RMI-Aufruf gesendet
+		 */
+		private void runBatched()
+		{
+			for (int first = 0; first < numberOfMessages; first += batchSize) {
+				int count = Math.min(batchSize, numberOfMessages - first);
+				EchoPDU[] requests = new EchoPDU[count];
+				long[] sendTimes = new long[count];
+				
+				for (int j = 0; j < count; j++) {
+					int i = first + j;
+					
+					/* RTT-Startzeit je Request ermitteln */
+					sendTimes[j] = awaitSendTime();
+					EchoPDU send = new EchoPDU();
+					send.setClientName(this.getName());
+					send.setMessage(send.getMessageText(this.messageLength)+(i+1));
+					if (i >= numberOfMessages-1) {
+						send.setLastRequest(true);
+					}
+					requests[j] = send;
+				}
+				
+				try {
+					/* Batch senden, Rueckgabewert ist der Batch der Responses */
+					EchoPDU reply = echoServer.echo(new EchoBatchPDU(requests));
+					long receiveTime = System.nanoTime();
+					EchoPDU[] responses = ((EchoBatchPDU) reply).getPdus();
+					for (int j = 0; j < responses.length; j++) {
+						sharedData.incrSentMsgCounter(numberOfClient);
+						sharedData.incrReceivedMsgCounter(numberOfClient, 
+								receiveTime - sendTimes[j], responses[j].getServerTime());
+					}
+				} catch (RemoteException e) {
+					e.printStackTrace();
+				}
+				
+				/* Wartezeit bevor der naechste Batch geschickt wird */
+				try {
+					pauseBetweenRequests(clientThinkTime);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
  }
\ No newline at end of file
@@ -15,6 +15,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
 
 /**
  * Klasse RMIEchoServer
@@ -44,12 +45,17 @@ public class RMIEchoServer {
 				60 * 1000);
 		Registry rmiRegistry = null;
 
+		/* Sockets der RMI-Laufzeit nach dem konfigurierten Profil einstellen */
+		SocketTuning socketTuning = SocketTuning.getConfigured();
+		RMITuningSocketFactory.install(socketTuning);
+
 		/* RMI Registry lokal starten */
 		try {
 			/* Registry lokalisieren */
 			rmiRegistry = java.rmi.registry.LocateRegistry
 					.createRegistry(Registry.REGISTRY_PORT);
-			System.out.println("RMI registry bereit und wartet");
+			System.out.println("RMI registry bereit und wartet (Socket: "
+					+ socketTuning + ")");
 			log.debug("RMI registry bereit");
 		} catch (Exception e) {
 			e.printStackTrace();
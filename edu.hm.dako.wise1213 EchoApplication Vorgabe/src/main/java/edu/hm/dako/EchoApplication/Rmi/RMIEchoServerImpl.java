@@ -12,6 +12,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
 	
 /**
@@ -37,9 +38,20 @@ import edu.hm.dako.EchoApplication.Basics.EchoPDU;
 	/*
 	 * Echo-Methode
 	 * empfngt Message, verarbeitet sie und gibt eine Message zurueck
+	 * Ein Batch (EchoBatchPDU) wird mit einem Batch der Responses beantwortet
 	 */
 	public EchoPDU echo(EchoPDU message) throws RemoteException 
 	{	
+   	    if (message instanceof EchoBatchPDU) {
+   	    	/* Jeden Request des Batches einzeln bearbeiten */
+   	    	EchoPDU[] requests = ((EchoBatchPDU) message).getPdus();
+   	    	EchoPDU[] responses = new EchoPDU[requests.length];
+   	    	for (int i = 0; i < requests.length; i++) {
+   	    		responses[i] = echo(requests[i]);
+   	    	}
+   	    	return new EchoBatchPDU(responses);
+   	    }
+   	    
    	    long startTime = System.nanoTime();
    	    
    	    /*Verbingspartner in Map eintragen */
@@ -0,0 +1,67 @@
+package edu.hm.dako.EchoApplication.Rmi;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+
+/**
+ * Klasse RMITuningSocketFactory
+ *
+ * Socket-Factory fuer die RMI-Laufzeit, die Client- und Server-Sockets nach
+ * dem Profil in SocketTuning einstellt. Die Factory gilt fuer die ganze JVM
+ * (Registry und exportierte Objekte) und wird deshalb nur einmal
+ * installiert. Laufen Client und Server in derselben JVM, gilt das Profil
+ * der zuerst installierenden Seite.
+ *
+ * @version 1.0.0
+ */
+public class RMITuningSocketFactory extends RMISocketFactory {
+
+	private static Log log = LogFactory.getLog(RMITuningSocketFactory.class);
+
+	/** Backlog der RMI-Laufzeit (Profil Default) */
+	private static final int backlog = 50;
+
+	private final SocketTuning socketTuning;
+
+	private RMITuningSocketFactory(SocketTuning socketTuning) {
+		this.socketTuning = socketTuning;
+	}
+
+	/**
+	 * Factory fuer die JVM installieren, falls noch keine installiert ist.
+	 * Muss vor dem ersten RMI-Aufruf bzw. vor dem Anlegen der Registry
+	 * aufgerufen werden.
+	 *
+	 * @param socketTuning Socket-Einstellungen
+	 */
+	public static synchronized void install(SocketTuning socketTuning) {
+		if (RMISocketFactory.getSocketFactory() != null) {
+			return;
+		}
+		try {
+			RMISocketFactory.setSocketFactory(new RMITuningSocketFactory(
+					socketTuning));
+			log.debug("RMI-Socket-Factory mit Profil " + socketTuning
+					+ " installiert");
+		} catch (IOException e) {
+			log.error("RMI-Socket-Factory kann nicht installiert werden: " + e);
+		}
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return socketTuning.connect(host, port, false, 0);
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		return socketTuning.openServerSocket(port, backlog, 0);
+	}
+}
@@ -2,21 +2,33 @@ package edu.hm.dako.EchoApplication.TCPMultiThreaded;
 
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.util.Calendar;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.ResourceSampler;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
 
 
 /**
  * Klasse TCPMultiThreadedEchoClientThread
+ * 
+ * Mit einem Pipeline-Fenster groesser 1 (setPipelineWindow) sendet der
+ * Client bis zu dieser Anzahl Requests, ohne auf die Antworten zu warten.
+ * Die Antworten werden dann in einem eigenen Empfangsthread entgegengenommen
+ * und ueber die laufende Nummer ihrem Request zugeordnet.
+ * 
+ * Mit einer Batchgroesse groesser 1 (setBatchSize) werden jeweils so viele
+ * Requests als EchoBatchPDU in einem Rahmen gesendet, der Server antwortet
+ * mit einem Batch der Responses. Die RTT wird je Request ab seinem eigenen
+ * Sendezeitpunkt gemessen. Der Batch-Betrieb hat Vorrang vor Pipelining.
  *  
  * @author Benjamin Keckes
  *
@@ -57,8 +69,8 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 	    
 	    /** Socket-Verbindung */
 	    private Socket con;
-	    private ObjectInputStream in;
-	    private ObjectOutputStream out;
+	    private PduCodec.PduReader in;
+	    private PduCodec.PduWriter out;
 	  
 	    /** Zeitstempel fr RTT-Berechnung und Kalender */
 		private long rttStartTime;
@@ -97,9 +109,11 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 		    
 			/* Verbindung zum Server aufbauen */
 			try { 
-			      con = new Socket(remoteServerAddress, serverPort);
-			      out = new ObjectOutputStream(con.getOutputStream());
-			      in = new ObjectInputStream(con.getInputStream());
+			      con = socketTuning.connect(remoteServerAddress, serverPort, false, 0);
+			      PduCodec codec = codecType.createStreamCodec();
+			      out = codec.newWriter(con.getOutputStream());
+			      out.flush();
+			      in = codec.newReader(con.getInputStream());
 			      localPort = con.getLocalPort();
 			      currentPort = con.getPort();
 			      log.debug(threadName + ": Verbindung zum Server aufgebaut mit Port " + localPort);
@@ -136,9 +150,21 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 		        }
 	        }
 	        
+	        if (batchSize > 1) {
+	        	runBatched();
+	        	closeConnection();
+	        	return;
+	        }
+	        
+	        if (pipelineWindow > 1) {
+	        	runPipelined();
+	        	closeConnection();
+	        	return;
+	        }
+	        
 	        for (int i = 0; i < numberOfMessages; i++) {
 				/* RTT-Startzeit ermitteln */
-				rttStartTime = System.nanoTime();
+				rttStartTime = awaitSendTime();
 				
 				try {
 					
@@ -151,6 +177,7 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 					EchoPDU echoSend = new EchoPDU();
 					echoSend.setClientName(this.getName());
 					echoSend.setMessage(echoSend.getMessageText(this.messageLength)+(i+1));
+					echoSend.setSequenceNumber(i+1);
 					
 					/* Letzter Request? */
 					if (i == numberOfMessages - 1) {
@@ -158,7 +185,7 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 					}
 					
 					/* Message wird gesendet */
-					out.writeObject(echoSend);
+					out.writePdu(echoSend);
 					out.flush();
 				}
 				catch (IOException e1) {		
@@ -167,7 +194,7 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 				try{
 					
 					/* Antwort entgegennehmen */
-					EchoPDU echoRec = (EchoPDU) in.readObject();
+					EchoPDU echoRec = in.readPdu();
 					System.out.println("Client "+this.getName()+": "+echoRec.getMessage()+" von "+echoRec.getServerThreadName());
 					
 					/* RTT berechnen */
@@ -179,28 +206,209 @@ public class TCPMultiThreadedEchoClientThread extends AbstractClientThread
 				}
 				catch (IOException e1) {	
 					e1.printStackTrace();
-				} catch (ClassNotFoundException e) {
-					System.out.println("Fehler in Typkonvertierung");
-					e.printStackTrace();
-				} 
+				}
 				
 				/* Wartezeit */
 				try {
-					Thread.sleep(clientThinkTime);
+					pauseBetweenRequests(clientThinkTime);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}	
 				
 			}
 			  
+	        closeConnection();
+		}
+		
+		/**
+		 * Senden mit Pipelining: Bis zu pipelineWindow Requests sind
+		 * gleichzeitig ausstehend. Ein Empfangsthread nimmt die Antworten
+		 * entgegen, berechnet die RTT ueber die laufende Nummer und gibt
+		 * jeweils einen Platz im Fenster frei.
+		 */
+		private void runPipelined()
+		{
+			/* Sendezeitpunkte je laufender Nummer (Index 0 unbenutzt) */
+			final AtomicLongArray sendTimes = new AtomicLongArray(numberOfMessages + 1);
+			final Semaphore window = new Semaphore(pipelineWindow);
+			final boolean[] receiveFailed = new boolean[1];
+			
+			Thread receiver = getThreadingMode().newThread(new Runnable() {
+				public void run() {
+					/* CPU-Zeit des Empfangsthreads zaehlt zum Client */
+					long cpuStart = ResourceSampler.currentThreadCpuTime();
+					try {
+						receiveResponses();
+					} finally {
+						long cpuEnd = ResourceSampler.currentThreadCpuTime();
+						if (cpuStart >= 0 && cpuEnd >= 0) {
+							addCpuTime(cpuEnd - cpuStart);
+						}
+					}
+				}
+				
+				private void receiveResponses() {
+					try {
+						for (int i = 0; i < numberOfMessages; i++) {
+							/* Antwort entgegennehmen und ihrem Request zuordnen */
+							EchoPDU echoRec = in.readPdu();
+							long seq = echoRec.getSequenceNumber();
+							if (seq < 1 || seq > numberOfMessages) {
+								throw new IOException("Unbekannte laufende Nummer " + seq);
+							}
+							long rtt = System.nanoTime() - sendTimes.get((int) seq);
+							log.debug("Client " + threadName + ": " + echoRec.getMessage() 
+									+ " von " + echoRec.getServerThreadName());
+							
+							/* Response-Zaehler erhoehen */
+							sharedData.incrSentMsgCounter(numberOfClient);
+							sharedData.incrReceivedMsgCounter(numberOfClient, rtt, echoRec.getServerTime());
+							window.release();
+						}
+					} catch (IOException e) {
+						log.error(threadName + ": Empfangen nicht moeglich: " + e);
+						synchronized (receiveFailed) {
+							receiveFailed[0] = true;
+						}
+						/* Sender nicht endlos blockieren */
+						window.release(numberOfMessages);
+					}
+				}
+			}, threadName + "-Empfang");
+			receiver.start();
+			
+			int sent = 0;
+			for (int i = 0; i < numberOfMessages; i++) {
+				try {
+					window.acquire();
+				} catch (InterruptedException e) {
+					log.error("Warten auf Fenster unterbrochen");
+					break;
+				}
+				synchronized (receiveFailed) {
+					if (receiveFailed[0]) {
+						break;
+					}
+				}
+				
+				try {
+					EchoPDU echoSend = new EchoPDU();
+					echoSend.setClientName(this.getName());
+					echoSend.setMessage(echoSend.getMessageText(this.messageLength)+(i+1));
+					echoSend.setSequenceNumber(i+1);
+					if (i == numberOfMessages - 1) {
+						echoSend.setLastRequest(true);
+					}
+					
+					/* RTT-Startzeit je Request merken und senden */
+					sendTimes.set(i+1, awaitSendTime());
+					out.writePdu(echoSend);
+					out.flush();
+					sent++;
+				}
+				catch (IOException e1) {
+					e1.printStackTrace();
+					break;
+				}
+				
+				/* Wartezeit zwischen zwei Requests */
+				if (clientThinkTime > 0) {
+					try {
+						pauseBetweenRequests(clientThinkTime);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+			
+			/* Bei Abbruch Verbindung schliessen, damit der Empfangsthread endet */
+			if (sent < numberOfMessages) {
+				try {
+					con.close();
+				} catch (IOException e) {
+					log.debug("Exception bei close: " + e);
+				}
+			}
+			
+			/* Auf die ausstehenden Antworten warten */
+			try {
+				receiver.join();
+			} catch (InterruptedException e) {
+				log.error("Warten auf Empfangsthread unterbrochen");
+			}
+		}
+		
+		/**
+		 * Senden in Batches: Jeweils bis zu batchSize Requests werden
+		 * gesammelt und als ein Rahmen gesendet, danach wird auf den Batch
+		 * der Responses gewartet
+		 */
+		private void runBatched()
+		{
+			for (int first = 0; first < numberOfMessages; first += batchSize) {
+				int count = Math.min(batchSize, numberOfMessages - first);
+				EchoPDU[] requests = new EchoPDU[count];
+				long[] sendTimes = new long[count];
+				
+				for (int j = 0; j < count; j++) {
+					int i = first + j;
+					
+					/* RTT-Startzeit je Request ermitteln */
+					sendTimes[j] = awaitSendTime();
+					EchoPDU echoSend = new EchoPDU();
+					echoSend.setClientName(this.getName());
+					echoSend.setMessage(echoSend.getMessageText(this.messageLength)+(i+1));
+					echoSend.setSequenceNumber(i+1);
+					if (i == numberOfMessages - 1) {
+						echoSend.setLastRequest(true);
+					}
+					requests[j] = echoSend;
+				}
+				
+				try {
+					/* Batch senden und Batch der Responses entgegennehmen */
+					out.writePdu(new EchoBatchPDU(requests));
+					out.flush();
+					EchoPDU echoRec = in.readPdu();
+					long receiveTime = System.nanoTime();
+					if (!(echoRec instanceof EchoBatchPDU)
+							|| ((EchoBatchPDU) echoRec).size() != count) {
+						throw new IOException("Unerwartete Antwort auf Batch: " + echoRec);
+					}
+					EchoPDU[] responses = ((EchoBatchPDU) echoRec).getPdus();
+					for (int j = 0; j < count; j++) {
+						sharedData.incrSentMsgCounter(numberOfClient);
+						sharedData.incrReceivedMsgCounter(numberOfClient, 
+								receiveTime - sendTimes[j], responses[j].getServerTime());
+					}
+					log.debug("Client " + threadName + ": Batch mit " + count 
+							+ " Responses von " + responses[0].getServerThreadName());
+				}
+				catch (IOException e1) {
+					e1.printStackTrace();
+					break;
+				}
+				
+				/* Wartezeit */
+				try {
+					pauseBetweenRequests(clientThinkTime);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		/**
+		 * Transportverbindung abbauen
+		 */
+		private void closeConnection()
+		{
 	        try {
-	        	/* Transportverbindung abbauen */
 				out.close();
 				in.close();
 				con.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-			
-		}	
+		}
  }
\ No newline at end of file
@@ -1,8 +1,10 @@
 package edu.hm.dako.EchoApplication.TCPMultiThreaded;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
@@ -14,7 +16,15 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
+import edu.hm.dako.EchoApplication.Basics.BinaryPduCodec;
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.PduFraming;
+import edu.hm.dako.EchoApplication.Basics.PassthroughEcho;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 
 /**
  * Klasse TCPMultiThreadedEchoServer
@@ -22,7 +32,7 @@ import edu.hm.dako.EchoApplication.Basics.EchoPDU;
  * @author Benjamin Keckes
  *
  */
-public class TCPMultiThreadedEchoServer extends Thread
+public class TCPMultiThreadedEchoServer implements Runnable
 {	 
 		private static Log log = LogFactory.getLog(TCPMultiThreadedEchoServer.class);
 
@@ -36,13 +46,39 @@ public class TCPMultiThreadedEchoServer extends Thread
 	    /** TCP-Socket des Servers (Listen-Socket) */
 	    private static ServerSocket serverSocket;
 	    
+	    /** Codec fuer die Uebertragung der EchoPDUs */
+	    private static PduCodecType codecType = PduCodecType.JavaSerialization;
+	    
+	    /** Ausfuehrungsmodell der Worker-Threads (normale oder virtuelle Threads) */
+	    private static ThreadingMode threadingMode = ThreadingMode.Platform;
+	    
+	    /** Requests ohne Dekodieren zuruecksenden (siehe PassthroughEcho) */
+	    private static boolean passthrough = false;
+	    
+	    /** Socket-Einstellungen (Profil) */
+	    private static SocketTuning socketTuning;
+	    
 		/** Transportverbindung und Streams fuer einen Client */
 	    private Socket con;
-		private ObjectOutputStream out;
-		private ObjectInputStream in;
+		private PduCodec.PduWriter out;
+		private PduCodec.PduReader in;
+		
+		/** Streams der Verbindung im Passthrough-Modus (Rahmen ohne Dekodieren) */
+		private DataInputStream rawIn;
+		private OutputStream rawOut;
 		
-		/** Groesse des Empfangspuffers einer TCP-Verbindung in Byte */
+		/** Groesse des Empfangspuffers einer TCP-Verbindung in Byte (Profil Default) */
 		private static final int receiveBufferSize = 300000;
+		
+		/** Laenge der Warteschlange fuer Verbindungsaufbauwuensche (Profil Default) */
+		private static final int backlog = 50;
+		
+		/** 
+		 * Maximale Anzahl Responses, die gesammelt werden, bevor gesendet wird.
+		 * Responses werden sonst gesendet, sobald kein weiterer Request mehr
+		 * ohne Blockieren gelesen werden kann.
+		 */
+		private static final int maxUnflushedResponses = 64;
 	
 	    /**
 	     * Konstruktor
@@ -51,10 +87,18 @@ public class TCPMultiThreadedEchoServer extends Thread
 		{		
 			 this.con = incoming;
 
-			 /* Ein- und Ausgabe-Objektstrom erzeugen */
+			 /* Ein- und Ausgabestrom ueber den Codec der Verbindung erzeugen */
 			 try {
-		        out = new ObjectOutputStream(incoming.getOutputStream());
-		        in = new ObjectInputStream(incoming.getInputStream());
+				if (passthrough) {
+					rawIn = new DataInputStream(new BufferedInputStream(incoming.getInputStream()));
+					rawOut = new BufferedOutputStream(incoming.getOutputStream());
+					System.out.println("Verbindung angelegt: "+incoming.getPort()); 
+					return;
+				}
+				PduCodec codec = codecType.createStreamCodec();
+		        out = codec.newWriter(incoming.getOutputStream());
+		        out.flush();
+		        in = codec.newReader(incoming.getInputStream());
 		        System.out.println("Verbindung angelegt: "+incoming.getPort()); 
 		      }  
 		      catch (Exception e) { 
@@ -65,10 +109,15 @@ public class TCPMultiThreadedEchoServer extends Thread
    	    public static void main (String args[])
    	    {
    	    	PropertyConfigurator.configureAndWatch("log4j.server.properties", 60 * 1000);
+   	    	codecType = PduCodecType.getConfigured();
+   	    	threadingMode = ThreadingMode.getConfigured();
+   	    	passthrough = PassthroughEcho.isEnabled(codecType);
+   	    	socketTuning = SocketTuning.getConfigured();
    	    	
    	    	try {
-   	    		serverSocket = new ServerSocket(serverPort);
-   	    		System.out.println("TCPMultiThreadedEchoServer wartet auf Clients...");
+   	    		serverSocket = socketTuning.openServerSocket(serverPort, backlog, receiveBufferSize);
+   	    		System.out.println("TCPMultiThreadedEchoServer wartet auf Clients (Codec: " + codecType + ", Threads: " + threadingMode 
+   	    				+ (passthrough ? ", Passthrough" : "") + ", Socket: " + socketTuning + ")...");
    	    	} catch (IOException e) { 
    	    	   log.debug("Exception bei der Socket-Erzeugung: " + e);
 	           System.exit(9);
@@ -85,13 +134,14 @@ public class TCPMultiThreadedEchoServer extends Thread
    					/**neuen Serverthread erstellen */
 					TCPMultiThreadedEchoServer thread = new TCPMultiThreadedEchoServer(socket1);
 					
-					/**connection in Liste eintragen */
-					connections.put(thread.getName(), socket1);
-					
 					numberOfWorkerThread++;
+					String threadName = "WorkerThread-" + numberOfWorkerThread;
 					
-					/**Serverthread starten */
-					thread.start(); 					
+					/**connection in Liste eintragen */
+					connections.put(threadName, socket1);
+					
+					/**Serverthread starten, bei virtuellen Threads laeuft run() auf einem eigenen virtuellen Thread */
+					threadingMode.newThread(thread, threadName).start();
 					
 				} catch (IOException e) {
 					//e.printStackTrace();
@@ -103,6 +153,98 @@ public class TCPMultiThreadedEchoServer extends Thread
    	    	 }
    	    }  
    	    
+   	    /**
+   	     * Response auf einen Request erzeugen
+   	     * 
+   	     * @param receivedPdu Request
+   	     * @param startTime Empfangszeitpunkt fuer die Serverzeit
+   	     * @return Response
+   	     */
+   	    private EchoPDU createResponse(EchoPDU receivedPdu, long startTime)
+   	    {
+   	    	/*
+   	    	 * Neues EchoPDU erzeugen
+   	    	 * EchoPDU ServerThreadName setzen
+   	    	 * EchoPDU ClientName setzen
+   	    	 * EchoPDU Nachricht setzen
+   	    	 * EchoPDU ServerZeit setzen
+   	    	 *  
+   	    	 */
+   	    	EchoPDU sendPdu = new EchoPDU();
+   	    	log.debug("Serverzeit: " + (System.nanoTime() - startTime) + " ns"); 
+   	    	sendPdu.setServerThreadName(Thread.currentThread().getName()); 
+   	    	sendPdu.setClientName(receivedPdu.getClientName());
+   	    	sendPdu.setMessage(receivedPdu.getMessage()+"_vomServerZurueck");
+   	    	sendPdu.setSequenceNumber(receivedPdu.getSequenceNumber());
+   	    	sendPdu.setServerTime(System.nanoTime() - startTime); 
+   	    	return sendPdu;
+   	    }
+   	    
+   	    /**
+   	     * Batch von Responses erzeugen, die Serverzeit wird je Request gemessen
+   	     * 
+   	     * @param receivedBatch Batch von Requests
+   	     * @return Batch der Responses in derselben Reihenfolge
+   	     */
+   	    private EchoBatchPDU createBatchResponse(EchoBatchPDU receivedBatch)
+   	    {
+   	    	EchoPDU[] requests = receivedBatch.getPdus();
+   	    	EchoPDU[] responses = new EchoPDU[requests.length];
+   	    	for (int i = 0; i < requests.length; i++) {
+   	    		responses[i] = createResponse(requests[i], System.nanoTime());
+   	    	}
+   	    	return new EchoBatchPDU(responses);
+   	    }
+   	    
+   	    /**
+   	     * Passthrough-Modus: Rahmen lesen, Serverzeit und Server-Id eintragen
+   	     * und unveraendert zuruecksenden, bis der letzte Request eingetroffen
+   	     * ist oder die Verbindung abbricht
+   	     */
+   	    private void runPassthrough()
+   	    {
+   	    	byte[] frame = new byte[256];
+   	    	int serverId = (int) Thread.currentThread().getId();
+   	    	int unflushedResponses = 0;
+   	    	
+   	    	while (true) {
+   	    		try {
+   	    			/* Laengenpraefix lesen, Rahmen mit Praefix in den Puffer lesen */
+   	    			int length = BinaryPduCodec.readVarInt(rawIn);
+   	    			long startTime = System.nanoTime();
+   	    			if (length <= 0 || length > PduFraming.MAX_FRAME_LENGTH) {
+   	    				throw new IOException("Ungueltige Nachrichtenlaenge: " + length);
+   	    			}
+   	    			int prefixLength = BinaryPduCodec.varIntLength(length);
+   	    			if (frame.length < prefixLength + length) {
+   	    				frame = new byte[Math.max(prefixLength + length, frame.length * 2)];
+   	    			}
+   	    			BinaryPduCodec.writeVarInt(frame, 0, length);
+   	    			rawIn.readFully(frame, prefixLength, length);
+   	    			
+   	    			boolean lastRequest = PassthroughEcho.patch(frame, prefixLength, length, 
+   	    					System.nanoTime() - startTime, serverId);
+   	    			rawOut.write(frame, 0, prefixLength + length);
+   	    			unflushedResponses++;
+   	    			
+   	    			/* Wie im normalen Modus sammeln, solange weitere Requests vorliegen */
+   	    			if (unflushedResponses >= maxUnflushedResponses 
+   	    					|| lastRequest || rawIn.available() == 0) {
+   	    				rawOut.flush();
+   	    				unflushedResponses = 0;
+   	    			}
+   	    			if (lastRequest) {
+   	    				System.out.println("Letzter Request auf Verbindung mit Remote-TCP-Port " + con.getPort());
+   	    				return;
+   	    			}
+   	    		}
+   	    		catch (IOException e) {
+   	    			log.debug("Empfangen oder Senden nicht moeglich: " + e);
+   	    			return;
+   	    		}
+   	    	}
+   	    }
+   	    
    	    /**
    	     * Die Threadmethode
    	     */
@@ -111,23 +253,29 @@ public class TCPMultiThreadedEchoServer extends Thread
    	    	boolean finished = false;
    	    	EchoPDU receivedPdu = new EchoPDU();
    	    	long startTime;
+   	    	int unflushedResponses = 0;
   
-   	    	System.out.println(this.getName() + ": Verbindung mit neuem Client aufgebaut, Remote-TCP-Port " + con.getPort());
+   	    	System.out.println(Thread.currentThread().getName() + ": Verbindung mit neuem Client aufgebaut, Remote-TCP-Port " + con.getPort());
    	    	 	    	
    	    	try {
-   	    		log.debug("Standardgroesse des Empfangspuffers der Verbindung: " + con.getReceiveBufferSize() + " Byte");
-   	    		con.setReceiveBufferSize(receiveBufferSize);
-   	    		log.debug("Eingestellte Groesse des Empfangspuffers der Verbindung: " + con.getReceiveBufferSize() + " Byte");
+   	    		/* Der Empfangspuffer wird bereits vom ServerSocket uebernommen. */
+   	    		socketTuning.applyTo(con, false, 0);
+   	    		log.debug("Eingestellte Socket-Optionen der Verbindung: " + SocketTuning.describe(con));
    	    		
    	    	} catch (SocketException e){
    	    		log.debug("Socketfehler: " + e);
    	    	}
    	    	
+   	    	if (passthrough) {
+   	    		runPassthrough();
+   	    		finished = true;
+   	    	}
+   	    	
    	    	while (!finished) {
    	    		
    	    		try {	
    	    			/* Echo-Request entgegennehmen */
-   	    			receivedPdu = (EchoPDU) in.readObject();
+   	    			receivedPdu = in.readPdu();
    	    			startTime = System.nanoTime();
    	    			log.debug("Request empfangen von " + receivedPdu.getClientName() + ": " + receivedPdu.getMessage());
    	    		} 
@@ -136,31 +284,29 @@ public class TCPMultiThreadedEchoServer extends Thread
    	   	    		finished = true;
    	   	    		continue;
    	    		}
-   	   	    	catch (ClassNotFoundException e) {
-   	   	    		log.debug("Unbekannte Objektklasse empfangen: " + e);
-  	    			finished = true;
-  	    			continue;
-				}            
    	    		try {
-   	    			/*
-   	    			* Neues EchoPDU erzeugen
-   	    			* EchoPDU ServerThreadName setzen
-   	    			* EchoPDU ClientName setzen
-   	    			* EchoPDU Nachricht setzen
-   	    			* EchoPDU ServerZeit setzen
-   	    			*  
-   	    			*/
-   	    			EchoPDU sendPdu = new EchoPDU();
-   	    			log.debug("Serverzeit: " + (System.nanoTime() - startTime) + " ns"); 
-   	    			sendPdu.setServerThreadName(this.getName()); 
-   	    		    sendPdu.setClientName(receivedPdu.getClientName());
-   	    		    sendPdu.setMessage(receivedPdu.getMessage()+"_vomServerZurueck");
-   	    			sendPdu.setServerTime(System.nanoTime() - startTime); 
+   	    			/* Response erzeugen, bei einem Batch eine je Request */
+   	    			EchoPDU sendPdu;
+   	    			if (receivedPdu instanceof EchoBatchPDU) {
+   	    				sendPdu = createBatchResponse((EchoBatchPDU) receivedPdu);
+   	    			} else {
+   	    				sendPdu = createResponse(receivedPdu, startTime);
+   	    			}
    	    			
    	    			/* EchoPDU an den Client zurck senden */
-   	    			out.writeObject(sendPdu);
-   	    			out.flush();
-   	    			log.debug("Response gesendet");   	    			
+   	    			out.writePdu(sendPdu);
+   	    			unflushedResponses++;
+   	    			
+   	    			/* 
+   	    			 * Sammeln, solange weitere Requests bereits empfangen wurden
+   	    			 * (Pipelining des Clients), sonst sofort senden
+   	    			 */
+   	    			if (unflushedResponses >= maxUnflushedResponses 
+   	    					|| receivedPdu.getLastRequest() || in.available() == 0) {
+   	    				out.flush();
+   	    				unflushedResponses = 0;
+   	    				log.debug("Response gesendet");
+   	    			}
    	    		} 
    	    		catch (IOException e) {
    	    			log.error("Senden einer Nachricht nicht moeglich: " + e);
@@ -182,22 +328,24 @@ public class TCPMultiThreadedEchoServer extends Thread
     		}
     		catch (InterruptedException e3){}
     		  	
-    		System.out.println(this.getName() + ": Verbindung mit Client abbauen, Remote-TCP-Port " + con.getPort());
+    		System.out.println(Thread.currentThread().getName() + ": Verbindung mit Client abbauen, Remote-TCP-Port " + con.getPort());
     		
     		/* Verbindung abbauen */
    	    	try {
-   	    		out.flush();
+   	    		if (out != null) {
+   	    			out.flush();
+   	    		}
    	    		con.close();
    	    	}
    	    	catch (IOException e) {
    	    		System.out.println("Exception bei close: " + e);
    	    	}   	
 
-	    	log.debug(this.getName() + " beendet sich");  
-	    	System.out.println(this.getName()+" beendet sich");
+	    	log.debug(Thread.currentThread().getName() + " beendet sich");  
+	    	System.out.println(Thread.currentThread().getName()+" beendet sich");
 	    	
 	    	/*Verbindung wird aus der Liste gelscht */
-	    	connections.remove(this.getName());
+	    	connections.remove(Thread.currentThread().getName());
 	    	
 	    	/*Wenn nun in Der Verbindungsliste kein Eintrag mehr vorhanden ist
 	    	 * bedeutet das das dies der letzte Thread ist und nun keiner mehr kommt.
@@ -216,8 +364,7 @@ public class TCPMultiThreadedEchoServer extends Thread
 //				}
 			}
 			
-			/* Der Thread wird beendet */
-	    	this.stop();
+			/* Der Thread wird mit dem Ende von run() beendet */
 	    	
 	 	} 	    
  }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package edu.hm.dako.EchoApplication.TCPNio;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.PduFraming;
+import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
+
+/**
+ * Klasse TCPNioEchoClientThread
+ *
+ * Client fuer den TCPNioEchoServer. Der Client arbeitet wie der
+ * TCPMultiThreadedEchoClientThread blockierend, uebertraegt die EchoPDUs aber
+ * unabhaengig vom Codec immer als laengenpraefixierte Rahmen (PduFraming),
+ * damit der Server die Nachrichtengrenzen ohne Dekodierung erkennen kann.
+ *
+ * @version 1.0.0
+ */
+public class TCPNioEchoClientThread extends AbstractClientThread
+{
+	private static Log log = LogFactory.getLog(TCPNioEchoClientThread.class);
+
+	/** Lokaler Port zur Kommunikation mit dem Echo-Server */
+	private int currentPort;
+
+	/** Name des Threads */
+	private String threadName;
+
+	/** Nummer des Echo-Clients */
+	private int numberOfClient;
+
+	/** Laenge einer Nachricht */
+	private int messageLength;
+
+	/** Anzahl zu sendender Nachrichten je Client-Thread */
+	private int numberOfMessages;
+
+	/** Portnummer des Threads */
+	private int localPort;
+
+	/** Serverport */
+	private int serverPort;
+
+	/** Adresse des Servers */
+	private String remoteServerAddress;
+
+	/** Denkzeit des Clients zwischen zwei Requests in ms */
+	private int clientThinkTime;
+
+	/** Gemeinsame Daten der Threads */
+	private SharedClientStatistics sharedData;
+
+	/** Socket-Verbindung */
+	private Socket con;
+	private PduCodec.PduReader in;
+	private PduCodec.PduWriter out;
+
+	/** Zeitstempel fuer RTT-Berechnung */
+	private long rttStartTime;
+	private long rtt;
+
+	/**
+	 * initialize
+	 *
+	 * @param serverPort: Port des Servers
+	 * @param remoteServerAddress: Adresse des Servers
+	 * @param numberOfClient: Laufende Nummer des Test-Clients
+	 * @param messagelength: Laenge einer Nachricht
+	 * @param numberOfMessages: Anzahl zu sendender Nachrichten je Thread
+	 * @param clientThinkTime: Denkzeit des Test-Clients
+	 * @param sharedData: Gemeinsame Daten der Threads
+	 */
+	@Override
+	public void initialize(
+		int serverPort,
+		String remoteServerAddress,
+		int numberOfClient,
+		int messageLength,
+		int numberOfMessages,
+		int clientThinkTime,
+		SharedClientStatistics sharedData)
+	{
+		this.serverPort = serverPort;
+		this.remoteServerAddress = remoteServerAddress;
+		this.numberOfClient = numberOfClient;
+		this.messageLength = messageLength;
+		this.numberOfMessages = numberOfMessages;
+		this.clientThinkTime = clientThinkTime;
+		this.sharedData = sharedData;
+		this.setName("EchoClient-".concat(String.valueOf(numberOfClient+1)));
+		threadName = getName();
+
+		/* Verbindung zum Server aufbauen */
+		try {
+			con = socketTuning.connect(remoteServerAddress, serverPort, true, 0);
+			PduCodec codec = codecType.createStreamCodec();
+			out = PduFraming.newWriter(codec, con.getOutputStream());
+			in = PduFraming.newReader(codec, con.getInputStream());
+			localPort = con.getLocalPort();
+			currentPort = con.getPort();
+			log.debug(threadName + ": Verbindung zum Server aufgebaut mit Port " + localPort);
+			log.debug(threadName + ": Registrierter Port: " + currentPort);
+		}
+		catch (Exception e)
+		{
+			System.out.println("keine verbindung zum server");
+			log.debug("Exception beim Verbindungsaufbau: " + e);
+		}
+	}
+
+	/**
+	 * Run-Methode fuer den Test-Thread:
+	 * Client-Thread sendet hier alle Requests und wartet auf Antworten
+	 */
+	public void run()
+	{
+		sharedData.incrNumberOfLoggedInClients();
+
+		/*
+		 * Synchronisation mit allen anderen Client-Threads:
+		 * Warten, bis alle Clients angemeldet sind und dann
+		 * erst mit der Lasterzeugung beginnen
+		 */
+		while (!sharedData.allClientsLoggedIn())
+		{
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				log.error("Sleep unterbrochen");
+			}
+		}
+
+		for (int i = 0; i < numberOfMessages; i++) {
+			/* RTT-Startzeit ermitteln */
+			rttStartTime = awaitSendTime();
+
+			try {
+				EchoPDU echoSend = new EchoPDU();
+				echoSend.setClientName(this.getName());
+				echoSend.setMessage(echoSend.getMessageText(this.messageLength)+(i+1));
+
+				/* Letzter Request? */
+				if (i == numberOfMessages - 1) {
+					echoSend.setLastRequest(true);
+				}
+
+				/* Message wird gesendet */
+				out.writePdu(echoSend);
+				out.flush();
+			}
+			catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			try {
+				/* Antwort entgegennehmen */
+				EchoPDU echoRec = in.readPdu();
+				log.debug("Client " + this.getName() + ": " + echoRec.getMessage()
+						+ " von " + echoRec.getServerThreadName());
+
+				/* RTT berechnen */
+				rtt = System.nanoTime() - rttStartTime;
+
+				/* Response-Zaehler erhoehen */
+				sharedData.incrSentMsgCounter(numberOfClient);
+				sharedData.incrReceivedMsgCounter(numberOfClient, rtt, echoRec.getServerTime());
+			}
+			catch (IOException e1) {
+				e1.printStackTrace();
+			}
+
+			/* Wartezeit */
+			try {
+				pauseBetweenRequests(clientThinkTime);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			/* Transportverbindung abbauen */
+			out.close();
+			in.close();
+			con.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
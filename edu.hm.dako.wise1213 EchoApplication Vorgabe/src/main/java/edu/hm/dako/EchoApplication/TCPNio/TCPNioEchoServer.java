@@ -0,0 +1,287 @@
+package edu.hm.dako.EchoApplication.TCPNio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.PropertyConfigurator;
+
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.FramedConnection;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.PassthroughEcho;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+
+/**
+ * Klasse TCPNioEchoServer
+ *
+ * TCP-Echo-Server mit einer festen Anzahl von Reactor-Threads. Jeder Reactor
+ * verwaltet mit einem Selector beliebig viele nicht-blockierende
+ * SocketChannels. Die Anzahl der Threads ist damit unabhaengig von der Anzahl
+ * der Verbindungen.
+ *
+ * Der Hauptthread nimmt Verbindungen entgegen und verteilt sie reihum auf die
+ * Reactoren. Die EchoPDUs werden als laengenpraefixierte Rahmen (siehe
+ * PduFraming) uebertragen, die Rahmengrenzen werden direkt im ByteBuffer
+ * erkannt.
+ *
+ * Die Anzahl der Reactoren kann ueber die System-Property "echo.nio.reactors"
+ * eingestellt werden, Default ist die Anzahl der Prozessoren.
+ *
+ * Im Passthrough-Modus (siehe PassthroughEcho) werden die Rahmen im
+ * direkten Empfangspuffer nur gepatcht und aus diesem Puffer unmittelbar
+ * zurueckgesendet. Kopiert wird nur, was der Socket-Puffer nicht sofort
+ * aufnimmt.
+ *
+ * @version 1.0.0
+ */
+public class TCPNioEchoServer {
+
+	private static Log log = LogFactory.getLog(TCPNioEchoServer.class);
+
+	private static int serverPort = 50000;
+
+	/** Laenge der Warteschlange fuer Verbindungsaufbauwuensche (Profil Default) */
+	private static final int backlog = 1024;
+
+	/** Name der System-Property fuer die Anzahl der Reactor-Threads */
+	public static final String REACTORS_PROPERTY = "echo.nio.reactors";
+
+	/** Anzahl der Reactor-Threads */
+	private static int numberOfReactors = Runtime.getRuntime().availableProcessors();
+
+	/** Anfangsgroesse des Empfangspuffers einer Verbindung in Byte */
+	private static final int initialReadBufferSize = 512;
+
+	/** Codec fuer die Uebertragung der EchoPDUs */
+	private static PduCodecType codecType = PduCodecType.JavaSerialization;
+
+	/** Requests ohne Dekodieren zuruecksenden (siehe PassthroughEcho) */
+	private static boolean passthrough = false;
+
+	/** Socket-Einstellungen (Profil) */
+	private static SocketTuning socketTuning;
+
+	/** Listen-Channel des Servers */
+	private static ServerSocketChannel serverChannel;
+
+	/** Anzahl aktiver Verbindungen */
+	private static AtomicInteger numberOfConnections = new AtomicInteger();
+
+	public static void main(String args[]) {
+		PropertyConfigurator.configureAndWatch("log4j.server.properties", 60 * 1000);
+		codecType = PduCodecType.getConfigured();
+		passthrough = PassthroughEcho.isEnabled(codecType);
+		socketTuning = SocketTuning.getConfigured();
+		numberOfReactors = Math.max(1, Integer.getInteger(REACTORS_PROPERTY, numberOfReactors).intValue());
+
+		Reactor[] reactors = new Reactor[numberOfReactors];
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			socketTuning.applyTo(serverChannel.socket(), 0);
+			serverChannel.socket().bind(new InetSocketAddress(serverPort),
+					socketTuning.getBacklog(backlog));
+
+			for (int i = 0; i < numberOfReactors; i++) {
+				reactors[i] = new Reactor(i + 1);
+				reactors[i].start();
+			}
+			System.out.println("TCPNioEchoServer wartet auf Clients (Reactoren: "
+					+ numberOfReactors + ", Codec: " + codecType
+					+ (passthrough ? ", Passthrough" : "") + ", Socket: " + socketTuning + ")...");
+		} catch (IOException e) {
+			log.debug("Exception bei der Socket-Erzeugung: " + e);
+			System.exit(9);
+		}
+
+		int next = 0;
+		while (true) {
+			/* Verbindungen blockierend annehmen und reihum verteilen */
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				socketTuning.applyTo(channel.socket(), true, 0);
+				reactors[next].register(channel);
+				next = (next + 1) % numberOfReactors;
+			} catch (IOException e) {
+				System.out.println("Serverprozess kann keine Verbindungen mehr akzeptieren -> Beendet sich");
+				break;
+			}
+		}
+
+		for (int i = 0; i < numberOfReactors; i++) {
+			reactors[i].shutdown();
+		}
+	}
+
+	/**
+	 * Reactor-Thread: Bearbeitet alle Ereignisse der ihm zugeordneten
+	 * Verbindungen ueber einen Selector
+	 */
+	private static class Reactor extends Thread {
+
+		private final Selector selector;
+
+		/** Neue Verbindungen, die beim Selector registriert werden muessen */
+		private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
+		private volatile boolean running = true;
+
+		Reactor(int number) throws IOException {
+			setName("NioReactor-" + number);
+			selector = Selector.open();
+		}
+
+		/**
+		 * Verbindung an den Reactor uebergeben (aus dem Accept-Thread)
+		 */
+		void register(SocketChannel channel) {
+			newChannels.add(channel);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					registerNewChannels();
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						Connection con = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								con.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								con.write();
+							}
+						} catch (IOException e) {
+							log.debug("Verbindungsfehler: " + e);
+							con.close();
+						}
+					}
+				}
+			} catch (IOException e) {
+				log.error("Fehler im Selector: " + e);
+			} catch (ClosedSelectorException e) {
+				log.error("Selector geschlossen: " + e);
+			} finally {
+				try {
+					selector.close();
+				} catch (IOException e) {
+					log.debug("Exception bei close: " + e);
+				}
+			}
+			log.debug(getName() + " beendet sich");
+		}
+
+		private void registerNewChannels() {
+			SocketChannel channel;
+			while ((channel = newChannels.poll()) != null) {
+				Connection con = new Connection(channel);
+				try {
+					con.register(selector);
+					log.debug(getName() + ": Verbindung aufgebaut, aktive Verbindungen: "
+							+ numberOfConnections.incrementAndGet());
+				} catch (IOException e) {
+					log.error("Registrieren der Verbindung nicht moeglich: " + e);
+					try {
+						channel.close();
+					} catch (IOException e1) {
+						log.debug("Exception bei close: " + e1);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Verbindung des Reactors
+		 */
+		private class Connection extends FramedConnection {
+
+			Connection(SocketChannel channel) {
+				// Im Passthrough-Modus direkter Empfangspuffer (ohne Kopie in
+				// einen internen Puffer der JVM beim Senden), sonst auf dem
+				// Heap fuer den Codec
+				super(channel, codecType.createStreamCodec(), initialReadBufferSize, passthrough);
+			}
+
+			@Override
+			protected void frameReceived(ByteBuffer buffer, int start, int length) throws IOException {
+				long startTime = System.nanoTime();
+				if (passthrough) {
+					// Im Puffer eintragen, gesendet wird nach dem letzten Rahmen
+					if (PassthroughEcho.patch(buffer, start, length,
+							System.nanoTime() - startTime, (int) getId())) {
+						closeAfterWrite();
+					}
+					return;
+				}
+				respond(this, decode(buffer, start, length), startTime);
+			}
+
+			/**
+			 * Passthrough: Alle vollstaendigen Rahmen dieses Reads direkt aus
+			 * dem Empfangspuffer senden
+			 */
+			@Override
+			protected void framesReceived(ByteBuffer buffer, int first) throws IOException {
+				if (!passthrough || buffer.position() == first) {
+					return;
+				}
+				ByteBuffer frames = buffer.duplicate();
+				frames.limit(buffer.position());
+				frames.position(first);
+				sendFrom(frames);
+			}
+
+			@Override
+			protected void closed() {
+				log.debug(Reactor.this.getName() + ": Verbindung abgebaut, aktive Verbindungen: "
+						+ numberOfConnections.decrementAndGet());
+			}
+		}
+
+		/**
+		 * Antwort erzeugen und in die Sendewarteschlange stellen
+		 */
+		private void respond(Connection con, EchoPDU receivedPdu, long startTime) throws IOException {
+			log.debug("Request empfangen von " + receivedPdu.getClientName() + ": "
+					+ receivedPdu.getMessage());
+
+			EchoPDU sendPdu = new EchoPDU();
+			sendPdu.setServerThreadName(getName());
+			sendPdu.setClientName(receivedPdu.getClientName());
+			sendPdu.setMessage(receivedPdu.getMessage() + "_vomServerZurueck");
+			sendPdu.setSequenceNumber(receivedPdu.getSequenceNumber());
+			sendPdu.setServerTime(System.nanoTime() - startTime);
+			con.send(sendPdu);
+
+			if (receivedPdu.getLastRequest()) {
+				log.debug("Letzter Request des Clients " + receivedPdu.getClientName());
+				con.closeAfterWrite();
+			}
+		}
+	}
+}
@@ -1,8 +1,6 @@
 package edu.hm.dako.EchoApplication.TCPSingleThreaded;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -12,11 +10,18 @@ import org.hamcrest.core.IsInstanceOf;
 
 import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.PduFraming;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
 
 /**
  * Klasse TCPSingleThreadedEchoClientThread
  * 
+ * Ohne Keep-Alive wird fuer jeden Request eine eigene Verbindung auf- und
+ * nach der Antwort wieder abgebaut. Mit Keep-Alive (siehe
+ * UserInterfaceInputParameters) verwendet der Client eine Verbindung fuer
+ * alle Requests; sie wird nur nach einem Verbindungsfehler neu aufgebaut.
+ * 
  * @author Benjamin Keckes
  * 
  */
@@ -53,8 +58,8 @@ public class TCPSingleThreadedEchoClientThread extends AbstractClientThread {
 
 	/** Socket-Verbindung */
 	private Socket con;
-	private ObjectInputStream in;
-	private ObjectOutputStream out;
+	private PduCodec.PduReader in;
+	private PduCodec.PduWriter out;
 
 	/** Zeitstempel fr RTT-Berechnung und Kalender */
 	private long rttStartTime;
@@ -119,24 +124,20 @@ public class TCPSingleThreadedEchoClientThread extends AbstractClientThread {
 
 		for (int i = 0; i < numberOfMessages; i++) {
 			/* RTT-Startzeit ermitteln */
-			rttStartTime = System.nanoTime();
+			rttStartTime = awaitSendTime();
 			
 			try {
 				/**
-				 * Verbindung zum Server aufbauen, solange versuchen, bis Verbindung
-				 * steht.
+				 * Verbindung zum Server aufbauen: ohne Keep-Alive fuer jeden
+				 * Request, mit Keep-Alive nur beim ersten Request und nach einem
+				 * Verbindungsfehler.
 				 * Der Server koennte gerade nicht verfuegbar sein und der Verbindungsaufbauversuch 
 				 * auf einen Timeout laufen, wenn viele Clients aktiv sind. 
 				 * 
 				 */
-				con = new Socket(remoteServerAddress, serverPort);
-				//System.out.println("Client__"+this.getName()+" connected to local: "+con.getLocalPort()+" and port: "+con.getPort());
-				/*In- und Outputstream */
-				out = new ObjectOutputStream(con.getOutputStream());
-				in = new ObjectInputStream(con.getInputStream());
-				
-				/*Verbindung ausgeben */
-				System.out.println("Connection von "+this.getName()+" zu "+remoteServerAddress+":"+serverPort+" aufgebaut");
+				if (con == null) {
+					openConnection();
+				}
 				
 				/*
 				 * Neues EchoPDU erzeugen
@@ -154,10 +155,11 @@ public class TCPSingleThreadedEchoClientThread extends AbstractClientThread {
 				}
 				
 				/* Senden der Nachricht an den Server */			
-				out.writeObject(echoSend);
+				out.writePdu(echoSend);
+				out.flush();
 				
 				/* Antwort entgegennehmen */
-				EchoPDU echoRec = (EchoPDU)in.readObject();
+				EchoPDU echoRec = in.readPdu();
 				
 				//System.out.println("Client "+this.getName()+": "+echoRec.getMessage()+" von "+echoRec.getServerThreadName());
 				
@@ -168,16 +170,14 @@ public class TCPSingleThreadedEchoClientThread extends AbstractClientThread {
 				sharedData.incrSentMsgCounter(numberOfClient);
 				sharedData.incrReceivedMsgCounter(numberOfClient, rtt, echoRec.getServerTime());
  
-				/* Transportverbindung abbauen */
-				out.close();
-				in.close();
-				con.close();
-				
-				
+				/* Transportverbindung abbauen, falls nicht Keep-Alive */
+				if (!keepAlive) {
+					closeConnection();
+				}
 				
 				/* Denkzeit */
 				try {
-					Thread.sleep(clientThinkTime);
+					pauseBetweenRequests(clientThinkTime);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -185,14 +185,47 @@ public class TCPSingleThreadedEchoClientThread extends AbstractClientThread {
 			catch (IOException e1) {
 				
 				e1.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				System.out.println("Fehler in Typkonvertierung");
-				e.printStackTrace();
-			} 
+				closeConnection();
+			}
 			
 		}
+		closeConnection();
 
 		/* Statistikdaten des Clients ausgeben */
 		// sharedData.printClientStatistic(numberOfClient);
 	}
+
+	/**
+	 * Verbindung zum Server aufbauen. Die EchoPDUs werden als Rahmen
+	 * uebertragen (siehe PduFraming), damit der Server sie mit einem
+	 * Selector empfangen kann.
+	 */
+	private void openConnection() throws IOException {
+		con = socketTuning.connect(remoteServerAddress, serverPort, false, 0);
+		/*In- und Outputstream */
+		PduCodec codec = codecType.createStreamCodec();
+		out = PduFraming.newWriter(codec, con.getOutputStream());
+		in = PduFraming.newReader(codec, con.getInputStream());
+		localPort = con.getLocalPort();
+		
+		/*Verbindung ausgeben */
+		System.out.println("Connection von "+this.getName()+" zu "+remoteServerAddress+":"+serverPort+" aufgebaut");
+	}
+
+	/**
+	 * Verbindung zum Server abbauen, falls vorhanden
+	 */
+	private void closeConnection() {
+		if (con == null) {
+			return;
+		}
+		try {
+			out.close();
+			in.close();
+			con.close();
+		} catch (IOException e) {
+			log.debug(threadName + ": Exception bei close: " + e);
+		}
+		con = null;
+	}
 }
\ No newline at end of file
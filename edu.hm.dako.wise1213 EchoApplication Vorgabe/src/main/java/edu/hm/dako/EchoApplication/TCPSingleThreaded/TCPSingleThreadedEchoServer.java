@@ -2,27 +2,43 @@ package edu.hm.dako.EchoApplication.TCPSingleThreaded;
 
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.FramedConnection;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
 
 /**
  * Klasse TCPSingleThreadedEchoServer
- * 
+ *
  * Nur ein Thread bedient alle Clients
- * 
+ *
+ * Der Thread verwaltet das Listen-Socket und alle Verbindungen mit einem
+ * Selector (nicht-blockierende Channels). Damit kann er auch dauerhafte
+ * Verbindungen (Keep-Alive, siehe TCPSingleThreadedEchoClientThread)
+ * mehrerer Clients gleichzeitig bedienen, ohne an einer Verbindung zu
+ * blockieren. Die EchoPDUs werden als laengenpraefixierte Rahmen (siehe
+ * FramedConnection) uebertragen.
+ *
+ * Der Server beendet eine Verbindung, wenn der Client sie abbaut oder nach
+ * der Antwort auf den letzten Request des Clients. Clients ohne Keep-Alive
+ * senden je Verbindung nur einen Request und bauen sie nach der Antwort ab.
+ *
  * @author Mandl
- * 
+ *
  */
 public class TCPSingleThreadedEchoServer {
 	private static Log log = LogFactory
@@ -30,27 +46,76 @@ public class TCPSingleThreadedEchoServer {
 
 	private static int serverPort = 50000;
 
-	/** Verbindungstabelle: Hier werden alle aktiven Verbindungen zu Clients
-	 * verwaltet 
-	 * 
+	/** Verbindungstabelle: Hier werden alle Clients verwaltet, deren
+	 * letzter Request noch aussteht
+	 *
 	 */
-	private static Map<String, Socket> connections = new ConcurrentHashMap<String, Socket>();
+	private static Map<String, SocketChannel> connections = new HashMap<String, SocketChannel>();
 
 	/** TCP-Socket des Servers (Listen-Socket)*/
-	private static ServerSocket serverSocket;
+	private static ServerSocketChannel serverChannel;
 
-	/** Laenge der Queue des Server-Sockets fuer ankommende 
+	/** Selector fuer Listen-Socket und Verbindungen */
+	private static Selector selector;
+
+	/** Laenge der Queue des Server-Sockets fuer ankommende
 	 * Verbindungsaufbauwuensche
-	 * 
+	 *
 	 */
 	private static final int backlog = 20;
 
 	/** Verbindungszaehler */
 	private static long nrConnections = 0;
 
-	/** Streams fuer TCP-Verbindung */
-	private static ObjectOutputStream out;
-	private static ObjectInputStream in;
+	/** Anfangsgroesse des Empfangspuffers einer Verbindung in Byte */
+	private static final int initialReadBufferSize = 512;
+
+	/** Codec fuer die Uebertragung der EchoPDUs */
+	private static PduCodecType codecType = PduCodecType.JavaSerialization;
+
+	/** Socket-Einstellungen (Profil) */
+	private static SocketTuning socketTuning;
+
+	/**
+	 * Verbindung eines Clients
+	 */
+	private static class Connection extends FramedConnection {
+
+		/** Name des Clients nach dem ersten Request, null = unbekannt oder
+		 * bereits aus der Verbindungstabelle entfernt
+		 */
+		String clientName;
+
+		/** Anzahl der Requests auf dieser Verbindung */
+		int requests = 0;
+
+		/** Verbindung wegen eines Fehlers geschlossen */
+		boolean failed = false;
+
+		Connection(SocketChannel channel) {
+			super(channel, codecType.createStreamCodec(), initialReadBufferSize, false);
+		}
+
+		@Override
+		protected void frameReceived(ByteBuffer buffer, int start, int length) throws IOException {
+			/* Echo-Request entgegennehmen */
+			respond(this, decode(buffer, start, length));
+		}
+
+		/**
+		 * Ohne Keep-Alive baut der Client die Verbindung nach genau einer
+		 * vollstaendigen Antwort ab und verbindet sich fuer den naechsten
+		 * Request neu. Jedes andere Ende vor dem letzten Request (Fehler,
+		 * unvollstaendiger Rahmen oder Abbau einer Keep-Alive-Verbindung)
+		 * bedeutet, dass der Client nicht mehr kommt.
+		 */
+		@Override
+		protected void closed() {
+			if (failed || !isIdle() || requests > 1) {
+				removeClient(this);
+			}
+		}
+	}
 
 	/**
 	 * Konstruktor
@@ -60,19 +125,27 @@ public class TCPSingleThreadedEchoServer {
 
 	/**
 	 * MainMethode
-	 * 
+	 *
 	 * @param args
 	 */
 
 	public static void main(String args[]) {
 		PropertyConfigurator.configureAndWatch("log4j.server.properties",
 				60 * 1000);
+		codecType = PduCodecType.getConfigured();
+		socketTuning = SocketTuning.getConfigured();
 
 		/* TCP-Serversocket registrieren */
 		try {
-
-			serverSocket = new ServerSocket(serverPort, backlog);
-			System.out.println("TCPSingleThreadedEchoServer wartet auf Clients.....");
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			socketTuning.applyTo(serverChannel.socket(), 0);
+			serverChannel.socket().bind(new InetSocketAddress(serverPort),
+					socketTuning.getBacklog(backlog));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			System.out.println("TCPSingleThreadedEchoServer wartet auf Clients (Socket: "
+					+ socketTuning + ").....");
 		} catch (IOException e) {
 			log.debug("Exception bei der Socket-Erzeugung: " + e);
 			System.exit(9);
@@ -80,68 +153,116 @@ public class TCPSingleThreadedEchoServer {
 
 		while (true) {
 			try {
-				
-				
-				/* Auf ankommende Verbindungsaufbauwuensche warten */
-				Socket socket = serverSocket.accept();
-				
-				/*Servernamen ausgeben */
-				System.out.println("Verbindung hergestellt zu "+socket.getInetAddress().getHostName());
-				log.info("Verbindung hergestellt zu "+socket.getInetAddress().getHostName());
-				
-				/*In- und Outputstreams festlegen */
-				out = new ObjectOutputStream(socket.getOutputStream());
-				in = new ObjectInputStream(socket.getInputStream());
-				
-				/* Echo-Request entgegennehmen */
-				EchoPDU echoRec = (EchoPDU)in.readObject();
-				
-				/*Serverzeit messen */
-				long startTime=System.nanoTime();
-				
-				/*Nachricht auf Konsole ausgeben */
-				System.out.println("Server empfaengt von "+echoRec.getClientName()+": "+echoRec.getMessage());
-				
-				/*Verbindung in Map speichern */
-				connections.put(echoRec.getClientName(), socket);
-				
-				/*Antwort erstellen */
-				EchoPDU echoSend = new EchoPDU();
-				
-				/*Serverzeit setzen */
-				echoSend.setServerTime(System.nanoTime()-startTime);
-				
-				/*Message definieren */
-				echoSend.setMessage(echoRec.getMessage()+"_zurueck_");
-				
-				/* Threadname setzen */
-				echoSend.setServerThreadName("SingleServerThread");
-				
-				/* Echo-Response senden */
-				out.writeObject(echoSend);
-				
-				/* Verbindung schliessen */
-				in.close();
-				out.close();
-				socket.close(); 
-		         
-				
-				if(echoRec.getLastRequest()){
-					connections.remove(echoRec.getClientName());
+				/* Auf Verbindungsaufbauwuensche und Requests warten */
+				selector.select();
+			} catch (IOException e) {
+				log.error("Fehler im Selector: " + e);
+				break;
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				if (key.isAcceptable()) {
+					accept();
+					continue;
 				}
-				
-				if(connections.isEmpty()){
-					System.out.println("Server fertig");
-					
-					//Server selber beendeen
-					//break;
+				Connection con = (Connection) key.attachment();
+				try {
+					if (key.isReadable()) {
+						con.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						con.write();
+					}
+				} catch (IOException e) {
+					log.error("Socket Exception: " + e);
+					con.failed = true;
+					con.close();
 				}
 			}
-			
-			catch (Exception e) {
-				log.error("Socket Exception: " + e);
+		}
+
+	}
+
+	/**
+	 * Alle wartenden Verbindungsaufbauwuensche annehmen
+	 */
+	private static void accept() {
+		SocketChannel channel;
+		try {
+			while ((channel = serverChannel.accept()) != null) {
+				try {
+					channel.configureBlocking(false);
+					socketTuning.applyTo(channel.socket(), false, 0);
+					Connection con = new Connection(channel);
+					con.register(selector);
+					nrConnections++;
+					log.debug("Verbindung hergestellt zu " + channel.socket().getInetAddress()
+							+ ":" + channel.socket().getPort() + ", Verbindungen insgesamt: "
+							+ nrConnections);
+				} catch (IOException e) {
+					log.error("Registrieren der Verbindung nicht moeglich: " + e);
+					channel.close();
+				}
+			}
+		} catch (IOException e) {
+			log.error("Annehmen einer Verbindung nicht moeglich: " + e);
+		}
+	}
+
+	/**
+	 * Antwort erzeugen und in die Sendewarteschlange stellen
+	 */
+	private static void respond(Connection con, EchoPDU echoRec) throws IOException {
+		/*Serverzeit messen */
+		long startTime=System.nanoTime();
+
+		/*Nachricht protokollieren */
+		log.debug("Server empfaengt von "+echoRec.getClientName()+": "+echoRec.getMessage());
+
+		/*Verbindung in Map speichern */
+		con.clientName = echoRec.getClientName();
+		con.requests++;
+		connections.put(con.clientName, con.getChannel());
+
+		/*Antwort erstellen */
+		EchoPDU echoSend = new EchoPDU();
+
+		/*Message definieren */
+		echoSend.setMessage(echoRec.getMessage()+"_zurueck_");
+
+		/* Threadname setzen */
+		echoSend.setServerThreadName("SingleServerThread");
+
+		/*Serverzeit setzen */
+		echoSend.setServerTime(System.nanoTime()-startTime);
+
+		/* Echo-Response einreihen, gesendet wird nach dem Read */
+		con.send(echoSend);
+
+		if(echoRec.getLastRequest()){
+			con.closeAfterWrite();
+			removeClient(con);
+		}
+	}
+
+	/**
+	 * Client aus der Verbindungstabelle entfernen, nach dem letzten Client
+	 * ist der Server fertig
+	 */
+	private static void removeClient(Connection con) {
+		if (con.clientName == null) {
+			return;
+		}
+		// Nur entfernen, falls der Eintrag noch zu dieser Verbindung gehoert
+		if (connections.get(con.clientName) == con.getChannel()) {
+			connections.remove(con.clientName);
+			if(connections.isEmpty()){
+				System.out.println("Server fertig");
 			}
 		}
-		
+		con.clientName = null;
 	}
-}
\ No newline at end of file
+}
@@ -12,6 +12,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
 import edu.hm.dako.EchoApplication.Basics.ConfigPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 import edu.hm.dako.EchoApplication.TestAndBenchmarking.UserInterfaceInputParameters.ImplementationType;
 
 /**
@@ -85,7 +87,7 @@ public class AutomaticBenchmarkingServerSimulation {
 	  			ConfigPDU configPdu = (ConfigPDU) inConfig.readObject();
 	  			
 	  			if (configPdu.isStartServer()) {
-					new Thread(new StartServerInstance(configPdu.getImplementationType(), javaExecutableDir, workingDir)).start();
+					new Thread(new StartServerInstance(configPdu.getImplementationType(), configPdu.getCodecType(), configPdu.getThreadingMode(), javaExecutableDir, workingDir)).start();
 					
 					configPdu.setMessage("Server " + configPdu.getImplementationType() + " wird gestartet");
 				}
@@ -136,11 +138,15 @@ public class AutomaticBenchmarkingServerSimulation {
     private class StartServerInstance implements Runnable {
 
     	private ImplementationType implementationType;
+    	private PduCodecType codecType;
+    	private ThreadingMode threadingMode;
     	private String javaExecutableDir;
     	private String workingDir;
     	
-    	public StartServerInstance(ImplementationType implementationType, String javaExecutableDir, String workingDir) {
+    	public StartServerInstance(ImplementationType implementationType, PduCodecType codecType, ThreadingMode threadingMode, String javaExecutableDir, String workingDir) {
     		this.implementationType = implementationType;
+    		this.codecType = (codecType == null) ? PduCodecType.JavaSerialization : codecType;
+    		this.threadingMode = (threadingMode == null) ? ThreadingMode.Platform : threadingMode;
     		this.javaExecutableDir = javaExecutableDir;
     		this.workingDir = workingDir;
     	}
@@ -159,7 +165,7 @@ public class AutomaticBenchmarkingServerSimulation {
 			String packageString = serverSimulationPackageName.substring(0, serverSimulationPackageName.lastIndexOf("."));
 			
 			try {
-	          String cmdString = javaExecutableDir + "\\bin\\java.exe -cp \"" + workingDir + "\"\\bin;\"" + workingDir + "\"\\lib\\* " + packageString + "." + serverClassName + "." + completeServerClassName;
+	          String cmdString = javaExecutableDir + "\\bin\\java.exe -D" + PduCodecType.SYSTEM_PROPERTY + "=" + codecType.name() + " -D" + ThreadingMode.SYSTEM_PROPERTY + "=" + threadingMode.name() + " -cp \"" + workingDir + "\"\\bin;\"" + workingDir + "\"\\lib\\* " + packageString + "." + serverClassName + "." + completeServerClassName;
 	          
 	          System.out.println("Befehl: " + cmdString);
 	          
@@ -6,13 +6,19 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.hm.dako.EchoApplication.TestAndBenchmarking.UserInterfaceInputParameters.ImplementationType;
+import edu.hm.dako.EchoApplication.TestAndBenchmarking.UserInterfaceInputParameters.MeasurementType;
 
 
 import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.ArrivalSchedule;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
+import edu.hm.dako.EchoApplication.LwtrtMultiThreaded.LwtrtMultiThreadedEchoClientThread;
 import edu.hm.dako.EchoApplication.ReliableUdpMultiThreaded.ReliableUdpMultiThreadedEchoClientThread;
 import edu.hm.dako.EchoApplication.Rmi.RMIEchoClientThread;
 import edu.hm.dako.EchoApplication.TCPMultiThreaded.TCPMultiThreadedEchoClientThread;
+import edu.hm.dako.EchoApplication.TCPNio.TCPNioEchoClientThread;
 import edu.hm.dako.EchoApplication.TCPSingleThreaded.TCPSingleThreadedEchoClientThread;
 import edu.hm.dako.EchoApplication.UDPMultiThreaded.UDPMultiThreadedEchoClientThread;
 import edu.hm.dako.EchoApplication.UDPSingleThreaded.UDPSingleThreadedEchoClientThread;
@@ -75,6 +81,11 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 		TimeCounterThread timeCounterThread = new TimeCounterThread(clientGui);
 		timeCounterThread.start();
 
+		/**
+		 * Messung der Heap-Belegung ausserhalb der Client-Threads starten
+		 */
+		sharedData.startResourceSampling();
+
 		/**
 		 * Client-Threads in Abhaengigkeit des Implementierungstyps
 		 * instanziieren und starten
@@ -82,12 +93,24 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 		clientThreads = new AbstractClientThread[parm.getNumberOfClients()];
 		for (int i = 0; i < parm.getNumberOfClients(); i++) {
 			AbstractClientThread oneClientThread =getClientThreadImplementation(parm.getImplementationType());
+			oneClientThread.setCodecType(parm.getCodecType());
+			oneClientThread.setSocketTuning(parm.getSocketTuning());
+			oneClientThread.setPipelineWindow(parm.getPipelineWindow());
+			oneClientThread.setBatchSize(parm.getBatchSize());
+			oneClientThread.setKeepAlive(parm.getKeepAlive());
+			if (parm.getMeasurementType() == MeasurementType.OpenLoop) {
+				// Gesamtrate gleichmaessig auf die Clients verteilen, Startzeitpunkte versetzen
+				oneClientThread.setArrivalSchedule(new ArrivalSchedule(
+						parm.getArrivalRate() / parm.getNumberOfClients(),
+						parm.getArrivalDistribution(),
+						(double) i / parm.getNumberOfClients(), i));
+			}
 			oneClientThread.initialize(parm.getRemoteServerPort(),
 					parm.getRemoteServerAddress(), i, parm.getMessageLength(),
 					parm.getNumberOfMessages(), parm.getClientThinkTime(),
 					sharedData);
 
-			oneClientThread.start();
+			oneClientThread.start(parm.getThreadingMode());
 			clientThreads[i] = oneClientThread;
 		}
 
@@ -122,6 +145,10 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 		 * Laufzeitzaehler-Thread beenden
 		 */
 		timeCounterThread.stopThread();
+		sharedData.stopResourceSampling();
+		for (int i = 0; i < parm.getNumberOfClients(); i++) {
+			sharedData.addClientCpuTime(clientThreads[i].getCpuTime());
+		}
 
 		/**
 		 * Analyse der Ergebnisse durchfuehren, Statistikdaten berechnen und
@@ -143,16 +170,27 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 		resultData.setAvgServerTime(sharedData.getAverageServerTime()
 				/ parm.getNumberOfClients() / 1000000);
 
+		// Perzentile ueber alle Responses in Mikrosekunden
+		resultData.setP50RTT(sharedData.getRTTPercentile(50.0) / 1000);
+		resultData.setP90RTT(sharedData.getRTTPercentile(90.0) / 1000);
+		resultData.setP99RTT(sharedData.getRTTPercentile(99.0) / 1000);
+		resultData.setP999RTT(sharedData.getRTTPercentile(99.9) / 1000);
+		resultData.setMaxRTTMicros(sharedData.getMaximumRTT() / 1000);
+		resultData.setP50ServerTime(sharedData.getServerTimePercentile(50.0) / 1000);
+		resultData.setP90ServerTime(sharedData.getServerTimePercentile(90.0) / 1000);
+		resultData.setP99ServerTime(sharedData.getServerTimePercentile(99.0) / 1000);
+		resultData.setP999ServerTime(sharedData.getServerTimePercentile(99.9) / 1000);
+		resultData.setMaxServerTime(sharedData.getMaximumServerTime() / 1000);
+
 		cal = Calendar.getInstance();
 		resultData.setEndTime(getCurrentTime(cal));
 
 		long elapsedTimeInSeconds = (cal.getTimeInMillis() - startTime) / 1000;
 		resultData.setElapsedTime(elapsedTimeInSeconds);
 
-	
-		// TODO CPU-Usage kann momentan noch nicht
-		// ermittelt werden (nicht Bestandteil der Studienarbeit)
-		resultData.setMaxCpuUsage(0); 
+		resultData.setMaxCpuUsage(sharedData.getMaxCpuUsage());
+		resultData.setAvgCpuUsage(sharedData.getAverageCpuUsage());
+		resultData.setCpuTimePerRequest(sharedData.getCpuTimePerRequest());
 		
 		resultData.setMaxHeapSize(sharedData.getMaxHeapSize() / (1024 * 1024));
 
@@ -171,9 +209,43 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 		 * Datensatz fuer Benchmark-Lauf auf Protokolldatei schreiben
 		 */
 
+		// Vom Standard abweichende Einstellungen (Codec, virtuelle Client-Threads,
+		// Pipelining, Batches, Keep-Alive) und das Socket-Profil werden beim
+		// Implementierungstyp vermerkt
+		String implementationTypeAsString = parm.mapImplementationTypeToString(parm.getImplementationType());
+		if (parm.getCodecType() != PduCodecType.JavaSerialization
+				&& parm.getImplementationType() != ImplementationType.RmiMultiThreaded) {
+			implementationTypeAsString += " (" + parm.getCodecType() + ")";
+		}
+		if (parm.getThreadingMode() == ThreadingMode.Virtual) {
+			implementationTypeAsString += " (Virtual Threads)";
+		}
+		if (parm.getPipelineWindow() > 1 && parm.getBatchSize() <= 1
+				&& parm.getImplementationType() == ImplementationType.TCPMultiThreaded) {
+			implementationTypeAsString += " (Pipeline " + parm.getPipelineWindow() + ")";
+		}
+		if (parm.getBatchSize() > 1
+				&& (parm.getImplementationType() == ImplementationType.TCPMultiThreaded
+						|| parm.getImplementationType() == ImplementationType.UDPMultiThreaded
+						|| parm.getImplementationType() == ImplementationType.RmiMultiThreaded)) {
+			implementationTypeAsString += " (Batch " + parm.getBatchSize() + ")";
+		}
+		if (parm.getKeepAlive()
+				&& parm.getImplementationType() == ImplementationType.TCPSingleThreaded) {
+			implementationTypeAsString += " (Keep-Alive)";
+		}
+		implementationTypeAsString += " (Socket " + parm.getSocketTuning() + ")";
+
+		// Im Open-Loop-Betrieb werden Rate und Verteilung beim Messungstyp vermerkt
+		String measurementTypeAsString = parm.mapMeasurementTypeToString(parm.getMeasurementType());
+		if (parm.getMeasurementType() == MeasurementType.OpenLoop) {
+			measurementTypeAsString += " (" + parm.getArrivalRate() + " Requests/s "
+					+ parm.getArrivalDistribution() + ")";
+		}
+
 		sharedData.writeStatisticSet("Benchmarking-EchoApp-Protokolldatei", 
-						parm.mapImplementationTypeToString(parm.getImplementationType()), 
-						parm.mapMeasurementTypeToString(parm.getMeasurementType()),
+						implementationTypeAsString, 
+						measurementTypeAsString,
 						startTimeAsString,
 						resultData.getEndTime());
 
@@ -189,12 +261,16 @@ public class BenchmarkingClient implements BenchmarkingStartInterface {
 			return new TCPSingleThreadedEchoClientThread();
 		case TCPMultiThreaded:
 			return new TCPMultiThreadedEchoClientThread();
+		case TCPNio:
+			return new TCPNioEchoClientThread();
 		case UDPSingleThreaded:
 			return new UDPSingleThreadedEchoClientThread();
 		case UDPMultiThreaded:
 			return new UDPMultiThreadedEchoClientThread();
 		case ReliableUdpMultiThreaded:
 			return new ReliableUdpMultiThreadedEchoClientThread();
+		case LwtrtMultiThreaded:
+			return new LwtrtMultiThreadedEchoClientThread();
 		case RmiMultiThreaded:
 			return new RMIEchoClientThread();
 		default:
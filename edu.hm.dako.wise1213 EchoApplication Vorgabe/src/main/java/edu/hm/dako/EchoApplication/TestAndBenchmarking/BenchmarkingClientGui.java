@@ -87,6 +87,7 @@ public class BenchmarkingClientGui extends JPanel
 	     String[] optionStrings = {
 	    		 "SingleThreaded-TCP",
 	    		 "MultiThreaded-TCP",
+	    		 "NIO-TCP",
 	    		 "SingleThreaded-UDP",
 	    		 "MultiThreaded-UDP",
 	    		 "MultiThreaded-UDPReliable",
@@ -96,7 +97,8 @@ public class BenchmarkingClientGui extends JPanel
 
 		 String[] optionStrings1 = {
 				 "Variable Threads",
-				 "Variable Length"};
+				 "Variable Length",
+				 "Open Loop"};
 		 optionList2 = new JComboBox(optionStrings1);
 
 		 one = new JTextField();
@@ -338,12 +340,16 @@ public class BenchmarkingClientGui extends JPanel
 			iParm.implementationType = ImplementationType.TCPSingleThreaded;
 		if (item1 == "MultiThreaded-TCP")
 			iParm.implementationType = ImplementationType.TCPMultiThreaded;	
+		if (item1 == "NIO-TCP")
+			iParm.implementationType = ImplementationType.TCPNio;
 		if (item1 == "SingleThreaded-UDP")
 			iParm.implementationType = ImplementationType.UDPSingleThreaded;
 		if (item1 == "MultiThreaded-UDP")
 			iParm.implementationType = ImplementationType.UDPMultiThreaded;
 		if (item1 == "MultiThreaded-UDPReliable")
 			iParm.implementationType = ImplementationType.ReliableUdpMultiThreaded;
+		if (item1 == "MultiThreaded-LWTRT")
+			iParm.implementationType = ImplementationType.LwtrtMultiThreaded;
 		if (item1 == "MultiThreaded-RMI")
 			iParm.implementationType = ImplementationType.RmiMultiThreaded;
 
@@ -352,10 +358,12 @@ public class BenchmarkingClientGui extends JPanel
 		String item2 = (String) optionList2.getSelectedItem();
 		System.out.println("Messungstyp eingegeben: " + item2);
 	 
-		if (item1 == "Variable Threads")
+		if (item2 == "Variable Threads")
 			iParm.measurementType = MeasurementType.VarThreads;
-		if (item1 == "Variable Length")
+		if (item2 == "Variable Length")
 			iParm.measurementType = MeasurementType.VarMsgLength;
+		if (item2 == "Open Loop")
+			iParm.measurementType = MeasurementType.OpenLoop;
 
 		// Aufruf des Benchmarks
 
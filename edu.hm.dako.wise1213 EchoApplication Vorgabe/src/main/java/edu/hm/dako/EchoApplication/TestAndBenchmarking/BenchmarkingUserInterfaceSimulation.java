@@ -33,9 +33,15 @@ public class BenchmarkingUserInterfaceSimulation implements BenchmarkingClientUs
 		System.out.println("Maximale RTT in ms: " + data.getMaxRTT());
 		System.out.println("Minimale RTT in ms: " + data.getMinRTT());
 		System.out.println("Mittlere Serverbearbeitungszeit in ms: " + data.getAvgServerTime());
+		System.out.println("RTT-Perzentile in us: p50=" + data.getP50RTT() + " p90=" + data.getP90RTT()
+				+ " p99=" + data.getP99RTT() + " p99.9=" + data.getP999RTT() + " max=" + data.getMaxRTTMicros());
+		System.out.println("Serverzeit-Perzentile in us: p50=" + data.getP50ServerTime() + " p90=" + data.getP90ServerTime()
+				+ " p99=" + data.getP99ServerTime() + " p99.9=" + data.getP999ServerTime() + " max=" + data.getMaxServerTime());
 		
 		System.out.println("Maximale Heap-Belegung in MByte: " + data.getMaxHeapSize());
 		System.out.println("Maximale CPU-Auslastung in %: " + data.getMaxCpuUsage());
+		System.out.println("Mittlere CPU-Auslastung in %: " + data.getAvgCpuUsage());
+		System.out.println("CPU-Zeit je Request in ns: " + data.getCpuTimePerRequest());
 	}
 	
 	@Override
@@ -2,9 +2,11 @@ package edu.hm.dako.EchoApplication.TestAndBenchmarking;
 
 import edu.hm.dako.EchoApplication.TestAndBenchmarking.UserInterfaceInputParameters.ImplementationType;
 import junit.framework.Assert;
+import edu.hm.dako.EchoApplication.LwtrtMultiThreaded.LwtrtMultiThreadedEchoServer;
 import edu.hm.dako.EchoApplication.ReliableUdpMultiThreaded.ReliableUdpMultiThreadedEchoServer;
 import edu.hm.dako.EchoApplication.Rmi.RMIEchoServer;
 import edu.hm.dako.EchoApplication.TCPMultiThreaded.TCPMultiThreadedEchoServer;
+import edu.hm.dako.EchoApplication.TCPNio.TCPNioEchoServer;
 import edu.hm.dako.EchoApplication.TCPSingleThreaded.TCPSingleThreadedEchoServer;
 import edu.hm.dako.EchoApplication.UDPMultiThreaded.UDPMultiThreadedEchoServer;
 import edu.hm.dako.EchoApplication.UDPSingleThreaded.UDPSingleThreadedEchoServer;
@@ -30,6 +32,9 @@ public class Tester implements BenchmarkingClientUserInterface {
 				case TCPMultiThreaded:
 					TCPMultiThreadedEchoServer.main(null);
 					break;
+				case TCPNio:
+					TCPNioEchoServer.main(null);
+					break;
 				case UDPSingleThreaded:
 					UDPSingleThreadedEchoServer.main(null);
 					break;
@@ -42,6 +47,9 @@ public class Tester implements BenchmarkingClientUserInterface {
 				case ReliableUdpMultiThreaded:
 					ReliableUdpMultiThreadedEchoServer.main(null);
 					break;
+				case LwtrtMultiThreaded:
+					LwtrtMultiThreadedEchoServer.main(null);
+					break;
 				default:
 					throw new RuntimeException("Unknown type: " + type);
 				}
@@ -60,6 +68,10 @@ public class Tester implements BenchmarkingClientUserInterface {
 		ImplementationType type = ImplementationType.TCPMultiThreaded;
 		runTests(type);
 	}
+	public void testTcpNio(){
+		ImplementationType type = ImplementationType.TCPNio;
+		runTests(type);
+	}
 	public void testReliableUdpMulti(){
 		ImplementationType type = ImplementationType.ReliableUdpMultiThreaded;
 		runTests(type);
@@ -0,0 +1,13 @@
+package edu.hm.dako.EchoApplication.TestAndBenchmarking;
+
+import org.junit.Test;
+
+public class TesterNioTCP extends Tester {
+
+	@Override
+	@Test
+	public void testTcpNio() {
+		super.testTcpNio();
+	}
+
+}
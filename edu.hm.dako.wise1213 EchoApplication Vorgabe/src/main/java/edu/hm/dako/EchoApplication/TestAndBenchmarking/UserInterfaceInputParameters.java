@@ -1,5 +1,13 @@
 package edu.hm.dako.EchoApplication.TestAndBenchmarking;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.EchoApplication.Basics.ArrivalSchedule;
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 
 /**
  * Konfigurationsparameter fuer Lasttest 
@@ -9,6 +17,8 @@ package edu.hm.dako.EchoApplication.TestAndBenchmarking;
  */
 public class UserInterfaceInputParameters {
 
+	private static Log log = LogFactory.getLog(UserInterfaceInputParameters.class);
+
 	int numberOfClients; 	   	// Anzahl zu startender Client-Threads	
 	int messageLength;		   	// Nachrichtenlaenge
 	int clientThinkTime; 	   	// Denkzeit zwischen zwei Requests
@@ -19,6 +29,25 @@ public class UserInterfaceInputParameters {
 	MeasurementType measurementType;
 	int remoteServerPort;	   	// UDP- oder TCP-Port des Servers, Default: 50000 
 	String remoteServerAddress;	// Server-IP-Adresse, Default: "127.0.0.1"
+	PduCodecType codecType;		// Codec fuer die EchoPDUs (nicht bei RMI)
+	ThreadingMode threadingMode;	// Ausfuehrungsmodell der Client-Threads
+	SocketTuning socketTuning;	// Einstellungen der Client-Sockets (Profil)
+	int pipelineWindow;			// Max. ausstehende Requests je Client (Pipelining), 1 = aus
+	int batchSize;				// Requests je EchoBatchPDU, 1 = einzeln senden
+	boolean keepAlive;			// TCP Single-Threaded: Eine Verbindung fuer alle Requests
+	double arrivalRate;			// Open Loop: Requests pro Sekunde ueber alle Clients
+								// Open Loop: Verteilung der Abstaende zwischen zwei Requests
+	ArrivalSchedule.Distribution arrivalDistribution;
+	
+	/** System-Property fuer die Voreinstellung des Pipeline-Fensters */
+	public static final String PIPELINE_WINDOW_PROPERTY = "echo.pipeline.window";
+	
+	/** System-Property fuer die Voreinstellung von Keep-Alive (TCP Single-Threaded) */
+	public static final String KEEP_ALIVE_PROPERTY = "echo.tcp.keepalive";
+	
+	/** System-Properties fuer die Voreinstellung des Open-Loop-Betriebs */
+	public static final String ARRIVAL_RATE_PROPERTY = "echo.openloop.rate";
+	public static final String ARRIVAL_DISTRIBUTION_PROPERTY = "echo.openloop.distribution";
 	
 	/**
 	 * Implementierungsvarianten des Lasttests mit verschiedenen Transportprotokollen
@@ -28,6 +57,7 @@ public class UserInterfaceInputParameters {
 	public enum ImplementationType {
 		TCPSingleThreaded, 
 		TCPMultiThreaded,
+		TCPNio,
 		UDPSingleThreaded, 
 		UDPMultiThreaded,
 		LwtrtMultiThreaded,
@@ -49,6 +79,29 @@ public class UserInterfaceInputParameters {
 		remoteServerAddress = new String("127.0.0.1");
 		implementationType = ImplementationType.ReliableUdpMultiThreaded;
 		measurementType = MeasurementType.VarThreads;
+		codecType = PduCodecType.getConfigured();
+		threadingMode = ThreadingMode.getConfigured();
+		socketTuning = SocketTuning.getConfigured();
+		pipelineWindow = Math.max(1, Integer.getInteger(PIPELINE_WINDOW_PROPERTY, 1).intValue());
+		batchSize = EchoBatchPDU.getConfiguredSize();
+		keepAlive = Boolean.getBoolean(KEEP_ALIVE_PROPERTY);
+		arrivalRate = 100.0;
+		String rate = System.getProperty(ARRIVAL_RATE_PROPERTY);
+		if (rate != null) {
+			try {
+				double value = Double.parseDouble(rate.trim());
+				if (value > 0 && !Double.isInfinite(value)) {
+					arrivalRate = value;
+				} else {
+					log.error("Ankunftsrate muss groesser 0 sein: " + ARRIVAL_RATE_PROPERTY
+							+ "=" + rate + ", verwende " + arrivalRate);
+				}
+			} catch (NumberFormatException e) {
+				log.error("Ungueltige Ankunftsrate: " + ARRIVAL_RATE_PROPERTY
+						+ "=" + rate + ", verwende " + arrivalRate);
+			}
+		}
+		arrivalDistribution = ArrivalSchedule.Distribution.getConfigured(ARRIVAL_DISTRIBUTION_PROPERTY);
 	}
 	
 	/**
@@ -69,6 +122,9 @@ public class UserInterfaceInputParameters {
 		case TCPMultiThreaded: 
 			returnString = new String("Multi-threaded TCP");
 			break;
+		case TCPNio: 
+			returnString = new String("NIO-Reactor TCP");
+			break;
 		case UDPSingleThreaded: 
 			returnString = new String("Single-threaded UDP");
 			break;			
@@ -98,7 +154,8 @@ public class UserInterfaceInputParameters {
 	 */
 	public enum MeasurementType {
 		VarThreads,		// Variation der Threadanzahl
-		VarMsgLength 	// Variation der Nachrichtenlaenge
+		VarMsgLength, 	// Variation der Nachrichtenlaenge
+		OpenLoop		// Requests mit fester Ankunftsrate statt Senden und Warten
 	}
 	
 	/**
@@ -119,6 +176,9 @@ public class UserInterfaceInputParameters {
 		case VarMsgLength: 
 			returnString = new String("Variation der Nachrichtenlaenge");
 			break;
+		case OpenLoop: 
+			returnString = new String("Konstante Ankunftsrate");
+			break;
 		default:
 			break;
 		}
@@ -210,4 +270,84 @@ public class UserInterfaceInputParameters {
 	{
 		this.remoteServerAddress = remoteServerAddress;
 	}
+	
+	public PduCodecType getCodecType()
+	{
+		return codecType;
+	}
+	
+	public void setCodecType(PduCodecType codecType)
+	{
+		this.codecType = codecType;
+	}
+	
+	public ThreadingMode getThreadingMode()
+	{
+		return threadingMode;
+	}
+	
+	public void setThreadingMode(ThreadingMode threadingMode)
+	{
+		this.threadingMode = threadingMode;
+	}
+	
+	public double getArrivalRate()
+	{
+		return arrivalRate;
+	}
+	
+	public void setArrivalRate(double arrivalRate)
+	{
+		this.arrivalRate = arrivalRate;
+	}
+	
+	public ArrivalSchedule.Distribution getArrivalDistribution()
+	{
+		return arrivalDistribution;
+	}
+	
+	public void setArrivalDistribution(ArrivalSchedule.Distribution arrivalDistribution)
+	{
+		this.arrivalDistribution = arrivalDistribution;
+	}
+	
+	public int getPipelineWindow()
+	{
+		return pipelineWindow;
+	}
+	
+	public void setPipelineWindow(int pipelineWindow)
+	{
+		this.pipelineWindow = pipelineWindow;
+	}
+	
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+	
+	public boolean getKeepAlive()
+	{
+		return keepAlive;
+	}
+	
+	public void setKeepAlive(boolean keepAlive)
+	{
+		this.keepAlive = keepAlive;
+	}
+	
+	public SocketTuning getSocketTuning()
+	{
+		return socketTuning;
+	}
+	
+	public void setSocketTuning(SocketTuning socketTuning)
+	{
+		this.socketTuning = socketTuning;
+	}
 }
\ No newline at end of file
@@ -13,6 +13,18 @@ public class UserInterfaceResultData {
 	long avgServerTime;			// Mittlere Serverbearbeitungszeit in ms
 	long maxHeapSize;			// Maximale Heap-Belegung waehrend des Testlaufs in MByte
 	long maxCpuUsage;			// Maximale CPU-Auslastung waehrend des Testlaufs in Prozent
+	long avgCpuUsage;			// Mittlere CPU-Auslastung waehrend des Testlaufs in Prozent
+	long cpuTimePerRequest;		// CPU-Zeit der Client-Threads je Request in ns
+	long p50RTT;				// RTT-Perzentile ueber alle Responses in Mikrosekunden
+	long p90RTT;
+	long p99RTT;
+	long p999RTT;
+	long maxRTTMicros;			// Maximale RTT in Mikrosekunden
+	long p50ServerTime;			// Serverzeit-Perzentile in Mikrosekunden
+	long p90ServerTime;
+	long p99ServerTime;
+	long p999ServerTime;
+	long maxServerTime;			// Maximale Serverzeit in Mikrosekunden
 	
 	
 	public long getNumberOfSentRequests()
@@ -87,7 +99,7 @@ public class UserInterfaceResultData {
 	
 	public long getMinRTT()
 	{
-		return maxRTT;
+		return minRTT;
 	}
 	
 	public void setMinRTT(long minRTT)
@@ -124,4 +136,124 @@ public class UserInterfaceResultData {
 	{
 		this.maxCpuUsage = maxCpuUsage;
 	}
+	
+	public long getAvgCpuUsage()
+	{
+		return avgCpuUsage;
+	}
+	
+	public void setAvgCpuUsage(long avgCpuUsage)
+	{
+		this.avgCpuUsage = avgCpuUsage;
+	}
+	
+	public long getCpuTimePerRequest()
+	{
+		return cpuTimePerRequest;
+	}
+	
+	public void setCpuTimePerRequest(long cpuTimePerRequest)
+	{
+		this.cpuTimePerRequest = cpuTimePerRequest;
+	}
+	
+	public long getP50RTT()
+	{
+		return p50RTT;
+	}
+	
+	public void setP50RTT(long p50RTT)
+	{
+		this.p50RTT = p50RTT;
+	}
+	
+	public long getP90RTT()
+	{
+		return p90RTT;
+	}
+	
+	public void setP90RTT(long p90RTT)
+	{
+		this.p90RTT = p90RTT;
+	}
+	
+	public long getP99RTT()
+	{
+		return p99RTT;
+	}
+	
+	public void setP99RTT(long p99RTT)
+	{
+		this.p99RTT = p99RTT;
+	}
+	
+	public long getP999RTT()
+	{
+		return p999RTT;
+	}
+	
+	public void setP999RTT(long p999RTT)
+	{
+		this.p999RTT = p999RTT;
+	}
+	
+	public long getMaxRTTMicros()
+	{
+		return maxRTTMicros;
+	}
+	
+	public void setMaxRTTMicros(long maxRTTMicros)
+	{
+		this.maxRTTMicros = maxRTTMicros;
+	}
+	
+	public long getP50ServerTime()
+	{
+		return p50ServerTime;
+	}
+	
+	public void setP50ServerTime(long p50ServerTime)
+	{
+		this.p50ServerTime = p50ServerTime;
+	}
+	
+	public long getP90ServerTime()
+	{
+		return p90ServerTime;
+	}
+	
+	public void setP90ServerTime(long p90ServerTime)
+	{
+		this.p90ServerTime = p90ServerTime;
+	}
+	
+	public long getP99ServerTime()
+	{
+		return p99ServerTime;
+	}
+	
+	public void setP99ServerTime(long p99ServerTime)
+	{
+		this.p99ServerTime = p99ServerTime;
+	}
+	
+	public long getP999ServerTime()
+	{
+		return p999ServerTime;
+	}
+	
+	public void setP999ServerTime(long p999ServerTime)
+	{
+		this.p999ServerTime = p999ServerTime;
+	}
+	
+	public long getMaxServerTime()
+	{
+		return maxServerTime;
+	}
+	
+	public void setMaxServerTime(long maxServerTime)
+	{
+		this.maxServerTime = maxServerTime;
+	}
 }
\ No newline at end of file
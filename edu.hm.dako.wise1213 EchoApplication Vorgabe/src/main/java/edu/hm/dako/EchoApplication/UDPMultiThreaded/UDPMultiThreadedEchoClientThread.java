@@ -9,12 +9,19 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.hm.dako.EchoApplication.Basics.AbstractClientThread;
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
 import edu.hm.dako.EchoApplication.Basics.SharedClientStatistics;
 
 /**
  * Klasse UDPMultiThreadedEchoClientThread
  * 
+ * Mit einer Batchgroesse groesser 1 (setBatchSize) werden jeweils so viele
+ * Requests als EchoBatchPDU in einem Datagramm gesendet, hoechstens jedoch
+ * so viele, dass das Datagramm nicht laenger als echo.batch.maxbytes wird.
+ * Die Responses werden ueber die laufende Nummer ihrem Request zugeordnet,
+ * die RTT wird je Request ab seinem eigenen Sendezeitpunkt gemessen.
+ * 
  * @author Thorben Knichwitz, Daniel Ostertag
  * 
  */
@@ -106,7 +113,8 @@ public class UDPMultiThreadedEchoClientThread extends AbstractClientThread {
 
 		/** UDP-Socket registrieren */
 		try {
-			con = new UdpSocket(localPort, 200000, 300000);
+			con = new UdpSocket(localPort, 200000, 300000, socketTuning,
+					codecType.createDatagramCodec());
 			localPort = con.getLocalPort();
 			System.out.println(threadName + ": UDP-Port " + localPort
 					+ " registriert");
@@ -138,6 +146,13 @@ public class UDPMultiThreadedEchoClientThread extends AbstractClientThread {
 			}
 		}
 
+		if (batchSize > 1) {
+			runBatched();
+			sharedData.printClientStatistic(numberOfClient);
+			con.close();
+			return;
+		}
+
 		/** 
 		 * Zhler fr jede reingekommene Message erhhen
 		 * 
@@ -145,7 +160,7 @@ public class UDPMultiThreadedEchoClientThread extends AbstractClientThread {
 		for (int i = 0; i < numberOfMessages; i++) {
 			
 			/** RTT-Startzeit ermitteln */
-			rttStartTime = System.nanoTime();
+			rttStartTime = awaitSendTime();
 
 			try {
 
@@ -190,7 +205,7 @@ public class UDPMultiThreadedEchoClientThread extends AbstractClientThread {
 
 			/** Wartezeit */
 			try {
-				Thread.sleep(clientThinkTime);
+				pauseBetweenRequests(clientThinkTime);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -205,4 +220,109 @@ public class UDPMultiThreadedEchoClientThread extends AbstractClientThread {
 
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Senden in Batches: Jeweils bis zu batchSize Requests werden gesammelt
+	 * und in einem Datagramm gesendet, danach wird auf die Responses
+	 * gewartet. Bleiben sie aus, gelten die fehlenden Requests als verloren.
+	 */
+	private void runBatched() {
+		int perDatagram = messagesPerDatagram();
+		log.debug(threadName + ": " + perDatagram + " Requests je Datagramm");
+
+		for (int first = 0; first < numberOfMessages; first += perDatagram) {
+			int count = Math.min(perDatagram, numberOfMessages - first);
+			EchoPDU[] requests = new EchoPDU[count];
+			long[] sendTimes = new long[count];
+
+			for (int j = 0; j < count; j++) {
+				int i = first + j;
+
+				/** RTT-Startzeit je Request ermitteln */
+				sendTimes[j] = awaitSendTime();
+				requests[j] = createRequest(i);
+			}
+
+			try {
+				con.send(remoteInetAddress, serverPort, (count == 1) ? requests[0]
+						: new EchoBatchPDU(requests));
+
+				/** Responses empfangen und ueber die laufende Nummer zuordnen */
+				boolean[] answered = new boolean[count];
+				int numberOfAnswered = 0;
+				while (numberOfAnswered < count) {
+					Object received = con.receive(receivingTimeout);
+					long receiveTime = System.nanoTime();
+					EchoPDU[] responses = (received instanceof EchoBatchPDU)
+							? ((EchoBatchPDU) received).getPdus()
+							: new EchoPDU[] { (EchoPDU) received };
+					for (int k = 0; k < responses.length; k++) {
+						int j = (int) (responses[k].getSequenceNumber() - first - 1);
+						if (j < 0 || j >= count || answered[j]) {
+							// Verspaetete Response eines frueheren Batches
+							continue;
+						}
+						answered[j] = true;
+						numberOfAnswered++;
+						sharedData.incrSentMsgCounter(numberOfClient);
+						sharedData.incrReceivedMsgCounter(numberOfClient,
+								receiveTime - sendTimes[j], responses[k].getServerTime());
+					}
+				}
+			} catch (IOException ioe) {
+				System.out.println(ioe);
+			}
+
+			/** Wartezeit */
+			try {
+				pauseBetweenRequests(clientThinkTime);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Request fuer den Batch-Betrieb erzeugen
+	 *
+	 * @param i
+	 *            Index des Requests (ab 0)
+	 */
+	private EchoPDU createRequest(int i) {
+		EchoPDU echoSend = new EchoPDU();
+		echoSend.setClientName(this.getName());
+		echoSend.setMessage(echoSend.getMessageText(this.messageLength));
+		echoSend.setSequenceNumber(i + 1);
+		if (i == numberOfMessages - 1) {
+			echoSend.setLastRequest(true);
+		}
+		return echoSend;
+	}
+
+	/**
+	 * Anzahl Requests je Datagramm bestimmen: hoechstens batchSize und nur so
+	 * viele, dass ein Batch mit den laengsten Requests dieses Clients noch
+	 * in echo.batch.maxbytes passt (mindestens ein Request)
+	 */
+	private int messagesPerDatagram() {
+		int maxBytes = EchoBatchPDU.getConfiguredMaxBytes();
+		int n = Math.min(batchSize, numberOfMessages);
+		try {
+			while (n > 1) {
+				EchoPDU[] sample = new EchoPDU[n];
+				for (int j = 0; j < n; j++) {
+					sample[j] = createRequest(numberOfMessages - 1);
+				}
+				int length = codecType.createDatagramCodec().encode(
+						new EchoBatchPDU(sample)).length;
+				if (length <= maxBytes) {
+					break;
+				}
+				n = Math.min(n - 1, (int) ((long) n * maxBytes / length));
+			}
+		} catch (IOException e) {
+			log.error("Batch nicht kodierbar: " + e);
+			n = 1;
+		}
+		return Math.max(1, n);
+	}
+}
@@ -1,25 +1,54 @@
 package edu.hm.dako.EchoApplication.UDPMultiThreaded;
 
 import java.io.IOException;
-import java.net.Socket;
-import java.net.SocketException;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
+import edu.hm.dako.EchoApplication.Basics.EchoBatchPDU;
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PassthroughEcho;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+import edu.hm.dako.EchoApplication.Basics.ThreadingMode;
 
 
 /**
  * Klasse UDPMultiThreadedEchoServer.
  *
+ * Der Hauptthread empfaengt alle Datagramme und uebergibt jeden Request als
+ * eigenen Auftrag an einen Pool mit einer festen Anzahl von Worker-Threads.
+ * Die Warteschlange des Pools ist begrenzt; ist sie voll, wird der Request
+ * gemaess der eingestellten RejectionPolicy behandelt.
+ *
+ * Jeder Auftrag enthaelt die Adresse und den Port des Absenders, die
+ * Antwort geht damit immer an den Client, der den Request gesendet hat.
+ * Ein Batch von Requests (EchoBatchPDU) ist ein Auftrag und wird mit einem
+ * Batch der Responses in einem Datagramm beantwortet.
+ * 
+ * Im Passthrough-Modus (siehe PassthroughEcho) empfaengt der Hauptthread die
+ * Datagramme ohne Dekodieren, die Worker tragen nur Serverzeit und
+ * Server-Id ein und senden das Datagramm zurueck.
+ *
+ * Konfiguration ueber System-Properties:
+ * echo.udp.workers   Anzahl der Worker-Threads (Default: 2 * Prozessoren)
+ * echo.udp.queue     Laenge der Auftragswarteschlange (Default: 1000)
+ * echo.udp.rejection Verhalten bei voller Warteschlange (Drop, DropOldest,
+ *                    CallerRuns; Default: Drop)
+ *
  * @author Thorben Knichwitz, Daniel Ostertag
  */
-public class UDPMultiThreadedEchoServer extends Thread {
+public class UDPMultiThreadedEchoServer implements Runnable {
 	
 	/** Der Logfile */
 	private static Log log = LogFactory
@@ -35,16 +64,46 @@ public class UDPMultiThreadedEchoServer extends Thread {
 	/**  Datagram-Socket des Servers (Listen-Socket) */
 	private static UdpSocket serverSocket;
 
-	/** Timeout fr UDP-Receive */
+	/** Timeout fr UDP-Receive */
 	private static final int receivingTimeout = 20000;
 
-	/** UDPRemoteObject */
+	/** Namen der System-Properties fuer den Worker-Pool */
+	public static final String WORKERS_PROPERTY = "echo.udp.workers";
+	public static final String QUEUE_PROPERTY = "echo.udp.queue";
+	public static final String REJECTION_PROPERTY = "echo.udp.rejection";
+
+	/** Anzahl der Worker-Threads */
+	private static int numberOfWorkerThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+	/** Maximale Anzahl wartender Auftraege */
+	private static int queueCapacity = 1000;
+
+	/** Verhalten bei voller Warteschlange */
+	private static RejectionPolicy rejectionPolicy = RejectionPolicy.Drop;
+
+	/** Pool der Worker-Threads */
+	private static ThreadPoolExecutor workerPool;
+
+	/** Anzahl der wegen voller Warteschlange verworfenen Requests */
+	private static AtomicLong numberOfDroppedRequests = new AtomicLong();
+
+	/** Ausfuehrungsmodell der Worker-Threads (normale oder virtuelle Threads) */
+	private static ThreadingMode threadingMode = ThreadingMode.Platform;
+
+	/** Requests ohne Dekodieren zuruecksenden (siehe PassthroughEcho) */
+	private static boolean passthrough = false;
+
+	/** UDPRemoteObject: Request mit Adresse und Port des Absenders */
 	private UdpRemoteObject pdu = null;
-	
-	private static int numberOfWorkerThread = 0;
 
-	/** Die Startzeit zur Messung der Serverzeit */
-	long startTime;
+	/**
+	 * Verhalten des Servers, wenn die Warteschlange des Worker-Pools voll ist
+	 */
+	public enum RejectionPolicy {
+		Drop,		// Neuen Request verwerfen, der Client wiederholt ihn
+		DropOldest,	// Aeltesten wartenden Request verwerfen
+		CallerRuns	// Request im Empfangsthread bearbeiten (Gegendruck)
+	}
 
 	/**
 	 * Konstruktor.
@@ -63,67 +122,60 @@ public class UDPMultiThreadedEchoServer extends Thread {
 	public static void main(String args[]) {
 		PropertyConfigurator.configureAndWatch("log4j.server.properties",
 				60 * 1000);
+		threadingMode = ThreadingMode.getConfigured();
+		PduCodecType codecType = PduCodecType.getConfigured();
+		passthrough = PassthroughEcho.isEnabled(codecType);
+		SocketTuning socketTuning = SocketTuning.getConfigured();
+		configureWorkerPool();
 
 		/**
 		 * UDP-Serversocket registrieren
-		 * 200000 SendBufferSize
-		 * 300000 SendBufferSize
+		 * 200000 SendBufferSize (Profil Default)
+		 * 300000 ReceiveBufferSize (Profil Default)
 		 * 
 		 */
 		try {
 
-			serverSocket = new UdpSocket(serverPort, 200000, 300000);
+			serverSocket = new UdpSocket(serverPort, 200000, 300000,
+					socketTuning, codecType.createDatagramCodec());
 			System.out
-					.println("UDPMultiThreadedEchoServer wartet auf Clients...");
+					.println("UDPMultiThreadedEchoServer wartet auf Clients (Worker: "
+							+ numberOfWorkerThreads + ", Warteschlange: " + queueCapacity
+							+ ", " + rejectionPolicy + ", Threads: " + threadingMode
+							+ (passthrough ? ", Passthrough" : "")
+							+ ", Socket: " + socketTuning + ")...");
 		} catch (IOException e) {
 			log.debug("Exception bei der Socket-Erzeugung: " + e);
 			System.exit(9);
 		}
 
-		/**
-		 * EchoPDU wird initialisiert
-		 * Bedingung fr die Endlosschleife wird initialisiert
-		 * 
-		 */
-		EchoPDU receivedPdu = null;
 		boolean finished = false;
 
 		while (!finished) {
 			
 			/**
-			 * Auf ankommende Verbindungsaufbauwuensche warten und diese
-			 * in eigenen Threads bearbeiten
+			 * Auf ankommende Requests warten und diese an den
+			 * Worker-Pool uebergeben
 			 *  
 			 */
 
 			try {
 				
 				/**
-				 * Verbindung und EchoPDU entgegennehmen
+				 * EchoPDU mit Absenderadresse entgegennehmen
 				 *  
 				 */
-				receivedPdu = (EchoPDU) serverSocket.receive(receivingTimeout);
+				UdpRemoteObject receivedRemoteObject = passthrough
+						? serverSocket.receiveRaw(receivingTimeout)
+						: serverSocket.receiveRemoteObject(receivingTimeout);
 
 				/**
-				 * Neues RemoteObject anlegen
+				 * Wenn das erhaltene PDU nicht leer war, Auftrag an den
+				 * Worker-Pool uebergeben
 				 *  
 				 */
-				UdpRemoteObject receivedRemoteObject = new UdpRemoteObject(
-						serverSocket.getRemoteAddress(),
-						serverSocket.getRemotePort(), receivedPdu);
-
-				
-				/**
-				 * Wenn das erhaltene PDU nicht leer war erzeuge einen neuen serverThread
-				 * Erhhe die Anzahl der Threads
-				 * Starte den Thread
-				 *  
-				 */
-				if (receivedPdu != null) {
-
-					UDPMultiThreadedEchoServer serverThread = new UDPMultiThreadedEchoServer(receivedRemoteObject);
-					numberOfWorkerThread++;
-					serverThread.start();
+				if (receivedRemoteObject.getObject() != null) {
+					workerPool.execute(new UDPMultiThreadedEchoServer(receivedRemoteObject));
 				}
 
 			} catch (IOException e) {
@@ -134,17 +186,146 @@ public class UDPMultiThreadedEchoServer extends Thread {
 
 		}
 
+		workerPool.shutdown();
+		try {
+			workerPool.awaitTermination(receivingTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			log.debug("Warten auf Worker-Threads unterbrochen");
+		}
+		System.out.println("Verworfene Requests: " + numberOfDroppedRequests.get());
+		serverSocket.close();
+	}
 
+	/**
+	 * Worker-Pool gemaess den System-Properties anlegen
+	 */
+	private static void configureWorkerPool() {
+		numberOfWorkerThreads = Math.max(1,
+				Integer.getInteger(WORKERS_PROPERTY, numberOfWorkerThreads).intValue());
+		queueCapacity = Math.max(1,
+				Integer.getInteger(QUEUE_PROPERTY, queueCapacity).intValue());
+		String policy = System.getProperty(REJECTION_PROPERTY);
+		if (policy != null) {
+			try {
+				rejectionPolicy = RejectionPolicy.valueOf(policy.trim());
+			} catch (IllegalArgumentException e) {
+				log.error("Unbekannte RejectionPolicy " + policy + ", verwende " + rejectionPolicy);
+			}
+		}
 
+		workerPool = new ThreadPoolExecutor(numberOfWorkerThreads,
+				numberOfWorkerThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new WorkerThreadFactory(), new RejectionHandler());
+		workerPool.prestartAllCoreThreads();
 	}
 
 	/**
-	 * Worker-Thread-Methode fuer die Bearbeitung eines Clients.
+	 * Erzeugt die Worker-Threads des Pools nach dem eingestellten
+	 * Ausfuehrungsmodell
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			return threadingMode.newThread(r,
+					"WorkerThread-" + threadNumber.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Behandelt Requests, die wegen voller Warteschlange nicht angenommen
+	 * werden koennen
+	 */
+	private static class RejectionHandler implements RejectedExecutionHandler {
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				return;
+			}
+			switch (rejectionPolicy) {
+			case CallerRuns:
+				r.run();
+				return;
+			case DropOldest:
+				if (executor.getQueue().poll() != null) {
+					numberOfDroppedRequests.incrementAndGet();
+				}
+				if (!executor.getQueue().offer(r)) {
+					numberOfDroppedRequests.incrementAndGet();
+				}
+				break;
+			default:
+				numberOfDroppedRequests.incrementAndGet();
+				break;
+			}
+			log.debug("Warteschlange voll, verworfene Requests: "
+					+ numberOfDroppedRequests.get());
+		}
+	}
+
+	/**
+	 * Response auf einen Request erzeugen
+	 *
+	 * @param echoPdu Request
+	 * @param threadName Name des bearbeitenden Worker-Threads
+	 * @return Response
+	 */
+	private static EchoPDU createResponse(EchoPDU echoPdu, String threadName) {
+
+		/**
+		 * Startzeit initialisieren
+		 *  
+		 */
+		long startTime = System.nanoTime();
+
+		/**
+		 * Neues EchoPDU erzeugen
+		 * EchoPDU ServerThreadName setzen
+		 * EchoPDU ClientName setzen
+		 * EchoPDU Nachricht setzen
+		 * EchoPDU ServerZeit setzen
+		 *  
+		 */
+		EchoPDU echoSend = new EchoPDU();
+		echoSend.setServerThreadName(threadName);
+		echoSend.setClientName(echoPdu.getClientName());
+		echoSend.setMessage(echoPdu.getMessage() + "_S");
+		echoSend.setSequenceNumber(echoPdu.getSequenceNumber());
+		echoSend.setServerTime(System.nanoTime() - startTime);
+		return echoSend;
+	}
+
+	/**
+	 * Passthrough: Serverzeit und Server-Id in das empfangene Datagramm
+	 * eintragen und es an den Absender zuruecksenden
+	 */
+	private void runPassthrough() {
+		long startTime = System.nanoTime();
+		byte[] datagram = (byte[]) pdu.getObject();
+		try {
+			boolean lastRequest = PassthroughEcho.patch(datagram, 0, datagram.length,
+					System.nanoTime() - startTime, (int) Thread.currentThread().getId());
+			serverSocket.sendRaw(pdu.getRemoteAddress(), pdu.getRemotePort(), datagram);
+			if (lastRequest) {
+				System.out.println("Letzter Request von " + pdu.getRemoteAddress() 
+						+ ":" + pdu.getRemotePort());
+			}
+		} catch (IOException e) {
+			log.error("Passthrough nicht moeglich: " + e);
+		}
+	}
+
+	/**
+	 * Worker-Methode fuer die Bearbeitung eines Requests.
 	 */
 
 	public void run() {
 
-		
+		if (passthrough) {
+			runPassthrough();
+			return;
+		}
 
 		try {
 			
@@ -153,51 +334,49 @@ public class UDPMultiThreadedEchoServer extends Thread {
 			 *  
 			 */
 			EchoPDU echoPdu = (EchoPDU) pdu.getObject();
-			
-			/**
-			 * WorkerThread Namen zuweisen
-			 *  
-			 */
-			setName("WorkerThread-" + echoPdu.getClientName());
-
-			System.out.println(this.getName() + ": WorkerThread uebernimmt Request von " + echoPdu.getClientName());
+			String threadName = Thread.currentThread().getName();
 
-			/**
-			 * Startzeit initialisieren
-			 *  
-			 */
-			long startTime = System.nanoTime();
+			log.debug(threadName + ": WorkerThread uebernimmt Request von " + echoPdu.getClientName());
 
 			/**
-			 * Neues EchoPDU erzeugen
-			 * EchoPDU ServerThreadName setzen
-			 * EchoPDU ClientName setzen
-			 * EchoPDU Nachricht setzen
-			 * EchoPDU ServerZeit setzen
+			 * Response erzeugen, bei einem Batch eine je Request
 			 *  
 			 */
-			EchoPDU echoSend = new EchoPDU();
-			log.debug("Serverzeit: " + (System.nanoTime() - startTime) + " ns");
-			echoSend.setServerThreadName(this.getName());
-			echoSend.setClientName(echoPdu.getClientName());
-			echoSend.setMessage(echoPdu.getMessage() + "_S");
-			echoSend.setServerTime(System.nanoTime() - startTime);
+			EchoPDU echoSend;
+			if (echoPdu instanceof EchoBatchPDU) {
+				EchoPDU[] requests = ((EchoBatchPDU) echoPdu).getPdus();
+				EchoPDU[] responses = new EchoPDU[requests.length];
+				for (int i = 0; i < requests.length; i++) {
+					responses[i] = createResponse(requests[i], threadName);
+				}
+				echoSend = new EchoBatchPDU(responses);
+			} else {
+				echoSend = createResponse(echoPdu, threadName);
+			}
 
 			/** Connection in die Liste eintragen */
 			connections.put(echoPdu.getClientName(),
 					serverSocket.getLocalAddress());
 			
 			/** 
-			 * Wenn die letzte Nachricht eingetroffen ist, dann lsche die Verbindung aus der Map
+			 * Wenn die letzte Nachricht eingetroffen ist, dann lsche die Verbindung aus der Map
 			 */
 			if (echoPdu.getLastRequest()) {
 				System.out.println("Letzter Request des Clients " + echoPdu.getClientName());
 				
-				connections.remove(this.getName());
+				connections.remove(echoPdu.getClientName());
 
+				/**
+				 * Wenn nun in der Verbindungsliste kein Eintrag mehr
+				 * vorhanden ist, sind alle Clients fertig.
+				 *  
+				 */
+				if (connections.isEmpty()) {
+					System.out.println("alle Clients fertig");
+				}
 			}
 
-			/** Sende die Neue Nachricht an den Client zurck */
+			/** Sende die Neue Nachricht an den Absender des Requests zurck */
 			serverSocket.send(pdu.getRemoteAddress(), pdu.getRemotePort(),
 					echoSend);
 
@@ -206,22 +385,5 @@ public class UDPMultiThreadedEchoServer extends Thread {
 			e.printStackTrace();
 		}
 
-		/** Kurze Wartezeit */
-		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e3) {
-		}
-
-		/**
-		 * Wenn nun in Der Verbindungsliste kein Eintrag mehr vorhanden ist
-		 * bedeutet das das dies der letzte Thread ist und nun keiner mehr
-		 * kommt.
-		 *  
-		 */
-		if (connections.isEmpty()) {
-			System.out.println("alle ServerThreads fertig");
-
-		}
-
 	}
-}
\ No newline at end of file
+}
@@ -1,20 +1,24 @@
 package edu.hm.dako.EchoApplication.UDPMultiThreaded;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.SerializationPduCodec;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+
 /**
  * Klasse UdpSocket
  * 
@@ -23,6 +27,11 @@ import org.apache.commons.logging.LogFactory;
  * 
  * Der Mehrwert dieser Klasse im Vergleich zur Standard-DatagramSocket-Klasse
  * ist die Nutzung eines Objektstroms zur Kommunikation ueber UDP.
+ * EchoPDUs werden ueber einen austauschbaren PduCodec kodiert.
+ * 
+ * Empfangspuffer und DatagramPacket werden je Socket nur einmal angelegt und
+ * fuer jedes Datagramm wiederverwendet. Die PDU wird direkt aus dem Puffer
+ * dekodiert, bevor dieser fuer das naechste Datagramm freigegeben wird.
  * 
  * Achtung: Maximale Datagramlaenge: 64 KByte
  * 
@@ -35,6 +44,18 @@ public class UdpSocket {
 	private DatagramSocket socket;
 	private InetAddress remoteAddress;
 	private int remotePort;
+	private PduCodec codec = new SerializationPduCodec();
+
+	// Maximale Datagrammlaenge
+	private static final int MAX_DATAGRAM_LENGTH = 65527;
+
+	// Wiederverwendeter Empfangspuffer und zugehoeriges Paket
+	private final byte[] receiveBuffer = new byte[MAX_DATAGRAM_LENGTH];
+	private final DatagramPacket receivePacket = new DatagramPacket(
+			receiveBuffer, receiveBuffer.length);
+
+	// Aktuell am Socket eingestellte Wartezeit, -1 = noch nicht eingestellt
+	private int currentTimeout = -1;
 
 	/**
 	 * Konstruktor
@@ -69,11 +90,27 @@ public class UdpSocket {
 
 	public UdpSocket(int port, int sendBufferSize, int receiveBufferSize)
 			throws SocketException {
-		socket = new DatagramSocket(port);
-		try {
-			socket.setReceiveBufferSize(receiveBufferSize);
-			socket.setSendBufferSize(sendBufferSize);
+		this(port, sendBufferSize, receiveBufferSize, SocketTuning.getConfigured());
+	}
 
+	/**
+	 * Konstruktor
+	 * 
+	 * @param port
+	 *            UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden
+	 *            soll
+	 * @param sendBufferSize
+	 *            Groesse des Sendepuffers in Byte im Profil Default
+	 * @param receiveBufferSize
+	 *            Groesse des Empfangspuffers in Byte im Profil Default
+	 * @param socketTuning
+	 *            Socket-Einstellungen
+	 */
+	public UdpSocket(int port, int sendBufferSize, int receiveBufferSize,
+			SocketTuning socketTuning) throws SocketException {
+		socket = socketTuning.openDatagramSocket(port, sendBufferSize,
+				receiveBufferSize);
+		try {
 			System.out
 					.println("Groesse des Empfangspuffers des Datagram-Sockets: "
 							+ socket.getReceiveBufferSize() + " Byte");
@@ -85,6 +122,27 @@ public class UdpSocket {
 		}
 	}
 
+	/**
+	 * Konstruktor
+	 * 
+	 * @param port
+	 *            UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden
+	 *            soll
+	 * @param sendBufferSize
+	 *            Groesse des Sendepuffers in Byte
+	 * @param receiveBufferSize
+	 *            Groesse des Empfangspuffers in Byte im Profil Default
+	 * @param socketTuning
+	 *            Socket-Einstellungen
+	 * @param codec
+	 *            Codec fuer die Kodierung der EchoPDUs
+	 */
+	public UdpSocket(int port, int sendBufferSize, int receiveBufferSize,
+			SocketTuning socketTuning, PduCodec codec) throws SocketException {
+		this(port, sendBufferSize, receiveBufferSize, socketTuning);
+		this.codec = codec;
+	}
+
 	/**
 	 * Empfangen einer Nachricht ueber UDP
 	 * 
@@ -93,45 +151,43 @@ public class UdpSocket {
 	 *            Wartezeit in ms
 	 * @throws IOException
 	 */
-	public  Object receive(int timeout) throws IOException,
+	public synchronized Object receive(int timeout) throws IOException,
 			SocketTimeoutException {
-		// Maximale Wartezeit fuer Receive am Socket einstellen
-		try {
-			log.info("RECEIVE MIT TIMEOUT: "+timeout);
-			socket.setSoTimeout(timeout);
-			// System.out.println("RECEIVE: Maximale Wartezeit: " +
-			// timeout +" ms");
-		} catch (SocketException e) {
-			log.error("RECEIVE: "
-					+ "Fehler beim Einstellen der maximalen Wartezeit");
-			throw e;
+		// Maximale Wartezeit fuer Receive am Socket nur bei Aenderung
+		// einstellen
+		if (timeout != currentTimeout) {
+			try {
+				log.debug("RECEIVE MIT TIMEOUT: "+timeout);
+				socket.setSoTimeout(timeout);
+				currentTimeout = timeout;
+				// System.out.println("RECEIVE: Maximale Wartezeit: " +
+				// timeout +" ms");
+			} catch (SocketException e) {
+				log.error("RECEIVE: "
+						+ "Fehler beim Einstellen der maximalen Wartezeit");
+				throw e;
+			}
 		}
 
-		byte[] bytes = new byte[65527];
-		DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+		DatagramPacket packet = receivePacket;
 		//System.out.println("VOR: Empfangene Datenlaenge:  " + packet.getLength());
 		try {
 			// Blockiert nur, bis Timeout abgelaufen ist
+			packet.setLength(receiveBuffer.length);
 			socket.receive(packet);
 			log.debug("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
-			System.out.println("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
 
 		} catch (IOException e2) {
 			log.error("RECEIVE: " + "Fehler beim Empfangen einer PDU ueber UDP",e2);
 			throw e2;
 		}
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-		ObjectInputStream ois = new ObjectInputStream(bais);
-
 		Object pdu;
 		try {
 
-			// System.out.println("RECEIVE: " +
-			// "Verfuegbare Bytes Inputstream des UDP-Sockets:" +
-			// ois.available());
-
-			pdu = ois.readObject();
+			// Nur die tatsaechlich empfangenen Bytes dekodieren
+			pdu = codec.decode(packet.getData(), packet.getOffset(),
+					packet.getLength());
 
 			remoteAddress = packet.getAddress();
 			remotePort = packet.getPort();
@@ -139,15 +195,76 @@ public class UdpSocket {
 			log.debug("RECEIVE: " + packet.getPort() + "->"
 					+ socket.getLocalPort());
 
-		} catch (ClassNotFoundException e) {
-			log.error("RECEIVE: " + "ClassNotFoundException:", e);
-			return null;
+		} catch (IOException e) {
+			log.error("RECEIVE: " + "PDU nicht dekodierbar:", e);
+			throw e;
 		}
 
-		log.info("RECEIVE MIT TIMEOUT ENDE: "+timeout);
+		log.debug("RECEIVE MIT TIMEOUT ENDE: "+timeout);
 		return pdu;
 	}
 
+	/**
+	 * Empfangen einer Nachricht ueber UDP zusammen mit der Adresse des
+	 * Absenders
+	 * 
+	 * Nachricht und Absender werden unter derselben Sperre ermittelt. Die
+	 * Antwortadresse kann damit nicht durch ein gleichzeitiges Receive eines
+	 * anderen Threads ueberschrieben werden, wie es bei getRemoteAddress()
+	 * nach receive() moeglich ist.
+	 * 
+	 * @param timeout
+	 *            Wartezeit in ms
+	 * @return Empfangene Nachricht mit Absenderadresse und -port
+	 * @throws IOException
+	 */
+	public synchronized UdpRemoteObject receiveRemoteObject(int timeout)
+			throws IOException, SocketTimeoutException {
+		Object pdu = receive(timeout);
+		return new UdpRemoteObject(remoteAddress, remotePort, pdu);
+	}
+
+	/**
+	 * Empfangen eines Datagramms ohne Dekodieren, z.B. fuer den
+	 * Passthrough-Modus des Servers
+	 * 
+	 * @param timeout
+	 *            Wartezeit in ms
+	 * @return Kopie der empfangenen Bytes (byte[]) mit Absenderadresse und
+	 *         -port
+	 * @throws IOException
+	 */
+	public synchronized UdpRemoteObject receiveRaw(int timeout)
+			throws IOException, SocketTimeoutException {
+		if (timeout != currentTimeout) {
+			socket.setSoTimeout(timeout);
+			currentTimeout = timeout;
+		}
+		receivePacket.setLength(receiveBuffer.length);
+		socket.receive(receivePacket);
+		byte[] data = Arrays.copyOfRange(receiveBuffer, receivePacket.getOffset(),
+				receivePacket.getOffset() + receivePacket.getLength());
+		return new UdpRemoteObject(receivePacket.getAddress(),
+				receivePacket.getPort(), data);
+	}
+
+	/**
+	 * Senden eines bereits kodierten Datagramms
+	 * 
+	 * @param remoteAddress
+	 *            : Adresse des Empfaengers
+	 * @param remotePort
+	 *            : Port des Empfaengers
+	 * @param data
+	 *            : Zu sendende Bytes
+	 * @throws IOException
+	 */
+	public void sendRaw(InetAddress remoteAddress, int remotePort, byte[] data)
+			throws IOException {
+		socket.send(new DatagramPacket(data, data.length, remoteAddress,
+				remotePort));
+	}
+
 	/**
 	 * Senden einer Nachricht ueber UDP
 	 * 
@@ -161,10 +278,15 @@ public class UdpSocket {
 	 */
 	public void send(InetAddress remoteAddress, int remotePort, Object pdu)
 			throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		ObjectOutputStream os = new ObjectOutputStream(out);
-		os.writeObject(pdu);
-		byte[] bytes = out.toByteArray();
+		byte[] bytes;
+		if (pdu instanceof EchoPDU) {
+			bytes = codec.encode((EchoPDU) pdu);
+		} else {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectOutputStream os = new ObjectOutputStream(out);
+			os.writeObject(pdu);
+			bytes = out.toByteArray();
+		}
 
 		log.debug("SEND: zu sendende Bytes: " + bytes.length);
 
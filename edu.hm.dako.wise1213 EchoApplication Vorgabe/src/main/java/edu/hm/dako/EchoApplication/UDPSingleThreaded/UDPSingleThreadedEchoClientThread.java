@@ -109,7 +109,8 @@ public class UDPSingleThreadedEchoClientThread extends AbstractClientThread {
 		try {
 			
 			/** UDP-Socket registrieren */
-			con = new UdpSocket(localPort, 200000, 300000);
+			con = new UdpSocket(localPort, 200000, 300000, socketTuning,
+					codecType.createDatagramCodec());
 			localPort = con.getLocalPort();
 			System.out.println(threadName + ": UDP-Port " + localPort+ " registriert");
 			
@@ -143,7 +144,7 @@ public class UDPSingleThreadedEchoClientThread extends AbstractClientThread {
 
 		for (int i = 0; i < numberOfMessages; i++) {
 			/** RTT-Startzeit ermitteln */
-			rttStartTime = System.nanoTime();
+			rttStartTime = awaitSendTime();
 
 			try {
 
@@ -183,7 +184,7 @@ public class UDPSingleThreadedEchoClientThread extends AbstractClientThread {
 
 			// Wartezeit
 			try {
-				Thread.sleep(clientThinkTime);
+				pauseBetweenRequests(clientThinkTime);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -9,6 +9,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
 import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodecType;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
 
 /**
  * Klasse UDPSingleThreadedEchoServer
@@ -52,9 +54,12 @@ public class UDPSingleThreadedEchoServer extends Thread {
 		try {
 
 			/** Neuen UdpSocket erzeugen */
-			serverSocket = new UdpSocket(serverPort, 200000, 300000);
+			SocketTuning socketTuning = SocketTuning.getConfigured();
+			serverSocket = new UdpSocket(serverPort, 200000, 300000, socketTuning,
+					PduCodecType.getConfigured().createDatagramCodec());
 			System.out
-					.println("UDPSingleThreadedEchoServer wartet auf Clients...");
+					.println("UDPSingleThreadedEchoServer wartet auf Clients (Socket: "
+							+ socketTuning + ")...");
 
 		} catch (IOException e) {
 			log.debug("Exception bei der Socket-Erzeugung: " + e);
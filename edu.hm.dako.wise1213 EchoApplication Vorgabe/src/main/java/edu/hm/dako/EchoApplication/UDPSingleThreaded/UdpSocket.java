@@ -1,9 +1,7 @@
 package edu.hm.dako.EchoApplication.UDPSingleThreaded;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -13,6 +11,11 @@ import java.net.SocketTimeoutException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.EchoApplication.Basics.EchoPDU;
+import edu.hm.dako.EchoApplication.Basics.PduCodec;
+import edu.hm.dako.EchoApplication.Basics.SerializationPduCodec;
+import edu.hm.dako.EchoApplication.Basics.SocketTuning;
+
 /**
  * Klasse UdpSocket
  * 
@@ -21,6 +24,11 @@ import org.apache.commons.logging.LogFactory;
  * 
  * Der Mehrwert dieser Klasse im Vergleich zur Standard-DatagramSocket-Klasse
  * ist die Nutzung eines Objektstroms zur Kommunikation ueber UDP.
+ * EchoPDUs werden ueber einen austauschbaren PduCodec kodiert.
+ * 
+ * Empfangspuffer und DatagramPacket werden je Socket nur einmal angelegt und
+ * fuer jedes Datagramm wiederverwendet. Die PDU wird direkt aus dem Puffer
+ * dekodiert, bevor dieser fuer das naechste Datagramm freigegeben wird.
  * 
  * Achtung: Maximale Datagramlaenge: 64 KByte
  * @author Mandl
@@ -33,10 +41,21 @@ public class UdpSocket
     private DatagramSocket socket;
     private InetAddress remoteAddress;
     private int remotePort;
+    private PduCodec codec = new SerializationPduCodec();
     
     // Anzahl Wiederholungen beim Empfangen eines UDP-Paketes
     private static int numberOfRetries = 3;
     
+    // Maximale Datagrammlaenge
+    private static final int MAX_DATAGRAM_LENGTH = 65527;
+    
+    // Wiederverwendeter Empfangspuffer und zugehoeriges Paket
+    private final byte[] receiveBuffer = new byte[MAX_DATAGRAM_LENGTH];
+    private final DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+    
+    // Aktuell am Socket eingestellte Wartezeit, -1 = noch nicht eingestellt
+    private int currentTimeout = -1;
+    
     /**
      * Konstruktor
      * @param port UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden soll
@@ -59,11 +78,19 @@ public class UdpSocket
      */
     
     public UdpSocket(int port, int sendBufferSize, int receiveBufferSize) throws SocketException {
-        socket = new DatagramSocket(port);
+        this(port, sendBufferSize, receiveBufferSize, SocketTuning.getConfigured());
+    }
+
+    /**
+     * Konstruktor
+     * @param port UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden soll
+     * @param sendBufferSize Groesse des Sendepuffers in Byte im Profil Default
+     * @param receiveBufferSize Groesse des Empfangspuffers in Byte im Profil Default
+     * @param socketTuning Socket-Einstellungen
+     */
+    public UdpSocket(int port, int sendBufferSize, int receiveBufferSize, SocketTuning socketTuning) throws SocketException {
+        socket = socketTuning.openDatagramSocket(port, sendBufferSize, receiveBufferSize);
         try {
-        	socket.setReceiveBufferSize(receiveBufferSize);
-        	socket.setSendBufferSize(sendBufferSize);
-    
 	    	System.out.println("Groesse des Empfangspuffers des Datagram-Sockets: " + socket.getReceiveBufferSize() + " Byte");
 	    	System.out.println("Groesse des Sendepuffers des Datagram-Sockets: " + socket.getSendBufferSize() + " Byte");
 	    } catch (SocketException e){
@@ -71,6 +98,19 @@ public class UdpSocket
 	    }
     }
 
+    /**
+     * Konstruktor
+     * @param port UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden soll
+     * @param sendBufferSize Groesse des Sendepuffers in Byte
+     * @param receiveBufferSize Groesse des Empfangspuffers in Byte im Profil Default
+     * @param socketTuning Socket-Einstellungen
+     * @param codec Codec fuer die Kodierung der EchoPDUs
+     */
+    public UdpSocket(int port, int sendBufferSize, int receiveBufferSize, SocketTuning socketTuning, PduCodec codec) throws SocketException {
+        this(port, sendBufferSize, receiveBufferSize, socketTuning);
+        this.codec = codec;
+    }
+
     /**
      * Empfangen einer Nachricht ueber UDP
      * 
@@ -78,34 +118,34 @@ public class UdpSocket
      * @param timeout Wartezeit in ms
      * @throws IOException
      */
-    public Object receive(int timeout) throws IOException 
+    public synchronized Object receive(int timeout) throws IOException 
     {
-    	// Maximale Wartezeit fuer Receive am Socket einstellen
-    	
-    	try {
-    		socket.setSoTimeout(timeout);
-    		System.out.println("RECEIVE: Maximale Wartezeit: " + timeout +" ms");
+    	// Maximale Wartezeit fuer Receive am Socket nur bei Aenderung einstellen
+    	if (timeout != currentTimeout) {
+    		try {
+    			socket.setSoTimeout(timeout);
+    			currentTimeout = timeout;
+    			log.debug("RECEIVE: Maximale Wartezeit: " + timeout +" ms");
+    		}
+    		catch (SocketException e) {
+    			log.error("RECEIVE: " + "Fehler beim Einstellen der maximalen Wartezeit");
+        		throw e;
+    		}
     	}
-    	catch (SocketException e) {
-    		log.error("RECEIVE: " + "Fehler beim Einstellen der maximalen Wartezeit");
-        	throw e;
-    	}   
         
-        byte[] bytes = new byte[65527];
-        DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+        DatagramPacket packet = receivePacket;
 
         for (int i = 0; i < numberOfRetries; i++) {
 
         	try {
         		// Blockiert nur, bis Timeout abgelaufen ist
+        		packet.setLength(receiveBuffer.length);
         		socket.receive(packet);
         		log.debug("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
-        		log.debug("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
         		break;
         	}
         	catch (SocketTimeoutException e1) {
         		log.debug("RECEIVE: " + "Socket Timeout " + (i+1));
-        		System.out.println("RECEIVE: " + "Socket Timeout " + (i+1));
         		if (i == (numberOfRetries-1)) {
         			// Alle Versuche ausgereizt
         			log.debug("RECEIVE: Wartezeit von " + timeout + " ms abgelaufen");
@@ -118,15 +158,10 @@ public class UdpSocket
         	}
         }
          
-        ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        
         Object pdu;
         try {
-        	
-        	System.out.println("RECEIVE: " + "Verfuegbare Bytes Inputstream des UDP-Sockets:" + ois.available());
-        	
-            pdu = ois.readObject();
+            // Nur die tatsaechlich empfangenen Bytes dekodieren
+            pdu = codec.decode(packet.getData(), packet.getOffset(), packet.getLength());
        
             remoteAddress = packet.getAddress();
             remotePort = packet.getPort();
@@ -136,9 +171,9 @@ public class UdpSocket
                       + "->"
                       + socket.getLocalPort());
                       
-        } catch (ClassNotFoundException e) {
-            log.error("RECEIVE: " + "ClassNotFoundException:", e);
-            return null;
+        } catch (IOException e) {
+            log.error("RECEIVE: " + "PDU nicht dekodierbar:", e);
+            throw e;
         }
         return pdu;
     }
@@ -152,10 +187,15 @@ public class UdpSocket
 	 */
     public void send(InetAddress remoteAddress, int remotePort, Object pdu) throws IOException 
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ObjectOutputStream os = new ObjectOutputStream(out);
-        os.writeObject(pdu);
-        byte[] bytes = out.toByteArray();
+        byte[] bytes;
+        if (pdu instanceof EchoPDU) {
+        	bytes = codec.encode((EchoPDU) pdu);
+        } else {
+        	ByteArrayOutputStream out = new ByteArrayOutputStream();
+        	ObjectOutputStream os = new ObjectOutputStream(out);
+        	os.writeObject(pdu);
+        	bytes = out.toByteArray();
+        }
         
         log.debug("SEND: zu sendende Bytes: " + bytes.length);
         